@@ -132,7 +132,7 @@ sed -n -e '/^    public void poll/,/^    }/ p' \
   < src/main/java/com/io7m/aeron_guide/take2/EchoServer.java \
   > out/aeron-guide/echo_server2_poll.txt
 
-sed -n -e '/^    private EchoServerDuologue allocateNewDuologue/,/^    }/ p' \
+sed -n -e '/^    private EchoServerDuologueType allocateNewDuologue/,/^    }/ p' \
   < src/main/java/com/io7m/aeron_guide/take2/EchoServer.java \
   > out/aeron-guide/echo_server2_allocateNewDuologue.txt
 
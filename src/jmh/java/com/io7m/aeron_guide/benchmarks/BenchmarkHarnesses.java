@@ -0,0 +1,56 @@
+package com.io7m.aeron_guide.benchmarks;
+
+import ch.qos.logback.classic.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Functions shared by the end-to-end benchmark harnesses.
+ */
+
+final class BenchmarkHarnesses
+{
+  /**
+   * The largest payload that the server can echo: The server sends
+   * responses from a fixed-size buffer that must hold the payload along with
+   * the command and any correlation ID.
+   */
+
+  static final int PAYLOAD_SIZE_MAXIMUM = 1000;
+
+  private BenchmarkHarnesses()
+  {
+
+  }
+
+  /**
+   * Set the level of the root logger. Logging every message would otherwise
+   * dominate the measurements.
+   *
+   * @param level The name of the level
+   */
+
+  static void setRootLogLevel(
+    final String level)
+  {
+    final ch.qos.logback.classic.Logger root =
+      (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+    root.setLevel(Level.toLevel(level, Level.INFO));
+  }
+
+  /**
+   * @param size The payload size
+   *
+   * @return An ASCII payload of exactly {@code size} bytes
+   */
+
+  static String payload(
+    final int size)
+  {
+    final StringBuilder text = new StringBuilder(size);
+    while (text.length() < size) {
+      text.append((char) ('a' + (text.length() % 26)));
+    }
+    return text.toString();
+  }
+}
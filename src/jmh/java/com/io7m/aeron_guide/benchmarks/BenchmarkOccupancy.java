@@ -0,0 +1,29 @@
+package com.io7m.aeron_guide.benchmarks;
+
+/**
+ * Functions to calculate allocator occupancy for benchmarks.
+ */
+
+final class BenchmarkOccupancy
+{
+  private BenchmarkOccupancy()
+  {
+
+  }
+
+  /**
+   * @param capacity The total capacity
+   * @param percent  The occupancy percentage
+   *
+   * @return The number of items that must be occupied to reach the given
+   * percentage of {@code capacity}, leaving room for at least two more items
+   */
+
+  static int occupiedCount(
+    final int capacity,
+    final int percent)
+  {
+    final long occupied = ((long) capacity * (long) percent) / 100L;
+    return (int) Math.max(1L, Math.min(occupied, (long) capacity - 2L));
+  }
+}
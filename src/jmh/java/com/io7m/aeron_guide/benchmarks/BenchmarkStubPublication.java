@@ -0,0 +1,384 @@
+package com.io7m.aeron_guide.benchmarks;
+
+import io.aeron.DirectBufferVector;
+import io.aeron.Publication;
+import io.aeron.ReservedValueSupplier;
+import io.aeron.logbuffer.BufferClaim;
+import io.aeron.logbuffer.FrameDescriptor;
+import io.aeron.protocol.DataHeaderFlyweight;
+import io.aeron.status.ChannelEndpointStatus;
+import org.agrona.BitUtil;
+import org.agrona.BufferUtil;
+import org.agrona.DirectBuffer;
+import org.agrona.UnsafeAccess;
+import org.agrona.concurrent.UnsafeBuffer;
+
+/**
+ * <p>
+ * A publication that writes offered messages into a private term buffer as
+ * Aeron frames and always succeeds, used to measure the cost of code that
+ * sends messages without the cost of a media driver.
+ * </p>
+ *
+ * <p>
+ * The {@link Publication} constructor requires mapped log buffers, so
+ * instances are created with {@code Unsafe.allocateInstance} and the
+ * constructor is never run. Every public method that does not only read
+ * constructor-initialized fields is therefore overridden here. Messages are
+ * fragmented at the payload length of a default MTU, each frame is given a
+ * header and aligned, and the position advances exactly as it would for a
+ * real publication. The only difference is that the subscriber is assumed to
+ * keep up: When the term fills, the stub moves on to the next term in the
+ * same call rather than returning {@link Publication#ADMIN_ACTION}, because
+ * the code under test would otherwise sleep before retrying.
+ * </p>
+ */
+
+final class BenchmarkStubPublication extends Publication
+{
+  private static final int TERM_LENGTH = 64 * 1024;
+  private static final int MTU_LENGTH = 1408;
+  private static final int SESSION_ID = 1;
+  private static final int STREAM_ID = 1;
+  private static final int HEADER_LENGTH = DataHeaderFlyweight.HEADER_LENGTH;
+  private static final int MAX_PAYLOAD_LENGTH = MTU_LENGTH - HEADER_LENGTH;
+  private static final int MAX_MESSAGE_LENGTH =
+    FrameDescriptor.computeMaxMessageLength(TERM_LENGTH);
+
+  private UnsafeBuffer term;
+  private DirectBufferVector[] single;
+  private long term_count;
+  private int term_offset;
+  private boolean closed;
+
+  private BenchmarkStubPublication()
+  {
+    super(null, null, 0, 0, null, 0, null, 0L, 0L, 0);
+  }
+
+  /**
+   * @return A new stub publication
+   */
+
+  static BenchmarkStubPublication create()
+  {
+    try {
+      final BenchmarkStubPublication publication =
+        (BenchmarkStubPublication) UnsafeAccess.UNSAFE.allocateInstance(
+          BenchmarkStubPublication.class);
+      publication.term =
+        new UnsafeBuffer(BufferUtil.allocateDirectAligned(TERM_LENGTH, 64));
+      publication.single = new DirectBufferVector[]{new DirectBufferVector()};
+      publication.term_count = 0L;
+      publication.term_offset = 0;
+      publication.closed = false;
+      return publication;
+    } catch (final InstantiationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public long offer(
+    final DirectBuffer buffer,
+    final int offset,
+    final int length,
+    final ReservedValueSupplier supplier)
+  {
+    if (this.closed) {
+      return CLOSED;
+    }
+
+    checkMessageLength(length);
+    this.single[0].reset(buffer, offset, length);
+    return this.append(this.single, length, supplier);
+  }
+
+  @Override
+  public long offer(
+    final DirectBufferVector[] vectors,
+    final ReservedValueSupplier supplier)
+  {
+    if (this.closed) {
+      return CLOSED;
+    }
+
+    final int length = DirectBufferVector.validateAndComputeLength(vectors);
+    checkMessageLength(length);
+    return this.append(vectors, length, supplier);
+  }
+
+  @Override
+  public long tryClaim(
+    final int length,
+    final BufferClaim claim)
+  {
+    if (length > MAX_PAYLOAD_LENGTH) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Claim exceeds maxPayloadLength of %d, length=%d",
+          Integer.valueOf(MAX_PAYLOAD_LENGTH),
+          Integer.valueOf(length)));
+    }
+
+    if (this.closed) {
+      return CLOSED;
+    }
+
+    final int frame_length = length + HEADER_LENGTH;
+    final int frame_offset = this.reserve(frame_length);
+    this.writeHeader(frame_offset, FrameDescriptor.UNFRAGMENTED);
+    this.term.putInt(frame_offset, -frame_length);
+    claim.wrap(this.term, frame_offset, frame_length);
+    return this.position();
+  }
+
+  private static void checkMessageLength(
+    final int length)
+  {
+    if (length > MAX_MESSAGE_LENGTH) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Message exceeds maxMessageLength of %d, length=%d",
+          Integer.valueOf(MAX_MESSAGE_LENGTH),
+          Integer.valueOf(length)));
+    }
+  }
+
+  /**
+   * Write a message as one or more frames, copying the payload of each frame
+   * from consecutive parts of the given vectors.
+   */
+
+  private long append(
+    final DirectBufferVector[] vectors,
+    final int length,
+    final ReservedValueSupplier supplier)
+  {
+    int vector_index = 0;
+    int vector_offset = 0;
+    int remaining = length;
+    byte flags = FrameDescriptor.BEGIN_FRAG_FLAG;
+
+    do {
+      final int payload = Math.min(remaining, MAX_PAYLOAD_LENGTH);
+      final int frame_length = payload + HEADER_LENGTH;
+      final int frame_offset = this.reserve(frame_length);
+
+      int copied = 0;
+      while (copied < payload) {
+        final DirectBufferVector vector = vectors[vector_index];
+        final int count = Math.min(payload - copied, vector.length - vector_offset);
+        this.term.putBytes(
+          frame_offset + HEADER_LENGTH + copied,
+          vector.buffer,
+          vector.offset + vector_offset,
+          count);
+        copied += count;
+        vector_offset += count;
+        if (vector_offset == vector.length) {
+          ++vector_index;
+          vector_offset = 0;
+        }
+      }
+
+      remaining -= payload;
+      if (remaining == 0) {
+        flags |= FrameDescriptor.END_FRAG_FLAG;
+      }
+
+      this.writeHeader(frame_offset, flags);
+      if (supplier != null) {
+        this.term.putLong(
+          frame_offset + DataHeaderFlyweight.RESERVED_VALUE_OFFSET,
+          supplier.get(this.term, frame_offset, frame_length));
+      }
+      this.term.putIntOrdered(frame_offset, frame_length);
+      flags = 0;
+    } while (remaining > 0);
+
+    return this.position();
+  }
+
+  /**
+   * Reserve space in the term for an aligned frame, moving on to the next
+   * term if the frame does not fit in the current one.
+   *
+   * @return The offset of the frame within the term
+   */
+
+  private int reserve(
+    final int frame_length)
+  {
+    final int aligned = BitUtil.align(frame_length, FrameDescriptor.FRAME_ALIGNMENT);
+    if (this.term_offset + aligned > TERM_LENGTH) {
+      ++this.term_count;
+      this.term_offset = 0;
+    }
+
+    final int frame_offset = this.term_offset;
+    this.term_offset += aligned;
+    return frame_offset;
+  }
+
+  private void writeHeader(
+    final int frame_offset,
+    final byte flags)
+  {
+    this.term.putByte(
+      frame_offset + DataHeaderFlyweight.VERSION_FIELD_OFFSET,
+      DataHeaderFlyweight.CURRENT_VERSION);
+    this.term.putByte(
+      frame_offset + DataHeaderFlyweight.FLAGS_FIELD_OFFSET, flags);
+    this.term.putShort(
+      frame_offset + DataHeaderFlyweight.TYPE_FIELD_OFFSET,
+      (short) DataHeaderFlyweight.HDR_TYPE_DATA);
+    this.term.putInt(
+      frame_offset + DataHeaderFlyweight.TERM_OFFSET_FIELD_OFFSET, frame_offset);
+    this.term.putInt(
+      frame_offset + DataHeaderFlyweight.SESSION_ID_FIELD_OFFSET, SESSION_ID);
+    this.term.putInt(
+      frame_offset + DataHeaderFlyweight.STREAM_ID_FIELD_OFFSET, STREAM_ID);
+    this.term.putInt(
+      frame_offset + DataHeaderFlyweight.TERM_ID_FIELD_OFFSET, (int) this.term_count);
+    this.term.putLong(
+      frame_offset + DataHeaderFlyweight.RESERVED_VALUE_OFFSET,
+      DataHeaderFlyweight.DEFAULT_RESERVE_VALUE);
+  }
+
+  @Override
+  public int termBufferLength()
+  {
+    return TERM_LENGTH;
+  }
+
+  @Override
+  public long maxPossiblePosition()
+  {
+    return (long) TERM_LENGTH * (1L << 31);
+  }
+
+  @Override
+  public String channel()
+  {
+    return "aeron:ipc";
+  }
+
+  @Override
+  public int streamId()
+  {
+    return STREAM_ID;
+  }
+
+  @Override
+  public int sessionId()
+  {
+    return SESSION_ID;
+  }
+
+  @Override
+  public int initialTermId()
+  {
+    return 0;
+  }
+
+  @Override
+  public int maxMessageLength()
+  {
+    return MAX_MESSAGE_LENGTH;
+  }
+
+  @Override
+  public int maxPayloadLength()
+  {
+    return MAX_PAYLOAD_LENGTH;
+  }
+
+  @Override
+  public long originalRegistrationId()
+  {
+    return 1L;
+  }
+
+  @Override
+  public boolean isOriginal()
+  {
+    return true;
+  }
+
+  @Override
+  public long registrationId()
+  {
+    return 1L;
+  }
+
+  @Override
+  public boolean isConnected()
+  {
+    return !this.closed;
+  }
+
+  @Override
+  public void close()
+  {
+    this.closed = true;
+  }
+
+  @Override
+  public boolean isClosed()
+  {
+    return this.closed;
+  }
+
+  @Override
+  public long channelStatus()
+  {
+    return ChannelEndpointStatus.ACTIVE;
+  }
+
+  @Override
+  public int channelStatusId()
+  {
+    return ChannelEndpointStatus.NO_ID_ALLOCATED;
+  }
+
+  @Override
+  public long position()
+  {
+    if (this.closed) {
+      return CLOSED;
+    }
+    return this.term_count * (long) TERM_LENGTH + (long) this.term_offset;
+  }
+
+  @Override
+  public long positionLimit()
+  {
+    if (this.closed) {
+      return CLOSED;
+    }
+    return this.maxPossiblePosition();
+  }
+
+  @Override
+  public int positionLimitId()
+  {
+    return ChannelEndpointStatus.NO_ID_ALLOCATED;
+  }
+
+  @Override
+  public void addDestination(
+    final String endpoint_channel)
+  {
+    throw new UnsupportedOperationException(
+      "The stub publication has no media driver to add destinations to");
+  }
+
+  @Override
+  public void removeDestination(
+    final String endpoint_channel)
+  {
+    throw new UnsupportedOperationException(
+      "The stub publication has no media driver to remove destinations from");
+  }
+}
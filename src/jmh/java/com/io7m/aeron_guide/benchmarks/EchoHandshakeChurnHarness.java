@@ -0,0 +1,630 @@
+package com.io7m.aeron_guide.benchmarks;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.io7m.aeron_guide.take2.EchoChannels;
+import com.io7m.aeron_guide.take2.EchoMessages;
+import com.io7m.aeron_guide.take2.EchoServer;
+import com.io7m.aeron_guide.take2.EchoServerConfiguration;
+import com.io7m.aeron_guide.take2.EchoServerResourceUsage;
+import com.io7m.aeron_guide.take2.ImmutableEchoServerConfiguration;
+import io.aeron.Aeron;
+import io.aeron.ChannelUriStringBuilder;
+import io.aeron.FragmentAssembler;
+import io.aeron.Publication;
+import io.aeron.Subscription;
+import io.aeron.driver.MediaDriver;
+import io.aeron.driver.ThreadingMode;
+import org.HdrHistogram.Histogram;
+import org.agrona.BufferUtil;
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Int2ObjectHashMap;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <p>
+ * A handshake rate and churn harness. The harness starts a server and then
+ * simulates a storm of clients by opening publications to the all-clients
+ * channel, each with its own session ID, and sending a HELLO on each one.
+ * Each simulated client closes its publication as soon as it receives a
+ * response, and never connects to the duologue that the server created for
+ * it. The server therefore deletes each duologue when its connect timeout
+ * elapses.
+ * </p>
+ *
+ * <p>
+ * The harness reports the handshake rate, the HELLO-to-response latency
+ * percentiles (also written to an HdrHistogram percentile file), and the
+ * rate at which the server deleted duologues once they began to expire.
+ * Finally, it checks that the ports, sessions and per-address counts held by
+ * the server return to their initial values, and exits with a non-zero
+ * status if they do not.
+ * </p>
+ */
+
+public final class EchoHandshakeChurnHarness
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(EchoHandshakeChurnHarness.class);
+
+  private EchoHandshakeChurnHarness()
+  {
+
+  }
+
+  /**
+   * Command-line entry point.
+   *
+   * @param args Command-line arguments
+   *
+   * @throws Exception On any error
+   */
+
+  public static void main(
+    final String[] args)
+    throws Exception
+  {
+    final Parameters parameters = new Parameters();
+    final JCommander commander =
+      JCommander.newBuilder()
+        .addObject(parameters)
+        .programName("EchoHandshakeChurnHarness")
+        .build();
+
+    commander.parse(args);
+    if (parameters.help) {
+      commander.usage();
+      return;
+    }
+
+    parameters.check();
+    BenchmarkHarnesses.setRootLogLevel(parameters.log_level);
+
+    /*
+     * Every simulated client and every duologue has its own publication.
+     * Use small, sparse term buffers unless told otherwise, so that a storm
+     * of thousands of sessions does not exhaust memory.
+     */
+
+    setPropertyIfAbsent("aeron.term.buffer.length", "65536");
+    setPropertyIfAbsent("aeron.term.buffer.sparse.file", "true");
+
+    final InetAddress address = InetAddress.getByName(parameters.address);
+    final Optional<ThreadingMode> threading_mode =
+      Optional.ofNullable(parameters.threading_mode);
+
+    final EchoServerConfiguration server_config =
+      ImmutableEchoServerConfiguration.builder()
+        .baseDirectory(parameters.directory.resolve("server"))
+        .localAddress(address)
+        .localInitialPort(parameters.port)
+        .localInitialControlPort(parameters.port + 1)
+        .localClientsBasePort(parameters.port + 2)
+        .clientMaximumCount(parameters.client_maximum)
+        .maximumConnectionsPerAddress(parameters.client_maximum)
+        .duologueConnectTimeout(Duration.ofMillis(parameters.connect_timeout_ms))
+        .allClientsRoutedReplies(parameters.routed_replies)
+        .handshakeRatePerAddress(parameters.handshake_rate)
+        .handshakeBurstPerAddress(parameters.handshake_rate)
+        .handshakeRateGlobal(parameters.handshake_rate)
+        .handshakeBurstGlobal(parameters.handshake_rate)
+        .loadSheddingSojournThreshold(
+          parameters.shed_load ? Duration.ofMillis(50L) : Duration.ofDays(1L))
+        .loadSheddingUtilizationThreshold(parameters.shed_load ? 0.95 : 2.0)
+        .pollInterval(Duration.ofNanos(
+          TimeUnit.MICROSECONDS.toNanos(parameters.poll_interval_us)))
+        .mediaDriverThreadingMode(threading_mode)
+        .build();
+
+    final String client_directory =
+      parameters.directory.resolve("client").toAbsolutePath().toString();
+
+    final MediaDriver.Context media_context =
+      new MediaDriver.Context()
+        .dirDeleteOnStart(true)
+        .aeronDirectoryName(client_directory);
+    threading_mode.ifPresent(media_context::threadingMode);
+
+    boolean baseline = false;
+    try (final EchoServer server = EchoServer.create(Clock.systemUTC(), server_config)) {
+      final Thread server_thread = new Thread(server::run);
+      server_thread.setName("com.io7m.aeron_guide.benchmarks.server-main");
+      server_thread.setDaemon(true);
+      server_thread.start();
+
+      final EchoServerResourceUsage initial = usage(server);
+      LOG.info("initial resources: {}", initial);
+
+      try (final MediaDriver driver = MediaDriver.launch(media_context)) {
+        try (final Aeron aeron = Aeron.connect(
+          new Aeron.Context().aeronDirectoryName(client_directory))) {
+
+          final UsageSampler sampler = new UsageSampler(server);
+          final Thread sampler_thread = new Thread(sampler);
+          sampler_thread.setName("com.io7m.aeron_guide.benchmarks.sampler");
+          sampler_thread.setDaemon(true);
+          sampler_thread.start();
+
+          final Storm storm = new Storm(parameters, aeron, address);
+          storm.run();
+          storm.report();
+
+          baseline = awaitBaseline(parameters, server, initial);
+          sampler.stop();
+          sampler_thread.join();
+          sampler.report(storm.last_response);
+
+          writeHistogram(parameters, storm.latency);
+        }
+      }
+    }
+
+    if (!baseline) {
+      System.exit(1);
+    }
+  }
+
+  private static void setPropertyIfAbsent(
+    final String name,
+    final String value)
+  {
+    if (System.getProperty(name) == null) {
+      System.setProperty(name, value);
+    }
+  }
+
+  private static EchoServerResourceUsage usage(
+    final EchoServer server)
+    throws Exception
+  {
+    return server.resourceUsage().get(10L, TimeUnit.SECONDS);
+  }
+
+  private static boolean awaitBaseline(
+    final Parameters parameters,
+    final EchoServer server,
+    final EchoServerResourceUsage initial)
+    throws Exception
+  {
+    final long deadline =
+      System.nanoTime() + TimeUnit.SECONDS.toNanos(parameters.cleanup_timeout_seconds);
+
+    EchoServerResourceUsage current = usage(server);
+    while (!current.equals(initial)) {
+      if (System.nanoTime() - deadline >= 0L) {
+        LOG.error("resources did not return to baseline");
+        LOG.error("  expected: {}", initial);
+        LOG.error("  received: {}", current);
+        return false;
+      }
+      Thread.sleep(10L);
+      current = usage(server);
+    }
+
+    LOG.info("resources returned to baseline: {}", current);
+    return true;
+  }
+
+  private static void writeHistogram(
+    final Parameters parameters,
+    final Histogram histogram)
+    throws Exception
+  {
+    Files.createDirectories(parameters.output);
+
+    final Path file =
+      parameters.output.resolve(
+        new StringBuilder(64)
+          .append("handshake-s")
+          .append(parameters.sessions)
+          .append("-c")
+          .append(parameters.concurrency)
+          .append("-")
+          .append(parameters.threading_mode == null
+                    ? "default" : parameters.threading_mode.name())
+          .append(".hgrm")
+          .toString());
+
+    try (final PrintStream output = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+      histogram.outputPercentileDistribution(output, Double.valueOf(1000.0));
+    }
+    LOG.info("wrote {}", file);
+  }
+
+  private static long toMicros(
+    final long nanos)
+  {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  /**
+   * The simulated clients. The storm is driven by a single thread that keeps
+   * up to a fixed number of handshakes in progress at any one time.
+   */
+
+  private static final class Storm
+  {
+    private final Parameters parameters;
+    private final Aeron aeron;
+    private final InetAddress address;
+    private final Int2ObjectHashMap<SimulatedClient> in_progress;
+    private final UnsafeBuffer send_buffer;
+    private final Histogram latency;
+    private int started;
+    private int connected;
+    private int rejected;
+    private long first_hello;
+    private long last_response;
+
+    Storm(
+      final Parameters in_parameters,
+      final Aeron in_aeron,
+      final InetAddress in_address)
+    {
+      this.parameters = in_parameters;
+      this.aeron = in_aeron;
+      this.address = in_address;
+      this.in_progress = new Int2ObjectHashMap<>();
+      this.send_buffer = new UnsafeBuffer(BufferUtil.allocateDirectAligned(1024, 16));
+      this.latency = new Histogram(3);
+    }
+
+    void run()
+      throws InterruptedException
+    {
+      final IdleStrategy idle =
+        new BackoffIdleStrategy(
+          100L,
+          10L,
+          TimeUnit.MICROSECONDS.toNanos(1L),
+          TimeUnit.MILLISECONDS.toNanos(1L));
+
+      try (final Subscription subscription =
+             EchoChannels.createSubscriptionDynamicMDC(
+               this.aeron,
+               this.address,
+               this.parameters.port + 1,
+               EchoServer.ECHO_STREAM_ID)) {
+
+        while (!subscription.isConnected()) {
+          Thread.sleep(10L);
+        }
+
+        final FragmentAssembler handler =
+          new FragmentAssembler(
+            (buffer, offset, length, header) ->
+              this.onResponse(buffer, offset, length));
+
+        LOG.info(
+          "starting {} sessions with up to {} handshakes in progress",
+          Integer.valueOf(this.parameters.sessions),
+          Integer.valueOf(this.parameters.concurrency));
+
+        while (this.connected + this.rejected < this.parameters.sessions) {
+          int work = 0;
+
+          while (this.in_progress.size() < this.parameters.concurrency
+            && this.started < this.parameters.sessions) {
+            this.startClient();
+            ++work;
+          }
+
+          work += this.sendHellos();
+          work += subscription.poll(handler, 100);
+          idle.idle(work);
+        }
+      }
+    }
+
+    /**
+     * Start a simulated client. Each client has an exclusive publication,
+     * and therefore a session of its own, as a real client would.
+     */
+
+    private void startClient()
+    {
+      ++this.started;
+
+      final String uri =
+        new ChannelUriStringBuilder()
+          .reliable(Boolean.TRUE)
+          .media("udp")
+          .endpoint(
+            this.address.getHostAddress() + ":" + Integer.toUnsignedString(this.parameters.port))
+          .build();
+
+      final Publication publication =
+        this.aeron.addExclusivePublication(uri, EchoServer.ECHO_STREAM_ID);
+
+      this.in_progress.put(publication.sessionId(), new SimulatedClient(publication));
+    }
+
+    private int sendHellos()
+    {
+      int work = 0;
+
+      final Iterator<SimulatedClient> iter = this.in_progress.values().iterator();
+      while (iter.hasNext()) {
+        final SimulatedClient client = iter.next();
+        if (client.hello_sent != 0L || !client.publication.isConnected()) {
+          continue;
+        }
+
+        final String message =
+          "HELLO " + Integer.toUnsignedString(client.publication.sessionId(), 16).toUpperCase();
+        final byte[] bytes = message.getBytes(UTF_8);
+        this.send_buffer.putBytes(0, bytes);
+
+        final long result = client.publication.offer(this.send_buffer, 0, bytes.length);
+        if (result >= 0L) {
+          client.hello_sent = System.nanoTime();
+          if (this.first_hello == 0L) {
+            this.first_hello = client.hello_sent;
+          }
+          ++work;
+        }
+      }
+
+      return work;
+    }
+
+    private void onResponse(
+      final DirectBuffer buffer,
+      final int offset,
+      final int length)
+    {
+      final long now = System.nanoTime();
+
+      /*
+       * The harness plays every client, so routed replies are never
+       * discarded; the routing header is simply skipped.
+       */
+
+      final boolean routed =
+        length >= EchoMessages.ROUTED_REPLY_HEADER_LENGTH
+          && buffer.getByte(offset) == EchoMessages.ROUTED_REPLY_MARKER;
+      final int skip = routed ? EchoMessages.ROUTED_REPLY_HEADER_LENGTH : 0;
+      final String response =
+        EchoMessages.parseMessageUTF8(buffer, offset + skip, length - skip);
+
+      final Matcher connect = EchoMessages.PATTERN_CONNECT.matcher(
+        response.substring(response.indexOf(' ') + 1));
+      final boolean is_connect = connect.matches();
+
+      final int session;
+      try {
+        session = Integer.parseInt(response.substring(0, response.indexOf(' ')));
+      } catch (final NumberFormatException | IndexOutOfBoundsException e) {
+        LOG.error("unparseable response: {}", response);
+        return;
+      }
+
+      final SimulatedClient client = this.in_progress.remove(session);
+      if (client == null) {
+        return;
+      }
+
+      if (is_connect) {
+        ++this.connected;
+      } else {
+        ++this.rejected;
+        LOG.debug("[{}] rejected: {}", Integer.toString(session), response);
+      }
+
+      this.latency.recordValue(Math.max(0L, now - client.hello_sent));
+      this.last_response = now;
+      client.publication.close();
+    }
+
+    void report()
+    {
+      final long elapsed = Math.max(1L, this.last_response - this.first_hello);
+      final double seconds = (double) elapsed / (double) TimeUnit.SECONDS.toNanos(1L);
+
+      LOG.info(
+        "handshakes: {} connected {} rejected in {}ms ({} handshakes/s)",
+        Integer.valueOf(this.connected),
+        Integer.valueOf(this.rejected),
+        Long.valueOf(TimeUnit.NANOSECONDS.toMillis(elapsed)),
+        Long.valueOf((long) ((double) (this.connected + this.rejected) / seconds)));
+
+      LOG.info(
+        "HELLO to response: p50 {}us p99 {}us p99.9 {}us max {}us",
+        Long.valueOf(toMicros(this.latency.getValueAtPercentile(50.0))),
+        Long.valueOf(toMicros(this.latency.getValueAtPercentile(99.0))),
+        Long.valueOf(toMicros(this.latency.getValueAtPercentile(99.9))),
+        Long.valueOf(toMicros(this.latency.getMaxValue())));
+    }
+  }
+
+  private static final class SimulatedClient
+  {
+    private final Publication publication;
+    private long hello_sent;
+
+    SimulatedClient(
+      final Publication in_publication)
+    {
+      this.publication = in_publication;
+      this.hello_sent = 0L;
+    }
+  }
+
+  /**
+   * A thread that periodically samples the number of duologues on the
+   * server, so that the rate at which they are deleted can be calculated.
+   */
+
+  private static final class UsageSampler implements Runnable
+  {
+    private final EchoServer server;
+    private final List<long[]> samples;
+    private volatile boolean done;
+
+    UsageSampler(
+      final EchoServer in_server)
+    {
+      this.server = in_server;
+      this.samples = new ArrayList<>(1024);
+      this.done = false;
+    }
+
+    @Override
+    public void run()
+    {
+      try {
+        while (!this.done) {
+          final EchoServerResourceUsage usage = usage(this.server);
+          synchronized (this.samples) {
+            this.samples.add(new long[]{System.nanoTime(), (long) usage.duologues()});
+          }
+          Thread.sleep(5L);
+        }
+      } catch (final Exception e) {
+        LOG.error("sampler failed: ", e);
+      }
+    }
+
+    void stop()
+    {
+      this.done = true;
+    }
+
+    /**
+     * Report the peak number of duologues and the rate at which duologues
+     * were deleted between the last time the peak was observed and the time
+     * that no duologues remained.
+     */
+
+    void report(
+      final long last_response)
+    {
+      synchronized (this.samples) {
+        long peak = 0L;
+        long peak_time = 0L;
+        long empty_time = 0L;
+
+        for (final long[] sample : this.samples) {
+          if (sample[1] >= peak) {
+            peak = sample[1];
+            peak_time = sample[0];
+            empty_time = 0L;
+          }
+          if (sample[1] == 0L && peak > 0L && empty_time == 0L) {
+            empty_time = sample[0];
+          }
+        }
+
+        if (peak == 0L || empty_time == 0L) {
+          LOG.info("teardown: peak {} duologues, not drained", Long.valueOf(peak));
+          return;
+        }
+
+        final long elapsed = Math.max(1L, empty_time - peak_time);
+        final double seconds = (double) elapsed / (double) TimeUnit.SECONDS.toNanos(1L);
+        LOG.info(
+          "teardown: peak {} duologues drained in {}ms ({} duologues/s), idle {}ms after last handshake",
+          Long.valueOf(peak),
+          Long.valueOf(TimeUnit.NANOSECONDS.toMillis(elapsed)),
+          Long.valueOf((long) ((double) peak / seconds)),
+          Long.valueOf(TimeUnit.NANOSECONDS.toMillis(empty_time - last_response)));
+      }
+    }
+  }
+
+  private static final class Parameters
+  {
+    @Parameter(names = "-help", description = "Show usage information", help = true)
+    private boolean help;
+
+    @Parameter(names = "-sessions", description = "The total number of simulated clients")
+    private int sessions = 1000;
+
+    @Parameter(names = "-concurrency", description = "The maximum number of handshakes in progress at any one time")
+    private int concurrency = 32;
+
+    @Parameter(names = "-client-maximum", description = "The maximum number of clients allowed on the server")
+    private int client_maximum = 1000;
+
+    @Parameter(names = "-connect-timeout-ms", description = "The time the server waits for a client to connect to a new duologue")
+    private long connect_timeout_ms = 1000L;
+
+    @Parameter(names = "-handshake-rate", description = "The server's handshake rate limit per second (all simulated clients share one address)")
+    private int handshake_rate = 1_000_000;
+
+    @Parameter(names = "-shed-load", description = "Let the server reject handshakes with 'ERROR busy' when its executor is overloaded")
+    private boolean shed_load;
+
+    @Parameter(names = "-routed-replies", arity = 1, description = "Let the server prefix replies on the all-clients channel with the session they are intended for")
+    private boolean routed_replies = true;
+
+    @Parameter(names = "-cleanup-timeout", description = "The time in seconds to wait for the server to release all resources")
+    private int cleanup_timeout_seconds = 60;
+
+    @Parameter(names = "-threading-mode", description = "The media driver threading mode")
+    private ThreadingMode threading_mode;
+
+    @Parameter(names = "-poll-interval-us", description = "The server poll interval in microseconds")
+    private long poll_interval_us = 1000L;
+
+    @Parameter(names = "-address", description = "The local address used by the server and clients")
+    private String address = "127.0.0.1";
+
+    @Parameter(names = "-port", description = "The base UDP port used by the server")
+    private int port = 9000;
+
+    @Parameter(names = "-directory", description = "The directory used for media driver files")
+    private Path directory = Paths.get("/tmp/aeron-churn");
+
+    @Parameter(names = "-log-level", description = "The level at which to log")
+    private String log_level = "INFO";
+
+    @Parameter(names = "-output", description = "The directory to which histograms are written")
+    private Path output = Paths.get("target/churn");
+
+    Parameters()
+    {
+
+    }
+
+    void check()
+    {
+      checkPositive("-sessions", this.sessions);
+      checkPositive("-concurrency", this.concurrency);
+      checkPositive("-client-maximum", this.client_maximum);
+      checkPositive("-connect-timeout-ms", this.connect_timeout_ms);
+      checkPositive("-cleanup-timeout", this.cleanup_timeout_seconds);
+      checkPositive("-handshake-rate", this.handshake_rate);
+      checkPositive("-poll-interval-us", this.poll_interval_us);
+    }
+
+    private static void checkPositive(
+      final String name,
+      final long value)
+    {
+      if (value <= 0L) {
+        throw new IllegalArgumentException(name + " must be positive");
+      }
+    }
+  }
+}
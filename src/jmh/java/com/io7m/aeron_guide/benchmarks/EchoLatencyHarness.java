@@ -0,0 +1,376 @@
+package com.io7m.aeron_guide.benchmarks;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.io7m.aeron_guide.take2.EchoBlockingClient;
+import com.io7m.aeron_guide.take2.EchoClient;
+import com.io7m.aeron_guide.take2.EchoClientConfiguration;
+import com.io7m.aeron_guide.take2.EchoClientException;
+import com.io7m.aeron_guide.take2.EchoServer;
+import com.io7m.aeron_guide.take2.EchoServerConfiguration;
+import com.io7m.aeron_guide.take2.ImmutableEchoClientConfiguration;
+import com.io7m.aeron_guide.take2.ImmutableEchoServerConfiguration;
+import io.aeron.driver.ThreadingMode;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * An end-to-end latency harness. The harness starts a server and a number of
+ * clients over the loopback interface, and each client sends ECHO messages
+ * to the server at a fixed target rate.
+ * </p>
+ *
+ * <p>
+ * Each round-trip time is measured from the time at which the message
+ * <i>should</i> have been sent according to the target rate, rather than
+ * the time at which it actually was sent. A slow response therefore counts
+ * against every message that was delayed behind it, and the measurements
+ * do not suffer from <i>coordinated omission</i>. The uncorrected times
+ * (measured from the actual send time) are recorded alongside for
+ * comparison. Both distributions are written to files in the output
+ * directory in the HdrHistogram percentile format, in microseconds.
+ * </p>
+ */
+
+public final class EchoLatencyHarness
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(EchoLatencyHarness.class);
+
+  private EchoLatencyHarness()
+  {
+
+  }
+
+  /**
+   * Command-line entry point.
+   *
+   * @param args Command-line arguments
+   *
+   * @throws Exception On any error
+   */
+
+  public static void main(
+    final String[] args)
+    throws Exception
+  {
+    final Parameters parameters = new Parameters();
+    final JCommander commander =
+      JCommander.newBuilder()
+        .addObject(parameters)
+        .programName("EchoLatencyHarness")
+        .build();
+
+    commander.parse(args);
+    if (parameters.help) {
+      commander.usage();
+      return;
+    }
+
+    parameters.check();
+
+    BenchmarkHarnesses.setRootLogLevel(parameters.log_level);
+
+    final InetAddress address = InetAddress.getByName(parameters.address);
+    final Optional<ThreadingMode> threading_mode =
+      Optional.ofNullable(parameters.threading_mode);
+
+    final EchoServerConfiguration server_config =
+      ImmutableEchoServerConfiguration.builder()
+        .baseDirectory(parameters.directory.resolve("server"))
+        .localAddress(address)
+        .localInitialPort(parameters.port)
+        .localInitialControlPort(parameters.port + 1)
+        .localClientsBasePort(parameters.port + 2)
+        .clientMaximumCount(parameters.clients)
+        .maximumConnectionsPerAddress(parameters.clients)
+        .pollInterval(Duration.ofNanos(
+          TimeUnit.MICROSECONDS.toNanos(parameters.poll_interval_us)))
+        .mediaDriverThreadingMode(threading_mode)
+        .build();
+
+    final List<EchoClient> clients = new ArrayList<>(parameters.clients);
+    final List<EchoBlockingClient> blocking = new ArrayList<>(parameters.clients);
+
+    try (final EchoServer server = EchoServer.create(Clock.systemUTC(), server_config)) {
+      final Thread server_thread = new Thread(server::run);
+      server_thread.setName("com.io7m.aeron_guide.benchmarks.server-main");
+      server_thread.setDaemon(true);
+      server_thread.start();
+
+      try {
+        for (int index = 0; index < parameters.clients; ++index) {
+          final EchoClientConfiguration client_config =
+            ImmutableEchoClientConfiguration.builder()
+              .baseDirectory(parameters.directory.resolve("client-" + index))
+              .remoteAddress(address)
+              .remoteInitialPort(parameters.port)
+              .remoteInitialControlPort(parameters.port + 1)
+              .mediaDriverThreadingMode(threading_mode)
+              .build();
+
+          final EchoClient client = EchoClient.create(client_config);
+          clients.add(client);
+          blocking.add(EchoBlockingClient.create(client, 1));
+        }
+
+        final Results results = runLoad(parameters, blocking);
+        writeResults(parameters, results);
+      } finally {
+        for (final EchoBlockingClient client : blocking) {
+          client.close();
+        }
+        for (final EchoClient client : clients) {
+          client.close();
+        }
+      }
+    }
+  }
+
+  private static Results runLoad(
+    final Parameters parameters,
+    final List<EchoBlockingClient> clients)
+    throws InterruptedException
+  {
+    final String payload = BenchmarkHarnesses.payload(parameters.payload_size);
+    final Duration timeout = Duration.ofSeconds(parameters.timeout_seconds);
+    final long interval = TimeUnit.SECONDS.toNanos(1L) / parameters.rate;
+
+    final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100L);
+    final long measure_start = start + TimeUnit.SECONDS.toNanos(parameters.warmup_seconds);
+    final long end = measure_start + TimeUnit.SECONDS.toNanos(parameters.duration_seconds);
+
+    final Results results = new Results();
+    final List<Thread> threads = new ArrayList<>(clients.size());
+    final List<Histogram> corrected = new ArrayList<>(clients.size());
+    final List<Histogram> uncorrected = new ArrayList<>(clients.size());
+    final CountDownLatch done = new CountDownLatch(clients.size());
+
+    for (int index = 0; index < clients.size(); ++index) {
+      final EchoBlockingClient client = clients.get(index);
+      final Histogram client_corrected = new Histogram(3);
+      final Histogram client_uncorrected = new Histogram(3);
+      corrected.add(client_corrected);
+      uncorrected.add(client_uncorrected);
+
+      final Thread thread = new Thread(() -> {
+        try {
+          long intended = start;
+          while (intended < end) {
+            long now = System.nanoTime();
+            while (now < intended) {
+              LockSupport.parkNanos(intended - now);
+              now = System.nanoTime();
+            }
+
+            try {
+              client.echo(payload, timeout);
+            } catch (final EchoClientException e) {
+              results.failures.incrementAndGet();
+              LOG.debug("echo failed: ", e);
+            }
+
+            final long completed = System.nanoTime();
+            if (intended >= measure_start) {
+              client_corrected.recordValue(completed - intended);
+              client_uncorrected.recordValue(completed - now);
+            }
+            intended += interval;
+          }
+        } finally {
+          done.countDown();
+        }
+      });
+
+      thread.setName("com.io7m.aeron_guide.benchmarks.load[" + index + "]");
+      threads.add(thread);
+    }
+
+    LOG.info(
+      "running {} clients at {} messages/s each with {} byte payloads for {}s (+{}s warmup)",
+      Integer.valueOf(clients.size()),
+      Integer.valueOf(parameters.rate),
+      Integer.valueOf(parameters.payload_size),
+      Integer.valueOf(parameters.duration_seconds),
+      Integer.valueOf(parameters.warmup_seconds));
+
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+    done.await();
+
+    for (int index = 0; index < clients.size(); ++index) {
+      results.corrected.add(corrected.get(index));
+      results.uncorrected.add(uncorrected.get(index));
+    }
+    return results;
+  }
+
+  private static void writeResults(
+    final Parameters parameters,
+    final Results results)
+    throws IOException
+  {
+    final String name =
+      new StringBuilder(64)
+        .append("latency-c")
+        .append(parameters.clients)
+        .append("-p")
+        .append(parameters.payload_size)
+        .append("-r")
+        .append(parameters.rate)
+        .append("-")
+        .append(parameters.threading_mode == null
+                  ? "default" : parameters.threading_mode.name())
+        .toString();
+
+    Files.createDirectories(parameters.output);
+    writeHistogram(parameters.output.resolve(name + "-corrected.hgrm"), results.corrected);
+    writeHistogram(parameters.output.resolve(name + "-uncorrected.hgrm"), results.uncorrected);
+
+    report("corrected", results.corrected);
+    report("uncorrected", results.uncorrected);
+    LOG.info("failures: {}", Long.valueOf(results.failures.get()));
+  }
+
+  private static void writeHistogram(
+    final Path file,
+    final Histogram histogram)
+    throws IOException
+  {
+    try (final PrintStream output = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+      histogram.outputPercentileDistribution(output, Double.valueOf(1000.0));
+    }
+    LOG.info("wrote {}", file);
+  }
+
+  private static void report(
+    final String name,
+    final Histogram histogram)
+  {
+    LOG.info(
+      "rtt {}: count {} p50 {}us p99 {}us p99.9 {}us p99.99 {}us max {}us",
+      name,
+      Long.valueOf(histogram.getTotalCount()),
+      Long.valueOf(toMicros(histogram.getValueAtPercentile(50.0))),
+      Long.valueOf(toMicros(histogram.getValueAtPercentile(99.0))),
+      Long.valueOf(toMicros(histogram.getValueAtPercentile(99.9))),
+      Long.valueOf(toMicros(histogram.getValueAtPercentile(99.99))),
+      Long.valueOf(toMicros(histogram.getMaxValue())));
+  }
+
+  private static long toMicros(
+    final long nanos)
+  {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  private static final class Results
+  {
+    private final Histogram corrected = new Histogram(3);
+    private final Histogram uncorrected = new Histogram(3);
+    private final AtomicLong failures = new AtomicLong(0L);
+
+    Results()
+    {
+
+    }
+  }
+
+  private static final class Parameters
+  {
+    @Parameter(names = "-help", description = "Show usage information", help = true)
+    private boolean help;
+
+    @Parameter(names = "-clients", description = "The number of clients")
+    private int clients = 1;
+
+    @Parameter(names = "-rate", description = "The target number of messages per second sent by each client")
+    private int rate = 1000;
+
+    @Parameter(names = "-payload-size", description = "The size in bytes of each ECHO payload")
+    private int payload_size = 64;
+
+    @Parameter(names = "-warmup", description = "The warmup period in seconds")
+    private int warmup_seconds = 5;
+
+    @Parameter(names = "-duration", description = "The measurement period in seconds")
+    private int duration_seconds = 10;
+
+    @Parameter(names = "-timeout", description = "The time in seconds to wait for each response")
+    private int timeout_seconds = 5;
+
+    @Parameter(names = "-threading-mode", description = "The media driver threading mode")
+    private ThreadingMode threading_mode;
+
+    @Parameter(names = "-poll-interval-us", description = "The server poll interval in microseconds")
+    private long poll_interval_us = 100L;
+
+    @Parameter(names = "-address", description = "The local address used by the server and clients")
+    private String address = "127.0.0.1";
+
+    @Parameter(names = "-port", description = "The base UDP port used by the server")
+    private int port = 9000;
+
+    @Parameter(names = "-directory", description = "The directory used for media driver files")
+    private Path directory = Paths.get("/tmp/aeron-latency");
+
+    @Parameter(names = "-log-level", description = "The level at which to log")
+    private String log_level = "INFO";
+
+    @Parameter(names = "-output", description = "The directory to which histograms are written")
+    private Path output = Paths.get("target/latency");
+
+    Parameters()
+    {
+
+    }
+
+    void check()
+    {
+      checkPositive("-clients", this.clients);
+      checkPositive("-rate", this.rate);
+      checkPositive("-duration", this.duration_seconds);
+      checkPositive("-timeout", this.timeout_seconds);
+      checkPositive("-poll-interval-us", this.poll_interval_us);
+
+      if (this.warmup_seconds < 0) {
+        throw new IllegalArgumentException("-warmup must be non-negative");
+      }
+
+      if (this.payload_size < 0
+        || this.payload_size > BenchmarkHarnesses.PAYLOAD_SIZE_MAXIMUM) {
+        throw new IllegalArgumentException(
+          "-payload-size must be in the range [0, "
+            + BenchmarkHarnesses.PAYLOAD_SIZE_MAXIMUM + "]");
+      }
+    }
+
+    private static void checkPositive(
+      final String name,
+      final long value)
+    {
+      if (value <= 0L) {
+        throw new IllegalArgumentException(name + " must be positive");
+      }
+    }
+  }
+}
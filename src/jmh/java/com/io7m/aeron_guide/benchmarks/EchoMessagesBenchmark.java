@@ -0,0 +1,134 @@
+package com.io7m.aeron_guide.benchmarks;
+
+import com.io7m.aeron_guide.take2.EchoMessages;
+import io.aeron.Publication;
+import org.agrona.BufferUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Benchmarks for the parts of {@link EchoMessages} that are executed for
+ * every ECHO message, for message sizes up to the size of the send buffer.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class EchoMessagesBenchmark
+{
+  /**
+   * The size in bytes of the encoded message that is parsed, matched and
+   * sent, from the smallest ECHO message up to the size of the send buffer.
+   */
+
+  @Param({"8", "16", "32", "64", "128", "256", "512", "1024"})
+  public int message_size;
+
+  private UnsafeBuffer message_buffer;
+  private UnsafeBuffer send_buffer;
+  private String message_text;
+  private Publication publication;
+
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    BenchmarkHarnesses.setRootLogLevel("INFO");
+
+    final StringBuilder text = new StringBuilder(this.message_size);
+    text.append("ECHO ");
+    while (text.length() < this.message_size) {
+      text.append((char) ('a' + (text.length() % 26)));
+    }
+    this.message_text = text.toString();
+
+    final byte[] bytes = this.message_text.getBytes(UTF_8);
+    this.message_buffer =
+      new UnsafeBuffer(BufferUtil.allocateDirectAligned(1024, 16));
+    this.message_buffer.putBytes(0, bytes);
+
+    this.send_buffer =
+      new UnsafeBuffer(BufferUtil.allocateDirectAligned(1024, 16));
+    this.publication = BenchmarkStubPublication.create();
+  }
+
+  /**
+   * @return The message decoded from the receive buffer
+   */
+
+  @Benchmark
+  public String parseMessageUTF8()
+  {
+    return EchoMessages.parseMessageUTF8(
+      this.message_buffer, 0, this.message_size);
+  }
+
+  /**
+   * @return The payload extracted from an ECHO message
+   */
+
+  @Benchmark
+  public String matchEcho()
+  {
+    final Matcher matcher = EchoMessages.PATTERN_ECHO.matcher(this.message_text);
+    if (matcher.matches()) {
+      return matcher.group(1);
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * Decode, match and reply to an ECHO message, as a duologue does.
+   *
+   * @return The resulting publication position
+   *
+   * @throws IOException On send failure
+   */
+
+  @Benchmark
+  public long receiveAndReply()
+    throws IOException
+  {
+    final String message =
+      EchoMessages.parseMessageUTF8(this.message_buffer, 0, this.message_size);
+    final Matcher matcher = EchoMessages.PATTERN_ECHO.matcher(message);
+    if (matcher.matches()) {
+      return EchoMessages.sendMessage(
+        this.publication, this.send_buffer, "ECHO " + matcher.group(1));
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * @return The resulting publication position
+   *
+   * @throws IOException On send failure
+   */
+
+  @Benchmark
+  public long sendMessage()
+    throws IOException
+  {
+    return EchoMessages.sendMessage(
+      this.publication, this.send_buffer, this.message_text);
+  }
+}
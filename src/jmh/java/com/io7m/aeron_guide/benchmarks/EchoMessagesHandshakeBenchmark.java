@@ -0,0 +1,100 @@
+package com.io7m.aeron_guide.benchmarks;
+
+import com.io7m.aeron_guide.take2.EchoMessages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * Benchmarks for the parts of {@link EchoMessages} that are executed for
+ * every handshake on the all-clients channel.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class EchoMessagesHandshakeBenchmark
+{
+  public String hello = "HELLO 9067FFE4";
+  public String hello_resumable = "HELLO 9067FFE4 BEC6CD370C3FDF62";
+  public String connect = "CONNECT 9011 9015 A689E103";
+  public String session_name = "-1388664405";
+  public int port_data = 9011;
+  public int port_control = 9015;
+
+  /**
+   * @return The one-time pad extracted from a HELLO message
+   */
+
+  @Benchmark
+  public String matchHello()
+  {
+    final Matcher matcher = EchoMessages.PATTERN_HELLO.matcher(this.hello);
+    if (matcher.matches()) {
+      return matcher.group(1);
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * @return The resumption pad extracted from a HELLO message
+   */
+
+  @Benchmark
+  public String matchHelloResumable()
+  {
+    final Matcher matcher =
+      EchoMessages.PATTERN_HELLO.matcher(this.hello_resumable);
+    if (matcher.matches()) {
+      return matcher.group(2);
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * @return The encrypted session extracted from a CONNECT message
+   */
+
+  @Benchmark
+  public String matchConnect()
+  {
+    final Matcher matcher = EchoMessages.PATTERN_CONNECT.matcher(this.connect);
+    if (matcher.matches()) {
+      return matcher.group(3);
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * @return A CONNECT message
+   */
+
+  @Benchmark
+  public String connectMessage()
+  {
+    return EchoMessages.connectMessage(
+      this.session_name, this.port_data, this.port_control, "A689E103");
+  }
+
+  /**
+   * @return An ERROR message
+   */
+
+  @Benchmark
+  public String errorMessage()
+  {
+    return EchoMessages.errorMessage(this.session_name, "server full");
+  }
+}
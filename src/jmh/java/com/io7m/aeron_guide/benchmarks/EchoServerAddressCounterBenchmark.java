@@ -0,0 +1,101 @@
+package com.io7m.aeron_guide.benchmarks;
+
+import com.io7m.aeron_guide.take2.EchoServerAddressCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link EchoServerAddressCounter}. The occupancy is the
+ * percentage of a fixed set of client addresses that currently have a
+ * non-zero count.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class EchoServerAddressCounterBenchmark
+{
+  @Param({"16384"})
+  public int capacity;
+
+  @Param({"1", "50", "90", "99"})
+  public int occupancy_percent;
+
+  private EchoServerAddressCounter counter;
+  private InetAddress[] occupied;
+  private int index;
+
+  @Setup(Level.Trial)
+  public void setup()
+    throws UnknownHostException
+  {
+    this.counter = EchoServerAddressCounter.create();
+
+    final int count =
+      BenchmarkOccupancy.occupiedCount(this.capacity, this.occupancy_percent);
+
+    this.occupied = new InetAddress[count];
+    for (int address = 0; address < count; ++address) {
+      this.occupied[address] =
+        InetAddress.getByAddress(new byte[]{
+          (byte) 10,
+          (byte) (address >>> 16),
+          (byte) (address >>> 8),
+          (byte) address,
+        });
+      this.counter.increment(this.occupied[address]);
+    }
+    this.index = 0;
+  }
+
+  private InetAddress nextAddress()
+  {
+    this.index = (this.index + 1) % this.occupied.length;
+    return this.occupied[this.index];
+  }
+
+  /**
+   * Increment and then decrement the count for an occupied address, as the
+   * server does when a duologue is created and later deleted.
+   *
+   * @return The resulting count
+   */
+
+  @Benchmark
+  public int incrementDecrement()
+  {
+    final InetAddress address = this.nextAddress();
+    this.counter.increment(address);
+    return this.counter.decrement(address);
+  }
+
+  /**
+   * Look up the count for an occupied address, as the server does for each
+   * HELLO.
+   *
+   * @return The count
+   */
+
+  @Benchmark
+  public int countFor()
+  {
+    return this.counter.countFor(this.nextAddress());
+  }
+}
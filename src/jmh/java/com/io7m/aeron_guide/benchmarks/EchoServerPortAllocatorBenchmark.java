@@ -0,0 +1,69 @@
+package com.io7m.aeron_guide.benchmarks;
+
+import com.io7m.aeron_guide.take2.EchoServerPortAllocationException;
+import com.io7m.aeron_guide.take2.EchoServerPortAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link EchoServerPortAllocator} at varying occupancy.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class EchoServerPortAllocatorBenchmark
+{
+  @Param({"20000"})
+  public int capacity;
+
+  @Param({"1", "50", "90", "99"})
+  public int occupancy_percent;
+
+  private EchoServerPortAllocator allocator;
+
+  @Setup(Level.Trial)
+  public void setup()
+    throws EchoServerPortAllocationException
+  {
+    this.allocator = EchoServerPortAllocator.create(10000, this.capacity);
+
+    final int occupied =
+      BenchmarkOccupancy.occupiedCount(this.capacity, this.occupancy_percent);
+    this.allocator.allocate(occupied);
+  }
+
+  /**
+   * Allocate a pair of ports (as the server does for each duologue) and then
+   * free them, leaving the occupancy unchanged.
+   *
+   * @return The allocated ports
+   *
+   * @throws EchoServerPortAllocationException On allocation failure
+   */
+
+  @Benchmark
+  public int[] allocateFreePair()
+    throws EchoServerPortAllocationException
+  {
+    final int[] ports = this.allocator.allocate(2);
+    this.allocator.free(ports[0]);
+    this.allocator.free(ports[1]);
+    return ports;
+  }
+}
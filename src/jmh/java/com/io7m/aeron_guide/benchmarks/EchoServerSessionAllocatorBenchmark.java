@@ -0,0 +1,71 @@
+package com.io7m.aeron_guide.benchmarks;
+
+import com.io7m.aeron_guide.take2.EchoServerSessionAllocationException;
+import com.io7m.aeron_guide.take2.EchoServerSessionAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link EchoServerSessionAllocator} at varying occupancy.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class EchoServerSessionAllocatorBenchmark
+{
+  @Param({"65536"})
+  public int capacity;
+
+  @Param({"1", "50", "90", "99"})
+  public int occupancy_percent;
+
+  private EchoServerSessionAllocator allocator;
+
+  @Setup(Level.Trial)
+  public void setup()
+    throws EchoServerSessionAllocationException
+  {
+    this.allocator =
+      EchoServerSessionAllocator.create(0, this.capacity, new SecureRandom());
+
+    final int occupied =
+      BenchmarkOccupancy.occupiedCount(this.capacity, this.occupancy_percent);
+    for (int index = 0; index < occupied; ++index) {
+      this.allocator.allocate();
+    }
+  }
+
+  /**
+   * Allocate a session and then free it, leaving the occupancy unchanged.
+   *
+   * @return The allocated session
+   *
+   * @throws EchoServerSessionAllocationException On allocation failure
+   */
+
+  @Benchmark
+  public int allocateFree()
+    throws EchoServerSessionAllocationException
+  {
+    final int session = this.allocator.allocate();
+    this.allocator.free(session);
+    return session;
+  }
+}
@@ -0,0 +1,494 @@
+package com.io7m.aeron_guide.benchmarks;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.io7m.aeron_guide.take2.EchoClient;
+import com.io7m.aeron_guide.take2.EchoClientConfiguration;
+import com.io7m.aeron_guide.take2.EchoClientDuologue;
+import com.io7m.aeron_guide.take2.EchoMessageBatchHandler;
+import com.io7m.aeron_guide.take2.EchoServer;
+import com.io7m.aeron_guide.take2.EchoServerConfiguration;
+import com.io7m.aeron_guide.take2.ImmutableEchoClientConfiguration;
+import com.io7m.aeron_guide.take2.ImmutableEchoServerConfiguration;
+import io.aeron.FragmentAssembler;
+import io.aeron.Publication;
+import io.aeron.Subscription;
+import io.aeron.driver.ThreadingMode;
+import org.agrona.BufferUtil;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <p>
+ * A maximum throughput harness. The harness starts a server and a client
+ * over the loopback interface, and opens a number of duologues between
+ * them. A thread per duologue sends ECHO messages as quickly as back pressure
+ * allows, and consumes the responses.
+ * </p>
+ *
+ * <p>
+ * The harness sweeps over every combination of the given payload sizes and
+ * server fragment limits, starting a new server and client for each
+ * combination. Messages and bytes received per second are reported for each
+ * duologue and in aggregate, along with the number of sends that failed with
+ * {@link Publication#BACK_PRESSURED}. A summary of the sweep is written to
+ * {@code throughput.csv} in the output directory.
+ * </p>
+ */
+
+public final class EchoThroughputHarness
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(EchoThroughputHarness.class);
+
+  private EchoThroughputHarness()
+  {
+
+  }
+
+  /**
+   * Command-line entry point.
+   *
+   * @param args Command-line arguments
+   *
+   * @throws Exception On any error
+   */
+
+  public static void main(
+    final String[] args)
+    throws Exception
+  {
+    final Parameters parameters = new Parameters();
+    final JCommander commander =
+      JCommander.newBuilder()
+        .addObject(parameters)
+        .programName("EchoThroughputHarness")
+        .build();
+
+    commander.parse(args);
+    if (parameters.help) {
+      commander.usage();
+      return;
+    }
+
+    parameters.check();
+    BenchmarkHarnesses.setRootLogLevel(parameters.log_level);
+
+    Files.createDirectories(parameters.output);
+    final Path csv = parameters.output.resolve("throughput.csv");
+
+    try (final BufferedWriter writer = Files.newBufferedWriter(csv, UTF_8)) {
+      writer.write(
+        "payload_size,duologue_fragment_limit,all_clients_fragment_limit,duologues,reply_batch_bytes,"
+          + "messages_per_second,bytes_per_second,sends,back_pressured");
+      writer.newLine();
+
+      for (final Integer payload_size : parameters.payload_sizes) {
+        for (final Integer duologue_limit : parameters.duologue_fragment_limits) {
+          for (final Integer all_clients_limit : parameters.all_clients_fragment_limits) {
+            final Result result =
+              runOne(
+                parameters,
+                payload_size.intValue(),
+                duologue_limit.intValue(),
+                all_clients_limit.intValue());
+
+            writer.write(
+              new StringBuilder(128)
+                .append(payload_size)
+                .append(',')
+                .append(duologue_limit)
+                .append(',')
+                .append(all_clients_limit)
+                .append(',')
+                .append(parameters.duologues)
+                .append(',')
+                .append(parameters.reply_batch_bytes)
+                .append(',')
+                .append(result.messagesPerSecond())
+                .append(',')
+                .append(result.bytesPerSecond())
+                .append(',')
+                .append(result.sends)
+                .append(',')
+                .append(result.back_pressured)
+                .toString());
+            writer.newLine();
+            writer.flush();
+          }
+        }
+      }
+    }
+
+    LOG.info("wrote {}", csv);
+  }
+
+  private static Result runOne(
+    final Parameters parameters,
+    final int payload_size,
+    final int duologue_limit,
+    final int all_clients_limit)
+    throws Exception
+  {
+    final InetAddress address = InetAddress.getByName(parameters.address);
+    final Optional<ThreadingMode> threading_mode =
+      Optional.ofNullable(parameters.threading_mode);
+
+    final EchoServerConfiguration server_config =
+      ImmutableEchoServerConfiguration.builder()
+        .baseDirectory(parameters.directory.resolve("server"))
+        .localAddress(address)
+        .localInitialPort(parameters.port)
+        .localInitialControlPort(parameters.port + 1)
+        .localClientsBasePort(parameters.port + 2)
+        .clientMaximumCount(parameters.duologues)
+        .maximumConnectionsPerAddress(parameters.duologues)
+        .pollInterval(Duration.ofNanos(
+          TimeUnit.MICROSECONDS.toNanos(parameters.poll_interval_us)))
+        .duologueFragmentLimit(duologue_limit)
+        .duologueReplyBatchBytes(parameters.reply_batch_bytes)
+        .allClientsFragmentLimit(all_clients_limit)
+        .mediaDriverThreadingMode(threading_mode)
+        .build();
+
+    final EchoClientConfiguration client_config =
+      ImmutableEchoClientConfiguration.builder()
+        .baseDirectory(parameters.directory.resolve("client"))
+        .remoteAddress(address)
+        .remoteInitialPort(parameters.port)
+        .remoteInitialControlPort(parameters.port + 1)
+        .mediaDriverThreadingMode(threading_mode)
+        .build();
+
+    LOG.info(
+      "payload {} bytes, duologue fragment limit {}, all-clients fragment limit {}, {} duologues, reply batch {} bytes",
+      Integer.valueOf(payload_size),
+      Integer.valueOf(duologue_limit),
+      Integer.valueOf(all_clients_limit),
+      Integer.valueOf(parameters.duologues),
+      Integer.valueOf(parameters.reply_batch_bytes));
+
+    final List<EchoClientDuologue> duologues = new ArrayList<>(parameters.duologues);
+
+    try (final EchoServer server = EchoServer.create(Clock.systemUTC(), server_config)) {
+      final Thread server_thread = new Thread(server::run);
+      server_thread.setName("com.io7m.aeron_guide.benchmarks.server-main");
+      server_thread.setDaemon(true);
+      server_thread.start();
+
+      try (final EchoClient client = EchoClient.create(client_config)) {
+        try {
+          for (int index = 0; index < parameters.duologues; ++index) {
+            duologues.add(client.connect());
+          }
+          return runLoad(parameters, payload_size, duologues);
+        } finally {
+          for (final EchoClientDuologue duologue : duologues) {
+            duologue.close();
+          }
+        }
+      }
+    }
+  }
+
+  private static Result runLoad(
+    final Parameters parameters,
+    final int payload_size,
+    final List<EchoClientDuologue> duologues)
+    throws InterruptedException
+  {
+    final byte[] message =
+      ("ECHO " + BenchmarkHarnesses.payload(payload_size)).getBytes(UTF_8);
+
+    final long start = System.nanoTime();
+    final long measure_start = start + TimeUnit.SECONDS.toNanos(parameters.warmup_seconds);
+    final long end = measure_start + TimeUnit.SECONDS.toNanos(parameters.duration_seconds);
+
+    final List<DuologueLoad> loads = new ArrayList<>(duologues.size());
+    final List<Thread> threads = new ArrayList<>(duologues.size());
+    for (int index = 0; index < duologues.size(); ++index) {
+      final DuologueLoad load =
+        new DuologueLoad(duologues.get(index), message, measure_start, end);
+      loads.add(load);
+
+      final Thread thread = new Thread(load);
+      thread.setName("com.io7m.aeron_guide.benchmarks.load[" + index + "]");
+      threads.add(thread);
+    }
+
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    final Result total = new Result(parameters.duration_seconds);
+    for (final DuologueLoad load : loads) {
+      final Result result = load.result(parameters.duration_seconds);
+      report("[" + load.session_name + "]", result);
+      total.add(result);
+    }
+    report("total", total);
+    return total;
+  }
+
+  private static void report(
+    final String name,
+    final Result result)
+  {
+    LOG.info(
+      "{}: {} messages/s {} bytes/s sends {} back pressured {}",
+      name,
+      Long.valueOf(result.messagesPerSecond()),
+      Long.valueOf(result.bytesPerSecond()),
+      Long.valueOf(result.sends),
+      Long.valueOf(result.back_pressured));
+  }
+
+  private static final class DuologueLoad implements Runnable
+  {
+    private final String session_name;
+    private final Publication publication;
+    private final Subscription subscription;
+    private final UnsafeBuffer message;
+    private final int message_length;
+    private final long measure_start;
+    private final long end;
+    private boolean measuring;
+    private long sends;
+    private long back_pressured;
+    private long received;
+    private long received_bytes;
+
+    DuologueLoad(
+      final EchoClientDuologue in_duologue,
+      final byte[] in_message,
+      final long in_measure_start,
+      final long in_end)
+    {
+      Objects.requireNonNull(in_duologue, "duologue");
+      Objects.requireNonNull(in_message, "message");
+
+      this.session_name = in_duologue.sessionName();
+      this.publication = in_duologue.publication();
+      this.subscription = in_duologue.subscription();
+      this.message_length = in_message.length;
+      this.message =
+        new UnsafeBuffer(BufferUtil.allocateDirectAligned(1024, 16));
+      this.message.putBytes(0, in_message);
+      this.measure_start = in_measure_start;
+      this.end = in_end;
+    }
+
+    @Override
+    public void run()
+    {
+      final IdleStrategy idle =
+        new BackoffIdleStrategy(
+          100L,
+          10L,
+          TimeUnit.MICROSECONDS.toNanos(1L),
+          TimeUnit.MICROSECONDS.toNanos(100L));
+
+      final FragmentAssembler handler =
+        new FragmentAssembler(EchoMessageBatchHandler.create((buffer, offset, length, header) -> {
+          if (this.measuring) {
+            ++this.received;
+            this.received_bytes += (long) length;
+          }
+        }));
+
+      while (true) {
+        final long now = System.nanoTime();
+        if (now >= this.end) {
+          break;
+        }
+        this.measuring = now >= this.measure_start;
+
+        int work = 0;
+        final long result =
+          this.publication.offer(this.message, 0, this.message_length);
+
+        if (result >= 0L) {
+          work += 1;
+          if (this.measuring) {
+            ++this.sends;
+          }
+        } else if (result == Publication.BACK_PRESSURED) {
+          if (this.measuring) {
+            ++this.back_pressured;
+          }
+        } else if (result == Publication.CLOSED
+          || result == Publication.MAX_POSITION_EXCEEDED) {
+          LOG.error(
+            "[{}] publication failed: error code {}",
+            this.session_name,
+            Long.valueOf(result));
+          break;
+        }
+
+        work += this.subscription.poll(handler, 100);
+        idle.idle(work);
+      }
+    }
+
+    Result result(
+      final int duration_seconds)
+    {
+      final Result result = new Result(duration_seconds);
+      result.sends = this.sends;
+      result.back_pressured = this.back_pressured;
+      result.received = this.received;
+      result.received_bytes = this.received_bytes;
+      return result;
+    }
+  }
+
+  private static final class Result
+  {
+    private final int duration_seconds;
+    private long sends;
+    private long back_pressured;
+    private long received;
+    private long received_bytes;
+
+    Result(
+      final int in_duration_seconds)
+    {
+      this.duration_seconds = in_duration_seconds;
+    }
+
+    void add(
+      final Result other)
+    {
+      this.sends += other.sends;
+      this.back_pressured += other.back_pressured;
+      this.received += other.received;
+      this.received_bytes += other.received_bytes;
+    }
+
+    long messagesPerSecond()
+    {
+      return this.received / (long) this.duration_seconds;
+    }
+
+    long bytesPerSecond()
+    {
+      return this.received_bytes / (long) this.duration_seconds;
+    }
+  }
+
+  private static final class Parameters
+  {
+    @Parameter(names = "-help", description = "Show usage information", help = true)
+    private boolean help;
+
+    @Parameter(names = "-duologues", description = "The number of duologues")
+    private int duologues = 1;
+
+    @Parameter(names = "-payload-sizes", description = "The sizes in bytes of ECHO payloads")
+    private List<Integer> payload_sizes =
+      Arrays.asList(Integer.valueOf(16), Integer.valueOf(64), Integer.valueOf(256), Integer.valueOf(1000));
+
+    @Parameter(names = "-duologue-fragment-limits", description = "The server fragment limits for duologues")
+    private List<Integer> duologue_fragment_limits =
+      Arrays.asList(Integer.valueOf(1), Integer.valueOf(10), Integer.valueOf(100));
+
+    @Parameter(names = "-all-clients-fragment-limits", description = "The server fragment limits for the all-clients channel")
+    private List<Integer> all_clients_fragment_limits =
+      Arrays.asList(Integer.valueOf(100));
+
+    @Parameter(names = "-reply-batch-bytes", description = "The maximum size of server reply batches (0 disables batching)")
+    private int reply_batch_bytes = 0;
+
+    @Parameter(names = "-warmup", description = "The warmup period in seconds")
+    private int warmup_seconds = 2;
+
+    @Parameter(names = "-duration", description = "The measurement period in seconds")
+    private int duration_seconds = 5;
+
+    @Parameter(names = "-threading-mode", description = "The media driver threading mode")
+    private ThreadingMode threading_mode;
+
+    @Parameter(names = "-poll-interval-us", description = "The server poll interval in microseconds")
+    private long poll_interval_us = 100L;
+
+    @Parameter(names = "-address", description = "The local address used by the server and client")
+    private String address = "127.0.0.1";
+
+    @Parameter(names = "-port", description = "The base UDP port used by the server")
+    private int port = 9000;
+
+    @Parameter(names = "-directory", description = "The directory used for media driver files")
+    private Path directory = Paths.get("/tmp/aeron-throughput");
+
+    @Parameter(names = "-log-level", description = "The level at which to log")
+    private String log_level = "INFO";
+
+    @Parameter(names = "-output", description = "The directory to which results are written")
+    private Path output = Paths.get("target/throughput");
+
+    Parameters()
+    {
+
+    }
+
+    void check()
+    {
+      checkPositive("-duologues", this.duologues);
+      checkPositive("-duration", this.duration_seconds);
+      checkPositive("-poll-interval-us", this.poll_interval_us);
+
+      if (this.reply_batch_bytes < 0) {
+        throw new IllegalArgumentException("-reply-batch-bytes must be non-negative");
+      }
+
+      if (this.warmup_seconds < 0) {
+        throw new IllegalArgumentException("-warmup must be non-negative");
+      }
+
+      for (final Integer size : this.payload_sizes) {
+        if (size.intValue() < 0 || size.intValue() > BenchmarkHarnesses.PAYLOAD_SIZE_MAXIMUM) {
+          throw new IllegalArgumentException(
+            "-payload-sizes must be in the range [0, "
+              + BenchmarkHarnesses.PAYLOAD_SIZE_MAXIMUM + "]");
+        }
+      }
+      for (final Integer limit : this.duologue_fragment_limits) {
+        checkPositive("-duologue-fragment-limits", limit.intValue());
+      }
+      for (final Integer limit : this.all_clients_fragment_limits) {
+        checkPositive("-all-clients-fragment-limits", limit.intValue());
+      }
+    }
+
+    private static void checkPositive(
+      final String name,
+      final long value)
+    {
+      if (value <= 0L) {
+        throw new IllegalArgumentException(name + " must be positive");
+      }
+    }
+  }
+}
@@ -0,0 +1,677 @@
+package com.io7m.aeron_guide.take2;
+
+import ch.qos.logback.classic.Level;
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.HdrHistogram.Histogram;
+import org.agrona.concurrent.EpochClock;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.agrona.concurrent.status.CountersReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A deterministic simulation of the server's client-tracking state at a
+ * scale that would be impractical with real clients.
+ * </p>
+ *
+ * <p>
+ * The simulation drives {@link EchoServer.ClientState} directly on a single
+ * thread, with a simulated clock that advances in fixed ticks, simulated
+ * duologues in place of Aeron publications and subscriptions, and a reply
+ * sink that captures replies instead of sending them. On every tick, a fixed
+ * number of simulated clients send HELLO messages, clients whose lifetimes
+ * have ended disconnect, the clock advances, and the state is polled. A
+ * proportion of clients never connect to their duologues, and so their
+ * duologues expire. Given the same parameters and seed, every run performs
+ * exactly the same sequence of operations.
+ * </p>
+ *
+ * <p>
+ * The simulation reports the time taken per handshake and per call to
+ * {@code poll()} (also written to HdrHistogram percentile files), and checks
+ * that the state holds no resources once every client has gone away. It
+ * exits with a non-zero status if it does.
+ * </p>
+ */
+
+public final class EchoServerClientStateSimulation
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(EchoServerClientStateSimulation.class);
+
+  private final Parameters parameters;
+  private final SimulatedClock clock;
+  private final SimulatedExecutor executor;
+  private final EchoServerCounters counters;
+  private final EchoServer.ClientState state;
+  private final Random random;
+  private final InetAddress[] addresses;
+  private final List<List<SimulatedDuologue>> disconnections;
+  private final Histogram handshake_time;
+  private final Histogram poll_time;
+  private final EchoServerReplySinkType replies;
+  private SimulatedDuologue created;
+  private String reply;
+  private long tick;
+  private int started;
+  private int accepted;
+  private int rejected_full;
+  private int rejected_address;
+  private int dropped;
+  private int no_shows;
+  private int disconnected;
+
+  private EchoServerClientStateSimulation(
+    final Parameters in_parameters)
+    throws Exception
+  {
+    this.parameters = Objects.requireNonNull(in_parameters, "parameters");
+
+    this.clock = new SimulatedClock(Instant.parse("2000-01-01T00:00:00Z").toEpochMilli());
+    this.executor = new SimulatedExecutor(Thread.currentThread());
+    this.random = new Random(this.parameters.seed);
+
+    this.counters =
+      EchoServerCounters.create(
+        new CountersManager(
+          new UnsafeBuffer(ByteBuffer.allocateDirect(32 * CountersReader.METADATA_LENGTH)),
+          new UnsafeBuffer(ByteBuffer.allocateDirect(32 * CountersReader.COUNTER_LENGTH))));
+
+    final EchoServerConfiguration configuration =
+      ImmutableEchoServerConfiguration.builder()
+        .baseDirectory(Paths.get("/nonexistent"))
+        .localAddress(InetAddress.getByName("10.0.0.1"))
+        .localInitialPort(9000)
+        .localInitialControlPort(9001)
+        .localClientsBasePort(2000)
+        .clientMaximumCount(this.parameters.client_maximum)
+        .maximumConnectionsPerAddress(this.parameters.per_address)
+        .duologueConnectTimeout(Duration.ofMillis(this.parameters.connect_timeout_ms))
+        .handshakeRatePerAddress(this.parameters.rate_per_address)
+        .handshakeBurstPerAddress(this.parameters.burst_per_address)
+        .handshakeRateGlobal(this.parameters.rate_global)
+        .handshakeBurstGlobal(this.parameters.burst_global)
+        .build();
+
+    this.state =
+      new EchoServer.ClientState(
+        this.clock,
+        this.executor,
+        this.counters,
+        configuration,
+        this::createDuologue);
+
+    this.addresses = new InetAddress[this.parameters.addresses];
+    for (int index = 0; index < this.addresses.length; ++index) {
+      this.addresses[index] =
+        InetAddress.getByAddress(new byte[]{
+          (byte) 10,
+          (byte) ((index >>> 16) & 0xff),
+          (byte) ((index >>> 8) & 0xff),
+          (byte) (index & 0xff),
+        });
+    }
+
+    this.disconnections = new ArrayList<>(this.parameters.lifetime_ticks * 2 + 1);
+    for (int index = 0; index <= this.parameters.lifetime_ticks * 2; ++index) {
+      this.disconnections.add(new ArrayList<>());
+    }
+
+    this.handshake_time = new Histogram(3);
+    this.poll_time = new Histogram(3);
+    this.replies = (session, message) -> this.reply = message;
+  }
+
+  /**
+   * Command-line entry point.
+   *
+   * @param args Command-line arguments
+   *
+   * @throws Exception On any error
+   */
+
+  public static void main(
+    final String[] args)
+    throws Exception
+  {
+    final Parameters parameters = new Parameters();
+    final JCommander commander =
+      JCommander.newBuilder()
+        .addObject(parameters)
+        .programName("EchoServerClientStateSimulation")
+        .build();
+
+    commander.parse(args);
+    if (parameters.help) {
+      commander.usage();
+      return;
+    }
+
+    parameters.check();
+
+    final ch.qos.logback.classic.Logger root =
+      (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+    root.setLevel(Level.toLevel(parameters.log_level, Level.INFO));
+
+    final EchoServerClientStateSimulation simulation =
+      new EchoServerClientStateSimulation(parameters);
+
+    final boolean idle = simulation.run();
+    simulation.report();
+    simulation.writeHistograms();
+
+    if (!idle) {
+      System.exit(1);
+    }
+  }
+
+  private EchoServerDuologueType createDuologue(
+    final EchoServerDuologueStatistics statistics,
+    final int slot,
+    final EchoServerBufferPool buffers,
+    final EchoServerFragmentReassembler reassembler,
+    final InetAddress owner_address,
+    final int session,
+    final int port_data,
+    final int port_control,
+    final long resume_token,
+    final Duration resume_grace)
+  {
+    this.created =
+      new SimulatedDuologue(
+        statistics,
+        slot,
+        owner_address,
+        session,
+        port_data,
+        port_control,
+        this.clock.time() + this.parameters.connect_timeout_ms);
+    return this.created;
+  }
+
+  private boolean run()
+    throws Exception
+  {
+    LOG.info(
+      "simulating {} sessions, {} HELLOs per tick, at most {} duologues",
+      Integer.valueOf(this.parameters.sessions),
+      Integer.valueOf(this.parameters.arrivals_per_tick),
+      Integer.valueOf(this.parameters.client_maximum));
+
+    final long tick_limit =
+      (long) (this.parameters.sessions / this.parameters.arrivals_per_tick)
+        + (long) this.parameters.lifetime_ticks * 2L
+        + this.parameters.connect_timeout_ms / this.parameters.tick_ms
+        + 10L;
+
+    final long time_start = System.nanoTime();
+    while (this.tick < tick_limit) {
+      for (int index = 0;
+           index < this.parameters.arrivals_per_tick
+             && this.started < this.parameters.sessions;
+           ++index) {
+        this.handshake();
+      }
+
+      this.disconnectDue();
+      this.clock.advance(this.parameters.tick_ms);
+      this.state.updateTime();
+
+      final long poll_start = System.nanoTime();
+      this.state.poll();
+      this.poll_time.recordValue(System.nanoTime() - poll_start);
+
+      ++this.tick;
+
+      if (this.started == this.parameters.sessions
+        && this.state.resourceUsage().isIdle()) {
+        break;
+      }
+    }
+
+    LOG.info(
+      "simulated {} ticks ({}) in {} ms",
+      Long.valueOf(this.tick),
+      Duration.ofMillis(this.tick * this.parameters.tick_ms),
+      Long.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time_start)));
+
+    final EchoServerResourceUsage usage = this.state.resourceUsage();
+    if (!usage.isIdle()) {
+      LOG.error("resources were not released: {}", usage);
+      return false;
+    }
+
+    LOG.info("all resources released: {}", usage);
+    return true;
+  }
+
+  private void handshake()
+    throws Exception
+  {
+    final int initial_session = this.started;
+    final Integer initial_session_boxed = Integer.valueOf(initial_session);
+    final InetAddress address = this.addresses[initial_session % this.addresses.length];
+    ++this.started;
+
+    this.state.onInitialClientConnected(initial_session, address);
+
+    final String message =
+      "HELLO " + Integer.toUnsignedString(this.random.nextInt(), 16).toUpperCase();
+
+    this.created = null;
+    this.reply = null;
+
+    final long time_start = System.nanoTime();
+    final boolean admitted =
+      this.state.admitInitialClientMessage(initial_session);
+    if (admitted) {
+      this.state.onInitialClientMessageProcess(
+        this.replies,
+        Integer.toString(initial_session),
+        initial_session_boxed,
+        message);
+    }
+    this.handshake_time.recordValue(System.nanoTime() - time_start);
+
+    this.state.onInitialClientDisconnected(initial_session);
+
+    if (!admitted) {
+      ++this.dropped;
+      return;
+    }
+
+    if (this.created != null) {
+      ++this.accepted;
+
+      if (this.random.nextInt(100) < this.parameters.no_show_percent) {
+        ++this.no_shows;
+        return;
+      }
+
+      this.created.connected = true;
+      final int lifetime = 1 + this.random.nextInt(this.parameters.lifetime_ticks * 2);
+      this.disconnections
+        .get((int) ((this.tick + (long) lifetime) % (long) this.disconnections.size()))
+        .add(this.created);
+      return;
+    }
+
+    if (this.reply != null && this.reply.contains("server full")) {
+      ++this.rejected_full;
+    } else {
+      ++this.rejected_address;
+    }
+  }
+
+  private void disconnectDue()
+  {
+    final List<SimulatedDuologue> due =
+      this.disconnections.get((int) (this.tick % (long) this.disconnections.size()));
+
+    for (int index = 0; index < due.size(); ++index) {
+      final SimulatedDuologue duologue = due.get(index);
+      duologue.connected = false;
+      duologue.close();
+      ++this.disconnected;
+    }
+    due.clear();
+  }
+
+  private void report()
+  {
+    LOG.info(
+      "sessions: {} accepted, {} rejected (server full), {} rejected (address limit), {} dropped (rate limit)",
+      Integer.valueOf(this.accepted),
+      Integer.valueOf(this.rejected_full),
+      Integer.valueOf(this.rejected_address),
+      Integer.valueOf(this.dropped));
+    LOG.info(
+      "duologues: {} disconnected, {} never connected",
+      Integer.valueOf(this.disconnected),
+      Integer.valueOf(this.no_shows));
+
+    report("handshake", this.handshake_time);
+    report("poll", this.poll_time);
+  }
+
+  private static void report(
+    final String name,
+    final Histogram histogram)
+  {
+    LOG.info(
+      "{} time (us): count {} mean {} p50 {} p99 {} p99.9 {} max {}",
+      name,
+      Long.valueOf(histogram.getTotalCount()),
+      String.format("%.2f", Double.valueOf(histogram.getMean() / 1000.0)),
+      Long.valueOf(toMicros(histogram.getValueAtPercentile(50.0))),
+      Long.valueOf(toMicros(histogram.getValueAtPercentile(99.0))),
+      Long.valueOf(toMicros(histogram.getValueAtPercentile(99.9))),
+      Long.valueOf(toMicros(histogram.getMaxValue())));
+  }
+
+  private void writeHistograms()
+    throws Exception
+  {
+    Files.createDirectories(this.parameters.output);
+    this.writeHistogram("handshake", this.handshake_time);
+    this.writeHistogram("poll", this.poll_time);
+  }
+
+  private void writeHistogram(
+    final String name,
+    final Histogram histogram)
+    throws Exception
+  {
+    final Path file =
+      this.parameters.output.resolve(
+        new StringBuilder(64)
+          .append("client-state-")
+          .append(name)
+          .append("-s")
+          .append(this.parameters.sessions)
+          .append("-m")
+          .append(this.parameters.client_maximum)
+          .append(".hgrm")
+          .toString());
+
+    try (final PrintStream output = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+      histogram.outputPercentileDistribution(output, Double.valueOf(1000.0));
+    }
+    LOG.info("wrote {}", file);
+  }
+
+  private static long toMicros(
+    final long nanos)
+  {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  /**
+   * A clock that only moves when told to.
+   */
+
+  private static final class SimulatedClock implements EpochClock
+  {
+    private long now;
+
+    SimulatedClock(
+      final long in_now)
+    {
+      this.now = in_now;
+    }
+
+    void advance(
+      final long millis)
+    {
+      this.now += millis;
+    }
+
+    @Override
+    public long time()
+    {
+      return this.now;
+    }
+  }
+
+  /**
+   * An executor that runs tasks immediately on the simulation thread.
+   */
+
+  private static final class SimulatedExecutor implements EchoServerExecutorService
+  {
+    private final Thread thread;
+
+    SimulatedExecutor(
+      final Thread in_thread)
+    {
+      this.thread = Objects.requireNonNull(in_thread, "thread");
+    }
+
+    @Override
+    public boolean isExecutorThread()
+    {
+      return Thread.currentThread() == this.thread;
+    }
+
+    @Override
+    public long queueDepth()
+    {
+      return 0L;
+    }
+
+    @Override
+    public long queueSojournNanos()
+    {
+      return 0L;
+    }
+
+    @Override
+    public double utilization()
+    {
+      return 0.0;
+    }
+
+    @Override
+    public void execute(
+      final Runnable runnable)
+    {
+      this.assertIsExecutorThread();
+      runnable.run();
+    }
+
+    @Override
+    public void close()
+    {
+
+    }
+  }
+
+  /**
+   * A duologue without a publication or subscription. A connected duologue
+   * exchanges one message with its client every time it is polled.
+   */
+
+  private static final class SimulatedDuologue implements EchoServerDuologueType
+  {
+    private final EchoServerDuologueStatistics statistics;
+    private final int slot;
+    private final InetAddress owner;
+    private final int session;
+    private final int port_data;
+    private final int port_control;
+    private final long expire;
+    private boolean connected;
+    private boolean closed;
+
+    SimulatedDuologue(
+      final EchoServerDuologueStatistics in_statistics,
+      final int in_slot,
+      final InetAddress in_owner,
+      final int in_session,
+      final int in_port_data,
+      final int in_port_control,
+      final long in_expire)
+    {
+      this.statistics = Objects.requireNonNull(in_statistics, "statistics");
+      this.owner = Objects.requireNonNull(in_owner, "owner");
+      this.expire = in_expire;
+      this.slot = in_slot;
+      this.session = in_session;
+      this.port_data = in_port_data;
+      this.port_control = in_port_control;
+    }
+
+    @Override
+    public int poll(
+      final int fragment_limit)
+    {
+      if (this.connected) {
+        final long now = this.statistics.lastActivity(this.slot) + 1L;
+        this.statistics.onMessageReceived(this.slot, 32, now);
+        this.statistics.onMessageSent(this.slot, 32, now);
+        return 1;
+      }
+      return 0;
+    }
+
+    @Override
+    public boolean hasWorkAvailable()
+    {
+      return this.connected && !this.closed;
+    }
+
+    @Override
+    public boolean isExpired(
+      final long now)
+    {
+      return !this.connected && now > this.expire;
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+      return this.closed;
+    }
+
+    @Override
+    public void close()
+    {
+      this.closed = true;
+    }
+
+    @Override
+    public int portData()
+    {
+      return this.port_data;
+    }
+
+    @Override
+    public int portControl()
+    {
+      return this.port_control;
+    }
+
+    @Override
+    public InetAddress ownerAddress()
+    {
+      return this.owner;
+    }
+
+    @Override
+    public int session()
+    {
+      return this.session;
+    }
+
+    @Override
+    public int slot()
+    {
+      return this.slot;
+    }
+  }
+
+  private static final class Parameters
+  {
+    @Parameter(names = "-help", description = "Show usage information", help = true)
+    private boolean help;
+
+    @Parameter(names = "-sessions", description = "The total number of simulated clients")
+    private int sessions = 100000;
+
+    @Parameter(names = "-client-maximum", description = "The maximum number of duologues allowed at any one time")
+    private int client_maximum = 30000;
+
+    @Parameter(names = "-addresses", description = "The number of distinct simulated client addresses")
+    private int addresses = 4096;
+
+    @Parameter(names = "-per-address", description = "The maximum number of duologues per client address")
+    private int per_address = 16;
+
+    @Parameter(names = "-arrivals-per-tick", description = "The number of HELLO messages received per tick")
+    private int arrivals_per_tick = 500;
+
+    @Parameter(names = "-tick-ms", description = "The simulated duration of a tick in milliseconds")
+    private long tick_ms = 10L;
+
+    @Parameter(names = "-lifetime-ticks", description = "The mean number of ticks that a connected client stays connected")
+    private int lifetime_ticks = 100;
+
+    @Parameter(names = "-no-show-percent", description = "The percentage of clients that never connect to their duologue")
+    private int no_show_percent = 5;
+
+    @Parameter(names = "-connect-timeout-ms", description = "The simulated time the server waits for a client to connect to a new duologue")
+    private long connect_timeout_ms = 10000L;
+
+    @Parameter(names = "-rate-per-address", description = "The server's sustained handshake rate limit per client address")
+    private int rate_per_address = 100;
+
+    @Parameter(names = "-burst-per-address", description = "The server's handshake burst limit per client address")
+    private int burst_per_address = 100;
+
+    @Parameter(names = "-rate-global", description = "The server's sustained handshake rate limit for all clients combined")
+    private int rate_global = 1_000_000;
+
+    @Parameter(names = "-burst-global", description = "The server's handshake burst limit for all clients combined")
+    private int burst_global = 1_000_000;
+
+    @Parameter(names = "-seed", description = "The seed for the random number generator")
+    private long seed = 0x2044f002L;
+
+    @Parameter(names = "-log-level", description = "The level at which to log")
+    private String log_level = "INFO";
+
+    @Parameter(names = "-output", description = "The directory to which histograms are written")
+    private Path output = Paths.get("target/simulation");
+
+    Parameters()
+    {
+
+    }
+
+    void check()
+    {
+      checkPositive("-sessions", this.sessions);
+      checkPositive("-client-maximum", this.client_maximum);
+      checkPositive("-addresses", this.addresses);
+      checkPositive("-per-address", this.per_address);
+      checkPositive("-arrivals-per-tick", this.arrivals_per_tick);
+      checkPositive("-tick-ms", this.tick_ms);
+      checkPositive("-lifetime-ticks", this.lifetime_ticks);
+      checkPositive("-connect-timeout-ms", this.connect_timeout_ms);
+      checkPositive("-rate-per-address", this.rate_per_address);
+      checkPositive("-burst-per-address", this.burst_per_address);
+      checkPositive("-rate-global", this.rate_global);
+      checkPositive("-burst-global", this.burst_global);
+
+      if (this.no_show_percent < 0 || this.no_show_percent > 100) {
+        throw new IllegalArgumentException("-no-show-percent must be in the range [0, 100]");
+      }
+    }
+
+    private static void checkPositive(
+      final String name,
+      final long value)
+    {
+      if (value <= 0L) {
+        throw new IllegalArgumentException(name + " must be positive");
+      }
+    }
+  }
+}
@@ -39,4 +39,37 @@ public final class EchoAddresses
       throw new IllegalArgumentException(e);
     }
   }
+
+  /**
+   * Derive a primitive key from the given address, suitable for keying
+   * per-address state in primitive collections. An IPv4 address is mapped
+   * to its 32-bit value tagged with an upper byte of {@code 0xff}. An IPv6
+   * address is mapped to its upper 64 bits (its /64 network prefix), as a
+   * single host typically controls an entire /64. Tagged IPv4 keys lie within
+   * the IPv6 multicast range, and so cannot collide with the prefix of a
+   * unicast source address.
+   *
+   * @param address The address
+   *
+   * @return A key for the address
+   */
+
+  public static long addressKey(
+    final InetAddress address)
+  {
+    final byte[] bytes = address.getAddress();
+    long key = 0L;
+
+    if (bytes.length == 4) {
+      for (int index = 0; index < 4; ++index) {
+        key = (key << 8) | (long) (bytes[index] & 0xff);
+      }
+      return 0xff00_0000_0000_0000L | key;
+    }
+
+    for (int index = 0; index < 8; ++index) {
+      key = (key << 8) | (long) (bytes[index] & 0xff);
+    }
+    return key;
+  }
 }
@@ -0,0 +1,435 @@
+package com.io7m.aeron_guide.take2;
+
+import io.aeron.FragmentAssembler;
+import io.aeron.Publication;
+import io.aeron.logbuffer.FragmentHandler;
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <p>
+ * A blocking facade over one or more duologues established by a single
+ * {@link EchoClient}.
+ * </p>
+ *
+ * <p>
+ * Any number of threads may call {@link #echo(String, Duration)}
+ * concurrently. Each request is tagged with a correlation ID and the calling
+ * thread parks until the response carrying that correlation ID arrives. A
+ * single platform <i>poller thread</i> polls the subscriptions of all of the
+ * duologues and unparks the waiting threads. Because waiting threads are
+ * parked with {@link LockSupport} rather than spinning or sleeping, callers
+ * may be virtual threads on platforms that support them.
+ * </p>
+ */
+
+public final class EchoBlockingClient implements Closeable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(EchoBlockingClient.class);
+
+  private static final Pattern PATTERN_ECHO_CORRELATED =
+    Pattern.compile("^ECHO ([0-9a-f]+) (.*)$", Pattern.DOTALL);
+
+  private final List<EchoClientDuologue> duologues;
+  private final List<Outbound> outbounds;
+  private final int stream_maximum;
+  private final Map<Long, Waiter> waiters;
+  private final AtomicLong correlation;
+  private final AtomicInteger next_duologue;
+  private final Thread poller;
+  private volatile boolean closed;
+
+  private EchoBlockingClient(
+    final List<EchoClientDuologue> in_duologues,
+    final int in_stream_maximum)
+  {
+    this.duologues =
+      Collections.unmodifiableList(
+        Objects.requireNonNull(in_duologues, "duologues"));
+    this.stream_maximum = in_stream_maximum;
+
+    final List<Outbound> in_outbounds = new ArrayList<>(in_duologues.size());
+    for (final EchoClientDuologue duologue : in_duologues) {
+      in_outbounds.add(new Outbound(duologue));
+    }
+    this.outbounds = Collections.unmodifiableList(in_outbounds);
+
+    this.waiters = new ConcurrentHashMap<>(1024);
+    this.correlation = new AtomicLong(0L);
+    this.next_duologue = new AtomicInteger(0);
+    this.closed = false;
+
+    this.poller = new Thread(this::runPoller);
+    this.poller.setDaemon(true);
+    this.poller.setName(
+      new StringBuilder(64)
+        .append("com.io7m.aeron_guide.take2.client-poller[")
+        .append(Long.toUnsignedString(this.poller.getId()))
+        .append("]")
+        .toString());
+  }
+
+  /**
+   * Create a new blocking client, performing {@code duologue_count}
+   * handshakes with the server using the given client.
+   *
+   * @param client         The client
+   * @param duologue_count The number of duologues that will be shared by callers
+   *
+   * @return A new blocking client
+   *
+   * @throws EchoClientException On any error
+   */
+
+  public static EchoBlockingClient create(
+    final EchoClient client,
+    final int duologue_count)
+    throws EchoClientException
+  {
+    Objects.requireNonNull(client, "client");
+
+    if (duologue_count <= 0) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Duologue count %d must be positive",
+          Integer.valueOf(duologue_count)));
+    }
+
+    final List<EchoClientDuologue> duologues = new ArrayList<>(duologue_count);
+    try {
+      for (int index = 0; index < duologue_count; ++index) {
+        duologues.add(client.connect());
+      }
+    } catch (final EchoClientException e) {
+      for (final EchoClientDuologue duologue : duologues) {
+        duologue.close();
+      }
+      throw e;
+    }
+
+    final EchoBlockingClient blocking =
+      new EchoBlockingClient(
+        duologues, client.configuration().streamMaximumSize());
+    blocking.poller.start();
+    return blocking;
+  }
+
+  /**
+   * Send an ECHO message to the server and block until the server echoes it
+   * back. Messages too large for a single frame are streamed to the server
+   * in chunks, and the server streams them back.
+   *
+   * @param message The message
+   * @param timeout The maximum time to wait for a response
+   *
+   * @return The message echoed by the server
+   *
+   * @throws EchoClientException On any error, or if no response arrives in time
+   */
+
+  public String echo(
+    final String message,
+    final Duration timeout)
+    throws EchoClientException
+  {
+    Objects.requireNonNull(message, "message");
+    Objects.requireNonNull(timeout, "timeout");
+
+    final long deadline = System.nanoTime() + timeout.toNanos();
+
+    final long correlation_id = this.correlation.incrementAndGet();
+    final Long correlation_boxed = Long.valueOf(correlation_id);
+    final Waiter waiter = new Waiter(Thread.currentThread());
+    this.waiters.put(correlation_boxed, waiter);
+
+    try {
+      final Outbound outbound = this.pickOutbound();
+
+      final byte[] bytes =
+        new StringBuilder(message.length() + 32)
+          .append("ECHO ")
+          .append(Long.toUnsignedString(correlation_id, 16))
+          .append(" ")
+          .append(message)
+          .toString()
+          .getBytes(UTF_8);
+
+      final Publication publication = outbound.duologue.publication();
+      if (bytes.length > publication.maxPayloadLength()) {
+        this.sendChunked(outbound, bytes, deadline);
+      } else {
+        this.send(publication, new UnsafeBuffer(bytes), bytes.length, deadline);
+      }
+
+      while (true) {
+        final String response = waiter.response;
+        if (response != null) {
+          return response;
+        }
+
+        if (this.closed) {
+          throw new EchoClientIOException(new IOException("Client is closed"));
+        }
+
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0L) {
+          throw new EchoClientTimedOutException(
+            "Waiting for ECHO response from server");
+        }
+
+        LockSupport.parkNanos(this, remaining);
+
+        if (Thread.interrupted()) {
+          Thread.currentThread().interrupt();
+          throw new EchoClientTimedOutException(
+            "Interrupted waiting for ECHO response from server");
+        }
+      }
+    } finally {
+      this.waiters.remove(correlation_boxed);
+    }
+  }
+
+  private Outbound pickOutbound()
+  {
+    final int index =
+      Math.floorMod(this.next_duologue.getAndIncrement(), this.outbounds.size());
+    return this.outbounds.get(index);
+  }
+
+  /**
+   * Send a message as a stream of chunks, each of which fits in a single
+   * frame. Only one stream at a time may be sent on a publication, so other
+   * threads wishing to stream on the same publication wait, for no longer
+   * than their own deadlines. The wait uses a lock rather than a monitor so
+   * that a virtual thread parked while sending does not pin its carrier.
+   *
+   * If the deadline passes part of the way through the stream, the stream
+   * is abandoned with an ABORT chunk so that the server does not treat the
+   * next stream as a protocol violation. If even the ABORT chunk cannot be
+   * sent, it is sent before the next stream on the same duologue.
+   */
+
+  private void sendChunked(
+    final Outbound outbound,
+    final byte[] bytes,
+    final long deadline)
+    throws EchoClientException
+  {
+    final Publication publication = outbound.duologue.publication();
+    final int chunk_maximum =
+      publication.maxPayloadLength() - EchoMessageChunks.CHUNK_HEADER_LENGTH;
+    final UnsafeBuffer chunk =
+      new UnsafeBuffer(new byte[publication.maxPayloadLength()]);
+
+    lockStream(outbound.stream_lock, deadline);
+    try {
+      if (outbound.stream_open) {
+        EchoMessageChunks.putAbortHeader(chunk, 0);
+        this.send(publication, chunk, EchoMessageChunks.CHUNK_HEADER_LENGTH, deadline);
+        outbound.stream_open = false;
+      }
+
+      for (int position = 0; position < bytes.length; position += chunk_maximum) {
+        final int length = Math.min(chunk_maximum, bytes.length - position);
+        final boolean end = position + length == bytes.length;
+        EchoMessageChunks.putHeader(chunk, 0, position == 0, end);
+        chunk.putBytes(
+          EchoMessageChunks.CHUNK_HEADER_LENGTH, bytes, position, length);
+
+        try {
+          this.send(
+            publication,
+            chunk,
+            EchoMessageChunks.CHUNK_HEADER_LENGTH + length,
+            deadline);
+        } catch (final EchoClientException e) {
+          if (outbound.stream_open) {
+            EchoMessageChunks.putAbortHeader(chunk, 0);
+            outbound.stream_open =
+              publication.offer(chunk, 0, EchoMessageChunks.CHUNK_HEADER_LENGTH) < 0L;
+          }
+          throw e;
+        }
+        outbound.stream_open = !end;
+      }
+    } finally {
+      outbound.stream_lock.unlock();
+    }
+  }
+
+  private static void lockStream(
+    final ReentrantLock lock,
+    final long deadline)
+    throws EchoClientTimedOutException
+  {
+    try {
+      if (!lock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        throw new EchoClientTimedOutException(
+          "Waiting to stream ECHO message to server");
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EchoClientTimedOutException(
+        "Interrupted waiting to stream ECHO message to server");
+    }
+  }
+
+  private void send(
+    final Publication publication,
+    final UnsafeBuffer buffer,
+    final int length,
+    final long deadline)
+    throws EchoClientException
+  {
+    while (true) {
+      final long result = publication.offer(buffer, 0, length);
+      if (result >= 0L) {
+        return;
+      }
+
+      if (result == Publication.CLOSED
+        || result == Publication.MAX_POSITION_EXCEEDED) {
+        throw new EchoClientIOException(
+          new IOException("Could not send message: Error code: " + result));
+      }
+
+      if (System.nanoTime() - deadline >= 0L) {
+        throw new EchoClientTimedOutException(
+          "Sending ECHO message to server");
+      }
+
+      LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1L));
+    }
+  }
+
+  private void runPoller()
+  {
+    final IdleStrategy idle =
+      new BackoffIdleStrategy(
+        100L,
+        10L,
+        TimeUnit.MICROSECONDS.toNanos(1L),
+        TimeUnit.MILLISECONDS.toNanos(1L));
+
+    final FragmentHandler handler =
+      new FragmentAssembler(EchoMessageBatchHandler.create(
+        EchoMessageChunkAssembler.create(
+          (buffer, offset, length, header) ->
+            this.onResponse(buffer, offset, length),
+          this.stream_maximum)));
+
+    while (!this.closed) {
+      int work = 0;
+      for (int index = 0; index < this.duologues.size(); ++index) {
+        work += this.duologues.get(index).subscription().poll(handler, 100);
+      }
+      idle.idle(work);
+    }
+  }
+
+  private void onResponse(
+    final DirectBuffer buffer,
+    final int offset,
+    final int length)
+  {
+    final String response =
+      EchoMessages.parseMessageUTF8(buffer, offset, length);
+
+    final Matcher matcher = PATTERN_ECHO_CORRELATED.matcher(response);
+    if (!matcher.matches()) {
+      LOG.debug("ignored uncorrelated message: {}", response);
+      return;
+    }
+
+    final long correlation_id;
+    try {
+      correlation_id = Long.parseUnsignedLong(matcher.group(1), 16);
+    } catch (final NumberFormatException e) {
+      LOG.debug("ignored message with bad correlation ID: {}", response);
+      return;
+    }
+
+    final Waiter waiter = this.waiters.get(Long.valueOf(correlation_id));
+    if (waiter == null) {
+      LOG.debug("ignored response for abandoned request: {}", response);
+      return;
+    }
+
+    waiter.response = matcher.group(2);
+    LockSupport.unpark(waiter.thread);
+  }
+
+  @Override
+  public void close()
+  {
+    this.closed = true;
+
+    try {
+      this.poller.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    for (final Waiter waiter : this.waiters.values()) {
+      LockSupport.unpark(waiter.thread);
+    }
+
+    for (final EchoClientDuologue duologue : this.duologues) {
+      duologue.close();
+    }
+  }
+
+  /**
+   * A duologue, and the state of the stream being sent on it.
+   */
+
+  private static final class Outbound
+  {
+    private final EchoClientDuologue duologue;
+    private final ReentrantLock stream_lock;
+    private boolean stream_open;
+
+    Outbound(final EchoClientDuologue in_duologue)
+    {
+      this.duologue = Objects.requireNonNull(in_duologue, "duologue");
+      this.stream_lock = new ReentrantLock();
+      this.stream_open = false;
+    }
+  }
+
+  private static final class Waiter
+  {
+    private final Thread thread;
+    private volatile String response;
+
+    Waiter(final Thread in_thread)
+    {
+      this.thread = Objects.requireNonNull(in_thread, "thread");
+    }
+  }
+}
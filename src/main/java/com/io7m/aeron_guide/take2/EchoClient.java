@@ -9,6 +9,8 @@ import io.aeron.driver.MediaDriver;
 import io.aeron.logbuffer.FragmentHandler;
 import org.agrona.BufferUtil;
 import org.agrona.DirectBuffer;
+import org.agrona.concurrent.BusySpinIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
 import org.agrona.concurrent.UnsafeBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,10 +18,15 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.ByteOrder;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -33,28 +40,37 @@ public final class EchoClient implements Closeable
 
   private static final int ECHO_STREAM_ID = 0x2044f002;
 
-  private static final Pattern PATTERN_ERROR =
-    Pattern.compile("^ERROR (.*)$");
-  private static final Pattern PATTERN_CONNECT =
-    Pattern.compile("^CONNECT ([0-9]+) ([0-9]+) ([0-9A-F]+)$");
-  private static final Pattern PATTERN_ECHO =
-    Pattern.compile("^ECHO (.*)$");
+  private static final Pattern PATTERN_ECHO_TIMED =
+    Pattern.compile("^ECHO ([0-9a-f]+) ([0-9a-f]+)$");
 
   private final MediaDriver media_driver;
   private final Aeron aeron;
   private final EchoClientConfiguration configuration;
   private final SecureRandom random;
+  private final EchoClientBackoff backoff;
+  private final EchoClientHandshakeLimiter limiter;
+  private final EchoClientLatency latency;
   private volatile int remote_data_port;
   private volatile int remote_control_port;
   private volatile boolean remote_ports_received;
   private volatile boolean failed;
+  private volatile String failed_message;
+  private volatile long failed_retry_after;
+  private volatile int failed_load;
   private volatile int remote_session;
   private volatile int duologue_key;
+  private volatile long resume_key;
+  private volatile long resume_token;
+  private volatile boolean resume_token_received;
+  private long rtt_sequence;
+  private boolean rtt_waiting;
+  private boolean resume_confirmed;
 
   private EchoClient(
     final MediaDriver in_media_driver,
     final Aeron in_aeron,
-    final EchoClientConfiguration in_configuration)
+    final EchoClientConfiguration in_configuration,
+    final EchoClientHandshakeLimiter in_limiter)
   {
     this.media_driver =
       Objects.requireNonNull(in_media_driver, "media_driver");
@@ -62,8 +78,16 @@ public final class EchoClient implements Closeable
       Objects.requireNonNull(in_aeron, "aeron");
     this.configuration =
       Objects.requireNonNull(in_configuration, "configuration");
+    this.limiter =
+      Objects.requireNonNull(in_limiter, "limiter");
 
     this.random = new SecureRandom();
+    this.latency = EchoClientLatency.create();
+    this.backoff =
+      EchoClientBackoff.create(
+        this.configuration.rejectionRetryBaseDelay(),
+        this.configuration.rejectionRetryMaximumDelay(),
+        this.random);
   }
 
   /**
@@ -79,8 +103,30 @@ public final class EchoClient implements Closeable
   public static EchoClient create(
     final EchoClientConfiguration configuration)
     throws EchoClientException
+  {
+    return create(configuration, EchoClientHandshakeLimiter.unlimited());
+  }
+
+  /**
+   * Create a new client. The client will not begin a handshake with the
+   * server until the given limiter permits it, and so a limiter shared
+   * between clients caps the number of handshakes in progress.
+   *
+   * @param configuration The client configuration data
+   * @param limiter       A limit on concurrent handshakes
+   *
+   * @return A new client
+   *
+   * @throws EchoClientCreationException On any initialization error
+   */
+
+  public static EchoClient create(
+    final EchoClientConfiguration configuration,
+    final EchoClientHandshakeLimiter limiter)
+    throws EchoClientException
   {
     Objects.requireNonNull(configuration, "configuration");
+    Objects.requireNonNull(limiter, "limiter");
 
     final String directory =
       configuration.baseDirectory()
@@ -94,6 +140,9 @@ public final class EchoClient implements Closeable
         .publicationReservedSessionIdHigh(EchoSessions.RESERVED_SESSION_ID_HIGH)
         .aeronDirectoryName(directory);
 
+    configuration.mediaDriverThreadingMode()
+      .ifPresent(media_context::threadingMode);
+
     final Aeron.Context aeron_context =
       new Aeron.Context().aeronDirectoryName(directory);
 
@@ -110,7 +159,7 @@ public final class EchoClient implements Closeable
         throw e;
       }
 
-      return new EchoClient(media_driver, aeron, configuration);
+      return new EchoClient(media_driver, aeron, configuration, limiter);
     } catch (final Exception e) {
       try {
         closeIfNotNull(media_driver);
@@ -167,7 +216,8 @@ public final class EchoClient implements Closeable
   }
 
   /**
-   * Run the client, returning when the client is finished.
+   * Run the client, returning when the client is finished. The client is
+   * finished when the thread that called this method is interrupted.
    *
    * @throws EchoClientException On any error
    */
@@ -175,47 +225,268 @@ public final class EchoClient implements Closeable
   public void run()
     throws EchoClientException
   {
+    final UnsafeBuffer buffer =
+      new UnsafeBuffer(BufferUtil.allocateDirectAligned(1024, 16));
+
+    final boolean fast_start = this.configuration.handshakeFastStart();
+    final long resume_timeout =
+      this.configuration.sessionResumptionTimeout().toNanos();
+
+    String session_name = this.handshakeWithRetries(buffer, fast_start);
+
     /*
-     * Generate a one-time pad.
+     * Connect to the publication and subscription that the server has sent
+     * back to this client. In fast-start mode, the subscription is not
+     * waited upon: The server retries any ECHO response that it cannot
+     * send until the subscription image has joined.
+     *
+     * If the server issued a resumption token, then losing the connection
+     * to the duologue is not fatal: The client reconnects to the same
+     * duologue and presents the token instead of starting again on the
+     * all-clients channel. The server only holds the duologue for a limited
+     * grace period, so the client only tries to resume for a limited time
+     * after the connection was lost, and then falls back to a full handshake.
+     * A session counts as lost again only once the server has confirmed that
+     * it was resumed.
      */
 
-    this.duologue_key = this.random.nextInt();
+    boolean resuming = false;
+    long time_lost = 0L;
+    while (!Thread.currentThread().isInterrupted()) {
+      try (final Subscription subscription =
+             fast_start
+               ? this.createConnectSubscription()
+               : this.setupConnectSubscription()) {
+        try (final Publication publication = this.setupConnectPublication()) {
+          if (resuming) {
+            this.resume_confirmed = false;
+            EchoMessages.sendMessage(
+              publication,
+              buffer,
+              "RESUME " + Long.toUnsignedString(this.resume_token, 16).toUpperCase());
+          }
+          this.runEchoLoop(buffer, session_name, subscription, publication);
+          return;
+        }
+      } catch (final IOException e) {
+        if (!this.resume_token_received) {
+          throw new EchoClientIOException(e);
+        }
+
+        if (!resuming || this.resume_confirmed) {
+          LOG.debug("[{}] lost connection to duologue, resuming: ", session_name, e);
+          time_lost = System.nanoTime();
+          resuming = true;
+        }
+      } catch (final EchoClientTimedOutException e) {
+        if (!resuming) {
+          throw e;
+        }
+        LOG.debug("[{}] could not reconnect to duologue: ", session_name, e);
+      }
 
+      if (resuming && System.nanoTime() - time_lost >= resume_timeout) {
+        LOG.debug("[{}] could not resume session, starting a new session", session_name);
+        session_name = this.handshakeWithRetries(buffer, fast_start);
+        resuming = false;
+      }
+    }
+  }
+
+  /**
+   * Perform the initial handshake with the server and connect to the
+   * resulting duologue, returning the connected duologue instead of running
+   * the echo loop. This method must not be called concurrently with itself
+   * or with {@link #run()}.
+   *
+   * @return A connected duologue
+   *
+   * @throws EchoClientException On any error
+   */
+
+  public EchoClientDuologue connect()
+    throws EchoClientException
+  {
     final UnsafeBuffer buffer =
       new UnsafeBuffer(BufferUtil.allocateDirectAligned(1024, 16));
 
-    final String session_name;
-    try (final Subscription subscription = this.setupAllClientsSubscription()) {
+    final boolean fast_start = this.configuration.handshakeFastStart();
+    final String session_name = this.handshakeWithRetries(buffer, fast_start);
+
+    final Subscription subscription =
+      fast_start
+        ? this.createConnectSubscription()
+        : this.setupConnectSubscription();
+
+    try {
+      final Publication publication = this.setupConnectPublication();
+      final OptionalLong resume_token =
+        this.resume_token_received
+          ? OptionalLong.of(this.resume_token)
+          : OptionalLong.empty();
+      return EchoClientDuologue.create(
+        session_name, resume_token, publication, subscription);
+    } catch (final EchoClientException e) {
+      subscription.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Perform the initial handshake with the server, retrying with a jittered
+   * exponential backoff if the server rejects the client with a retryable
+   * error. Any other rejection, such as a malformed request, will not be
+   * cured by trying again and is raised immediately.
+   */
+
+  private String handshakeWithRetries(
+    final UnsafeBuffer buffer,
+    final boolean fast_start)
+    throws EchoClientException
+  {
+    final int attempts_max = this.configuration.rejectionRetryMaximumAttempts();
+
+    for (int attempt = 0; ; ++attempt) {
+      try {
+        return this.handshakeLimited(buffer, fast_start);
+      } catch (final EchoClientRejectedException e) {
+        final Optional<Duration> retry_after = e.retryAfter();
+        if (!retry_after.isPresent() || attempt >= attempts_max) {
+          throw e;
+        }
+
+        final long delay =
+          this.backoff.delayMillis(attempt, retry_after.get());
+
+        LOG.debug(
+          "rejected by server (load {}), retrying in {}ms",
+          e.serverLoad().isPresent()
+            ? Integer.toString(e.serverLoad().getAsInt()) + "%"
+            : "unknown",
+          Long.valueOf(delay));
+
+        try {
+          Thread.sleep(delay);
+        } catch (final InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  private String handshakeLimited(
+    final UnsafeBuffer buffer,
+    final boolean fast_start)
+    throws EchoClientException
+  {
+    try {
+      this.limiter.acquire();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EchoClientTimedOutException(
+        "Interrupted waiting to begin handshake");
+    }
+
+    try {
+      return this.handshake(buffer, fast_start);
+    } finally {
+      this.limiter.release();
+    }
+  }
+
+  private String handshake(
+    final UnsafeBuffer buffer,
+    final boolean fast_start)
+    throws EchoClientException
+  {
+    /*
+     * Generate a one-time pad.
+     */
+
+    this.duologue_key = this.random.nextInt();
+    this.resume_key = this.random.nextLong();
+    this.remote_ports_received = false;
+    this.resume_token_received = false;
+    this.failed = false;
+
+    /*
+     * In fast-start mode, the publication and subscription are created
+     * together and are then waited upon together, rather than the
+     * publication only being created once the subscription is connected.
+     */
+
+    try (final Subscription subscription =
+           fast_start
+             ? this.createAllClientsSubscription()
+             : this.setupAllClientsSubscription()) {
       try (final Publication publication = this.setupAllClientsPublication()) {
 
+        /*
+         * The subscription must have an image before the HELLO is sent:
+         * The image of a dynamic MDC subscription joins the stream at the
+         * current position, and so a CONNECT response sent before the
+         * image joins would never be seen.
+         */
+
+        if (fast_start) {
+          awaitSubscriptionConnected(
+            subscription,
+            "initial subscription",
+            "Making initial subscription to server");
+        }
+
         /*
          * Send a one-time pad to the server.
          */
 
-        EchoMessages.sendMessage(
-          publication,
-          buffer,
-          "HELLO " + Integer.toUnsignedString(this.duologue_key, 16).toUpperCase());
+        EchoMessages.sendMessage(publication, buffer, this.helloMessage());
 
-        session_name = Integer.toString(publication.sessionId());
-        this.waitForConnectResponse(subscription, session_name);
+        final String session_name = Integer.toString(publication.sessionId());
+        this.waitForConnectResponse(
+          subscription, publication.sessionId(), session_name);
+        return session_name;
       } catch (final IOException e) {
         throw new EchoClientIOException(e);
       }
     }
+  }
+
+  private String helloMessage()
+  {
+    final StringBuilder text =
+      new StringBuilder(64)
+        .append("HELLO ")
+        .append(Integer.toUnsignedString(this.duologue_key, 16).toUpperCase());
 
     /*
-     * Connect to the publication and subscription that the server has sent
-     * back to this client.
+     * A second one-time pad asks the server for a resumption token.
      */
 
-    try (final Subscription subscription = this.setupConnectSubscription()) {
-      try (final Publication publication = this.setupConnectPublication()) {
-        this.runEchoLoop(buffer, session_name, subscription, publication);
-      } catch (final IOException e) {
-        throw new EchoClientIOException(e);
-      }
+    if (this.configuration.sessionResumption()) {
+      text.append(" ")
+        .append(Long.toUnsignedString(this.resume_key, 16).toUpperCase());
     }
+    return text.toString();
+  }
+
+  /**
+   * @return The client's configuration
+   */
+
+  public EchoClientConfiguration configuration()
+  {
+    return this.configuration;
+  }
+
+  /**
+   * @return The round-trip times recorded by the client, if
+   * {@link EchoClientConfiguration#rttMeasurement()} is enabled
+   */
+
+  public EchoClientLatency latency()
+  {
+    return this.latency;
   }
 
   private void runEchoLoop(
@@ -226,11 +497,27 @@ public final class EchoClient implements Closeable
     throws IOException
   {
     final FragmentHandler handler =
-      new FragmentAssembler(
-        (data, offset, length, header) ->
-          onEchoResponse(session_name, data, offset, length));
+      new FragmentAssembler(EchoMessageBatchHandler.create(
+        EchoMessageChunkAssembler.create(
+          (data, offset, length, header) ->
+            this.onEchoResponse(session_name, data, offset, length),
+          this.configuration.streamMaximumSize())));
+
+    if (this.configuration.rttMeasurement()) {
+      this.runTimedEchoLoop(buffer, session_name, subscription, publication, handler);
+    } else {
+      this.runUntimedEchoLoop(buffer, subscription, publication, handler);
+    }
+  }
 
-    while (true) {
+  private void runUntimedEchoLoop(
+    final UnsafeBuffer buffer,
+    final Subscription subscription,
+    final Publication publication,
+    final FragmentHandler handler)
+    throws IOException
+  {
+    while (!Thread.currentThread().isInterrupted()) {
 
       /*
        * Send ECHO messages to the server and wait for responses.
@@ -248,29 +535,122 @@ public final class EchoClient implements Closeable
           Thread.sleep(10L);
         } catch (final InterruptedException e) {
           Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private void runTimedEchoLoop(
+    final UnsafeBuffer buffer,
+    final String session_name,
+    final Subscription subscription,
+    final Publication publication,
+    final FragmentHandler handler)
+    throws IOException
+  {
+    final long report_interval =
+      this.configuration.rttReportInterval().toNanos();
+    final long reply_timeout =
+      this.configuration.rttReplyTimeout().toNanos();
+
+    /*
+     * Sleeping between polls would add the sleep time to every measured
+     * round trip, so the subscription is polled continuously until the
+     * response to the current message arrives.
+     */
+
+    final IdleStrategy idle = new BusySpinIdleStrategy();
+    long report_next = System.nanoTime() + report_interval;
+
+    while (!Thread.currentThread().isInterrupted()) {
+
+      /*
+       * Send an ECHO message carrying a sequence number and the time at
+       * which it was sent. The server echoes both back.
+       */
+
+      final long time_sent = System.nanoTime();
+      this.rtt_waiting = true;
+      EchoMessages.sendMessage(
+        publication,
+        buffer,
+        new StringBuilder(64)
+          .append("ECHO ")
+          .append(Long.toUnsignedString(this.rtt_sequence, 16))
+          .append(" ")
+          .append(Long.toUnsignedString(time_sent, 16))
+          .toString());
+
+      while (this.rtt_waiting) {
+        idle.idle(subscription.poll(handler, 1000));
+
+        if (System.nanoTime() - time_sent >= reply_timeout) {
+          LOG.debug(
+            "[{}] no response to message {}",
+            session_name,
+            Long.valueOf(this.rtt_sequence));
+          this.latency.recordLost();
+          this.rtt_waiting = false;
         }
       }
+
+      ++this.rtt_sequence;
+
+      if (System.nanoTime() - report_next >= 0L) {
+        this.latency.report(LOG, session_name);
+        report_next = System.nanoTime() + report_interval;
+      }
     }
   }
 
-  private static void onEchoResponse(
+  private void onEchoResponse(
     final String session_name,
     final DirectBuffer buffer,
     final int offset,
     final int length)
   {
+    final long time_received = System.nanoTime();
+
     final String response =
       EchoMessages.parseMessageUTF8(buffer, offset, length);
 
     LOG.debug("[{}] response: {}", session_name, response);
 
-    final Matcher echo_matcher = PATTERN_ECHO.matcher(response);
+    if (this.configuration.rttMeasurement()) {
+      final Matcher timed_matcher = PATTERN_ECHO_TIMED.matcher(response);
+      if (timed_matcher.matches()) {
+        final long sequence =
+          Long.parseUnsignedLong(timed_matcher.group(1), 16);
+        if (this.rtt_waiting && sequence == this.rtt_sequence) {
+          final long time_sent =
+            Long.parseUnsignedLong(timed_matcher.group(2), 16);
+          this.latency.record(time_received - time_sent);
+          this.rtt_waiting = false;
+        } else {
+          LOG.debug(
+            "[{}] unexpected response to message {}",
+            session_name,
+            Long.valueOf(sequence));
+          this.latency.recordUnexpected();
+        }
+        return;
+      }
+    }
+
+    final Matcher echo_matcher = EchoMessages.PATTERN_ECHO.matcher(response);
     if (echo_matcher.matches()) {
       final String message = echo_matcher.group(1);
       LOG.debug("[{}] ECHO {}", session_name, message);
       return;
     }
 
+    if (Objects.equals(response, "RESUMED")) {
+      LOG.debug("[{}] session resumed", session_name);
+      this.resume_confirmed = true;
+      return;
+    }
+
     LOG.error(
       "[{}] server returned unrecognized message: {}",
       session_name,
@@ -288,54 +668,38 @@ public final class EchoClient implements Closeable
         this.remote_session,
         ECHO_STREAM_ID);
 
-    for (int index = 0; index < 1000; ++index) {
-      if (publication.isConnected()) {
-        LOG.debug("CONNECT publication connected");
-        return publication;
-      }
-
-      try {
-        Thread.sleep(10L);
-      } catch (final InterruptedException e) {
-        Thread.currentThread().interrupt();
-      }
-    }
-
-    publication.close();
-    throw new EchoClientTimedOutException("Making CONNECT publication to server");
+    awaitPublicationConnected(
+      publication,
+      "CONNECT publication",
+      "Making CONNECT publication to server");
+    return publication;
   }
 
   private Subscription setupConnectSubscription()
     throws EchoClientTimedOutException
   {
-    final Subscription subscription =
-      EchoChannels.createSubscriptionDynamicMDCWithSession(
-        this.aeron,
-        this.configuration.remoteAddress(),
-        this.remote_control_port,
-        this.remote_session,
-        ECHO_STREAM_ID);
-
-    for (int index = 0; index < 1000; ++index) {
-      if (subscription.isConnected() && subscription.imageCount() > 0) {
-        LOG.debug("CONNECT subscription connected");
-        return subscription;
-      }
+    final Subscription subscription = this.createConnectSubscription();
 
-      try {
-        Thread.sleep(10L);
-      } catch (final InterruptedException e) {
-        Thread.currentThread().interrupt();
-      }
-    }
-
-    subscription.close();
-    throw new EchoClientTimedOutException(
+    awaitSubscriptionConnected(
+      subscription,
+      "CONNECT subscription",
       "Making CONNECT subscription to server");
+    return subscription;
+  }
+
+  private Subscription createConnectSubscription()
+  {
+    return EchoChannels.createSubscriptionDynamicMDCWithSession(
+      this.aeron,
+      this.configuration.remoteAddress(),
+      this.remote_control_port,
+      this.remote_session,
+      ECHO_STREAM_ID);
   }
 
   private void waitForConnectResponse(
     final Subscription subscription,
+    final int session,
     final String session_name)
     throws EchoClientTimedOutException, EchoClientRejectedException
   {
@@ -344,13 +708,20 @@ public final class EchoClient implements Closeable
     final FragmentHandler handler =
       new FragmentAssembler(
         (data, offset, length, header) ->
-          this.onInitialResponse(session_name, data, offset, length));
+          this.onInitialResponse(session, session_name, data, offset, length));
 
     for (int index = 0; index < 1000; ++index) {
       subscription.poll(handler, 1000);
 
       if (this.failed) {
-        throw new EchoClientRejectedException("Server rejected this client");
+        final long retry_after = this.failed_retry_after;
+        final int load = this.failed_load;
+        throw new EchoClientRejectedException(
+          "Server rejected this client: " + this.failed_message,
+          retry_after >= 0L
+            ? Optional.of(Duration.ofMillis(retry_after))
+            : Optional.empty(),
+          load >= 0 ? OptionalInt.of(load) : OptionalInt.empty());
       }
 
       if (this.remote_ports_received) {
@@ -373,13 +744,30 @@ public final class EchoClient implements Closeable
    */
 
   private void onInitialResponse(
+    final int session,
     final String session_name,
     final DirectBuffer buffer,
     final int offset,
     final int length)
   {
+    /*
+     * If the server routes replies, discard the replies intended for other
+     * clients without decoding them.
+     */
+
+    int text_offset = offset;
+    int text_length = length;
+    if (length >= EchoMessages.ROUTED_REPLY_HEADER_LENGTH
+      && buffer.getByte(offset) == EchoMessages.ROUTED_REPLY_MARKER) {
+      if (buffer.getInt(offset + 1, ByteOrder.LITTLE_ENDIAN) != session) {
+        return;
+      }
+      text_offset += EchoMessages.ROUTED_REPLY_HEADER_LENGTH;
+      text_length -= EchoMessages.ROUTED_REPLY_HEADER_LENGTH;
+    }
+
     final String response =
-      EchoMessages.parseMessageUTF8(buffer, offset, length);
+      EchoMessages.parseMessageUTF8(buffer, text_offset, text_length);
 
     LOG.trace("[{}] response: {}", session_name, response);
 
@@ -412,15 +800,29 @@ public final class EchoClient implements Closeable
 
     final String text = response.substring(space).trim();
 
-    final Matcher error_matcher = PATTERN_ERROR.matcher(text);
+    final Matcher retryable_matcher = EchoMessages.PATTERN_ERROR_RETRYABLE.matcher(text);
+    if (retryable_matcher.matches()) {
+      final String message = retryable_matcher.group(1);
+      LOG.error("[{}] server returned an error: {}", session_name, message);
+      this.failed_message = message;
+      this.failed_retry_after = Long.parseUnsignedLong(retryable_matcher.group(2));
+      this.failed_load = Integer.parseUnsignedInt(retryable_matcher.group(3));
+      this.failed = true;
+      return;
+    }
+
+    final Matcher error_matcher = EchoMessages.PATTERN_ERROR.matcher(text);
     if (error_matcher.matches()) {
       final String message = error_matcher.group(1);
       LOG.error("[{}] server returned an error: {}", session_name, message);
+      this.failed_message = message;
+      this.failed_retry_after = -1L;
+      this.failed_load = -1;
       this.failed = true;
       return;
     }
 
-    final Matcher connect_matcher = PATTERN_CONNECT.matcher(text);
+    final Matcher connect_matcher = EchoMessages.PATTERN_CONNECT.matcher(text);
     if (connect_matcher.matches()) {
       final int port_data =
         Integer.parseUnsignedInt(connect_matcher.group(1));
@@ -438,6 +840,14 @@ public final class EchoClient implements Closeable
       this.remote_control_port = port_control;
       this.remote_data_port = port_data;
       this.remote_session = this.duologue_key ^ session_crypted;
+
+      final String resume_crypted = connect_matcher.group(4);
+      if (resume_crypted != null) {
+        this.resume_token =
+          this.resume_key ^ Long.parseUnsignedLong(resume_crypted, 16);
+        this.resume_token_received = true;
+      }
+
       this.remote_ports_received = true;
       return;
     }
@@ -458,10 +868,49 @@ public final class EchoClient implements Closeable
         this.configuration.remoteInitialPort(),
         ECHO_STREAM_ID);
 
+    awaitPublicationConnected(
+      publication,
+      "initial publication",
+      "Making initial publication to server");
+    return publication;
+  }
+
+  private Subscription setupAllClientsSubscription()
+    throws EchoClientTimedOutException
+  {
+    final Subscription subscription = this.createAllClientsSubscription();
+
+    awaitSubscriptionConnected(
+      subscription,
+      "initial subscription",
+      "Making initial subscription to server");
+    return subscription;
+  }
+
+  private Subscription createAllClientsSubscription()
+  {
+    return EchoChannels.createSubscriptionDynamicMDC(
+      this.aeron,
+      this.configuration.remoteAddress(),
+      this.configuration.remoteInitialControlPort(),
+      ECHO_STREAM_ID);
+  }
+
+  /**
+   * Wait for the given publication to become connected, closing it and
+   * raising an exception if it does not connect in time.
+   */
+
+  private static void awaitPublicationConnected(
+    final Publication publication,
+    final String name,
+    final String timeout_message)
+    throws EchoClientTimedOutException
+  {
     for (int index = 0; index < 1000; ++index) {
       if (publication.isConnected()) {
-        LOG.debug("initial publication connected");
-        return publication;
+        LOG.debug("{} connected", name);
+        return;
       }
 
       try {
@@ -472,23 +921,25 @@ public final class EchoClient implements Closeable
     }
 
     publication.close();
-    throw new EchoClientTimedOutException("Making initial publication to server");
+    throw new EchoClientTimedOutException(timeout_message);
   }
 
-  private Subscription setupAllClientsSubscription()
+  /**
+   * Wait for the given subscription to become connected and to have at least
+   * one image, closing it and raising an exception if it does not connect in
+   * time.
+   */
+
+  private static void awaitSubscriptionConnected(
+    final Subscription subscription,
+    final String name,
+    final String timeout_message)
     throws EchoClientTimedOutException
   {
-    final Subscription subscription =
-      EchoChannels.createSubscriptionDynamicMDC(
-        this.aeron,
-        this.configuration.remoteAddress(),
-        this.configuration.remoteInitialControlPort(),
-        ECHO_STREAM_ID);
-
     for (int index = 0; index < 1000; ++index) {
       if (subscription.isConnected() && subscription.imageCount() > 0) {
-        LOG.debug("initial subscription connected");
-        return subscription;
+        LOG.debug("{} connected", name);
+        return;
       }
 
       try {
@@ -499,8 +950,7 @@ public final class EchoClient implements Closeable
     }
 
     subscription.close();
-    throw new EchoClientTimedOutException(
-      "Making initial subscription to server");
+    throw new EchoClientTimedOutException(timeout_message);
   }
 
   @Override
@@ -0,0 +1,105 @@
+package com.io7m.aeron_guide.take2;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * <p>
+ * A jittered exponential backoff used to space out reconnection attempts.
+ * </p>
+ *
+ * <p>
+ * The delay for attempt {@code n} is the delay that the server suggested
+ * (if any) plus a random value in the range {@code [0, min(max, base * 2^n)]}.
+ * The random component keeps clients that were rejected at the same time
+ * from all retrying at the same time.
+ * </p>
+ */
+
+public final class EchoClientBackoff
+{
+  private final long base_ms;
+  private final long max_ms;
+  private final Random random;
+
+  private EchoClientBackoff(
+    final Duration in_base,
+    final Duration in_max,
+    final Random in_random)
+  {
+    Objects.requireNonNull(in_base, "base");
+    Objects.requireNonNull(in_max, "max");
+
+    this.base_ms = in_base.toMillis();
+    this.max_ms = in_max.toMillis();
+
+    if (this.base_ms <= 0L) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Base delay %dms must be positive",
+          Long.valueOf(this.base_ms)));
+    }
+
+    if (this.max_ms < this.base_ms) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Maximum delay %dms must be >= base delay %dms",
+          Long.valueOf(this.max_ms),
+          Long.valueOf(this.base_ms)));
+    }
+
+    this.random = Objects.requireNonNull(in_random, "random");
+  }
+
+  /**
+   * Create a new backoff.
+   *
+   * @param base   The base delay
+   * @param max    The maximum delay
+   * @param random A random number generator
+   *
+   * @return A new backoff
+   */
+
+  public static EchoClientBackoff create(
+    final Duration base,
+    final Duration max,
+    final Random random)
+  {
+    return new EchoClientBackoff(base, max, random);
+  }
+
+  /**
+   * Calculate the delay before the given retry attempt.
+   *
+   * @param attempt     The attempt number, starting at {@code 0}
+   * @param server_hint The delay suggested by the server, or {@link Duration#ZERO}
+   *
+   * @return The delay in milliseconds
+   */
+
+  public long delayMillis(
+    final int attempt,
+    final Duration server_hint)
+  {
+    Objects.requireNonNull(server_hint, "server_hint");
+
+    /*
+     * Double the ceiling for each attempt, taking care not to overflow.
+     */
+
+    final int shift = Math.max(0, attempt);
+    final long ceiling =
+      (shift >= 63 || this.base_ms > (this.max_ms >>> shift))
+        ? this.max_ms
+        : this.base_ms << shift;
+
+    final long floor =
+      Math.min(this.max_ms, Math.max(0L, server_hint.toMillis()));
+    final long jitter =
+      (long) (this.random.nextDouble() * (double) (ceiling + 1L));
+
+    return floor + Math.min(jitter, ceiling);
+  }
+}
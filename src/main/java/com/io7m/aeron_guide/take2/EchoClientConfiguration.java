@@ -1,9 +1,12 @@
 package com.io7m.aeron_guide.take2;
 
+import io.aeron.driver.ThreadingMode;
 import org.immutables.value.Value;
 
 import java.net.InetAddress;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
 
 /**
  * Configuration values for the client.
@@ -39,4 +42,126 @@ public interface EchoClientConfiguration
 
   @Value.Parameter
   int remoteInitialControlPort();
+
+  /**
+   * @return {@code true} if the client should overlap the setup of its
+   * publications and subscriptions during the initial handshake, rather than
+   * waiting for each to become connected in turn
+   */
+
+  @Value.Default
+  default boolean handshakeFastStart()
+  {
+    return false;
+  }
+
+  /**
+   * @return {@code true} if the client should ask the server for a token that
+   * allows it to resume its session after a brief loss of connectivity
+   */
+
+  @Value.Default
+  default boolean sessionResumption()
+  {
+    return false;
+  }
+
+  /**
+   * @return The length of time that the client will spend trying to resume a
+   * lost session, if {@link #sessionResumption()} is enabled, before giving up
+   * and starting a new session with a full handshake. This should not exceed
+   * the grace period that the server allows for resumption.
+   */
+
+  @Value.Default
+  default Duration sessionResumptionTimeout()
+  {
+    return Duration.ofSeconds(10L);
+  }
+
+  /**
+   * @return The number of times the client will retry the initial handshake
+   * after being rejected by the server with a retryable error
+   */
+
+  @Value.Default
+  default int rejectionRetryMaximumAttempts()
+  {
+    return 0;
+  }
+
+  /**
+   * @return The base delay used when retrying a rejected handshake
+   */
+
+  @Value.Default
+  default Duration rejectionRetryBaseDelay()
+  {
+    return Duration.ofMillis(100L);
+  }
+
+  /**
+   * @return The maximum delay (excluding any delay suggested by the server)
+   * used when retrying a rejected handshake
+   */
+
+  @Value.Default
+  default Duration rejectionRetryMaximumDelay()
+  {
+    return Duration.ofSeconds(30L);
+  }
+
+  /**
+   * @return {@code true} if the client should timestamp each ECHO message and
+   * record the round-trip time of each response
+   */
+
+  @Value.Default
+  default boolean rttMeasurement()
+  {
+    return false;
+  }
+
+  /**
+   * @return The interval at which recorded round-trip times are logged, if
+   * {@link #rttMeasurement()} is enabled
+   */
+
+  @Value.Default
+  default Duration rttReportInterval()
+  {
+    return Duration.ofSeconds(10L);
+  }
+
+  /**
+   * @return The length of time that the client will wait for the response to
+   * a timestamped ECHO message before counting it as lost and sending the
+   * next, if {@link #rttMeasurement()} is enabled
+   */
+
+  @Value.Default
+  default Duration rttReplyTimeout()
+  {
+    return Duration.ofSeconds(1L);
+  }
+
+  /**
+   * @return The maximum size in bytes of a streamed response that the client
+   * will reassemble
+   *
+   * @see EchoMessageChunks
+   */
+
+  @Value.Default
+  default int streamMaximumSize()
+  {
+    return 64 * 1024 * 1024;
+  }
+
+  /**
+   * @return The threading mode used by the client's media driver; if no mode
+   * is specified, the driver's own default is used
+   */
+
+  Optional<ThreadingMode> mediaDriverThreadingMode();
 }
@@ -0,0 +1,105 @@
+package com.io7m.aeron_guide.take2;
+
+import io.aeron.Publication;
+import io.aeron.Subscription;
+
+import java.util.Objects;
+import java.util.OptionalLong;
+
+/**
+ * A connected conversation between a client and the server, as established
+ * by {@link EchoClient#connect()}.
+ */
+
+public final class EchoClientDuologue implements AutoCloseable
+{
+  private final String session_name;
+  private final OptionalLong resume_token;
+  private final Publication publication;
+  private final Subscription subscription;
+
+  private EchoClientDuologue(
+    final String in_session_name,
+    final OptionalLong in_resume_token,
+    final Publication in_publication,
+    final Subscription in_subscription)
+  {
+    this.session_name =
+      Objects.requireNonNull(in_session_name, "session_name");
+    this.resume_token =
+      Objects.requireNonNull(in_resume_token, "resume_token");
+    this.publication =
+      Objects.requireNonNull(in_publication, "publication");
+    this.subscription =
+      Objects.requireNonNull(in_subscription, "subscription");
+  }
+
+  /**
+   * Create a duologue.
+   *
+   * @param session_name The name of the client's session on the all-clients channel
+   * @param resume_token The token with which the session can be resumed, if the server issued one
+   * @param publication  The publication used to send messages to the server
+   * @param subscription The subscription used to receive messages from the server
+   *
+   * @return A new duologue
+   */
+
+  public static EchoClientDuologue create(
+    final String session_name,
+    final OptionalLong resume_token,
+    final Publication publication,
+    final Subscription subscription)
+  {
+    return new EchoClientDuologue(
+      session_name, resume_token, publication, subscription);
+  }
+
+  /**
+   * @return The name of the client's session on the all-clients channel
+   */
+
+  public String sessionName()
+  {
+    return this.session_name;
+  }
+
+  /**
+   * @return The token that the client must present in a {@code RESUME}
+   * message to resume the session after reconnecting, if the server issued
+   * one
+   */
+
+  public OptionalLong resumeToken()
+  {
+    return this.resume_token;
+  }
+
+  /**
+   * @return The publication used to send messages to the server
+   */
+
+  public Publication publication()
+  {
+    return this.publication;
+  }
+
+  /**
+   * @return The subscription used to receive messages from the server
+   */
+
+  public Subscription subscription()
+  {
+    return this.subscription;
+  }
+
+  @Override
+  public void close()
+  {
+    try {
+      this.publication.close();
+    } finally {
+      this.subscription.close();
+    }
+  }
+}
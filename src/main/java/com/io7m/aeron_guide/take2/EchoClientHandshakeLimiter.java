@@ -0,0 +1,72 @@
+package com.io7m.aeron_guide.take2;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * A limit on the number of handshakes that may be in progress at any one
+ * time. A single limiter may be shared between any number of clients in
+ * order to cap the number of connection attempts that a process makes to
+ * a server concurrently.
+ */
+
+public final class EchoClientHandshakeLimiter
+{
+  private final Semaphore permits;
+
+  private EchoClientHandshakeLimiter(
+    final int in_maximum)
+  {
+    if (in_maximum <= 0) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Maximum handshakes %d must be positive",
+          Integer.valueOf(in_maximum)));
+    }
+
+    this.permits = new Semaphore(in_maximum, true);
+  }
+
+  /**
+   * Create a new limiter.
+   *
+   * @param maximum The maximum number of handshakes that may be in progress
+   *
+   * @return A new limiter
+   */
+
+  public static EchoClientHandshakeLimiter create(
+    final int maximum)
+  {
+    return new EchoClientHandshakeLimiter(maximum);
+  }
+
+  /**
+   * @return A limiter that never blocks
+   */
+
+  public static EchoClientHandshakeLimiter unlimited()
+  {
+    return new EchoClientHandshakeLimiter(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Wait until a handshake may begin.
+   *
+   * @throws InterruptedException If the calling thread is interrupted
+   */
+
+  public void acquire()
+    throws InterruptedException
+  {
+    this.permits.acquire();
+  }
+
+  /**
+   * Indicate that a handshake has completed, successfully or otherwise.
+   */
+
+  public void release()
+  {
+    this.permits.release();
+  }
+}
@@ -0,0 +1,168 @@
+package com.io7m.aeron_guide.take2;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Round-trip time measurements for a client.
+ * </p>
+ *
+ * <p>
+ * Round-trip times are recorded, in nanoseconds, into an HdrHistogram
+ * {@link Recorder} by the thread that receives responses. Any thread may
+ * take a snapshot of the measurements at any time: Snapshots accumulate all
+ * of the intervals recorded so far into a cumulative histogram.
+ * </p>
+ *
+ * <p>
+ * Responses that never arrive, and responses that arrive more than once or
+ * after the client has stopped waiting for them, are counted separately so
+ * that they do not silently vanish from the measurements.
+ * </p>
+ */
+
+public final class EchoClientLatency
+{
+  private final Recorder recorder;
+  private final Histogram cumulative;
+  private final AtomicLong lost;
+  private final AtomicLong unexpected;
+  private Histogram interval;
+
+  private EchoClientLatency()
+  {
+    this.recorder = new Recorder(3);
+    this.cumulative = new Histogram(3);
+    this.lost = new AtomicLong(0L);
+    this.unexpected = new AtomicLong(0L);
+    this.interval = null;
+  }
+
+  /**
+   * @return A new, empty set of measurements
+   */
+
+  public static EchoClientLatency create()
+  {
+    return new EchoClientLatency();
+  }
+
+  /**
+   * Record a round-trip time.
+   *
+   * @param rtt_nanos The round-trip time in nanoseconds
+   */
+
+  public void record(
+    final long rtt_nanos)
+  {
+    this.recorder.recordValue(Math.max(0L, rtt_nanos));
+  }
+
+  /**
+   * Record that the response to a message did not arrive in time.
+   */
+
+  public void recordLost()
+  {
+    this.lost.incrementAndGet();
+  }
+
+  /**
+   * Record that a response arrived that the client was not waiting for: A
+   * duplicate, or a response to a message already counted as lost.
+   */
+
+  public void recordUnexpected()
+  {
+    this.unexpected.incrementAndGet();
+  }
+
+  /**
+   * @return The number of responses recorded as lost so far
+   */
+
+  public long lostCount()
+  {
+    return this.lost.get();
+  }
+
+  /**
+   * @return The number of unexpected responses recorded so far
+   */
+
+  public long unexpectedCount()
+  {
+    return this.unexpected.get();
+  }
+
+  /**
+   * @return A copy of all of the round-trip times recorded so far, in nanoseconds
+   */
+
+  public synchronized Histogram snapshot()
+  {
+    this.accumulate();
+    return this.cumulative.copy();
+  }
+
+  /**
+   * Log the round-trip times recorded since the last report (or snapshot),
+   * and all of the round-trip times recorded so far.
+   *
+   * @param log          The logger
+   * @param session_name The name of the client session
+   */
+
+  public synchronized void report(
+    final Logger log,
+    final String session_name)
+  {
+    Objects.requireNonNull(log, "log");
+    Objects.requireNonNull(session_name, "session_name");
+
+    this.accumulate();
+    reportHistogram(log, session_name, "interval", this.interval);
+    reportHistogram(log, session_name, "total", this.cumulative);
+    log.info(
+      "[{}] rtt responses: lost {} unexpected {}",
+      session_name,
+      Long.valueOf(this.lost.get()),
+      Long.valueOf(this.unexpected.get()));
+  }
+
+  private void accumulate()
+  {
+    this.interval = this.recorder.getIntervalHistogram(this.interval);
+    this.cumulative.add(this.interval);
+  }
+
+  private static void reportHistogram(
+    final Logger log,
+    final String session_name,
+    final String name,
+    final Histogram histogram)
+  {
+    log.info(
+      "[{}] rtt {}: count {} p50 {}us p99 {}us p99.9 {}us max {}us",
+      session_name,
+      name,
+      Long.valueOf(histogram.getTotalCount()),
+      Long.valueOf(toMicros(histogram.getValueAtPercentile(50.0))),
+      Long.valueOf(toMicros(histogram.getValueAtPercentile(99.0))),
+      Long.valueOf(toMicros(histogram.getValueAtPercentile(99.9))),
+      Long.valueOf(toMicros(histogram.getMaxValue())));
+  }
+
+  private static long toMicros(
+    final long nanos)
+  {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+}
@@ -1,11 +1,19 @@
 package com.io7m.aeron_guide.take2;
 
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+
 /**
  * The server rejected this client when it tried to connect.
  */
 
 public final class EchoClientRejectedException extends EchoClientException
 {
+  private final Optional<Duration> retry_after;
+  private final OptionalInt server_load;
+
   /**
    * Create an exception.
    *
@@ -13,7 +21,44 @@ public final class EchoClientRejectedException extends EchoClientException
    */
 
   public EchoClientRejectedException(final String message)
+  {
+    this(message, Optional.empty(), OptionalInt.empty());
+  }
+
+  /**
+   * Create an exception.
+   *
+   * @param message        The message
+   * @param in_retry_after The delay that the server suggested before retrying, if any
+   * @param in_server_load The load percentage that the server reported, if any
+   */
+
+  public EchoClientRejectedException(
+    final String message,
+    final Optional<Duration> in_retry_after,
+    final OptionalInt in_server_load)
   {
     super(message);
+    this.retry_after = Objects.requireNonNull(in_retry_after, "retry_after");
+    this.server_load = Objects.requireNonNull(in_server_load, "server_load");
+  }
+
+  /**
+   * @return The delay that the server suggested before retrying, if any
+   */
+
+  public Optional<Duration> retryAfter()
+  {
+    return this.retry_after;
+  }
+
+  /**
+   * @return The load (as a percentage of the server's capacity) that the
+   * server reported when it rejected the client, if any
+   */
+
+  public OptionalInt serverLoad()
+  {
+    return this.server_load;
   }
 }
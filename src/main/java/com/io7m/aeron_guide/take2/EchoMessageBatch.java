@@ -0,0 +1,221 @@
+package com.io7m.aeron_guide.take2;
+
+import io.aeron.Publication;
+import org.agrona.BitUtil;
+import org.agrona.BufferUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <p>
+ * A buffer that coalesces several messages into a single publication frame.
+ * </p>
+ *
+ * <p>
+ * A batch frame consists of the byte {@link #BATCH_MARKER} followed by one
+ * or more entries, each consisting of a little-endian 32-bit length followed
+ * by that many bytes of message. No text message can begin with the marker
+ * byte, so receivers can accept both batched and unbatched messages on the
+ * same subscription using {@link EchoMessageBatchHandler}. A batch that
+ * contains only a single message is sent as an ordinary unbatched message.
+ * </p>
+ *
+ * <p>
+ * The batch is not thread-safe.
+ * </p>
+ */
+
+public final class EchoMessageBatch
+{
+  /**
+   * The byte that begins every batch frame.
+   */
+
+  public static final byte BATCH_MARKER = 0x01;
+
+  /**
+   * The size in bytes of the length that precedes each entry.
+   */
+
+  public static final int ENTRY_HEADER_LENGTH = 4;
+
+  private static final int BATCH_HEADER_LENGTH = 1;
+
+  /**
+   * The smallest capacity of a batch: Enough space for the marker byte and a
+   * single entry of one byte.
+   */
+
+  public static final int MINIMUM_CAPACITY =
+    BATCH_HEADER_LENGTH + ENTRY_HEADER_LENGTH + 1;
+
+  private final UnsafeBuffer buffer;
+  private final int capacity;
+  private int position;
+  private int count;
+
+  private EchoMessageBatch(
+    final UnsafeBuffer in_buffer)
+  {
+    this.buffer = Objects.requireNonNull(in_buffer, "buffer");
+    this.capacity = checkCapacity(in_buffer.capacity());
+    this.reset();
+  }
+
+  /**
+   * Create a new batch.
+   *
+   * @param capacity The maximum size in bytes of an encoded batch
+   *
+   * @return A new batch
+   */
+
+  public static EchoMessageBatch create(
+    final int capacity)
+  {
+    checkCapacity(capacity);
+    return new EchoMessageBatch(
+      new UnsafeBuffer(
+        BufferUtil.allocateDirectAligned(BitUtil.align(capacity, 16), 16),
+        0,
+        capacity));
+  }
+
+  /**
+   * Create a new batch that encodes into an existing buffer. The maximum
+   * size of an encoded batch is the capacity of the buffer.
+   *
+   * @param buffer The buffer
+   *
+   * @return A new batch
+   */
+
+  public static EchoMessageBatch create(
+    final UnsafeBuffer buffer)
+  {
+    return new EchoMessageBatch(buffer);
+  }
+
+  /**
+   * @return The number of messages in the batch
+   */
+
+  public int count()
+  {
+    return this.count;
+  }
+
+  /**
+   * @return {@code true} iff the batch contains no messages
+   */
+
+  public boolean isEmpty()
+  {
+    return this.count == 0;
+  }
+
+  /**
+   * Append a message to the batch.
+   *
+   * @param text The message
+   *
+   * @return {@code false} if there is not enough space remaining in the batch
+   */
+
+  public boolean append(
+    final String text)
+  {
+    Objects.requireNonNull(text, "text");
+
+    final byte[] value = text.getBytes(UTF_8);
+    final int required = ENTRY_HEADER_LENGTH + value.length;
+    if (this.position + required > this.capacity) {
+      return false;
+    }
+
+    this.buffer.putInt(this.position, value.length, ByteOrder.LITTLE_ENDIAN);
+    this.buffer.putBytes(this.position + ENTRY_HEADER_LENGTH, value);
+    this.position += required;
+    ++this.count;
+    return true;
+  }
+
+  /**
+   * Make a single attempt to send the batch to the given publication. If the
+   * batch is sent, the observer is notified once for each message in the
+   * batch, and the batch is emptied. If the batch is empty, the method does
+   * nothing.
+   *
+   * @param pub      The publication
+   * @param observer An observer of send attempts
+   *
+   * @return {@code true} if the batch was sent, or {@code false} if the
+   * publication is temporarily unable to accept it and the caller should try
+   * again later
+   *
+   * @throws IOException If the publication can never accept the batch
+   */
+
+  public boolean offer(
+    final Publication pub,
+    final EchoMessageSendObserver observer)
+    throws IOException
+  {
+    Objects.requireNonNull(pub, "publication");
+    Objects.requireNonNull(observer, "observer");
+
+    if (this.count == 0) {
+      return true;
+    }
+
+    final int offer_length;
+    final long result;
+    if (this.count == 1) {
+      offer_length = this.position - (BATCH_HEADER_LENGTH + ENTRY_HEADER_LENGTH);
+      result = pub.offer(
+        this.buffer, BATCH_HEADER_LENGTH + ENTRY_HEADER_LENGTH, offer_length);
+    } else {
+      offer_length = this.position;
+      result = pub.offer(this.buffer, 0, offer_length);
+    }
+
+    if (result < 0L) {
+      return EchoMessages.checkOfferFailure(pub, offer_length, result, observer);
+    }
+
+    int offset = BATCH_HEADER_LENGTH;
+    while (offset < this.position) {
+      final int length = this.buffer.getInt(offset, ByteOrder.LITTLE_ENDIAN);
+      observer.onMessageSent(length);
+      offset += ENTRY_HEADER_LENGTH + length;
+    }
+
+    this.reset();
+    return true;
+  }
+
+  private static int checkCapacity(
+    final int capacity)
+  {
+    if (capacity < MINIMUM_CAPACITY) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Capacity %d must be at least %d",
+          Integer.valueOf(capacity),
+          Integer.valueOf(MINIMUM_CAPACITY)));
+    }
+    return capacity;
+  }
+
+  private void reset()
+  {
+    this.buffer.putByte(0, BATCH_MARKER);
+    this.position = BATCH_HEADER_LENGTH;
+    this.count = 0;
+  }
+}
@@ -0,0 +1,85 @@
+package com.io7m.aeron_guide.take2;
+
+import io.aeron.logbuffer.FragmentHandler;
+import io.aeron.logbuffer.Header;
+import org.agrona.DirectBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ * <p>
+ * A fragment handler that splits batch frames produced by
+ * {@link EchoMessageBatch} into their individual messages, and passes each
+ * message to a delegate handler. Messages that are not batched are passed
+ * to the delegate unchanged.
+ * </p>
+ *
+ * <p>
+ * Batches may be larger than a single fragment, so the handler should be
+ * wrapped in an {@link io.aeron.FragmentAssembler}.
+ * </p>
+ */
+
+public final class EchoMessageBatchHandler implements FragmentHandler
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(EchoMessageBatchHandler.class);
+
+  private final FragmentHandler delegate;
+
+  private EchoMessageBatchHandler(
+    final FragmentHandler in_delegate)
+  {
+    this.delegate = Objects.requireNonNull(in_delegate, "delegate");
+  }
+
+  /**
+   * Create a new handler.
+   *
+   * @param delegate The handler that will receive individual messages
+   *
+   * @return A new handler
+   */
+
+  public static EchoMessageBatchHandler create(
+    final FragmentHandler delegate)
+  {
+    return new EchoMessageBatchHandler(delegate);
+  }
+
+  @Override
+  public void onFragment(
+    final DirectBuffer buffer,
+    final int offset,
+    final int length,
+    final Header header)
+  {
+    if (length == 0 || buffer.getByte(offset) != EchoMessageBatch.BATCH_MARKER) {
+      this.delegate.onFragment(buffer, offset, length, header);
+      return;
+    }
+
+    final int end = offset + length;
+    int position = offset + 1;
+    while (position < end) {
+      if (end - position < EchoMessageBatch.ENTRY_HEADER_LENGTH) {
+        LOG.error("truncated batch entry header at offset {}", Integer.valueOf(position - offset));
+        return;
+      }
+
+      final int entry_length = buffer.getInt(position, ByteOrder.LITTLE_ENDIAN);
+      position += EchoMessageBatch.ENTRY_HEADER_LENGTH;
+
+      if (entry_length < 0 || entry_length > end - position) {
+        LOG.error("bad batch entry length {}", Integer.valueOf(entry_length));
+        return;
+      }
+
+      this.delegate.onFragment(buffer, position, entry_length, header);
+      position += entry_length;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.io7m.aeron_guide.take2;
+
+import io.aeron.logbuffer.FragmentHandler;
+import io.aeron.logbuffer.Header;
+import org.agrona.DirectBuffer;
+import org.agrona.ExpandableArrayBuffer;
+import org.agrona.collections.Int2ObjectHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+
+/**
+ * <p>
+ * A fragment handler that reassembles streams of chunks produced according
+ * to {@link EchoMessageChunks} and passes each complete message to a
+ * delegate handler. Messages that are not chunks are passed to the delegate
+ * unchanged. Streams are reassembled separately for each publication
+ * session, so a single assembler may be used with several subscriptions.
+ * </p>
+ *
+ * <p>
+ * A stream that grows larger than a given maximum size is discarded.
+ * </p>
+ */
+
+public final class EchoMessageChunkAssembler implements FragmentHandler
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(EchoMessageChunkAssembler.class);
+
+  private final FragmentHandler delegate;
+  private final int maximum;
+  private final Int2ObjectHashMap<Stream> streams;
+
+  private EchoMessageChunkAssembler(
+    final FragmentHandler in_delegate,
+    final int in_maximum)
+  {
+    this.delegate = Objects.requireNonNull(in_delegate, "delegate");
+
+    if (in_maximum <= 0) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Maximum %d must be positive",
+          Integer.valueOf(in_maximum)));
+    }
+
+    this.maximum = in_maximum;
+    this.streams = new Int2ObjectHashMap<>();
+  }
+
+  /**
+   * Create a new assembler.
+   *
+   * @param delegate The handler that will receive complete messages
+   * @param maximum  The maximum size in bytes of a reassembled stream
+   *
+   * @return A new assembler
+   */
+
+  public static EchoMessageChunkAssembler create(
+    final FragmentHandler delegate,
+    final int maximum)
+  {
+    return new EchoMessageChunkAssembler(delegate, maximum);
+  }
+
+  @Override
+  public void onFragment(
+    final DirectBuffer buffer,
+    final int offset,
+    final int length,
+    final Header header)
+  {
+    if (!EchoMessageChunks.isChunk(buffer, offset, length)) {
+      this.delegate.onFragment(buffer, offset, length, header);
+      return;
+    }
+
+    final int session = header == null ? 0 : header.sessionId();
+    Stream stream = this.streams.get(session);
+    if (stream == null) {
+      stream = new Stream();
+      this.streams.put(session, stream);
+    }
+
+    final byte flags = buffer.getByte(offset + 1);
+    if ((flags & EchoMessageChunks.FLAG_BEGIN) != 0) {
+      stream.open = true;
+      stream.limit = 0;
+    }
+
+    if (!stream.open) {
+      LOG.debug("[{}] discarded chunk outside of a stream", Integer.toString(session));
+      return;
+    }
+
+    if ((flags & EchoMessageChunks.FLAG_ABORT) != 0) {
+      LOG.debug("[{}] stream aborted by sender", Integer.toString(session));
+      stream.open = false;
+      stream.limit = 0;
+      return;
+    }
+
+    final int payload = length - EchoMessageChunks.CHUNK_HEADER_LENGTH;
+    if ((long) stream.limit + (long) payload > (long) this.maximum) {
+      LOG.error(
+        "[{}] discarded stream exceeding the maximum size of {} bytes",
+        Integer.toString(session),
+        Integer.valueOf(this.maximum));
+      stream.open = false;
+      stream.limit = 0;
+      return;
+    }
+
+    stream.buffer.putBytes(
+      stream.limit,
+      buffer,
+      offset + EchoMessageChunks.CHUNK_HEADER_LENGTH,
+      payload);
+    stream.limit += payload;
+
+    if ((flags & EchoMessageChunks.FLAG_END) != 0) {
+      stream.open = false;
+      final int limit = stream.limit;
+      stream.limit = 0;
+      this.delegate.onFragment(stream.buffer, 0, limit, header);
+    }
+  }
+
+  private static final class Stream
+  {
+    private final ExpandableArrayBuffer buffer;
+    private int limit;
+    private boolean open;
+
+    Stream()
+    {
+      this.buffer = new ExpandableArrayBuffer(1024);
+      this.limit = 0;
+      this.open = false;
+    }
+  }
+}
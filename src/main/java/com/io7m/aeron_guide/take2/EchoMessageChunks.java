@@ -0,0 +1,131 @@
+package com.io7m.aeron_guide.take2;
+
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+
+/**
+ * <p>
+ * Functions and constants for streaming messages as sequences of chunks.
+ * </p>
+ *
+ * <p>
+ * A message too large to send comfortably as a single Aeron message is sent
+ * as a <i>stream</i>: A sequence of chunk messages whose payloads,
+ * concatenated, form the original message. Each chunk consists of the byte
+ * {@link #CHUNK_MARKER}, a byte of flags, and the payload. The first chunk
+ * of a stream has the {@link #FLAG_BEGIN} flag set, and the last has the
+ * {@link #FLAG_END} flag set. A sender that cannot finish a stream ends it
+ * instead with a chunk that has the {@link #FLAG_ABORT} flag set, and the
+ * recipient discards whatever it has received of the stream. The chunks of
+ * a stream must be sent on the same
+ * publication without interleaving with the chunks of any other stream,
+ * although ordinary messages may be sent between them. No text message can
+ * begin with the marker byte.
+ * </p>
+ *
+ * <p>
+ * The server echoes each chunk of an ECHO stream as soon as it arrives, so
+ * neither side needs to hold more than a single chunk of a stream in memory
+ * before the stream is reassembled by its final recipient.
+ * </p>
+ *
+ * @see EchoMessageChunkAssembler
+ */
+
+public final class EchoMessageChunks
+{
+  /**
+   * The byte that begins every chunk.
+   */
+
+  public static final byte CHUNK_MARKER = 0x02;
+
+  /**
+   * The flag that marks the first chunk of a stream.
+   */
+
+  public static final byte FLAG_BEGIN = 0x01;
+
+  /**
+   * The flag that marks the last chunk of a stream.
+   */
+
+  public static final byte FLAG_END = 0x02;
+
+  /**
+   * The flag that marks a chunk that abandons its stream. The payload of the
+   * chunk, if any, is ignored.
+   */
+
+  public static final byte FLAG_ABORT = 0x04;
+
+  /**
+   * The size in bytes of the marker and flags that begin every chunk.
+   */
+
+  public static final int CHUNK_HEADER_LENGTH = 2;
+
+  private EchoMessageChunks()
+  {
+
+  }
+
+  /**
+   * @param buffer The buffer
+   * @param offset The offset of the message
+   * @param length The length of the message
+   *
+   * @return {@code true} iff the given message is a chunk
+   */
+
+  public static boolean isChunk(
+    final DirectBuffer buffer,
+    final int offset,
+    final int length)
+  {
+    return length >= CHUNK_HEADER_LENGTH
+      && buffer.getByte(offset) == CHUNK_MARKER;
+  }
+
+  /**
+   * Write a chunk header.
+   *
+   * @param buffer The buffer
+   * @param offset The offset at which to write the header
+   * @param begin  {@code true} if the chunk is the first in its stream
+   * @param end    {@code true} if the chunk is the last in its stream
+   */
+
+  public static void putHeader(
+    final MutableDirectBuffer buffer,
+    final int offset,
+    final boolean begin,
+    final boolean end)
+  {
+    int flags = 0;
+    if (begin) {
+      flags |= FLAG_BEGIN;
+    }
+    if (end) {
+      flags |= FLAG_END;
+    }
+
+    buffer.putByte(offset, CHUNK_MARKER);
+    buffer.putByte(offset + 1, (byte) flags);
+  }
+
+  /**
+   * Write a chunk header that abandons the stream in progress.
+   *
+   * @param buffer The buffer
+   * @param offset The offset at which to write the header
+   */
+
+  public static void putAbortHeader(
+    final MutableDirectBuffer buffer,
+    final int offset)
+  {
+    buffer.putByte(offset, CHUNK_MARKER);
+    buffer.putByte(offset + 1, FLAG_ABORT);
+  }
+}
@@ -0,0 +1,52 @@
+package com.io7m.aeron_guide.take2;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * <p>
+ * A JFR event recorded when a message could not be sent. For messages sent
+ * with
+ * {@link EchoMessages#sendMessage(io.aeron.Publication, org.agrona.concurrent.UnsafeBuffer, String, EchoMessageSendObserver)},
+ * the event is recorded once all retries are exhausted, and its duration
+ * covers every attempt. Messages offered without waiting, such as the
+ * replies sent by duologues, record the event as soon as the publication
+ * refuses them permanently.
+ * </p>
+ *
+ * <p>
+ * The event can be disabled by setting {@code enabled} to {@code false} for
+ * the event named {@code com.io7m.aeron_guide.SendFailed}.
+ * </p>
+ */
+
+@Name("com.io7m.aeron_guide.SendFailed")
+@Label("Send Failed")
+@Category({"Aeron Guide", "Messages"})
+@Description("A message could not be sent")
+public final class EchoMessageSendFailedEvent extends Event
+{
+  @Label("Session")
+  @Description("The session ID of the publication")
+  int session;
+
+  @Label("Length")
+  @Description("The length of the message in bytes")
+  int length;
+
+  @Label("Result")
+  @Description("The reason the publication refused the final attempt")
+  String result;
+
+  /**
+   * Construct an event.
+   */
+
+  public EchoMessageSendFailedEvent()
+  {
+
+  }
+}
@@ -0,0 +1,38 @@
+package com.io7m.aeron_guide.take2;
+
+/**
+ * An observer of the outcomes of attempts to send messages with
+ * {@link EchoMessages#sendMessage(io.aeron.Publication, org.agrona.concurrent.UnsafeBuffer, String, EchoMessageSendObserver)}.
+ * Implementations are called on the sending thread and should not block or
+ * allocate.
+ */
+
+public interface EchoMessageSendObserver
+{
+  /**
+   * A message was sent.
+   *
+   * @param length The length of the message in bytes
+   */
+
+  void onMessageSent(int length);
+
+  /**
+   * An attempt to send a message failed due to back pressure.
+   */
+
+  void onBackPressured();
+
+  /**
+   * An attempt to send a message failed because no subscriber is connected
+   * to the publication.
+   */
+
+  void onNotConnected();
+
+  /**
+   * A message could not be sent, and will not be retried.
+   */
+
+  void onSendFailed();
+}
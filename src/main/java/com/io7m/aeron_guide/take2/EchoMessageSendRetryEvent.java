@@ -0,0 +1,54 @@
+package com.io7m.aeron_guide.take2;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>
+ * A JFR event recorded when a publication refuses a message and the send will
+ * be retried. For messages sent with
+ * {@link EchoMessages#sendMessage(io.aeron.Publication, org.agrona.concurrent.UnsafeBuffer, String, EchoMessageSendObserver)},
+ * the duration of the event covers the refused offer and the wait before the
+ * next attempt. Messages offered without waiting, such as the replies sent
+ * by duologues, are retried later by the caller; their events have no
+ * duration and an attempt number of {@code -1}.
+ * </p>
+ *
+ * <p>
+ * The event can be disabled by setting {@code enabled} to {@code false} for
+ * the event named {@code com.io7m.aeron_guide.SendRetry}.
+ * </p>
+ */
+
+@Name("com.io7m.aeron_guide.SendRetry")
+@Label("Send Retry")
+@Category({"Aeron Guide", "Messages"})
+@Description("A publication refused a message, and the send will be retried")
+@StackTrace(false)
+public final class EchoMessageSendRetryEvent extends Event
+{
+  @Label("Session")
+  @Description("The session ID of the publication")
+  int session;
+
+  @Label("Attempt")
+  @Description("The number of the refused attempt, starting at zero, or -1 if the caller retries later")
+  int attempt;
+
+  @Label("Result")
+  @Description("The reason the publication refused the message")
+  String result;
+
+  /**
+   * Construct an event.
+   */
+
+  public EchoMessageSendRetryEvent()
+  {
+
+  }
+}
@@ -7,7 +7,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteOrder;
 import java.util.Objects;
+import java.util.regex.Pattern;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -19,11 +21,201 @@ public final class EchoMessages
 {
   private static final Logger LOG = LoggerFactory.getLogger(EchoMessages.class);
 
+  private static final EchoMessageSendObserver IGNORING_OBSERVER =
+    new EchoMessageSendObserver()
+    {
+      @Override
+      public void onMessageSent(final int length)
+      {
+
+      }
+
+      @Override
+      public void onBackPressured()
+      {
+
+      }
+
+      @Override
+      public void onNotConnected()
+      {
+
+      }
+
+      @Override
+      public void onSendFailed()
+      {
+
+      }
+    };
+
+  /**
+   * The byte that begins a routed reply on the all-clients channel. A routed
+   * reply is the marker, followed by the little-endian 32-bit session ID of
+   * the client for which the reply is intended, followed by the reply text.
+   * No text message can begin with the marker byte.
+   *
+   * @see #sendMessageRouted(Publication, UnsafeBuffer, int, String, EchoMessageSendObserver)
+   */
+
+  public static final byte ROUTED_REPLY_MARKER = 0x00;
+
+  /**
+   * The size in bytes of the marker and session that begin a routed reply.
+   */
+
+  public static final int ROUTED_REPLY_HEADER_LENGTH = 5;
+
+  /**
+   * The HELLO message sent by clients on the all-clients channel: A one-time
+   * pad, optionally followed by a second pad that requests a resumption token.
+   */
+
+  public static final Pattern PATTERN_HELLO =
+    Pattern.compile("^HELLO ([0-9A-F]+)(?: ([0-9A-F]+))?$");
+
+  /**
+   * The CONNECT message sent by the server on the all-clients channel: The
+   * data port, the control port, the encrypted session, and optionally an
+   * encrypted resumption token.
+   */
+
+  public static final Pattern PATTERN_CONNECT =
+    Pattern.compile("^CONNECT ([0-9]+) ([0-9]+) ([0-9A-F]+)(?: ([0-9A-F]+))?$");
+
+  /**
+   * The ERROR message sent by the server.
+   */
+
+  public static final Pattern PATTERN_ERROR =
+    Pattern.compile("^ERROR (.*)$");
+
+  /**
+   * The ERROR message sent by the server when a client may retry later.
+   */
+
+  public static final Pattern PATTERN_ERROR_RETRYABLE =
+    Pattern.compile("^ERROR (.*) RETRY-AFTER ([0-9]+) LOAD ([0-9]+)$");
+
+  /**
+   * The ECHO message sent by clients and echoed by the server. The message
+   * is opaque to the server, and so may contain line terminators.
+   */
+
+  public static final Pattern PATTERN_ECHO =
+    Pattern.compile("^ECHO (.*)$", Pattern.DOTALL);
+
   private EchoMessages()
   {
 
   }
 
+  /**
+   * Construct a CONNECT message that tells the client with the given
+   * all-clients session where to find its duologue.
+   *
+   * @param session_name The name of the client's session on the all-clients channel
+   * @param port_data    The duologue data port
+   * @param port_control The duologue control port
+   * @param session      The encrypted duologue session ID
+   *
+   * @return A CONNECT message
+   */
+
+  public static String connectMessage(
+    final String session_name,
+    final int port_data,
+    final int port_control,
+    final String session)
+  {
+    return new StringBuilder(64)
+      .append(session_name)
+      .append(" CONNECT ")
+      .append(port_data)
+      .append(" ")
+      .append(port_control)
+      .append(" ")
+      .append(session)
+      .toString();
+  }
+
+  /**
+   * Construct a CONNECT message that additionally carries an encrypted
+   * session resumption token.
+   *
+   * @param session_name The name of the client's session on the all-clients channel
+   * @param port_data    The duologue data port
+   * @param port_control The duologue control port
+   * @param session      The encrypted duologue session ID
+   * @param resume_token The encrypted resumption token
+   *
+   * @return A CONNECT message
+   */
+
+  public static String connectMessageResumable(
+    final String session_name,
+    final int port_data,
+    final int port_control,
+    final String session,
+    final String resume_token)
+  {
+    return new StringBuilder(96)
+      .append(connectMessage(session_name, port_data, port_control, session))
+      .append(" ")
+      .append(resume_token)
+      .toString();
+  }
+
+  /**
+   * Construct an ERROR message for the client with the given all-clients
+   * session.
+   *
+   * @param session_name The name of the client's session on the all-clients channel
+   * @param message      The error message
+   *
+   * @return An ERROR message
+   */
+
+  public static String errorMessage(
+    final String session_name,
+    final String message)
+  {
+    return new StringBuilder(64)
+      .append(session_name)
+      .append(" ERROR ")
+      .append(message)
+      .toString();
+  }
+
+  /**
+   * Construct an ERROR message that tells the client how long to wait before
+   * retrying, and how loaded the server is.
+   *
+   * @param session_name   The name of the client's session on the all-clients channel
+   * @param message        The error message
+   * @param retry_after_ms The suggested delay before retrying, in milliseconds
+   * @param load_percent   The server load as a percentage of its capacity
+   *
+   * @return An ERROR message
+   */
+
+  public static String errorMessageRetryable(
+    final String session_name,
+    final String message,
+    final long retry_after_ms,
+    final int load_percent)
+  {
+    return new StringBuilder(96)
+      .append(session_name)
+      .append(" ERROR ")
+      .append(message)
+      .append(" RETRY-AFTER ")
+      .append(retry_after_ms)
+      .append(" LOAD ")
+      .append(load_percent)
+      .toString();
+  }
+
   /**
    * Send the given message to the given publication. If the publication fails
    * to accept the message, the method will retry {@code 5} times, waiting
@@ -35,7 +227,7 @@ public final class EchoMessages
    *
    * @return The new publication stream position
    *
-   * @throws IOException If the message cannot be sent
+   * @throws IOException If the message cannot be sent, or does not fit in {@code buffer}
    */
 
   public static long sendMessage(
@@ -43,34 +235,304 @@ public final class EchoMessages
     final UnsafeBuffer buffer,
     final String text)
     throws IOException
+  {
+    return sendMessage(pub, buffer, text, IGNORING_OBSERVER);
+  }
+
+  /**
+   * Send the given message to the given publication. If the publication fails
+   * to accept the message, the method will retry {@code 5} times, waiting
+   * {@code 100} milliseconds each time, before throwing an exception. The
+   * given observer is notified of the outcome of each attempt.
+   *
+   * @param pub      The publication
+   * @param buffer   A buffer that will hold the message for sending
+   * @param text     The message
+   * @param observer An observer of send attempts
+   *
+   * @return The new publication stream position
+   *
+   * @throws IOException If the message cannot be sent, or does not fit in {@code buffer}
+   */
+
+  public static long sendMessage(
+    final Publication pub,
+    final UnsafeBuffer buffer,
+    final String text,
+    final EchoMessageSendObserver observer)
+    throws IOException
   {
     Objects.requireNonNull(pub, "publication");
     Objects.requireNonNull(buffer, "buffer");
     Objects.requireNonNull(text, "text");
+    Objects.requireNonNull(observer, "observer");
 
     LOG.trace("[{}] send: {}", Integer.toString(pub.sessionId()), text);
 
     final byte[] value = text.getBytes(UTF_8);
+    checkFits(buffer, value.length);
     buffer.putBytes(0, value);
+    return sendEncoded(pub, buffer, value.length, observer);
+  }
+
+  /**
+   * Send the given message to the given publication, preceded by a
+   * {@link #ROUTED_REPLY_MARKER} and the given session, so that clients
+   * other than the one using {@code session} can discard the message
+   * without decoding it. The method otherwise behaves as
+   * {@link #sendMessage(Publication, UnsafeBuffer, String, EchoMessageSendObserver)}.
+   *
+   * @param pub      The publication
+   * @param buffer   A buffer that will hold the message for sending
+   * @param session  The session of the client for which the message is intended
+   * @param text     The message
+   * @param observer An observer of send attempts
+   *
+   * @return The new publication stream position
+   *
+   * @throws IOException If the message cannot be sent, or does not fit in {@code buffer}
+   */
+
+  public static long sendMessageRouted(
+    final Publication pub,
+    final UnsafeBuffer buffer,
+    final int session,
+    final String text,
+    final EchoMessageSendObserver observer)
+    throws IOException
+  {
+    Objects.requireNonNull(pub, "publication");
+    Objects.requireNonNull(buffer, "buffer");
+    Objects.requireNonNull(text, "text");
+    Objects.requireNonNull(observer, "observer");
+
+    LOG.trace(
+      "[{}] send to {}: {}",
+      Integer.toString(pub.sessionId()),
+      Integer.toString(session),
+      text);
+
+    final byte[] value = text.getBytes(UTF_8);
+    checkFits(buffer, ROUTED_REPLY_HEADER_LENGTH + value.length);
+    buffer.putByte(0, ROUTED_REPLY_MARKER);
+    buffer.putInt(1, session, ByteOrder.LITTLE_ENDIAN);
+    buffer.putBytes(ROUTED_REPLY_HEADER_LENGTH, value);
+    return sendEncoded(
+      pub, buffer, ROUTED_REPLY_HEADER_LENGTH + value.length, observer);
+  }
+
+  private static long sendEncoded(
+    final Publication pub,
+    final UnsafeBuffer buffer,
+    final int length,
+    final EchoMessageSendObserver observer)
+    throws IOException
+  {
+    final EchoMessageSendFailedEvent failed_event =
+      new EchoMessageSendFailedEvent();
+    failed_event.begin();
 
     long result = 0L;
     for (int index = 0; index < 5; ++index) {
-      result = pub.offer(buffer, 0, value.length);
+      final EchoMessageSendRetryEvent retry_event =
+        new EchoMessageSendRetryEvent();
+      retry_event.begin();
+
+      result = pub.offer(buffer, 0, length);
       if (result < 0L) {
+        if (result == Publication.BACK_PRESSURED) {
+          observer.onBackPressured();
+        }
         try {
           Thread.sleep(100L);
         } catch (final InterruptedException e) {
           Thread.currentThread().interrupt();
         }
+
+        if (retry_event.shouldCommit()) {
+          retry_event.session = pub.sessionId();
+          retry_event.attempt = index;
+          retry_event.result = errorCodeName(result);
+          retry_event.commit();
+        }
         continue;
       }
+      observer.onMessageSent(length);
       return result;
     }
 
+    observer.onSendFailed();
+
+    if (failed_event.shouldCommit()) {
+      failed_event.session = pub.sessionId();
+      failed_event.length = length;
+      failed_event.result = errorCodeName(result);
+      failed_event.commit();
+    }
+
     throw new IOException(
       "Could not send message: Error code: " + errorCodeName(result));
   }
 
+  /**
+   * Make a single attempt to send the given message to the given publication,
+   * without waiting. The given observer is notified of the outcome of the
+   * attempt.
+   *
+   * @param pub      The publication
+   * @param buffer   A buffer that will hold the message for sending
+   * @param text     The message
+   * @param observer An observer of send attempts
+   *
+   * @return {@code true} if the message was sent, or {@code false} if the
+   * publication is temporarily unable to accept it and the caller should try
+   * again later
+   *
+   * @throws IOException If the publication can never accept the message
+   */
+
+  public static boolean offerMessage(
+    final Publication pub,
+    final UnsafeBuffer buffer,
+    final String text,
+    final EchoMessageSendObserver observer)
+    throws IOException
+  {
+    Objects.requireNonNull(pub, "publication");
+    Objects.requireNonNull(buffer, "buffer");
+    Objects.requireNonNull(text, "text");
+    Objects.requireNonNull(observer, "observer");
+
+    LOG.trace("[{}] offer: {}", Integer.toString(pub.sessionId()), text);
+
+    final byte[] value = text.getBytes(UTF_8);
+    checkFits(buffer, value.length);
+    buffer.putBytes(0, value);
+    return offerBuffer(pub, buffer, 0, value.length, observer);
+  }
+
+  /**
+   * Make a single attempt to send the given region of a buffer to the given
+   * publication, without waiting. The given observer is notified of the
+   * outcome of the attempt.
+   *
+   * @param pub      The publication
+   * @param buffer   The buffer holding the message
+   * @param offset   The offset of the message
+   * @param length   The length of the message
+   * @param observer An observer of send attempts
+   *
+   * @return {@code true} if the message was sent, or {@code false} if the
+   * publication is temporarily unable to accept it and the caller should try
+   * again later
+   *
+   * @throws IOException If the publication can never accept the message
+   */
+
+  public static boolean offerBuffer(
+    final Publication pub,
+    final DirectBuffer buffer,
+    final int offset,
+    final int length,
+    final EchoMessageSendObserver observer)
+    throws IOException
+  {
+    Objects.requireNonNull(pub, "publication");
+    Objects.requireNonNull(buffer, "buffer");
+    Objects.requireNonNull(observer, "observer");
+
+    final long result = pub.offer(buffer, offset, length);
+    if (result >= 0L) {
+      observer.onMessageSent(length);
+      return true;
+    }
+
+    return checkOfferFailure(pub, length, result, observer);
+  }
+
+  private static void checkFits(
+    final UnsafeBuffer buffer,
+    final int length)
+    throws IOException
+  {
+    if (length > buffer.capacity()) {
+      throw new IOException(
+        String.format(
+          "Message length %d exceeds the send buffer capacity %d",
+          Integer.valueOf(length),
+          Integer.valueOf(buffer.capacity())));
+    }
+  }
+
+  /**
+   * Classify the failed result of a single {@link Publication#offer} call.
+   * Back pressure and the absence of a subscriber are both reported to the
+   * observer, so that the caller can decide how long it is prepared to wait.
+   * A {@link EchoMessageSendRetryEvent} is recorded for a failure that the
+   * caller may retry, and a {@link EchoMessageSendFailedEvent} for any other
+   * failure.
+   *
+   * @param pub      The publication
+   * @param length   The length of the refused message
+   * @param result   The (negative) result of the offer
+   * @param observer An observer of send attempts
+   *
+   * @return {@code false} if the caller should try again later
+   *
+   * @throws IOException If the publication can never accept the message
+   */
+
+  static boolean checkOfferFailure(
+    final Publication pub,
+    final int length,
+    final long result,
+    final EchoMessageSendObserver observer)
+    throws IOException
+  {
+    if (result == Publication.BACK_PRESSURED) {
+      observer.onBackPressured();
+      return offerRefused(pub, result);
+    }
+
+    if (result == Publication.NOT_CONNECTED) {
+      observer.onNotConnected();
+      return offerRefused(pub, result);
+    }
+
+    if (result == Publication.ADMIN_ACTION) {
+      return offerRefused(pub, result);
+    }
+
+    observer.onSendFailed();
+
+    final EchoMessageSendFailedEvent failed_event =
+      new EchoMessageSendFailedEvent();
+    if (failed_event.shouldCommit()) {
+      failed_event.session = pub.sessionId();
+      failed_event.length = length;
+      failed_event.result = errorCodeName(result);
+      failed_event.commit();
+    }
+
+    throw new IOException(
+      "Could not send message: Error code: " + errorCodeName(result));
+  }
+
+  private static boolean offerRefused(
+    final Publication pub,
+    final long result)
+  {
+    final EchoMessageSendRetryEvent retry_event =
+      new EchoMessageSendRetryEvent();
+    if (retry_event.shouldCommit()) {
+      retry_event.session = pub.sessionId();
+      retry_event.attempt = -1;
+      retry_event.result = errorCodeName(result);
+      retry_event.commit();
+    }
+    return false;
+  }
+
   private static String errorCodeName(final long result)
   {
     if (result == Publication.NOT_CONNECTED) {
@@ -10,6 +10,10 @@ import io.aeron.logbuffer.FragmentHandler;
 import io.aeron.logbuffer.Header;
 import org.agrona.BufferUtil;
 import org.agrona.DirectBuffer;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.concurrent.CachedEpochClock;
+import org.agrona.concurrent.EpochClock;
+import org.agrona.concurrent.SystemEpochClock;
 import org.agrona.concurrent.UnsafeBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,13 +25,17 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.SecureRandom;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A mindlessly simple Echo server.
@@ -43,9 +51,6 @@ public final class EchoServer implements Closeable
 
   private static final Logger LOG = LoggerFactory.getLogger(EchoServer.class);
 
-  private static final Pattern PATTERN_HELLO =
-    Pattern.compile("^HELLO ([0-9A-F]+)$");
-
   static {
     ECHO_STREAM_ID = 0x2044f002;
   }
@@ -55,12 +60,17 @@ public final class EchoServer implements Closeable
   private final EchoServerExecutorService executor;
   private final ClientState clients;
   private final EchoServerConfiguration configuration;
+  private final EchoServerCounters counters;
+  private final EpochClock clock;
+  private final UnsafeBuffer send_buffer;
+  private volatile boolean closing;
 
   private EchoServer(
-    final Clock in_clock,
+    final EpochClock in_clock,
     final EchoServerExecutorService in_exec,
     final MediaDriver in_media_driver,
     final Aeron in_aeron,
+    final EchoServerCounters in_counters,
     final EchoServerConfiguration in_config)
   {
     this.executor =
@@ -69,15 +79,25 @@ public final class EchoServer implements Closeable
       Objects.requireNonNull(in_media_driver, "media_driver");
     this.aeron =
       Objects.requireNonNull(in_aeron, "aeron");
+    this.counters =
+      Objects.requireNonNull(in_counters, "counters");
     this.configuration =
       Objects.requireNonNull(in_config, "configuration");
+    this.clock =
+      Objects.requireNonNull(in_clock, "clock");
+
+    this.send_buffer =
+      new UnsafeBuffer(BufferUtil.allocateDirectAligned(1024, 16));
 
     this.clients =
       new ClientState(
-        this.aeron,
-        Objects.requireNonNull(in_clock, "clock"),
+        this.clock,
         this.executor,
-        this.configuration);
+        this.counters,
+        this.configuration,
+        this::createDuologue);
+
+    this.closing = false;
   }
 
   /**
@@ -95,6 +115,27 @@ public final class EchoServer implements Closeable
     final Clock clock,
     final EchoServerConfiguration configuration)
     throws EchoServerException
+  {
+    Objects.requireNonNull(clock, "clock");
+    return create(clock::millis, configuration);
+  }
+
+  /**
+   * Create a new server.
+   *
+   * @param clock         A clock, in milliseconds since the epoch, used for
+   *                      internal operations involving time
+   * @param configuration The server configuration
+   *
+   * @return A new server
+   *
+   * @throws EchoServerException On any initialization error
+   */
+
+  public static EchoServer create(
+    final EpochClock clock,
+    final EchoServerConfiguration configuration)
+    throws EchoServerException
   {
     Objects.requireNonNull(clock, "clock");
     Objects.requireNonNull(configuration, "configuration");
@@ -109,6 +150,9 @@ public final class EchoServer implements Closeable
         .publicationReservedSessionIdHigh(EchoSessions.RESERVED_SESSION_ID_HIGH)
         .aeronDirectoryName(directory);
 
+    configuration.mediaDriverThreadingMode()
+      .ifPresent(media_context::threadingMode);
+
     final Aeron.Context aeron_context =
       new Aeron.Context()
         .aeronDirectoryName(directory);
@@ -124,12 +168,13 @@ public final class EchoServer implements Closeable
         Aeron aeron = null;
         try {
           aeron = Aeron.connect(aeron_context);
+          final EchoServerCounters counters = EchoServerCounters.create(aeron);
+          return new EchoServer(
+            clock, exec, media_driver, aeron, counters, configuration);
         } catch (final Exception e) {
           closeIfNotNull(aeron);
           throw e;
         }
-
-        return new EchoServer(clock, exec, media_driver, aeron, configuration);
       } catch (final Exception e) {
         closeIfNotNull(media_driver);
         throw e;
@@ -144,6 +189,39 @@ public final class EchoServer implements Closeable
     }
   }
 
+  private EchoServerDuologueType createDuologue(
+    final EchoServerDuologueStatistics statistics,
+    final int slot,
+    final EchoServerBufferPool buffers,
+    final EchoServerFragmentReassembler reassembler,
+    final InetAddress owner_address,
+    final int session,
+    final int port_data,
+    final int port_control,
+    final long resume_token,
+    final Duration resume_grace)
+    throws EchoServerBufferAllocationException
+  {
+    return EchoServerDuologue.create(
+      this.aeron,
+      this.clients.clock(),
+      this.executor,
+      this.counters,
+      statistics,
+      slot,
+      buffers,
+      reassembler,
+      this.configuration.localAddress(),
+      owner_address,
+      session,
+      port_data,
+      port_control,
+      this.configuration.duologueConnectTimeout(),
+      resume_token,
+      resume_grace,
+      this.configuration.duologueReplyBatchBytes());
+  }
+
   private static void closeIfNotNull(
     final AutoCloseable closeable)
     throws Exception
@@ -153,34 +231,6 @@ public final class EchoServer implements Closeable
     }
   }
 
-  private static String connectMessage(
-    final String session_name,
-    final int port_data,
-    final int port_control,
-    final String session)
-  {
-    return new StringBuilder(64)
-      .append(session_name)
-      .append(" CONNECT ")
-      .append(port_data)
-      .append(" ")
-      .append(port_control)
-      .append(" ")
-      .append(session)
-      .toString();
-  }
-
-  private static String errorMessage(
-    final String session_name,
-    final String message)
-  {
-    return new StringBuilder(64)
-      .append(session_name)
-      .append(" ERROR ")
-      .append(message)
-      .toString();
-  }
-
   /**
    * Command-line entry point.
    *
@@ -217,13 +267,14 @@ public final class EchoServer implements Closeable
         .maximumConnectionsPerAddress(3)
         .build();
 
-    try (final EchoServer server = create(Clock.systemUTC(), config)) {
+    try (final EchoServer server = create(new SystemEpochClock(), config)) {
       server.run();
     }
   }
 
   /**
-   * Run the server, returning when the server is finished.
+   * Run the server, returning when the server is finished. The server is
+   * finished when {@link #close()} is called from another thread.
    */
 
   public void run()
@@ -231,24 +282,44 @@ public final class EchoServer implements Closeable
     try (final Publication publication = this.setupAllClientsPublication()) {
       try (final Subscription subscription = this.setupAllClientsSubscription()) {
 
+        final EchoServerReplySinkType replies;
+        if (this.configuration.allClientsRoutedReplies()) {
+          replies = (session, message) -> EchoMessages.sendMessageRouted(
+            publication, this.send_buffer, session, message, this.counters);
+        } else {
+          replies = (session, message) -> EchoMessages.sendMessage(
+            publication, this.send_buffer, message, this.counters);
+        }
+
         final FragmentHandler handler =
           new FragmentAssembler(
             (buffer, offset, length, header) ->
               this.onInitialClientMessage(
-                publication,
+                replies,
                 buffer,
                 offset,
                 length,
                 header));
 
-        while (true) {
+        final long poll_interval =
+          this.configuration.pollInterval().toNanos();
+        final int fragment_limit =
+          this.configuration.allClientsFragmentLimit();
+
+        while (!this.closing) {
           this.executor.execute(() -> {
-            subscription.poll(handler, 100);
+            this.clients.updateTime();
+            this.counters.executorQueueDepth().setOrdered(this.executor.queueDepth());
+            this.counters.executorSojourn().setOrdered(this.executor.queueSojournNanos());
+            this.counters.executorUtilization().setOrdered(
+              (long) (this.executor.utilization() * 1000.0));
+            subscription.poll(handler, fragment_limit);
             this.clients.poll();
+            this.counters.executorPolls().incrementOrdered();
           });
 
           try {
-            Thread.sleep(100L);
+            TimeUnit.NANOSECONDS.sleep(poll_interval);
           } catch (final InterruptedException e) {
             Thread.currentThread().interrupt();
           }
@@ -258,12 +329,24 @@ public final class EchoServer implements Closeable
   }
 
   private void onInitialClientMessage(
-    final Publication publication,
+    final EchoServerReplySinkType replies,
     final DirectBuffer buffer,
     final int offset,
     final int length,
     final Header header)
   {
+    this.counters.onMessageReceived(length);
+
+    /*
+     * Drop messages from clients that are sending too quickly before doing
+     * any work on them at all. This method is called on the executor thread,
+     * as the all-clients subscription is polled there.
+     */
+
+    if (!this.clients.admitInitialClientMessage(header.sessionId())) {
+      return;
+    }
+
     final String message =
       EchoMessages.parseMessageUTF8(buffer, offset, length);
 
@@ -275,7 +358,7 @@ public final class EchoServer implements Closeable
     this.executor.execute(() -> {
       try {
         this.clients.onInitialClientMessageProcess(
-          publication,
+          replies,
           session_name,
           session_boxed,
           message);
@@ -341,40 +424,115 @@ public final class EchoServer implements Closeable
     });
   }
 
+  /**
+   * @return The server's counters
+   */
+
+  public EchoServerCounters counters()
+  {
+    return this.counters;
+  }
+
+  /**
+   * Take a snapshot of the resources that the server currently holds on
+   * behalf of clients. The snapshot is taken on the server's executor thread,
+   * and so the returned future will not complete if the server is closed.
+   *
+   * @return A future representing the snapshot
+   */
+
+  public CompletableFuture<EchoServerResourceUsage> resourceUsage()
+  {
+    return CompletableFuture.supplyAsync(this.clients::resourceUsage, this.executor);
+  }
+
+  /**
+   * Take a snapshot of the statistics of every duologue that currently
+   * exists. The snapshot is taken on the server's executor thread, and so is
+   * consistent with respect to message processing; the returned future will
+   * not complete if the server is closed.
+   *
+   * @return A future representing the snapshot
+   */
+
+  public CompletableFuture<List<EchoServerDuologueSnapshot>> duologueStatistics()
+  {
+    return CompletableFuture.supplyAsync(this.clients::duologueStatistics, this.executor);
+  }
+
   @Override
   public void close()
   {
+    this.closing = true;
+
+    try {
+      this.executor.close();
+    } catch (final Exception e) {
+      LOG.error("could not close executor: ", e);
+    }
+
+    this.counters.close();
     this.aeron.close();
     this.media_driver.close();
   }
 
-  private static final class ClientState
+  /**
+   * The state of all clients. The state is package-private so that it can be
+   * driven by a simulation with a controllable clock and without a media
+   * driver: All interactions with Aeron go through the given duologue factory
+   * and the reply sinks passed to {@link #onInitialClientMessageProcess}.
+   *
+   * The state reads the given clock once per duty cycle, in
+   * {@link #updateTime()}, and everything else on the executor thread
+   * (including the duologues) reads the cached time as a primitive number of
+   * milliseconds. Work done between duty cycles therefore sees a time that
+   * is at most one poll interval old.
+   */
+
+  static final class ClientState
   {
+    private static final int BUFFER_POOL_MAXIMUM_SIZE = 65536;
+
     private final Map<Integer, InetAddress> client_session_addresses;
-    private final Map<Integer, EchoServerDuologue> client_duologues;
+    private final Map<Integer, EchoServerDuologueType> client_duologues;
     private final EchoServerPortAllocator port_allocator;
-    private final Aeron aeron;
-    private final Clock clock;
+    private final EpochClock clock_source;
+    private final CachedEpochClock clock;
     private final EchoServerConfiguration configuration;
-    private final UnsafeBuffer send_buffer;
+    private final EchoServerDuologueFactoryType duologue_factory;
     private final EchoServerExecutorService exec;
     private final EchoServerAddressCounter address_counter;
     private final EchoServerSessionAllocator session_allocator;
+    private final SecureRandom random;
+    private final EchoServerCounters counters;
+    private final EchoServerDuologueStatistics statistics;
+    private final EchoServerBufferPool buffers;
+    private final EchoServerFragmentReassembler reassembler;
+    private final EchoServerDuologueScheduler scheduler;
+    private final Long2LongHashMap client_session_keys;
+    private final EchoServerTokenBuckets address_buckets;
+    private final EchoServerTokenBuckets global_bucket;
+    private long buckets_purged_us;
 
     ClientState(
-      final Aeron in_aeron,
-      final Clock in_clock,
+      final EpochClock in_clock,
       final EchoServerExecutorService in_exec,
-      final EchoServerConfiguration in_configuration)
+      final EchoServerCounters in_counters,
+      final EchoServerConfiguration in_configuration,
+      final EchoServerDuologueFactoryType in_duologue_factory)
     {
-      this.aeron =
-        Objects.requireNonNull(in_aeron, "Aeron");
-      this.clock =
+      this.clock_source =
         Objects.requireNonNull(in_clock, "Clock");
+      this.clock = new CachedEpochClock();
+      this.clock.update(this.clock_source.time());
       this.exec =
         Objects.requireNonNull(in_exec, "Executor");
+      this.counters =
+        Objects.requireNonNull(in_counters, "Counters");
       this.configuration =
         Objects.requireNonNull(in_configuration, "Configuration");
+      this.duologue_factory =
+        Objects.requireNonNull(in_duologue_factory, "Duologue factory");
 
       this.client_duologues = new HashMap<>(32);
       this.client_session_addresses = new HashMap<>(32);
@@ -387,18 +545,100 @@ public final class EchoServer implements Closeable
       this.address_counter =
         EchoServerAddressCounter.create();
 
+      this.random = new SecureRandom();
+
       this.session_allocator =
         EchoServerSessionAllocator.create(
           EchoSessions.RESERVED_SESSION_ID_LOW,
           EchoSessions.RESERVED_SESSION_ID_HIGH,
-          new SecureRandom());
+          this.random);
+
+      this.statistics =
+        EchoServerDuologueStatistics.create(
+          Math.max(1, this.configuration.clientMaximumCount()));
+
+      /*
+       * A duologue holds at most two buffers (a send buffer and a reply
+       * batch), and a reply batch is never larger than a single frame.
+       */
+
+      this.buffers =
+        EchoServerBufferPool.create(
+          this.configuration.duologueBufferPoolBytes(),
+          BUFFER_POOL_MAXIMUM_SIZE);
+
+      this.reassembler =
+        EchoServerFragmentReassembler.create(
+          this.configuration.duologueReassemblyBytes(),
+          this.configuration.duologueMaximumMessageSize());
+
+      this.scheduler =
+        EchoServerDuologueScheduler.create(
+          this.configuration.duologuePollBudget(),
+          this.configuration.duologueFragmentLimit());
+
+      this.client_session_keys = new Long2LongHashMap(-1L);
+      this.address_buckets =
+        EchoServerTokenBuckets.create(
+          this.configuration.handshakeRatePerAddress(),
+          this.configuration.handshakeBurstPerAddress());
+      this.global_bucket =
+        EchoServerTokenBuckets.create(
+          this.configuration.handshakeRateGlobal(),
+          this.configuration.handshakeBurstGlobal());
+      this.buckets_purged_us = 0L;
+    }
+
+    /**
+     * @return The cached clock that is updated once per duty cycle
+     */
+
+    EpochClock clock()
+    {
+      return this.clock;
+    }
+
+    /**
+     * Update the cached clock from the underlying clock. This should be
+     * called at the start of each duty cycle.
+     */
+
+    void updateTime()
+    {
+      this.exec.assertIsExecutorThread();
+      this.clock.update(this.clock_source.time());
+    }
+
+    /**
+     * Decide whether a message received on the all-clients channel should be
+     * processed at all. Each client address (or IPv6 /64 prefix) has its own
+     * token bucket, and all clients share a global bucket. A message is
+     * admitted only if a token can be taken from both.
+     */
+
+    boolean admitInitialClientMessage(
+      final int session_id)
+    {
+      this.exec.assertIsExecutorThread();
+
+      final long now_us = TimeUnit.MILLISECONDS.toMicros(this.clock.time());
+      final long key = this.client_session_keys.get((long) session_id);
+
+      if (key != -1L && !this.address_buckets.tryAcquire(key, now_us)) {
+        this.counters.handshakesDroppedAddressRate().incrementOrdered();
+        return false;
+      }
+
+      if (!this.global_bucket.tryAcquire(0L, now_us)) {
+        this.counters.handshakesDroppedGlobalRate().incrementOrdered();
+        return false;
+      }
 
-      this.send_buffer =
-        new UnsafeBuffer(BufferUtil.allocateDirectAligned(1024, 16));
+      return true;
     }
 
     void onInitialClientMessageProcess(
-      final Publication publication,
+      final EchoServerReplySinkType replies,
       final String session_name,
       final Integer session_boxed,
       final String message)
@@ -413,12 +653,36 @@ public final class EchoServer implements Closeable
        * on the all-clients channel.
        */
 
-      final Matcher hello_matcher = PATTERN_HELLO.matcher(message);
+      final Matcher hello_matcher = EchoMessages.PATTERN_HELLO.matcher(message);
       if (!hello_matcher.matches()) {
-        EchoMessages.sendMessage(
-          publication,
-          this.send_buffer,
-          errorMessage(session_name, "bad message"));
+        this.counters.handshakesRejectedBadMessage().incrementOrdered();
+        replies.send(
+          session_boxed.intValue(),
+          EchoMessages.errorMessage(session_name, "bad message"));
+        return;
+      }
+
+      final EchoServerHelloReceivedEvent hello_event =
+        new EchoServerHelloReceivedEvent();
+      if (hello_event.shouldCommit()) {
+        final InetAddress address =
+          this.client_session_addresses.get(session_boxed);
+        hello_event.initial_session = session_boxed.intValue();
+        hello_event.address = address != null ? address.getHostAddress() : null;
+        hello_event.resumable = hello_matcher.group(2) != null;
+        hello_event.commit();
+      }
+
+      /*
+       * Check to see if the server is already struggling to serve the
+       * clients that it has. Accepting more would degrade the service for
+       * all of them.
+       */
+
+      if (this.isOverloaded()) {
+        LOG.debug("server is overloaded");
+        this.counters.handshakesRejectedBusy().incrementOrdered();
+        this.sendRetryableError(replies, session_boxed, session_name, "busy");
         return;
       }
 
@@ -428,10 +692,8 @@ public final class EchoServer implements Closeable
 
       if (this.client_duologues.size() >= this.configuration.clientMaximumCount()) {
         LOG.debug("server is full");
-        EchoMessages.sendMessage(
-          publication,
-          this.send_buffer,
-          errorMessage(session_name, "server full"));
+        this.counters.handshakesRejectedServerFull().incrementOrdered();
+        this.sendRetryableError(replies, session_boxed, session_name, "server full");
         return;
       }
 
@@ -446,10 +708,12 @@ public final class EchoServer implements Closeable
       if (this.address_counter.countFor(owner) >=
         this.configuration.maximumConnectionsPerAddress()) {
         LOG.debug("too many connections for IP address");
-        EchoMessages.sendMessage(
-          publication,
-          this.send_buffer,
-          errorMessage(session_name, "too many connections for IP address"));
+        this.counters.handshakesRejectedAddressLimit().incrementOrdered();
+        this.sendRetryableError(
+          replies,
+          session_boxed,
+          session_name,
+          "too many connections for IP address");
         return;
       }
 
@@ -461,69 +725,210 @@ public final class EchoServer implements Closeable
       final int duologue_key =
         Integer.parseUnsignedInt(hello_matcher.group(1), 16);
 
+      /*
+       * If the client supplied a second one-time pad, then it wants to be
+       * able to resume its session. Resumption is only offered if the server
+       * has been configured to allow it, and a token is only drawn from the
+       * (comparatively expensive) secure random number generator for
+       * sessions that can actually be resumed.
+       */
+
+      final String resume_key_text = hello_matcher.group(2);
+      final boolean resumable =
+        resume_key_text != null
+          && !this.configuration.sessionResumptionGracePeriod().isZero();
+
+      final long resume_token;
+      final Duration resume_grace;
+      if (resumable) {
+        resume_token = this.random.nextLong();
+        resume_grace = this.configuration.sessionResumptionGracePeriod();
+      } else {
+        resume_token = 0L;
+        resume_grace = Duration.ZERO;
+      }
+
       /*
        * Allocate a new duologue, encrypt the resulting session ID, and send
        * a message to the client telling it where to find the new duologue.
        */
 
-      final EchoServerDuologue duologue =
-        this.allocateNewDuologue(session_name, session_boxed, owner);
+      final EchoServerDuologueType duologue;
+      try {
+        duologue =
+          this.allocateNewDuologue(
+            session_name,
+            owner,
+            resume_token,
+            resume_grace);
+      } catch (final EchoServerBufferAllocationException e) {
+        LOG.debug("server has no buffers left: {}", e.getMessage());
+        this.counters.handshakesRejectedServerFull().incrementOrdered();
+        this.sendRetryableError(replies, session_boxed, session_name, "server full");
+        return;
+      }
 
       final String session_crypt =
         Integer.toUnsignedString(duologue_key ^ duologue.session(), 16)
           .toUpperCase();
 
-      EchoMessages.sendMessage(
-        publication,
-        this.send_buffer,
-        connectMessage(
+      this.counters.handshakesAccepted().incrementOrdered();
+
+      final EchoServerConnectSentEvent connect_event =
+        new EchoServerConnectSentEvent();
+      connect_event.begin();
+
+      if (resumable) {
+        final long resume_key =
+          Long.parseUnsignedLong(resume_key_text, 16);
+        final String resume_crypt =
+          Long.toUnsignedString(resume_key ^ resume_token, 16)
+            .toUpperCase();
+
+        replies.send(
+          session_boxed.intValue(),
+          EchoMessages.connectMessageResumable(
+            session_name,
+            duologue.portData(),
+            duologue.portControl(),
+            session_crypt,
+            resume_crypt));
+        commitConnectSent(connect_event, session_boxed, duologue, true);
+        return;
+      }
+
+      replies.send(
+        session_boxed.intValue(),
+        EchoMessages.connectMessage(
           session_name,
           duologue.portData(),
           duologue.portControl(),
           session_crypt));
+      commitConnectSent(connect_event, session_boxed, duologue, false);
     }
 
-    private EchoServerDuologue allocateNewDuologue(
-      final String session_name,
+    private static void commitConnectSent(
+      final EchoServerConnectSentEvent event,
       final Integer session_boxed,
-      final InetAddress owner)
+      final EchoServerDuologueType duologue,
+      final boolean resumable)
+    {
+      if (event.shouldCommit()) {
+        event.initial_session = session_boxed.intValue();
+        event.session = duologue.session();
+        event.resumable = resumable;
+        event.commit();
+      }
+    }
+
+    private boolean isOverloaded()
+    {
+      return this.exec.queueSojournNanos()
+        > this.configuration.loadSheddingSojournThreshold().toNanos()
+        || this.exec.utilization()
+        > this.configuration.loadSheddingUtilizationThreshold();
+    }
+
+    /**
+     * Reject a client, telling it how loaded the server is and how long it
+     * should wait before trying again. The suggested delay grows from the
+     * configured base delay to twice the base delay as the server fills up.
+     */
+
+    private void sendRetryableError(
+      final EchoServerReplySinkType replies,
+      final Integer session_boxed,
+      final String session_name,
+      final String message)
+      throws IOException
+    {
+      final int maximum = Math.max(1, this.configuration.clientMaximumCount());
+      final int load_percent =
+        (int) Math.min(100L, (100L * (long) this.client_duologues.size()) / (long) maximum);
+
+      final long base_ms = this.configuration.rejectedClientRetryDelay().toMillis();
+      final long retry_after_ms = base_ms + (base_ms * (long) load_percent) / 100L;
+
+      replies.send(
+        session_boxed.intValue(),
+        EchoMessages.errorMessageRetryable(session_name, message, retry_after_ms, load_percent));
+    }
+
+    private EchoServerDuologueType allocateNewDuologue(
+      final String session_name,
+      final InetAddress owner,
+      final long resume_token,
+      final Duration resume_grace)
       throws
       EchoServerPortAllocationException,
-      EchoServerSessionAllocationException
+      EchoServerSessionAllocationException,
+      EchoServerBufferAllocationException
     {
+      final EchoServerDuologueAllocatedEvent event =
+        new EchoServerDuologueAllocatedEvent();
+      event.begin();
+
       this.address_counter.increment(owner);
 
-      final EchoServerDuologue duologue;
+      final EchoServerDuologueType duologue;
       try {
         final int[] ports = this.port_allocator.allocate(2);
         try {
           final int session = this.session_allocator.allocate();
+          final int slot = this.statistics.allocate(session, this.clock.time());
           try {
             duologue =
-              EchoServerDuologue.create(
-                this.aeron,
-                this.clock,
-                this.exec,
-                this.configuration.localAddress(),
+              this.duologue_factory.create(
+                this.statistics,
+                slot,
+                this.buffers,
+                this.reassembler,
                 owner,
                 session,
                 ports[0],
-                ports[1]);
+                ports[1],
+                resume_token,
+                resume_grace);
             LOG.debug("[{}] created new duologue", session_name);
-            this.client_duologues.put(session_boxed, duologue);
+
+            /*
+             * Duologues are keyed by their own session ID rather than that
+             * of the client's initial publication: The media drivers of
+             * different clients can (and often do) pick the same initial
+             * session ID, and a duologue stored under a duplicate key would
+             * never be polled again.
+             */
+
+            this.client_duologues.put(Integer.valueOf(session), duologue);
+
+            /*
+             * All duologues currently have equal weight.
+             */
+
+            this.scheduler.add(duologue, 1);
+            this.counters.duologuesActive().setOrdered((long) this.client_duologues.size());
           } catch (final Exception e) {
+            this.statistics.free(slot);
             this.session_allocator.free(session);
             throw e;
           }
-        } catch (final EchoServerSessionAllocationException e) {
+        } catch (final Exception e) {
           this.port_allocator.free(ports[0]);
           this.port_allocator.free(ports[1]);
           throw e;
         }
-      } catch (final EchoServerPortAllocationException e) {
+      } catch (final Exception e) {
         this.address_counter.decrement(owner);
         throw e;
       }
+
+      if (event.shouldCommit()) {
+        event.session = duologue.session();
+        event.port_data = duologue.portData();
+        event.port_control = duologue.portControl();
+        event.owner = owner.getHostAddress();
+        event.commit();
+      }
       return duologue;
     }
 
@@ -533,6 +938,7 @@ public final class EchoServer implements Closeable
       this.exec.assertIsExecutorThread();
 
       this.client_session_addresses.remove(Integer.valueOf(session_id));
+      this.client_session_keys.remove((long) session_id);
     }
 
     void onInitialClientConnected(
@@ -543,63 +949,127 @@ public final class EchoServer implements Closeable
 
       this.client_session_addresses.put(
         Integer.valueOf(session_id), client_address);
+      this.client_session_keys.put(
+        (long) session_id, EchoAddresses.addressKey(client_address));
+    }
+
+    EchoServerResourceUsage resourceUsage()
+    {
+      this.exec.assertIsExecutorThread();
+
+      return ImmutableEchoServerResourceUsage.of(
+        this.client_duologues.size(),
+        this.client_session_addresses.size(),
+        this.port_allocator.usedCount(),
+        this.session_allocator.usedCount(),
+        this.address_counter.addressCount(),
+        this.buffers.usedCount(),
+        this.reassembler.inProgressCount());
+    }
+
+    List<EchoServerDuologueSnapshot> duologueStatistics()
+    {
+      this.exec.assertIsExecutorThread();
+
+      final List<EchoServerDuologueSnapshot> snapshots =
+        new ArrayList<>(this.client_duologues.size());
+      final long now = this.clock_source.time();
+
+      for (final EchoServerDuologueType duologue : this.client_duologues.values()) {
+        final int slot = duologue.slot();
+        final long created = this.statistics.created(slot);
+        final long last_activity = this.statistics.lastActivity(slot);
+
+        snapshots.add(
+          ImmutableEchoServerDuologueSnapshot.builder()
+            .session(duologue.session())
+            .ownerAddress(duologue.ownerAddress())
+            .messagesReceived(this.statistics.messagesReceived(slot))
+            .bytesReceived(this.statistics.bytesReceived(slot))
+            .messagesSent(this.statistics.messagesSent(slot))
+            .bytesSent(this.statistics.bytesSent(slot))
+            .backPressured(this.statistics.backPressured(slot))
+            .created(Instant.ofEpochMilli(created))
+            .lastActivity(Instant.ofEpochMilli(last_activity))
+            .age(Duration.ofMillis(now - created))
+            .idle(Duration.ofMillis(now - last_activity))
+            .build());
+      }
+
+      return snapshots;
     }
 
     public void poll()
     {
       this.exec.assertIsExecutorThread();
 
-      final Iterator<Map.Entry<Integer, EchoServerDuologue>> iter =
+      final Iterator<Map.Entry<Integer, EchoServerDuologueType>> iter =
         this.client_duologues.entrySet().iterator();
 
       /*
        * Get the current time; used to expire duologues.
        */
 
-      final Instant now = this.clock.instant();
+      final long now = this.clock.time();
 
-      while (iter.hasNext()) {
-        final Map.Entry<Integer, EchoServerDuologue> entry = iter.next();
-        final EchoServerDuologue duologue = entry.getValue();
+      /*
+       * Occasionally discard the token buckets of addresses that have been
+       * quiet for long enough that their buckets are full again.
+       */
+
+      final long now_us = TimeUnit.MILLISECONDS.toMicros(now);
+      if (now_us - this.buckets_purged_us >= 1_000_000L) {
+        this.address_buckets.purge(now_us);
+        this.buckets_purged_us = now_us;
+      }
 
-        final String session_name =
-          Integer.toString(entry.getKey().intValue());
+      while (iter.hasNext()) {
+        final Map.Entry<Integer, EchoServerDuologueType> entry = iter.next();
+        final EchoServerDuologueType duologue = entry.getValue();
 
         /*
          * If the duologue has either been closed, or has expired, it needs
-         * to be deleted.
+         * to be deleted. The session name is only needed for logging
+         * deletions, so it is not built for the duologues that survive.
          */
 
-        boolean delete = false;
-        if (duologue.isExpired(now)) {
-          LOG.debug("[{}] duologue expired", session_name);
-          delete = true;
-        }
-
-        if (duologue.isClosed()) {
-          LOG.debug("[{}] duologue closed", session_name);
-          delete = true;
-        }
+        final boolean expired = duologue.isExpired(now);
+        if (expired || duologue.isClosed()) {
+          final String session_name =
+            Integer.toString(entry.getKey().intValue());
+          LOG.debug(
+            "[{}] duologue {}", session_name, expired ? "expired" : "closed");
 
-        if (delete) {
           try {
             duologue.close();
           } finally {
             LOG.debug("[{}] deleted duologue", session_name);
             iter.remove();
+            this.scheduler.remove(duologue.session());
+            this.counters.duologuesActive().setOrdered((long) this.client_duologues.size());
+            this.session_allocator.free(duologue.session());
+            this.statistics.free(duologue.slot());
             this.port_allocator.free(duologue.portData());
             this.port_allocator.free(duologue.portControl());
             this.address_counter.decrement(duologue.ownerAddress());
+
+            final EchoServerDuologueDeletedEvent event =
+              new EchoServerDuologueDeletedEvent();
+            if (event.shouldCommit()) {
+              event.session = duologue.session();
+              event.owner = duologue.ownerAddress().getHostAddress();
+              event.expired = expired;
+              event.commit();
+            }
           }
-          continue;
         }
+      }
 
-        /*
-         * Otherwise, poll the duologue for activity.
-         */
+      /*
+       * Poll the remaining duologues for activity.
+       */
 
-        duologue.poll();
-      }
+      this.scheduler.poll();
     }
   }
 }
@@ -96,4 +96,13 @@ public final class EchoServerAddressCounter
 
     return 0;
   }
+
+  /**
+   * @return The number of addresses that currently have a non-zero count
+   */
+
+  public int addressCount()
+  {
+    return this.counts.size();
+  }
 }
@@ -0,0 +1,20 @@
+package com.io7m.aeron_guide.take2;
+
+/**
+ * A buffer could not be allocated.
+ */
+
+public final class EchoServerBufferAllocationException extends EchoServerException
+{
+  /**
+   * Create an exception.
+   *
+   * @param message The message
+   */
+
+  public EchoServerBufferAllocationException(
+    final String message)
+  {
+    super(message);
+  }
+}
@@ -0,0 +1,390 @@
+package com.io7m.aeron_guide.take2;
+
+import org.agrona.BitUtil;
+import org.agrona.BufferUtil;
+import org.agrona.collections.Long2ObjectHashMap;
+import org.agrona.collections.LongArrayList;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>
+ * A pool of off-heap buffers for duologues.
+ * </p>
+ *
+ * <p>
+ * Direct buffers are only released when the garbage collector gets around
+ * to them, so allocating a fresh buffer for every duologue causes native
+ * memory to build up under connection churn. The pool instead divides
+ * buffers into <i>size classes</i>, each a power of two no smaller than
+ * {@link #MINIMUM_SLOT_SIZE}. When a size class has no free slots, it
+ * allocates an aligned off-heap block of slots, and slots are then handed
+ * out and returned without further allocation. The first block of each size
+ * class holds a single slot, and each subsequent block holds twice as many
+ * as the last, up to {@link #BLOCK_SIZE} bytes (or a single slot, if the
+ * slots are larger than that). The memory reserved by the pool grows to fit
+ * the largest number of buffers in use at once, and never exceeds the budget
+ * given when the pool was created.
+ * </p>
+ *
+ * <p>
+ * A block whose slots are all free still belongs to its size class, so that
+ * the class can reuse it without allocating. If a size class needs to grow
+ * and the budget is exhausted, however, the pool reclaims empty blocks from
+ * the other size classes: A single empty block that is large enough is
+ * divided into slots of the size class that needs it, and otherwise, if the
+ * empty blocks together would make enough room, they are all given back to
+ * the budget and a new block is allocated. Memory that has been given back is
+ * freed when the garbage collector collects the block, in the same way as
+ * any other direct buffer. Buffers that were once used by one size class are
+ * therefore always available to the others once they have been released.
+ * </p>
+ *
+ * <p>
+ * The pool is not thread-safe: It must only be accessed from the server's
+ * executor thread.
+ * </p>
+ */
+
+public final class EchoServerBufferPool
+{
+  /**
+   * The size in bytes of the smallest size class.
+   */
+
+  public static final int MINIMUM_SLOT_SIZE = 1024;
+
+  /**
+   * The size in bytes of the largest blocks of native memory that the pool
+   * allocates for size classes smaller than this.
+   */
+
+  public static final int BLOCK_SIZE = 65536;
+
+  private final SizeClass[] classes;
+  private final Long2ObjectHashMap<Block> used;
+  private final List<Block> blocks;
+  private final long budget;
+  private final int maximum;
+  private long reserved;
+
+  private EchoServerBufferPool(
+    final long in_budget,
+    final int in_maximum)
+  {
+    if (in_maximum < MINIMUM_SLOT_SIZE || !BitUtil.isPowerOfTwo(in_maximum)) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Maximum size %d must be a power of two no smaller than %d",
+          Integer.valueOf(in_maximum),
+          Integer.valueOf(MINIMUM_SLOT_SIZE)));
+    }
+
+    if (in_budget < (long) in_maximum) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Budget %d must be at least the maximum size %d",
+          Long.valueOf(in_budget),
+          Integer.valueOf(in_maximum)));
+    }
+
+    this.budget = in_budget;
+    this.maximum = in_maximum;
+    this.reserved = 0L;
+    this.used = new Long2ObjectHashMap<>();
+    this.blocks = new ArrayList<>(16);
+
+    final int count =
+      Integer.numberOfTrailingZeros(in_maximum)
+        - Integer.numberOfTrailingZeros(MINIMUM_SLOT_SIZE) + 1;
+
+    this.classes = new SizeClass[count];
+    for (int index = 0; index < count; ++index) {
+      this.classes[index] = new SizeClass(MINIMUM_SLOT_SIZE << index);
+    }
+  }
+
+  /**
+   * Create a new pool.
+   *
+   * @param budget  The maximum number of bytes of native memory that the
+   *                pool may reserve, which must be at least {@code maximum}
+   * @param maximum The size in bytes of the largest size class, which must
+   *                be a power of two no smaller than {@link #MINIMUM_SLOT_SIZE}
+   *
+   * @return A new pool
+   */
+
+  public static EchoServerBufferPool create(
+    final long budget,
+    final int maximum)
+  {
+    return new EchoServerBufferPool(budget, maximum);
+  }
+
+  /**
+   * Acquire a buffer from the pool. The returned buffer has exactly the
+   * requested capacity, and refers to a slot of the smallest size class that
+   * can hold it. The contents of the buffer are undefined.
+   *
+   * @param size The required capacity in bytes
+   *
+   * @return A buffer
+   *
+   * @throws EchoServerBufferAllocationException If all slots of the size
+   *                                             class are in use and no room
+   *                                             can be made for more within
+   *                                             the budget
+   */
+
+  public UnsafeBuffer acquire(
+    final int size)
+    throws EchoServerBufferAllocationException
+  {
+    if (size <= 0 || size > this.maximum) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Size %d must be in the range [1, %d]",
+          Integer.valueOf(size),
+          Integer.valueOf(this.maximum)));
+    }
+
+    final int slot_size =
+      Math.max(MINIMUM_SLOT_SIZE, BitUtil.findNextPositivePowerOfTwo(size));
+    final SizeClass size_class =
+      this.classes[Integer.numberOfTrailingZeros(slot_size / MINIMUM_SLOT_SIZE)];
+
+    if (size_class.available.isEmpty()) {
+      this.grow(size_class);
+    }
+
+    final int last = size_class.available.size() - 1;
+    final Block block = size_class.available.get(last);
+    final long address = block.slots_free.popLong();
+    ++block.slots_used;
+    if (block.slots_free.isEmpty()) {
+      size_class.available.remove(last);
+    }
+
+    this.used.put(address, block);
+    return new UnsafeBuffer(address, size);
+  }
+
+  private void grow(
+    final SizeClass size_class)
+    throws EchoServerBufferAllocationException
+  {
+    final long slot_size = (long) size_class.slot_size;
+    if (this.budget - this.reserved < slot_size) {
+      this.reclaim(size_class);
+      if (!size_class.available.isEmpty()) {
+        return;
+      }
+    }
+
+    final long remaining = this.budget - this.reserved;
+    final long slots = Math.min((long) size_class.block_slots, remaining / slot_size);
+
+    if (slots == 0L) {
+      throw new EchoServerBufferAllocationException(
+        String.format(
+          "Cannot allocate a buffer of size %d: %d of %d bytes are in use",
+          Long.valueOf(slot_size),
+          Long.valueOf(this.reserved),
+          Long.valueOf(this.budget)));
+    }
+
+    final ByteBuffer memory =
+      BufferUtil.allocateDirectAligned(
+        (int) (slots * slot_size), BitUtil.CACHE_LINE_LENGTH);
+    final Block block = new Block(memory);
+    this.blocks.add(block);
+    this.reserved += (long) block.capacity;
+    size_class.block_slots =
+      Math.min(size_class.block_slots * 2, Math.max(1, BLOCK_SIZE / size_class.slot_size));
+
+    block.divide(size_class);
+  }
+
+  /**
+   * Reclaim the empty blocks of the other size classes so that the given
+   * size class can grow. If one of the empty blocks is large enough, it is
+   * divided into slots of the given size class. Otherwise, if giving all of
+   * the empty blocks back to the budget would leave enough room for a slot of
+   * the given size class, they are given back.
+   */
+
+  private void reclaim(
+    final SizeClass size_class)
+  {
+    long empty_bytes = 0L;
+    for (int index = 0; index < this.blocks.size(); ++index) {
+      final Block block = this.blocks.get(index);
+      if (block.slots_used == 0 && block.owner != size_class) {
+        if (block.capacity >= size_class.slot_size) {
+          block.owner.available.remove(block);
+          block.divide(size_class);
+          return;
+        }
+        empty_bytes += (long) block.capacity;
+      }
+    }
+
+    if (this.budget - this.reserved + empty_bytes < (long) size_class.slot_size) {
+      return;
+    }
+
+    for (int index = this.blocks.size() - 1; index >= 0; --index) {
+      final Block block = this.blocks.get(index);
+      if (block.slots_used == 0 && block.owner != size_class) {
+        block.owner.available.remove(block);
+        this.blocks.remove(index);
+        this.reserved -= (long) block.capacity;
+      }
+    }
+  }
+
+  /**
+   * Return a buffer to the pool. After this method returns, the buffer must
+   * not be used again.
+   *
+   * @param buffer A buffer returned by {@link #acquire(int)}
+   */
+
+  public void release(
+    final UnsafeBuffer buffer)
+  {
+    Objects.requireNonNull(buffer, "buffer");
+
+    final long address = buffer.addressOffset();
+    final Block block = this.used.remove(address);
+    if (block == null) {
+      if (this.owns(address)) {
+        throw new IllegalArgumentException(
+          String.format(
+            "Buffer at address 0x%x is not in use",
+            Long.valueOf(address)));
+      }
+      throw new IllegalArgumentException(
+        "Buffer was not acquired from this pool");
+    }
+
+    if (block.slots_free.isEmpty()) {
+      block.owner.available.add(block);
+    }
+    block.slots_free.pushLong(address);
+    --block.slots_used;
+  }
+
+  private boolean owns(
+    final long address)
+  {
+    for (int index = 0; index < this.blocks.size(); ++index) {
+      final Block block = this.blocks.get(index);
+      if (address >= block.base && address < block.base + (long) block.capacity) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The size in bytes of the largest buffer that can be acquired
+   */
+
+  public int maximumSize()
+  {
+    return this.maximum;
+  }
+
+  /**
+   * @return The maximum number of bytes of native memory that the pool may
+   * reserve
+   */
+
+  public long budget()
+  {
+    return this.budget;
+  }
+
+  /**
+   * @return The number of buffers currently acquired from the pool
+   */
+
+  public int usedCount()
+  {
+    return this.used.size();
+  }
+
+  /**
+   * @return The number of bytes of native memory currently reserved by the pool
+   */
+
+  public long reservedBytes()
+  {
+    return this.reserved;
+  }
+
+  private static final class SizeClass
+  {
+    private final int slot_size;
+    private final List<Block> available;
+    private int block_slots;
+
+    SizeClass(
+      final int in_slot_size)
+    {
+      this.slot_size = in_slot_size;
+      this.available = new ArrayList<>(8);
+      this.block_slots = 1;
+    }
+  }
+
+  private static final class Block
+  {
+    /*
+     * The block's memory is freed when this buffer is collected, so the
+     * buffer must stay reachable for as long as the block is in use.
+     */
+
+    private final ByteBuffer memory;
+    private final long base;
+    private final int capacity;
+    private final LongArrayList slots_free;
+    private SizeClass owner;
+    private int slots_used;
+
+    Block(
+      final ByteBuffer in_memory)
+    {
+      this.memory = in_memory;
+      this.base = BufferUtil.address(in_memory);
+      this.capacity = in_memory.capacity();
+      this.slots_free = new LongArrayList();
+      this.slots_used = 0;
+    }
+
+    /**
+     * Divide the (empty) block into slots of the given size class, and make
+     * them available to that class.
+     */
+
+    void divide(
+      final SizeClass size_class)
+    {
+      final long slot_size = (long) size_class.slot_size;
+      final long slots = (long) this.capacity / slot_size;
+
+      this.owner = size_class;
+      this.slots_free.clear();
+      for (long slot = slots - 1L; slot >= 0L; --slot) {
+        this.slots_free.addLong(this.base + slot * slot_size);
+      }
+      size_class.available.add(this);
+    }
+  }
+}
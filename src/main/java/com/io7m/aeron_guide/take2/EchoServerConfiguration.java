@@ -1,9 +1,12 @@
 package com.io7m.aeron_guide.take2;
 
+import io.aeron.driver.ThreadingMode;
 import org.immutables.value.Value;
 
 import java.net.InetAddress;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
 
 @Value.Immutable
 public interface EchoServerConfiguration
@@ -56,4 +59,271 @@ public interface EchoServerConfiguration
 
   @Value.Parameter
   int maximumConnectionsPerAddress();
+
+  /**
+   * @return The time that a newly created duologue will wait for its client
+   * to connect before it is deleted, and the time that a duologue will wait
+   * for its client to subscribe to replies before it is closed
+   */
+
+  @Value.Default
+  default Duration duologueConnectTimeout()
+  {
+    return Duration.ofSeconds(10L);
+  }
+
+  /**
+   * @return The period for which a duologue will be held open after its
+   * client disappears, so that the client can resume the session without
+   * repeating the initial handshake; {@link Duration#ZERO} disables resumption
+   */
+
+  @Value.Default
+  default Duration sessionResumptionGracePeriod()
+  {
+    return Duration.ZERO;
+  }
+
+  /**
+   * @return The base delay that the server suggests to clients that it
+   * rejects with a retryable error: Because it is full, because it is too
+   * busy, or because the client's address has too many connections; the
+   * suggested delay grows with the load on the server
+   */
+
+  @Value.Default
+  default Duration rejectedClientRetryDelay()
+  {
+    return Duration.ofSeconds(1L);
+  }
+
+  /**
+   * @return The interval at which the server polls the all-clients channel
+   * and the existing duologues; shorter intervals reduce latency at the cost
+   * of CPU time
+   */
+
+  @Value.Default
+  default Duration pollInterval()
+  {
+    return Duration.ofMillis(100L);
+  }
+
+  /**
+   * @return The maximum number of fragments read from the all-clients
+   * channel each time the server polls it
+   */
+
+  @Value.Default
+  default int allClientsFragmentLimit()
+  {
+    return 100;
+  }
+
+  /**
+   * @return The maximum number of fragments read from each duologue each
+   * time the server polls it
+   *
+   * @see EchoServerDuologueScheduler
+   */
+
+  @Value.Default
+  default int duologueFragmentLimit()
+  {
+    return 10;
+  }
+
+  /**
+   * @return The maximum number of fragments read across all duologues each
+   * time the server polls them
+   *
+   * @see EchoServerDuologueScheduler
+   */
+
+  @Value.Default
+  default int duologuePollBudget()
+  {
+    return 1000;
+  }
+
+  /**
+   * @return The maximum size in bytes of a batch of replies, or {@code 0} if
+   * replies should not be batched. If non-zero, the replies produced by each
+   * poll of a duologue are coalesced into as few frames as possible and sent
+   * at the end of the poll, at the cost of delaying earlier replies until the
+   * poll completes. Batches are never larger than the maximum payload of a
+   * single frame, and must otherwise be at least
+   * {@link EchoMessageBatch#MINIMUM_CAPACITY}.
+   *
+   * @see EchoMessageBatch
+   */
+
+  @Value.Default
+  default int duologueReplyBatchBytes()
+  {
+    return 0;
+  }
+
+  /**
+   * @return The maximum number of bytes of native memory that the server
+   * will reserve for the send buffers and reply batches of duologues. Each
+   * duologue needs at least one kilobyte. Clients are refused with
+   * {@code ERROR server full} if their duologue's buffers cannot be acquired
+   * within this limit.
+   *
+   * @see EchoServerBufferPool
+   */
+
+  @Value.Default
+  default long duologueBufferPoolBytes()
+  {
+    return 64L * 1024L * 1024L;
+  }
+
+  /**
+   * @return The maximum size in bytes of a single message that a client may
+   * send on a duologue. Clients that send larger messages are disconnected.
+   * This bounds the memory that each duologue uses to reassemble messages;
+   * larger payloads must be streamed in chunks.
+   *
+   * @see EchoMessageChunks
+   */
+
+  @Value.Default
+  default int duologueMaximumMessageSize()
+  {
+    return 65536;
+  }
+
+  /**
+   * @return The maximum number of bytes of native memory that the server
+   * will use to reassemble fragmented messages, shared between all duologues.
+   * A duologue whose message cannot be reassembled within this limit is
+   * closed. The limit must be at least twice
+   * {@link #duologueMaximumMessageSize()} rounded up to a power of two.
+   *
+   * @see EchoServerFragmentReassembler
+   */
+
+  @Value.Default
+  default long duologueReassemblyBytes()
+  {
+    return 16L * 1024L * 1024L;
+  }
+
+  /**
+   * @return {@code true} if replies on the all-clients channel should begin
+   * with the binary session of the client for which they are intended. Every
+   * client still receives every reply, but can discard the replies intended
+   * for other clients after reading five bytes, rather than decoding and
+   * parsing them. This is an extension to the protocol that only clients
+   * aware of it can read, so it is disabled by default.
+   *
+   * @see EchoMessages#ROUTED_REPLY_MARKER
+   */
+
+  @Value.Default
+  default boolean allClientsRoutedReplies()
+  {
+    return false;
+  }
+
+  /**
+   * @return The sustained number of messages per second that the server will
+   * accept on the all-clients channel from any one client address (or IPv6
+   * /64 prefix); excess messages are dropped before they are parsed
+   */
+
+  @Value.Default
+  default int handshakeRatePerAddress()
+  {
+    return 10;
+  }
+
+  /**
+   * @return The number of messages that any one client address may send on
+   * the all-clients channel in a burst before being limited to
+   * {@link #handshakeRatePerAddress()}
+   */
+
+  @Value.Default
+  default int handshakeBurstPerAddress()
+  {
+    return 20;
+  }
+
+  /**
+   * @return The sustained number of messages per second that the server will
+   * accept on the all-clients channel from all clients combined
+   */
+
+  @Value.Default
+  default int handshakeRateGlobal()
+  {
+    return 1000;
+  }
+
+  /**
+   * @return The number of messages that all clients combined may send on the
+   * all-clients channel in a burst before being limited to
+   * {@link #handshakeRateGlobal()}
+   */
+
+  @Value.Default
+  default int handshakeBurstGlobal()
+  {
+    return 1000;
+  }
+
+  /**
+   * @return The executor queueing delay above which the server considers
+   * itself overloaded, and answers HELLO messages with {@code ERROR busy}
+   * instead of allocating new duologues
+   *
+   * @see EchoServerExecutorService#queueSojournNanos()
+   */
+
+  @Value.Default
+  default Duration loadSheddingSojournThreshold()
+  {
+    return Duration.ofMillis(50L);
+  }
+
+  /**
+   * @return The executor utilization, in the range {@code [0, 1]}, above
+   * which the server considers itself overloaded, and answers HELLO messages
+   * with {@code ERROR busy} instead of allocating new duologues
+   *
+   * @see EchoServerExecutorService#utilization()
+   */
+
+  @Value.Default
+  default double loadSheddingUtilizationThreshold()
+  {
+    return 0.95;
+  }
+
+  /**
+   * @return The threading mode used by the server's media driver; if no mode
+   * is specified, the driver's own default is used
+   */
+
+  Optional<ThreadingMode> mediaDriverThreadingMode();
+
+  /**
+   * Check preconditions for the configuration.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final int batch_bytes = this.duologueReplyBatchBytes();
+    if (batch_bytes != 0 && batch_bytes < EchoMessageBatch.MINIMUM_CAPACITY) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Reply batch size %d must be 0 or at least %d",
+          Integer.valueOf(batch_bytes),
+          Integer.valueOf(EchoMessageBatch.MINIMUM_CAPACITY)));
+    }
+  }
 }
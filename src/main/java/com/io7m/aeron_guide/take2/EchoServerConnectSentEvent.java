@@ -0,0 +1,48 @@
+package com.io7m.aeron_guide.take2;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>
+ * A JFR event recorded when the server sends a CONNECT message to a client
+ * on the all-clients channel.
+ * </p>
+ *
+ * <p>
+ * The event can be disabled by setting {@code enabled} to {@code false} for
+ * the event named {@code com.io7m.aeron_guide.ConnectSent}.
+ * </p>
+ */
+
+@Name("com.io7m.aeron_guide.ConnectSent")
+@Label("CONNECT Sent")
+@Category({"Aeron Guide", "Echo Server", "Handshake"})
+@Description("The server told a client where to find its new duologue")
+@StackTrace(false)
+public final class EchoServerConnectSentEvent extends Event
+{
+  @Label("Initial Session")
+  @Description("The session ID of the client on the all-clients channel")
+  int initial_session;
+
+  @Label("Session")
+  @Description("The session ID of the duologue")
+  int session;
+
+  @Label("Resumable")
+  boolean resumable;
+
+  /**
+   * Construct an event.
+   */
+
+  public EchoServerConnectSentEvent()
+  {
+
+  }
+}
@@ -0,0 +1,351 @@
+package com.io7m.aeron_guide.take2;
+
+import io.aeron.Aeron;
+import org.agrona.concurrent.status.AtomicCounter;
+import org.agrona.concurrent.status.CountersManager;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * Live metrics for a server.
+ * </p>
+ *
+ * <p>
+ * The metrics are Agrona counters allocated in the counters file of the
+ * server's media driver, and so can be read by any process that can read
+ * that file (such as Aeron's {@code AeronStat} tool) without any cost to the
+ * server beyond the cost of updating the counters. Updating a counter does
+ * not allocate.
+ * </p>
+ */
+
+public final class EchoServerCounters
+  implements EchoMessageSendObserver, AutoCloseable
+{
+  /**
+   * The type ID of all counters allocated by the server.
+   */
+
+  public static final int COUNTER_TYPE_ID = 0x2044f100;
+
+  private final AtomicCounter duologues_active;
+  private final AtomicCounter handshakes_accepted;
+  private final AtomicCounter handshakes_rejected_bad_message;
+  private final AtomicCounter handshakes_rejected_server_full;
+  private final AtomicCounter handshakes_rejected_address_limit;
+  private final AtomicCounter handshakes_rejected_busy;
+  private final AtomicCounter handshakes_dropped_address_rate;
+  private final AtomicCounter handshakes_dropped_global_rate;
+  private final AtomicCounter messages_received;
+  private final AtomicCounter bytes_received;
+  private final AtomicCounter messages_sent;
+  private final AtomicCounter bytes_sent;
+  private final AtomicCounter back_pressured;
+  private final AtomicCounter send_failures;
+  private final AtomicCounter executor_queue_depth;
+  private final AtomicCounter executor_sojourn;
+  private final AtomicCounter executor_utilization;
+  private final AtomicCounter executor_polls;
+
+  private EchoServerCounters(
+    final Function<String, AtomicCounter> allocator)
+  {
+    this.duologues_active =
+      allocator.apply("echo server: duologues active");
+    this.handshakes_accepted =
+      allocator.apply("echo server: handshakes accepted");
+    this.handshakes_rejected_bad_message =
+      allocator.apply("echo server: handshakes rejected: bad message");
+    this.handshakes_rejected_server_full =
+      allocator.apply("echo server: handshakes rejected: server full");
+    this.handshakes_rejected_address_limit =
+      allocator.apply("echo server: handshakes rejected: too many connections for address");
+    this.handshakes_rejected_busy =
+      allocator.apply("echo server: handshakes rejected: busy");
+    this.handshakes_dropped_address_rate =
+      allocator.apply("echo server: handshakes dropped: address rate limit");
+    this.handshakes_dropped_global_rate =
+      allocator.apply("echo server: handshakes dropped: global rate limit");
+    this.messages_received =
+      allocator.apply("echo server: messages received");
+    this.bytes_received =
+      allocator.apply("echo server: bytes received");
+    this.messages_sent =
+      allocator.apply("echo server: messages sent");
+    this.bytes_sent =
+      allocator.apply("echo server: bytes sent");
+    this.back_pressured =
+      allocator.apply("echo server: back-pressure retries");
+    this.send_failures =
+      allocator.apply("echo server: send failures");
+    this.executor_queue_depth =
+      allocator.apply("echo server: executor queue depth");
+    this.executor_sojourn =
+      allocator.apply("echo server: executor queue sojourn time (ns)");
+    this.executor_utilization =
+      allocator.apply("echo server: executor utilization (permille)");
+    this.executor_polls =
+      allocator.apply("echo server: executor poll cycles");
+  }
+
+  /**
+   * Allocate a new set of counters.
+   *
+   * @param aeron The Aeron instance
+   *
+   * @return A new set of counters
+   */
+
+  public static EchoServerCounters create(
+    final Aeron aeron)
+  {
+    Objects.requireNonNull(aeron, "aeron");
+    return new EchoServerCounters(
+      label -> aeron.addCounter(COUNTER_TYPE_ID, label));
+  }
+
+  /**
+   * Allocate a new set of counters from the given counters manager. This is
+   * useful for driving the server's client-tracking state without a media
+   * driver.
+   *
+   * @param manager The counters manager
+   *
+   * @return A new set of counters
+   */
+
+  public static EchoServerCounters create(
+    final CountersManager manager)
+  {
+    Objects.requireNonNull(manager, "manager");
+    return new EchoServerCounters(
+      label -> manager.newCounter(label, COUNTER_TYPE_ID));
+  }
+
+  /**
+   * @return The number of duologues that currently exist
+   */
+
+  public AtomicCounter duologuesActive()
+  {
+    return this.duologues_active;
+  }
+
+  /**
+   * @return The number of handshakes that resulted in a new duologue
+   */
+
+  public AtomicCounter handshakesAccepted()
+  {
+    return this.handshakes_accepted;
+  }
+
+  /**
+   * @return The number of handshakes rejected because the client sent something other than HELLO
+   */
+
+  public AtomicCounter handshakesRejectedBadMessage()
+  {
+    return this.handshakes_rejected_bad_message;
+  }
+
+  /**
+   * @return The number of handshakes rejected because the server was full
+   */
+
+  public AtomicCounter handshakesRejectedServerFull()
+  {
+    return this.handshakes_rejected_server_full;
+  }
+
+  /**
+   * @return The number of handshakes rejected because the client's address had too many duologues
+   */
+
+  public AtomicCounter handshakesRejectedAddressLimit()
+  {
+    return this.handshakes_rejected_address_limit;
+  }
+
+  /**
+   * @return The number of handshakes rejected because the server was overloaded
+   */
+
+  public AtomicCounter handshakesRejectedBusy()
+  {
+    return this.handshakes_rejected_busy;
+  }
+
+  /**
+   * @return The number of all-clients messages dropped because the client's address exceeded its rate limit
+   */
+
+  public AtomicCounter handshakesDroppedAddressRate()
+  {
+    return this.handshakes_dropped_address_rate;
+  }
+
+  /**
+   * @return The number of all-clients messages dropped because all clients combined exceeded the global rate limit
+   */
+
+  public AtomicCounter handshakesDroppedGlobalRate()
+  {
+    return this.handshakes_dropped_global_rate;
+  }
+
+  /**
+   * @return The number of messages received from clients
+   */
+
+  public AtomicCounter messagesReceived()
+  {
+    return this.messages_received;
+  }
+
+  /**
+   * @return The number of bytes received from clients
+   */
+
+  public AtomicCounter bytesReceived()
+  {
+    return this.bytes_received;
+  }
+
+  /**
+   * @return The number of messages sent to clients
+   */
+
+  public AtomicCounter messagesSent()
+  {
+    return this.messages_sent;
+  }
+
+  /**
+   * @return The number of bytes sent to clients
+   */
+
+  public AtomicCounter bytesSent()
+  {
+    return this.bytes_sent;
+  }
+
+  /**
+   * @return The number of send attempts that failed due to back pressure
+   */
+
+  public AtomicCounter backPressured()
+  {
+    return this.back_pressured;
+  }
+
+  /**
+   * @return The number of messages that could not be sent
+   */
+
+  public AtomicCounter sendFailures()
+  {
+    return this.send_failures;
+  }
+
+  /**
+   * @return The number of tasks waiting to be run by the server's executor
+   */
+
+  public AtomicCounter executorQueueDepth()
+  {
+    return this.executor_queue_depth;
+  }
+
+  /**
+   * @return The minimum time in nanoseconds that tasks recently waited to be run by the server's executor
+   */
+
+  public AtomicCounter executorSojourn()
+  {
+    return this.executor_sojourn;
+  }
+
+  /**
+   * @return The recent utilization of the server's executor thread, in thousandths
+   */
+
+  public AtomicCounter executorUtilization()
+  {
+    return this.executor_utilization;
+  }
+
+  /**
+   * @return The number of times the server's executor has polled the
+   * all-clients channel and the existing duologues
+   */
+
+  public AtomicCounter executorPolls()
+  {
+    return this.executor_polls;
+  }
+
+  /**
+   * Record the receipt of a message.
+   *
+   * @param length The length of the message in bytes
+   */
+
+  public void onMessageReceived(
+    final int length)
+  {
+    this.messages_received.incrementOrdered();
+    this.bytes_received.getAndAddOrdered((long) length);
+  }
+
+  @Override
+  public void onMessageSent(
+    final int length)
+  {
+    this.messages_sent.incrementOrdered();
+    this.bytes_sent.getAndAddOrdered((long) length);
+  }
+
+  @Override
+  public void onBackPressured()
+  {
+    this.back_pressured.incrementOrdered();
+  }
+
+  @Override
+  public void onNotConnected()
+  {
+
+  }
+
+  @Override
+  public void onSendFailed()
+  {
+    this.send_failures.incrementOrdered();
+  }
+
+  @Override
+  public void close()
+  {
+    this.duologues_active.close();
+    this.handshakes_accepted.close();
+    this.handshakes_rejected_bad_message.close();
+    this.handshakes_rejected_server_full.close();
+    this.handshakes_rejected_address_limit.close();
+    this.handshakes_rejected_busy.close();
+    this.handshakes_dropped_address_rate.close();
+    this.handshakes_dropped_global_rate.close();
+    this.messages_received.close();
+    this.bytes_received.close();
+    this.messages_sent.close();
+    this.bytes_sent.close();
+    this.back_pressured.close();
+    this.send_failures.close();
+    this.executor_queue_depth.close();
+    this.executor_sojourn.close();
+    this.executor_utilization.close();
+    this.executor_polls.close();
+  }
+}
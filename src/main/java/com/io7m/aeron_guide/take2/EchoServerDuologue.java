@@ -2,22 +2,22 @@ package com.io7m.aeron_guide.take2;
 
 import io.aeron.Aeron;
 import io.aeron.ConcurrentPublication;
-import io.aeron.FragmentAssembler;
 import io.aeron.Image;
 import io.aeron.Publication;
 import io.aeron.Subscription;
+import io.aeron.logbuffer.ControlledFragmentHandler;
+import io.aeron.logbuffer.ControlledFragmentHandler.Action;
 import io.aeron.logbuffer.Header;
-import org.agrona.BufferUtil;
 import org.agrona.DirectBuffer;
+import org.agrona.concurrent.EpochClock;
 import org.agrona.concurrent.UnsafeBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.time.Clock;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -26,57 +26,122 @@ import java.util.regex.Pattern;
  * A conversation between the server and a single client.
  */
 
-public final class EchoServerDuologue implements AutoCloseable
+public final class EchoServerDuologue implements EchoServerDuologueType
 {
   private static final Logger LOG =
     LoggerFactory.getLogger(EchoServerDuologue.class);
 
-  private static final Pattern PATTERN_ECHO =
-    Pattern.compile("^ECHO (.*)$");
+  private static final Pattern PATTERN_RESUME =
+    Pattern.compile("^RESUME ([0-9A-F]+)$");
+
+  private static final byte[] ECHO_PREFIX =
+    "ECHO ".getBytes(StandardCharsets.US_ASCII);
+
+  private static final int SEND_BUFFER_SIZE = 1024;
 
   private final UnsafeBuffer send_buffer;
+  private final UnsafeBuffer batch_buffer;
+  private final EchoServerBufferPool buffers;
   private final EchoServerExecutorService exec;
-  private final Instant initial_expire;
+  private final EchoServerCounters counters;
+  private final EchoServerDuologueStatistics statistics;
+  private final EchoMessageSendObserver send_observer;
+  private final EpochClock clock;
   private final InetAddress owner;
   private final int port_data;
   private final int port_control;
   private final int session;
-  private final FragmentAssembler handler;
+  private final int slot;
+  private final long resume_token;
+  private final long resume_grace_ms;
+  private final long connect_timeout_ms;
+  private final EchoServerFragmentReassembler reassembler;
+  private final ControlledFragmentHandler message_handler;
+  private final ControlledFragmentHandler handler;
+  private final ControlledFragmentHandler peek_handler;
+  private boolean peeked;
+  private final EchoMessageBatch batch;
+  private boolean streaming;
+  private long expire;
+  private long not_connected_since;
+  private boolean suspended;
   private boolean closed;
   private Publication publication;
   private Subscription subscription;
 
   private EchoServerDuologue(
     final EchoServerExecutorService in_exec,
-    final Instant in_initial_expire,
+    final EchoServerCounters in_counters,
+    final EchoServerDuologueStatistics in_statistics,
+    final int in_slot,
+    final EchoServerBufferPool in_buffers,
+    final UnsafeBuffer in_send_buffer,
+    final UnsafeBuffer in_batch_buffer,
+    final EchoServerFragmentReassembler in_reassembler,
+    final EpochClock in_clock,
+    final long in_initial_expire,
+    final Duration in_connect_timeout,
     final InetAddress in_owner_address,
     final int in_session,
     final int in_port_data,
-    final int in_port_control)
+    final int in_port_control,
+    final long in_resume_token,
+    final Duration in_resume_grace)
   {
     this.exec =
       Objects.requireNonNull(in_exec, "executor");
-    this.initial_expire =
-      Objects.requireNonNull(in_initial_expire, "initial_expire");
+    this.counters =
+      Objects.requireNonNull(in_counters, "counters");
+    this.statistics =
+      Objects.requireNonNull(in_statistics, "statistics");
+    this.clock =
+      Objects.requireNonNull(in_clock, "clock");
     this.owner =
       Objects.requireNonNull(in_owner_address, "owner");
-
+    this.resume_grace_ms =
+      Objects.requireNonNull(in_resume_grace, "resume_grace").toMillis();
+    this.connect_timeout_ms =
+      Objects.requireNonNull(in_connect_timeout, "connect_timeout").toMillis();
+    this.expire = in_initial_expire;
+    this.not_connected_since = -1L;
+
+    this.buffers =
+      Objects.requireNonNull(in_buffers, "buffers");
     this.send_buffer =
-      new UnsafeBuffer(BufferUtil.allocateDirectAligned(1024, 16));
+      Objects.requireNonNull(in_send_buffer, "send_buffer");
+    this.batch_buffer = in_batch_buffer;
+    this.reassembler =
+      Objects.requireNonNull(in_reassembler, "reassembler");
 
     this.session = in_session;
+    this.slot = in_slot;
     this.port_data = in_port_data;
     this.port_control = in_port_control;
+    this.resume_token = in_resume_token;
+    this.suspended = false;
     this.closed = false;
+    this.send_observer = new SendObserver();
+    this.batch =
+      in_batch_buffer != null
+        ? EchoMessageBatch.create(in_batch_buffer)
+        : null;
 
-    this.handler = new FragmentAssembler((data, offset, length, header) -> {
+    this.streaming = false;
+
+    this.message_handler = (data, offset, length, header) -> {
       try {
-        this.onMessageReceived(data, offset, length, header);
+        return this.onMessageReceived(data, offset, length, header);
       } catch (final IOException e) {
         LOG.error("failed to send message: ", e);
         this.close();
+        return Action.BREAK;
       }
-    });
+    };
+    this.handler = this::onFragmentReceived;
+    this.peek_handler = (data, offset, length, header) -> {
+      this.peeked = true;
+      return Action.ABORT;
+    };
   }
 
   /**
@@ -84,33 +149,67 @@ public final class EchoServerDuologue implements AutoCloseable
    * pair using a specific session ID and intended only for a single client
    * at a given address.
    *
-   * @param aeron         The Aeron instance
-   * @param clock         A clock used for time-related operations
-   * @param exec          An executor
-   * @param local_address The local address of the server ports
-   * @param owner_address The address of the client
-   * @param session       The session ID
-   * @param port_data     The data port
-   * @param port_control  The control port
+   * If {@code resume_grace} is non-zero, the duologue will not be closed when
+   * its client disappears. It will instead be held for {@code resume_grace}
+   * so that the client can reconnect and resume the session by presenting
+   * {@code resume_token}.
+   *
+   * @param aeron           The Aeron instance
+   * @param clock           A clock used for time-related operations
+   * @param exec            An executor
+   * @param counters        The server's counters
+   * @param statistics      The server's per-duologue statistics
+   * @param slot            The statistics slot allocated to the duologue
+   * @param buffers         The pool from which the duologue's buffers are acquired
+   * @param reassembler     The reassembler of fragmented messages
+   * @param local_address   The local address of the server ports
+   * @param owner_address   The address of the client
+   * @param session         The session ID
+   * @param port_data       The data port
+   * @param port_control    The control port
+   * @param connect_timeout The time allowed for the client to connect, and
+   *                        to subscribe to replies
+   * @param resume_token    The token that a client must present to resume the session
+   * @param resume_grace    The period for which a session can be resumed
+   * @param reply_batch_bytes The maximum size of a batch of replies, or {@code 0} to disable batching
    *
    * @return A new duologue
+   *
+   * @throws EchoServerBufferAllocationException If the duologue's buffers
+   *                                             cannot be acquired
    */
 
   public static EchoServerDuologue create(
     final Aeron aeron,
-    final Clock clock,
+    final EpochClock clock,
     final EchoServerExecutorService exec,
+    final EchoServerCounters counters,
+    final EchoServerDuologueStatistics statistics,
+    final int slot,
+    final EchoServerBufferPool buffers,
+    final EchoServerFragmentReassembler reassembler,
     final InetAddress local_address,
     final InetAddress owner_address,
     final int session,
     final int port_data,
-    final int port_control)
+    final int port_control,
+    final Duration connect_timeout,
+    final long resume_token,
+    final Duration resume_grace,
+    final int reply_batch_bytes)
+    throws EchoServerBufferAllocationException
   {
     Objects.requireNonNull(aeron, "aeron");
     Objects.requireNonNull(clock, "clock");
     Objects.requireNonNull(exec, "exec");
+    Objects.requireNonNull(counters, "counters");
+    Objects.requireNonNull(statistics, "statistics");
+    Objects.requireNonNull(buffers, "buffers");
+    Objects.requireNonNull(reassembler, "reassembler");
     Objects.requireNonNull(local_address, "local_address");
     Objects.requireNonNull(owner_address, "owner_address");
+    Objects.requireNonNull(connect_timeout, "connect_timeout");
+    Objects.requireNonNull(resume_grace, "resume_grace");
 
     LOG.debug(
       "creating new duologue at {} ({},{}) session {} for {}",
@@ -120,8 +219,8 @@ public final class EchoServerDuologue implements AutoCloseable
       Integer.toString(session),
       owner_address);
 
-    final Instant initial_expire =
-      clock.instant().plus(10L, ChronoUnit.SECONDS);
+    final long initial_expire =
+      clock.time() + connect_timeout.toMillis();
 
     final ConcurrentPublication pub =
       EchoChannels.createPublicationDynamicMDCWithSession(
@@ -131,15 +230,41 @@ public final class EchoServerDuologue implements AutoCloseable
         EchoServer.ECHO_STREAM_ID,
         session);
 
+    UnsafeBuffer send_buffer = null;
+    UnsafeBuffer batch_buffer = null;
+
     try {
+      send_buffer = buffers.acquire(SEND_BUFFER_SIZE);
+
+      /*
+       * A batch is limited to the largest payload that fits in a single
+       * frame.
+       */
+
+      if (reply_batch_bytes > 0) {
+        batch_buffer =
+          buffers.acquire(Math.min(reply_batch_bytes, pub.maxPayloadLength()));
+      }
+
       final EchoServerDuologue duologue =
         new EchoServerDuologue(
           exec,
+          counters,
+          statistics,
+          slot,
+          buffers,
+          send_buffer,
+          batch_buffer,
+          reassembler,
+          clock,
           initial_expire,
+          connect_timeout,
           owner_address,
           session,
           port_data,
-          port_control);
+          port_control,
+          resume_token,
+          resume_grace);
 
       final Subscription sub =
         EchoChannels.createSubscriptionWithHandlersAndSession(
@@ -154,6 +279,12 @@ public final class EchoServerDuologue implements AutoCloseable
       duologue.setPublicationSubscription(pub, sub);
       return duologue;
     } catch (final Exception e) {
+      if (batch_buffer != null) {
+        buffers.release(batch_buffer);
+      }
+      if (send_buffer != null) {
+        buffers.release(send_buffer);
+      }
       try {
         pub.close();
       } catch (final Exception pe) {
@@ -165,15 +296,232 @@ public final class EchoServerDuologue implements AutoCloseable
 
   /**
    * Poll the duologue for activity.
+   *
+   * If the client is not reading responses quickly enough for the reply
+   * publication to accept them, the message that would have caused the
+   * response is left in the subscription and will be delivered again on the
+   * next poll. The client is therefore limited to the rate at which it reads
+   * responses, and the server never waits for it.
+   *
+   * If reply batching is enabled, the replies produced by a single poll are
+   * sent together in as few frames as possible at the end of the poll. A
+   * batch that cannot be sent is retried at the start of the next poll, and
+   * no further messages are read until it has been sent. As with unbatched
+   * replies, a batch that cannot be sent because the client has not
+   * subscribed to replies within the connect timeout closes the duologue.
+   *
+   * @param fragment_limit The maximum number of fragments that will be read
+   *
+   * @return The number of fragments read
    */
 
-  public void poll()
+  @Override
+  public int poll(
+    final int fragment_limit)
   {
     this.exec.assertIsExecutorThread();
-    this.subscription.poll(this.handler, 10);
+
+    if (this.batch == null) {
+      return this.subscription.controlledPoll(this.handler, fragment_limit);
+    }
+
+    try {
+      if (!this.batch.offer(this.publication, this.send_observer)) {
+        this.onReplyRefused();
+        return 0;
+      }
+
+      final int read =
+        this.subscription.controlledPoll(this.handler, fragment_limit);
+      if (!this.closed) {
+        this.batch.offer(this.publication, this.send_observer);
+      }
+      return read;
+    } catch (final IOException e) {
+      LOG.error("failed to send replies: ", e);
+      this.close();
+      return 0;
+    }
+  }
+
+  private boolean reply(
+    final String text)
+    throws IOException
+  {
+    if (this.batch != null) {
+      if (this.batch.append(text)) {
+        return true;
+      }
+
+      /*
+       * The batch is full. Send it and start another. A message that is too
+       * large for an empty batch is sent on its own.
+       */
+
+      if (!this.batch.offer(this.publication, this.send_observer)) {
+        return false;
+      }
+      if (this.batch.append(text)) {
+        return true;
+      }
+    }
+
+    return EchoMessages.offerMessage(
+      this.publication,
+      this.send_buffer,
+      text,
+      this.send_observer);
+  }
+
+  /**
+   * Send a reply consisting of the given region of a buffer, exactly as it
+   * stands. Any batched replies are sent first to preserve ordering.
+   */
+
+  private boolean replyRaw(
+    final DirectBuffer buffer,
+    final int offset,
+    final int length)
+    throws IOException
+  {
+    if (this.batch != null
+      && !this.batch.offer(this.publication, this.send_observer)) {
+      return false;
+    }
+
+    return EchoMessages.offerBuffer(
+      this.publication, buffer, offset, length, this.send_observer);
+  }
+
+  /**
+   * Pass a fragment to the shared reassembler, and close the duologue if the
+   * client tries to send a message larger than the maximum, or if the server
+   * has no memory left to reassemble it. This bounds the memory that the
+   * duologue uses to reassemble messages.
+   */
+
+  private Action onFragmentReceived(
+    final DirectBuffer buffer,
+    final int offset,
+    final int length,
+    final Header header)
+  {
+    try {
+      return this.reassembler.onFragment(
+        this.session, this.message_handler, buffer, offset, length, header);
+    } catch (final EchoServerMessageTooLargeException
+      | EchoServerBufferAllocationException e) {
+      LOG.error(
+        "[{}] could not reassemble message: {}",
+        Integer.toString(header.sessionId()),
+        e.getMessage());
+      this.close();
+      return Action.BREAK;
+    }
+  }
+
+  /**
+   * Echo a chunk of a stream back to the client as soon as it arrives.
+   */
+
+  private Action onChunkReceived(
+    final DirectBuffer buffer,
+    final int offset,
+    final int length)
+    throws IOException
+  {
+    final byte flags = buffer.getByte(offset + 1);
+    final boolean begin = (flags & EchoMessageChunks.FLAG_BEGIN) != 0;
+
+    /*
+     * A stream must start with exactly one BEGIN chunk, and only ECHO
+     * messages may be streamed. An ABORT chunk ends the stream in progress,
+     * and is echoed so that the client discards the stream too.
+     */
+
+    if (this.suspended || begin == this.streaming) {
+      return this.onBadMessage(length);
+    }
+
+    if (begin && !startsWithEcho(buffer, offset, length)) {
+      return this.onBadMessage(length);
+    }
+
+    if (!this.replyRaw(buffer, offset, length)) {
+      return this.onReplyRefused();
+    }
+
+    this.streaming =
+      (flags & (EchoMessageChunks.FLAG_END | EchoMessageChunks.FLAG_ABORT)) == 0;
+    return this.onMessageHandled(length);
+  }
+
+  private static boolean startsWithEcho(
+    final DirectBuffer buffer,
+    final int offset,
+    final int length)
+  {
+    final int payload = offset + EchoMessageChunks.CHUNK_HEADER_LENGTH;
+    if (length - EchoMessageChunks.CHUNK_HEADER_LENGTH < ECHO_PREFIX.length) {
+      return false;
+    }
+
+    for (int index = 0; index < ECHO_PREFIX.length; ++index) {
+      if (buffer.getByte(payload + index) != ECHO_PREFIX[index]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Action onBadMessage(
+    final int length)
+    throws IOException
+  {
+    if (!this.reply("ERROR bad message")) {
+      return this.onReplyRefused();
+    }
+    this.onMessageHandled(length);
+    this.close();
+    return Action.BREAK;
+  }
+
+  /**
+   * A reply could not be sent. If the client is simply reading slowly, the
+   * message is left in the subscription to be delivered again on the next
+   * poll. A client that has not subscribed to replies within the connect
+   * timeout is never going to read them, so the duologue is closed rather
+   * than retrying the same message forever.
+   */
+
+  private Action onReplyRefused()
+  {
+    if (this.isUnreachable()) {
+      LOG.error(
+        "[{}] client has not subscribed to replies within {}ms",
+        Integer.toString(this.session),
+        Long.valueOf(this.connect_timeout_ms));
+      this.close();
+      return Action.BREAK;
+    }
+    return Action.ABORT;
+  }
+
+  private boolean isUnreachable()
+  {
+    return this.not_connected_since >= 0L
+      && this.clock.time() - this.not_connected_since > this.connect_timeout_ms;
+  }
+
+  private Action onMessageHandled(
+    final int length)
+  {
+    this.counters.onMessageReceived(length);
+    this.statistics.onMessageReceived(this.slot, length, this.clock.time());
+    return Action.CONTINUE;
   }
 
-  private void onMessageReceived(
+  private Action onMessageReceived(
     final DirectBuffer buffer,
     final int offset,
     final int length,
@@ -182,6 +530,10 @@ public final class EchoServerDuologue implements AutoCloseable
   {
     this.exec.assertIsExecutorThread();
 
+    if (EchoMessageChunks.isChunk(buffer, offset, length)) {
+      return this.onChunkReceived(buffer, offset, length);
+    }
+
     final String session_name =
       Integer.toString(header.sessionId());
     final String message =
@@ -192,27 +544,55 @@ public final class EchoServerDuologue implements AutoCloseable
      */
 
     LOG.debug("[{}] received: {}", session_name, message);
-    final Matcher echo_matcher = PATTERN_ECHO.matcher(message);
-    if (echo_matcher.matches()) {
-      EchoMessages.sendMessage(
-        this.publication,
-        this.send_buffer,
-        "ECHO " + echo_matcher.group(1));
-      return;
+
+    /*
+     * Try to parse a RESUME message. A client that has reconnected after
+     * losing its connection must present the token it was issued before
+     * anything else.
+     */
+
+    final Matcher resume_matcher = PATTERN_RESUME.matcher(message);
+    if (resume_matcher.matches() && this.isResumable()) {
+      final long token =
+        Long.parseUnsignedLong(resume_matcher.group(1), 16);
+
+      if (token == this.resume_token) {
+        if (!this.reply("RESUMED")) {
+          return this.onReplyRefused();
+        }
+        LOG.debug("[{}] session resumed", session_name);
+        this.suspended = false;
+        return this.onMessageHandled(length);
+      }
+
+      LOG.debug("[{}] incorrect resumption token", session_name);
+    }
+
+    final Matcher echo_matcher = EchoMessages.PATTERN_ECHO.matcher(message);
+    if (echo_matcher.matches() && !this.suspended) {
+
+      /*
+       * The reply to an ECHO message is identical to the message itself, so
+       * a message too large for the send buffer is echoed directly from the
+       * receive buffer.
+       */
+
+      final boolean sent =
+        length > this.send_buffer.capacity()
+          ? this.replyRaw(buffer, offset, length)
+          : this.reply("ECHO " + echo_matcher.group(1));
+
+      if (!sent) {
+        return this.onReplyRefused();
+      }
+      return this.onMessageHandled(length);
     }
 
     /*
      * Otherwise, fail and close this duologue.
      */
 
-    try {
-      EchoMessages.sendMessage(
-        this.publication,
-        this.send_buffer,
-        "ERROR bad message");
-    } finally {
-      this.close();
-    }
+    return this.onBadMessage(length);
   }
 
   private void setPublicationSubscription(
@@ -234,6 +614,16 @@ public final class EchoServerDuologue implements AutoCloseable
       final InetAddress address = EchoAddresses.extractAddress(image.sourceIdentity());
 
       if (this.subscription.imageCount() == 0) {
+        if (this.isResumable()) {
+          LOG.debug(
+            "[{}] last client ({}) disconnected, holding for resumption",
+            session_name,
+            address);
+          this.suspended = true;
+          this.expire = this.clock.time() + this.resume_grace_ms;
+          return;
+        }
+
         LOG.debug("[{}] last client ({}) disconnected", session_name, address);
         this.close();
       } else {
@@ -260,27 +650,77 @@ public final class EchoServerDuologue implements AutoCloseable
   }
 
   /**
-   * @param now The current time
+   * @param now The current time in milliseconds since the epoch
    *
    * @return {@code true} if this duologue has no subscribers and the current
-   * time {@code now} is after the intended expiry date of the duologue
+   * time {@code now} is after the intended expiry date of the duologue (or
+   * after the end of the resumption grace period, if the client has gone
+   * away)
    */
 
+  @Override
   public boolean isExpired(
-    final Instant now)
+    final long now)
   {
-    Objects.requireNonNull(now, "now");
-
     this.exec.assertIsExecutorThread();
 
     return this.subscription.imageCount() == 0
-      && now.isAfter(this.initial_expire);
+      && now > this.expire;
+  }
+
+  private boolean isResumable()
+  {
+    return this.resume_grace_ms != 0L;
+  }
+
+  /**
+   * Check whether the duologue has unsent replies, or whether any image of
+   * its subscription has a fragment at the subscriber's position. The check
+   * peeks at the frame at the current position without consuming it. Aeron
+   * skips padding frames when peeking, and a padding frame can only be
+   * found within one MTU of the end of a term, so an image whose position is
+   * that close to the end of its term is always assumed to have data
+   * available: Otherwise, a message written after padding at the end of a
+   * term would never be seen.
+   */
+
+  @Override
+  public boolean hasWorkAvailable()
+  {
+    this.exec.assertIsExecutorThread();
+
+    if (this.closed) {
+      return false;
+    }
+
+    if (this.batch != null && !this.batch.isEmpty()) {
+      return true;
+    }
+
+    final int count = this.subscription.imageCount();
+    for (int index = 0; index < count; ++index) {
+      final Image image = this.subscription.imageAtIndex(index);
+      final long position = image.position();
+      final int term_length = image.termBufferLength();
+      final int term_offset = (int) position & (term_length - 1);
+      if (term_length - term_offset < image.mtuLength()) {
+        return true;
+      }
+
+      this.peeked = false;
+      image.controlledPeek(position, this.peek_handler, position + (long) term_length);
+      if (this.peeked) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
    * @return {@code true} iff {@link #close()} has been called
    */
 
+  @Override
   public boolean isClosed()
   {
     this.exec.assertIsExecutorThread();
@@ -295,6 +735,20 @@ public final class EchoServerDuologue implements AutoCloseable
 
     if (!this.closed) {
       try {
+
+        /*
+         * Make a best effort to send any replies that are still batched, such
+         * as an error message sent immediately before closing.
+         */
+
+        if (this.batch != null) {
+          try {
+            this.batch.offer(this.publication, this.send_observer);
+          } catch (final IOException e) {
+            LOG.debug("failed to send batched replies on close: ", e);
+          }
+        }
+
         try {
           this.publication.close();
         } finally {
@@ -302,6 +756,11 @@ public final class EchoServerDuologue implements AutoCloseable
         }
       } finally {
         this.closed = true;
+        this.reassembler.discard(this.session);
+        if (this.batch_buffer != null) {
+          this.buffers.release(this.batch_buffer);
+        }
+        this.buffers.release(this.send_buffer);
       }
     }
   }
@@ -310,6 +769,7 @@ public final class EchoServerDuologue implements AutoCloseable
    * @return The data port
    */
 
+  @Override
   public int portData()
   {
     return this.port_data;
@@ -319,6 +779,7 @@ public final class EchoServerDuologue implements AutoCloseable
    * @return The control port
    */
 
+  @Override
   public int portControl()
   {
     return this.port_control;
@@ -328,6 +789,7 @@ public final class EchoServerDuologue implements AutoCloseable
    * @return The IP address that is permitted to participate in this duologue
    */
 
+  @Override
   public InetAddress ownerAddress()
   {
     return this.owner;
@@ -337,8 +799,68 @@ public final class EchoServerDuologue implements AutoCloseable
    * @return The session ID of the duologue
    */
 
+  @Override
   public int session()
   {
     return this.session;
   }
+
+  /**
+   * @return The statistics slot allocated to the duologue
+   */
+
+  @Override
+  public int slot()
+  {
+    return this.slot;
+  }
+
+  /**
+   * A send observer that updates both the server-wide counters and the
+   * statistics for this duologue.
+   */
+
+  private final class SendObserver implements EchoMessageSendObserver
+  {
+    SendObserver()
+    {
+
+    }
+
+    @Override
+    public void onMessageSent(
+      final int length)
+    {
+      EchoServerDuologue.this.not_connected_since = -1L;
+      EchoServerDuologue.this.counters.onMessageSent(length);
+      EchoServerDuologue.this.statistics.onMessageSent(
+        EchoServerDuologue.this.slot,
+        length,
+        EchoServerDuologue.this.clock.time());
+    }
+
+    @Override
+    public void onBackPressured()
+    {
+      EchoServerDuologue.this.not_connected_since = -1L;
+      EchoServerDuologue.this.counters.onBackPressured();
+      EchoServerDuologue.this.statistics.onBackPressured(
+        EchoServerDuologue.this.slot);
+    }
+
+    @Override
+    public void onNotConnected()
+    {
+      if (EchoServerDuologue.this.not_connected_since < 0L) {
+        EchoServerDuologue.this.not_connected_since =
+          EchoServerDuologue.this.clock.time();
+      }
+    }
+
+    @Override
+    public void onSendFailed()
+    {
+      EchoServerDuologue.this.counters.onSendFailed();
+    }
+  }
 }
@@ -0,0 +1,51 @@
+package com.io7m.aeron_guide.take2;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>
+ * A JFR event recorded when the server allocates a new duologue. The duration
+ * of the event is the time taken to allocate the duologue's ports and session
+ * and to create its publication and subscription.
+ * </p>
+ *
+ * <p>
+ * The event can be disabled by setting {@code enabled} to {@code false} for
+ * the event named {@code com.io7m.aeron_guide.DuologueAllocated}.
+ * </p>
+ */
+
+@Name("com.io7m.aeron_guide.DuologueAllocated")
+@Label("Duologue Allocated")
+@Category({"Aeron Guide", "Echo Server", "Duologue"})
+@Description("The server allocated a new duologue")
+@StackTrace(false)
+public final class EchoServerDuologueAllocatedEvent extends Event
+{
+  @Label("Session")
+  @Description("The session ID of the duologue")
+  int session;
+
+  @Label("Data Port")
+  int port_data;
+
+  @Label("Control Port")
+  int port_control;
+
+  @Label("Owner Address")
+  String owner;
+
+  /**
+   * Construct an event.
+   */
+
+  public EchoServerDuologueAllocatedEvent()
+  {
+
+  }
+}
@@ -0,0 +1,48 @@
+package com.io7m.aeron_guide.take2;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>
+ * A JFR event recorded when the server deletes a duologue that has expired
+ * or has been closed.
+ * </p>
+ *
+ * <p>
+ * The event can be disabled by setting {@code enabled} to {@code false} for
+ * the event named {@code com.io7m.aeron_guide.DuologueDeleted}.
+ * </p>
+ */
+
+@Name("com.io7m.aeron_guide.DuologueDeleted")
+@Label("Duologue Deleted")
+@Category({"Aeron Guide", "Echo Server", "Duologue"})
+@Description("The server deleted an expired or closed duologue")
+@StackTrace(false)
+public final class EchoServerDuologueDeletedEvent extends Event
+{
+  @Label("Session")
+  @Description("The session ID of the duologue")
+  int session;
+
+  @Label("Owner Address")
+  String owner;
+
+  @Label("Expired")
+  @Description("The duologue expired, as opposed to being closed")
+  boolean expired;
+
+  /**
+   * Construct an event.
+   */
+
+  public EchoServerDuologueDeletedEvent()
+  {
+
+  }
+}
@@ -0,0 +1,49 @@
+package com.io7m.aeron_guide.take2;
+
+import java.net.InetAddress;
+import java.time.Duration;
+
+/**
+ * A factory of duologues. The server's client-tracking state allocates ports,
+ * sessions and statistics slots, and then asks a factory to create a duologue
+ * that uses them. Duologues acquire any buffers they need from the server's
+ * buffer pool, and return them when closed, and share the server's
+ * reassembler of fragmented messages.
+ */
+
+@FunctionalInterface
+public interface EchoServerDuologueFactoryType
+{
+  /**
+   * Create a new duologue.
+   *
+   * @param statistics    The server's per-duologue statistics
+   * @param slot          The statistics slot allocated to the duologue
+   * @param buffers       The server's buffer pool
+   * @param reassembler   The server's reassembler of fragmented messages
+   * @param owner_address The address of the client
+   * @param session       The session ID
+   * @param port_data     The data port
+   * @param port_control  The control port
+   * @param resume_token  The token that a client must present to resume the session
+   * @param resume_grace  The period for which a session can be resumed
+   *
+   * @return A new duologue
+   *
+   * @throws EchoServerBufferAllocationException If the duologue's buffers
+   *                                             cannot be acquired
+   */
+
+  EchoServerDuologueType create(
+    EchoServerDuologueStatistics statistics,
+    int slot,
+    EchoServerBufferPool buffers,
+    EchoServerFragmentReassembler reassembler,
+    InetAddress owner_address,
+    int session,
+    int port_data,
+    int port_control,
+    long resume_token,
+    Duration resume_grace)
+    throws EchoServerBufferAllocationException;
+}
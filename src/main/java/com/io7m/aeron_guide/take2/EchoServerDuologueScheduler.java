@@ -0,0 +1,318 @@
+package com.io7m.aeron_guide.take2;
+
+import org.agrona.collections.Int2ObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Objects;
+
+/**
+ * <p>
+ * A scheduler that decides which duologues are polled on each server duty
+ * cycle, and how many fragments each may read.
+ * </p>
+ *
+ * <p>
+ * Each cycle has a fixed budget of fragments shared between all duologues.
+ * Each duologue has a quota of {@code quantum * weight} fragments per cycle.
+ * Duologues that read their entire quota on their last visit are assumed to
+ * still have data available, and are kept on an <i>active</i> list that is
+ * polled without further checks. All other duologues are <i>idle</i>: An idle
+ * duologue is only polled if {@link EchoServerDuologueType#hasWorkAvailable()}
+ * reports that it has data waiting, which costs a few memory reads rather
+ * than a poll, and it joins the active list as soon as it fills its quota.
+ * Active duologues leave the active list again as soon as they do not fill
+ * their quota. Both lists are visited round-robin, and each cycle resumes
+ * where the previous cycle stopped, so no duologue is always visited first.
+ * The order in which the two lists are served alternates from cycle to cycle
+ * so that neither can starve the other when the budget runs out.
+ * </p>
+ *
+ * <p>
+ * The scheduler is not thread-safe, and polls duologues on the calling
+ * thread.
+ * </p>
+ */
+
+public final class EchoServerDuologueScheduler
+{
+  private final int budget;
+  private final int quantum;
+  private final Int2ObjectHashMap<Entry> entries;
+  private final ArrayList<Entry> active;
+  private final ArrayList<Entry> idle;
+  private int active_cursor;
+  private int idle_cursor;
+  private long cycle;
+
+  private EchoServerDuologueScheduler(
+    final int in_budget,
+    final int in_quantum)
+  {
+    if (in_budget <= 0) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Budget %d must be positive",
+          Integer.valueOf(in_budget)));
+    }
+
+    if (in_quantum <= 0) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Quantum %d must be positive",
+          Integer.valueOf(in_quantum)));
+    }
+
+    this.budget = in_budget;
+    this.quantum = in_quantum;
+    this.entries = new Int2ObjectHashMap<>();
+    this.active = new ArrayList<>(32);
+    this.idle = new ArrayList<>(32);
+    this.active_cursor = 0;
+    this.idle_cursor = 0;
+    this.cycle = 0L;
+  }
+
+  /**
+   * Create a new scheduler.
+   *
+   * @param budget  The maximum number of fragments read across all duologues per cycle
+   * @param quantum The number of fragments that a duologue of weight {@code 1} may read per cycle
+   *
+   * @return A new scheduler
+   */
+
+  public static EchoServerDuologueScheduler create(
+    final int budget,
+    final int quantum)
+  {
+    return new EchoServerDuologueScheduler(budget, quantum);
+  }
+
+  /**
+   * Add a duologue to the scheduler. The duologue is initially idle.
+   *
+   * @param duologue The duologue
+   * @param weight   The weight of the duologue
+   */
+
+  public void add(
+    final EchoServerDuologueType duologue,
+    final int weight)
+  {
+    Objects.requireNonNull(duologue, "duologue");
+
+    if (weight <= 0) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Weight %d must be positive",
+          Integer.valueOf(weight)));
+    }
+
+    final int session = duologue.session();
+    if (this.entries.containsKey(session)) {
+      throw new IllegalStateException(
+        String.format(
+          "Session %d is already scheduled",
+          Integer.valueOf(session)));
+    }
+
+    final Entry entry =
+      new Entry(duologue, (int) Math.min((long) this.quantum * (long) weight, (long) Integer.MAX_VALUE));
+    entry.index = this.idle.size();
+    this.idle.add(entry);
+    this.entries.put(session, entry);
+  }
+
+  /**
+   * Remove the duologue with the given session from the scheduler. The
+   * operation has no effect if no such duologue is scheduled.
+   *
+   * @param session The session of the duologue
+   */
+
+  public void remove(
+    final int session)
+  {
+    final Entry entry = this.entries.remove(session);
+    if (entry != null) {
+      removeAt(entry.active ? this.active : this.idle, entry.index);
+    }
+  }
+
+  /**
+   * @return The number of scheduled duologues
+   */
+
+  public int size()
+  {
+    return this.entries.size();
+  }
+
+  /**
+   * @return The number of duologues that are believed to have data available
+   */
+
+  public int activeCount()
+  {
+    return this.active.size();
+  }
+
+  /**
+   * Run one cycle, polling duologues until either every duologue has been
+   * visited once or the budget is exhausted.
+   *
+   * @return The number of fragments read
+   */
+
+  public int poll()
+  {
+    ++this.cycle;
+
+    int remaining = this.budget;
+    if ((this.cycle & 1L) == 0L) {
+      remaining = this.pollActive(remaining);
+      remaining = this.pollIdle(remaining);
+    } else {
+      remaining = this.pollIdle(remaining);
+      remaining = this.pollActive(remaining);
+    }
+    return this.budget - remaining;
+  }
+
+  private int pollActive(
+    final int budget_initial)
+  {
+    int remaining = budget_initial;
+    int index = this.active_cursor;
+    final int count = this.active.size();
+
+    for (int visits = 0; visits < count && remaining > 0; ++visits) {
+      if (index >= this.active.size()) {
+        if (this.active.isEmpty()) {
+          break;
+        }
+        index = 0;
+      }
+
+      final Entry entry = this.active.get(index);
+      if (entry.visited == this.cycle) {
+        ++index;
+        continue;
+      }
+
+      final int quota = Math.min(entry.quota, remaining);
+      remaining -= this.visit(entry, quota);
+
+      /*
+       * A duologue that did not fill its quota has been drained. Moving it
+       * to the idle list swaps the last active duologue into its place, so
+       * the cursor stays where it is.
+       */
+
+      if (entry.read < quota) {
+        removeAt(this.active, index);
+        entry.active = false;
+        entry.index = this.idle.size();
+        this.idle.add(entry);
+      } else {
+        ++index;
+      }
+    }
+
+    this.active_cursor = index;
+    return remaining;
+  }
+
+  private int pollIdle(
+    final int budget_initial)
+  {
+    int remaining = budget_initial;
+    int index = this.idle_cursor;
+    final int count = this.idle.size();
+
+    for (int visits = 0; visits < count && remaining > 0; ++visits) {
+      if (index >= this.idle.size()) {
+        if (this.idle.isEmpty()) {
+          break;
+        }
+        index = 0;
+      }
+
+      final Entry entry = this.idle.get(index);
+      if (entry.visited == this.cycle) {
+        ++index;
+        continue;
+      }
+
+      if (entry.duologue.isClosed() || !entry.duologue.hasWorkAvailable()) {
+        entry.visited = this.cycle;
+        entry.read = 0;
+        ++index;
+        continue;
+      }
+
+      final int quota = Math.min(entry.quota, remaining);
+      remaining -= this.visit(entry, quota);
+
+      if (entry.read == quota) {
+        removeAt(this.idle, index);
+        entry.active = true;
+        entry.index = this.active.size();
+        this.active.add(entry);
+      } else {
+        ++index;
+      }
+    }
+
+    this.idle_cursor = index;
+    return remaining;
+  }
+
+  private int visit(
+    final Entry entry,
+    final int quota)
+  {
+    entry.visited = this.cycle;
+    entry.read = entry.duologue.isClosed() ? 0 : entry.duologue.poll(quota);
+    return entry.read;
+  }
+
+  /**
+   * Remove the entry at the given index by moving the last entry into its
+   * place.
+   */
+
+  private static void removeAt(
+    final ArrayList<Entry> list,
+    final int index)
+  {
+    final int last = list.size() - 1;
+    final Entry moved = list.remove(last);
+    if (index != last) {
+      moved.index = index;
+      list.set(index, moved);
+    }
+  }
+
+  private static final class Entry
+  {
+    private final EchoServerDuologueType duologue;
+    private final int quota;
+    private int index;
+    private int read;
+    private boolean active;
+    private long visited;
+
+    Entry(
+      final EchoServerDuologueType in_duologue,
+      final int in_quota)
+    {
+      this.duologue = Objects.requireNonNull(in_duologue, "duologue");
+      this.quota = in_quota;
+      this.index = 0;
+      this.read = 0;
+      this.active = false;
+      this.visited = 0L;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.io7m.aeron_guide.take2;
+
+import org.immutables.value.Value;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A snapshot of the statistics of a single duologue.
+ */
+
+@Value.Immutable
+public interface EchoServerDuologueSnapshot
+{
+  /**
+   * @return The session ID of the duologue
+   */
+
+  int session();
+
+  /**
+   * @return The IP address that is permitted to participate in the duologue
+   */
+
+  InetAddress ownerAddress();
+
+  /**
+   * @return The number of messages received from the client
+   */
+
+  long messagesReceived();
+
+  /**
+   * @return The number of bytes received from the client
+   */
+
+  long bytesReceived();
+
+  /**
+   * @return The number of messages sent to the client
+   */
+
+  long messagesSent();
+
+  /**
+   * @return The number of bytes sent to the client
+   */
+
+  long bytesSent();
+
+  /**
+   * @return The number of send attempts that failed due to back pressure
+   */
+
+  long backPressured();
+
+  /**
+   * @return The time that the duologue was created
+   */
+
+  Instant created();
+
+  /**
+   * @return The time that the duologue last sent or received a message
+   */
+
+  Instant lastActivity();
+
+  /**
+   * @return The time elapsed between the creation of the duologue and the snapshot
+   */
+
+  Duration age();
+
+  /**
+   * @return The time elapsed between the last activity of the duologue and the snapshot
+   */
+
+  Duration idle();
+}
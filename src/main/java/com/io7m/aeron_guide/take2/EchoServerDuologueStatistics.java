@@ -0,0 +1,304 @@
+package com.io7m.aeron_guide.take2;
+
+import org.agrona.BitUtil;
+import org.agrona.BufferUtil;
+import org.agrona.collections.IntArrayList;
+import org.agrona.concurrent.UnsafeBuffer;
+
+/**
+ * <p>
+ * Statistics for all of the duologues on a server.
+ * </p>
+ *
+ * <p>
+ * The statistics are held in a flat off-heap table with one fixed-size
+ * record per <i>slot</i>. Each duologue is allocated a slot when it is
+ * created, and the slot is freed when the duologue is deleted. Updating a
+ * statistic is a plain load and store into the table, and does not allocate.
+ * </p>
+ *
+ * <p>
+ * The table is not thread-safe: It must only be accessed from the server's
+ * executor thread. Snapshots taken on that thread are therefore consistent.
+ * </p>
+ */
+
+public final class EchoServerDuologueStatistics
+{
+  private static final int SESSION_OFFSET = 0;
+  private static final int MESSAGES_RECEIVED_OFFSET = 8;
+  private static final int BYTES_RECEIVED_OFFSET = 16;
+  private static final int MESSAGES_SENT_OFFSET = 24;
+  private static final int BYTES_SENT_OFFSET = 32;
+  private static final int BACK_PRESSURED_OFFSET = 40;
+  private static final int CREATED_OFFSET = 48;
+  private static final int LAST_ACTIVITY_OFFSET = 56;
+  private static final int RECORD_LENGTH = 64;
+
+  private final UnsafeBuffer table;
+  private final IntArrayList slots_free;
+  private final int capacity;
+
+  private EchoServerDuologueStatistics(
+    final int in_capacity)
+  {
+    if (in_capacity <= 0) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Capacity %d must be positive",
+          Integer.valueOf(in_capacity)));
+    }
+
+    this.capacity = in_capacity;
+    this.table =
+      new UnsafeBuffer(BufferUtil.allocateDirectAligned(
+        in_capacity * RECORD_LENGTH, BitUtil.CACHE_LINE_LENGTH));
+
+    this.slots_free = new IntArrayList(in_capacity, IntArrayList.DEFAULT_NULL_VALUE);
+    for (int slot = in_capacity - 1; slot >= 0; --slot) {
+      this.slots_free.addInt(slot);
+    }
+  }
+
+  /**
+   * Create a new table.
+   *
+   * @param capacity The maximum number of duologues that can be tracked at once
+   *
+   * @return A new table
+   */
+
+  public static EchoServerDuologueStatistics create(
+    final int capacity)
+  {
+    return new EchoServerDuologueStatistics(capacity);
+  }
+
+  /**
+   * Allocate a slot for a new duologue. All of the statistics in the slot are
+   * reset, and the creation and last-activity times are set to {@code now}.
+   *
+   * @param session The session ID of the duologue
+   * @param now     The current time in milliseconds since the epoch
+   *
+   * @return The allocated slot
+   *
+   * @throws IllegalStateException If all slots are in use
+   */
+
+  public int allocate(
+    final int session,
+    final long now)
+  {
+    if (this.slots_free.isEmpty()) {
+      throw new IllegalStateException(
+        String.format(
+          "All %d statistics slots are in use",
+          Integer.valueOf(this.capacity)));
+    }
+
+    final int slot = this.slots_free.popInt();
+    final int base = slot * RECORD_LENGTH;
+    this.table.setMemory(base, RECORD_LENGTH, (byte) 0);
+    this.table.putLong(base + SESSION_OFFSET, (long) session);
+    this.table.putLong(base + CREATED_OFFSET, now);
+    this.table.putLong(base + LAST_ACTIVITY_OFFSET, now);
+    return slot;
+  }
+
+  /**
+   * Free a slot. After this method returns, the slot becomes eligible for
+   * allocation by future calls to {@link #allocate(int, long)}.
+   *
+   * @param slot The slot
+   */
+
+  public void free(
+    final int slot)
+  {
+    this.checkSlot(slot);
+    this.slots_free.pushInt(slot);
+  }
+
+  /**
+   * @return The number of slots currently allocated
+   */
+
+  public int usedCount()
+  {
+    return this.capacity - this.slots_free.size();
+  }
+
+  /**
+   * Record the receipt of a message.
+   *
+   * @param slot   The slot
+   * @param length The length of the message in bytes
+   * @param now    The current time in milliseconds since the epoch
+   */
+
+  public void onMessageReceived(
+    final int slot,
+    final int length,
+    final long now)
+  {
+    final int base = this.checkSlot(slot) * RECORD_LENGTH;
+    this.add(base + MESSAGES_RECEIVED_OFFSET, 1L);
+    this.add(base + BYTES_RECEIVED_OFFSET, (long) length);
+    this.table.putLong(base + LAST_ACTIVITY_OFFSET, now);
+  }
+
+  /**
+   * Record the sending of a message.
+   *
+   * @param slot   The slot
+   * @param length The length of the message in bytes
+   * @param now    The current time in milliseconds since the epoch
+   */
+
+  public void onMessageSent(
+    final int slot,
+    final int length,
+    final long now)
+  {
+    final int base = this.checkSlot(slot) * RECORD_LENGTH;
+    this.add(base + MESSAGES_SENT_OFFSET, 1L);
+    this.add(base + BYTES_SENT_OFFSET, (long) length);
+    this.table.putLong(base + LAST_ACTIVITY_OFFSET, now);
+  }
+
+  /**
+   * Record a send attempt that failed due to back pressure.
+   *
+   * @param slot The slot
+   */
+
+  public void onBackPressured(
+    final int slot)
+  {
+    this.add(this.checkSlot(slot) * RECORD_LENGTH + BACK_PRESSURED_OFFSET, 1L);
+  }
+
+  /**
+   * @param slot The slot
+   *
+   * @return The session ID of the duologue in the given slot
+   */
+
+  public int session(
+    final int slot)
+  {
+    return (int) this.get(slot, SESSION_OFFSET);
+  }
+
+  /**
+   * @param slot The slot
+   *
+   * @return The number of messages received by the duologue in the given slot
+   */
+
+  public long messagesReceived(
+    final int slot)
+  {
+    return this.get(slot, MESSAGES_RECEIVED_OFFSET);
+  }
+
+  /**
+   * @param slot The slot
+   *
+   * @return The number of bytes received by the duologue in the given slot
+   */
+
+  public long bytesReceived(
+    final int slot)
+  {
+    return this.get(slot, BYTES_RECEIVED_OFFSET);
+  }
+
+  /**
+   * @param slot The slot
+   *
+   * @return The number of messages sent by the duologue in the given slot
+   */
+
+  public long messagesSent(
+    final int slot)
+  {
+    return this.get(slot, MESSAGES_SENT_OFFSET);
+  }
+
+  /**
+   * @param slot The slot
+   *
+   * @return The number of bytes sent by the duologue in the given slot
+   */
+
+  public long bytesSent(
+    final int slot)
+  {
+    return this.get(slot, BYTES_SENT_OFFSET);
+  }
+
+  /**
+   * @param slot The slot
+   *
+   * @return The number of back-pressured send attempts by the duologue in the given slot
+   */
+
+  public long backPressured(
+    final int slot)
+  {
+    return this.get(slot, BACK_PRESSURED_OFFSET);
+  }
+
+  /**
+   * @param slot The slot
+   *
+   * @return The time in milliseconds since the epoch that the duologue in the given slot was created
+   */
+
+  public long created(
+    final int slot)
+  {
+    return this.get(slot, CREATED_OFFSET);
+  }
+
+  /**
+   * @param slot The slot
+   *
+   * @return The time in milliseconds since the epoch that the duologue in the given slot last sent or received a message
+   */
+
+  public long lastActivity(
+    final int slot)
+  {
+    return this.get(slot, LAST_ACTIVITY_OFFSET);
+  }
+
+  private long get(
+    final int slot,
+    final int offset)
+  {
+    return this.table.getLong(this.checkSlot(slot) * RECORD_LENGTH + offset);
+  }
+
+  private void add(
+    final int index,
+    final long delta)
+  {
+    this.table.putLong(index, this.table.getLong(index) + delta);
+  }
+
+  private int checkSlot(
+    final int slot)
+  {
+    if (slot < 0 || slot >= this.capacity) {
+      throw new IndexOutOfBoundsException(
+        String.format(
+          "Slot %d must be in the range [0, %d)",
+          Integer.valueOf(slot),
+          Integer.valueOf(this.capacity)));
+    }
+    return slot;
+  }
+}
@@ -0,0 +1,90 @@
+package com.io7m.aeron_guide.take2;
+
+import java.net.InetAddress;
+
+/**
+ * <p>
+ * The type of conversations between the server and a single client, as seen
+ * by the server's client-tracking state.
+ * </p>
+ *
+ * <p>
+ * The production implementation is {@link EchoServerDuologue}, which owns an
+ * Aeron publication and subscription. Other implementations allow the
+ * client-tracking state to be driven without a media driver. All methods
+ * except the accessors must be called on the server's executor thread.
+ * </p>
+ */
+
+public interface EchoServerDuologueType extends AutoCloseable
+{
+  /**
+   * Poll the duologue for activity.
+   *
+   * @param fragment_limit The maximum number of fragments that will be read
+   *
+   * @return The number of fragments read
+   */
+
+  int poll(int fragment_limit);
+
+  /**
+   * Check cheaply whether a call to {@link #poll(int)} would have anything to
+   * do, without doing it. The check is made for idle duologues on every duty
+   * cycle, and so must not read or copy messages. It may report work
+   * spuriously, but must not fail to report work that is available.
+   *
+   * @return {@code true} if the duologue has messages waiting to be read or
+   * replies waiting to be sent
+   */
+
+  boolean hasWorkAvailable();
+
+  /**
+   * @param now The current time in milliseconds since the epoch
+   *
+   * @return {@code true} if the duologue has no connected client and
+   * {@code now} is after the intended expiry date of the duologue
+   */
+
+  boolean isExpired(long now);
+
+  /**
+   * @return {@code true} iff {@link #close()} has been called
+   */
+
+  boolean isClosed();
+
+  @Override
+  void close();
+
+  /**
+   * @return The data port
+   */
+
+  int portData();
+
+  /**
+   * @return The control port
+   */
+
+  int portControl();
+
+  /**
+   * @return The IP address that is permitted to participate in the duologue
+   */
+
+  InetAddress ownerAddress();
+
+  /**
+   * @return The session ID of the duologue
+   */
+
+  int session();
+
+  /**
+   * @return The statistics slot allocated to the duologue
+   */
+
+  int slot();
+}
@@ -1,15 +1,30 @@
 package com.io7m.aeron_guide.take2;
 
+import org.agrona.concurrent.NanoClock;
+import org.agrona.concurrent.SystemNanoClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * <p>
  * The default implementation of the {@link EchoServerExecutorService} interface.
+ * </p>
+ *
+ * <p>
+ * The executor measures its own load in consecutive windows of
+ * {@value #WINDOW_NANOS} nanoseconds. For each window, it records the
+ * minimum time that any task spent waiting in the queue (a persistent queue
+ * shows up as a high minimum, whereas a brief burst does not) and the
+ * fraction of the window that the executor thread spent running tasks.
+ * </p>
  */
 
 public final class EchoServerExecutor implements EchoServerExecutorService
@@ -17,12 +32,33 @@ public final class EchoServerExecutor implements EchoServerExecutorService
   private static final Logger LOG =
     LoggerFactory.getLogger(EchoServerExecutor.class);
 
+  /**
+   * The length of the windows over which load is measured.
+   */
+
+  public static final long WINDOW_NANOS = 100_000_000L;
+
   private final ExecutorService executor;
+  private final NanoClock clock;
+  private final AtomicLong queued;
+  private long window_start;
+  private long window_busy;
+  private long window_sojourn_min;
+  private volatile long sojourn;
+  private volatile double utilization;
 
   private EchoServerExecutor(
-    final ExecutorService in_exec)
+    final ExecutorService in_exec,
+    final NanoClock in_clock)
   {
     this.executor = Objects.requireNonNull(in_exec, "exec");
+    this.clock = Objects.requireNonNull(in_clock, "clock");
+    this.queued = new AtomicLong(0L);
+    this.window_start = in_clock.nanoTime();
+    this.window_busy = 0L;
+    this.window_sojourn_min = Long.MAX_VALUE;
+    this.sojourn = 0L;
+    this.utilization = 0.0;
   }
 
   @Override
@@ -31,24 +67,95 @@ public final class EchoServerExecutor implements EchoServerExecutorService
     return Thread.currentThread() instanceof EchoServerThread;
   }
 
+  @Override
+  public long queueDepth()
+  {
+    return this.queued.get();
+  }
+
+  @Override
+  public long queueSojournNanos()
+  {
+    return this.sojourn;
+  }
+
+  @Override
+  public double utilization()
+  {
+    return this.utilization;
+  }
+
   @Override
   public void execute(final Runnable runnable)
   {
     Objects.requireNonNull(runnable, "runnable");
 
-    this.executor.submit(() -> {
-      try {
-        runnable.run();
-      } catch (final Throwable e) {
-        LOG.error("uncaught exception: ", e);
-      }
-    });
+    /*
+     * Tasks submitted after the executor has been closed are discarded:
+     * They would otherwise operate on resources that are being released.
+     */
+
+    this.queued.incrementAndGet();
+    final long enqueued = this.clock.nanoTime();
+
+    try {
+      this.executor.submit(() -> {
+        this.queued.decrementAndGet();
+        final long started = this.clock.nanoTime();
+        this.onTaskStarted(started - enqueued, started);
+        try {
+          runnable.run();
+        } catch (final Throwable e) {
+          LOG.error("uncaught exception: ", e);
+        } finally {
+          this.window_busy += this.clock.nanoTime() - started;
+        }
+      });
+    } catch (final RejectedExecutionException e) {
+      this.queued.decrementAndGet();
+      LOG.debug("discarded task submitted to closed executor");
+    }
+  }
+
+  /**
+   * Record the queueing delay of a task that is about to run, and publish
+   * the measurements for the current window if it has ended. Called only on
+   * the executor thread.
+   */
+
+  private void onTaskStarted(
+    final long task_sojourn,
+    final long now)
+  {
+    this.window_sojourn_min = Math.min(this.window_sojourn_min, task_sojourn);
+
+    final long elapsed = now - this.window_start;
+    if (elapsed >= WINDOW_NANOS) {
+      this.sojourn = this.window_sojourn_min;
+      this.utilization = Math.min(1.0, (double) this.window_busy / (double) elapsed);
+      this.window_start = now;
+      this.window_busy = 0L;
+      this.window_sojourn_min = Long.MAX_VALUE;
+    }
   }
 
+  /**
+   * Shut down the executor, waiting a short time for any running tasks to
+   * complete.
+   */
+
   @Override
   public void close()
   {
     this.executor.shutdown();
+
+    try {
+      if (!this.executor.awaitTermination(10L, TimeUnit.SECONDS)) {
+        LOG.error("timed out waiting for executor tasks to complete");
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   private static final class EchoServerThread extends Thread
@@ -65,6 +172,22 @@ public final class EchoServerExecutor implements EchoServerExecutorService
 
   public static EchoServerExecutor create()
   {
+    return create(new SystemNanoClock());
+  }
+
+  /**
+   * Create a new executor that measures its load using the given clock.
+   *
+   * @param clock The clock used to measure queueing delays and busy time
+   *
+   * @return A new executor
+   */
+
+  public static EchoServerExecutor create(
+    final NanoClock clock)
+  {
+    Objects.requireNonNull(clock, "clock");
+
     final ThreadFactory factory = r -> {
       final EchoServerThread t = new EchoServerThread(r);
       t.setName(new StringBuilder(64)
@@ -75,6 +198,6 @@ public final class EchoServerExecutor implements EchoServerExecutorService
       return t;
     };
 
-    return new EchoServerExecutor(Executors.newSingleThreadExecutor(factory));
+    return new EchoServerExecutor(Executors.newSingleThreadExecutor(factory), clock);
   }
 }
@@ -15,6 +15,26 @@ public interface EchoServerExecutorService extends AutoCloseable, Executor
 
   boolean isExecutorThread();
 
+  /**
+   * @return The number of submitted tasks that have not yet started running
+   */
+
+  long queueDepth();
+
+  /**
+   * @return The minimum time, in nanoseconds, that submitted tasks spent
+   * waiting to run during the most recently completed measurement window
+   */
+
+  long queueSojournNanos();
+
+  /**
+   * @return The fraction of the most recently completed measurement window,
+   * in the range {@code [0, 1]}, that the executor thread spent running tasks
+   */
+
+  double utilization();
+
   /**
    * Raise {@link IllegalStateException} iff {@link #isExecutorThread()} would
    * currently return {@code false}.
@@ -0,0 +1,268 @@
+package com.io7m.aeron_guide.take2;
+
+import io.aeron.logbuffer.ControlledFragmentHandler;
+import io.aeron.logbuffer.ControlledFragmentHandler.Action;
+import io.aeron.logbuffer.FrameDescriptor;
+import io.aeron.logbuffer.Header;
+import org.agrona.BitUtil;
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Int2ObjectHashMap;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.util.Objects;
+
+/**
+ * <p>
+ * A reassembler of fragmented messages shared by all of the duologues on a
+ * server.
+ * </p>
+ *
+ * <p>
+ * Giving each duologue its own fragment assembler means that every duologue
+ * that has ever received a fragmented message holds a reassembly buffer for
+ * as long as it exists. Duologues are polled one at a time on the server's
+ * executor thread, so they can instead share a single reassembler that keeps
+ * partial messages keyed by duologue session. A partial message claims a
+ * buffer from an {@link EchoServerBufferPool} when its first fragment
+ * arrives, and returns its buffer to the pool as soon as it has been
+ * delivered. Memory is therefore only claimed while a fragmented message is
+ * in progress, and the memory claimed by all messages in progress is bounded
+ * by a fixed budget however many duologues the server has.
+ * </p>
+ *
+ * <p>
+ * Aeron does not tell the receiver how large a fragmented message will be,
+ * so the first buffer is sized to hold the first fragment. If the message
+ * outgrows it, the message moves straight to a buffer of the maximum message
+ * size rather than through every size class in between, so that a large
+ * message leaves free slots in at most two size classes of the pool.
+ * </p>
+ *
+ * <p>
+ * The reassembler is the only place that the size of incoming messages is
+ * checked. A message larger than the maximum, or a fragment that cannot be
+ * stored within the budget, is reported to the caller, which is expected to
+ * close the offending duologue.
+ * </p>
+ *
+ * <p>
+ * The reassembler is not thread-safe: It must only be accessed from the
+ * server's executor thread.
+ * </p>
+ */
+
+public final class EchoServerFragmentReassembler
+{
+  private final EchoServerBufferPool arena;
+  private final Int2ObjectHashMap<Partial> partials;
+  private final int maximum;
+
+  private EchoServerFragmentReassembler(
+    final EchoServerBufferPool in_arena,
+    final int in_maximum)
+  {
+    this.arena = Objects.requireNonNull(in_arena, "arena");
+    this.partials = new Int2ObjectHashMap<>();
+    this.maximum = in_maximum;
+  }
+
+  /**
+   * Create a new reassembler.
+   *
+   * @param budget  The maximum number of bytes of native memory used for
+   *                messages in progress, which must be at least twice the
+   *                maximum message size rounded up to a power of two
+   * @param maximum The maximum size in bytes of a reassembled message
+   *
+   * @return A new reassembler
+   */
+
+  public static EchoServerFragmentReassembler create(
+    final long budget,
+    final int maximum)
+  {
+    if (maximum <= 0) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Maximum %d must be positive",
+          Integer.valueOf(maximum)));
+    }
+
+    final int slot_maximum =
+      Math.max(
+        EchoServerBufferPool.MINIMUM_SLOT_SIZE,
+        BitUtil.findNextPositivePowerOfTwo(maximum));
+
+    /*
+     * A message that is growing briefly holds both its old and new buffers,
+     * so a budget of less than two of the largest buffers could refuse a
+     * message of the maximum size even when no other message is in progress.
+     */
+
+    if (budget < 2L * (long) slot_maximum) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Budget %d must be at least %d",
+          Long.valueOf(budget),
+          Long.valueOf(2L * (long) slot_maximum)));
+    }
+
+    return new EchoServerFragmentReassembler(
+      EchoServerBufferPool.create(budget, slot_maximum), maximum);
+  }
+
+  /**
+   * Handle a fragment. Unfragmented messages are passed directly to the
+   * delegate. Fragments of larger messages are accumulated under the given
+   * key, and the complete message is passed to the delegate when its last
+   * fragment arrives. If the delegate returns {@link Action#ABORT} for a
+   * complete message, the last fragment is removed again so that it can be
+   * delivered once more on a later poll.
+   *
+   * @param key      The key under which partial messages are kept, such as
+   *                 the session of the receiving duologue
+   * @param delegate The handler of complete messages
+   * @param buffer   The buffer containing the fragment
+   * @param offset   The offset of the fragment
+   * @param length   The length of the fragment
+   * @param header   The header of the fragment
+   *
+   * @return The action returned by the delegate, or {@link Action#CONTINUE}
+   * if the message is not yet complete
+   *
+   * @throws EchoServerMessageTooLargeException  If the message exceeds the
+   *                                             maximum size; any partial
+   *                                             message held under the key
+   *                                             is discarded
+   * @throws EchoServerBufferAllocationException If the fragment cannot be
+   *                                             stored within the budget
+   */
+
+  public Action onFragment(
+    final int key,
+    final ControlledFragmentHandler delegate,
+    final DirectBuffer buffer,
+    final int offset,
+    final int length,
+    final Header header)
+    throws EchoServerMessageTooLargeException, EchoServerBufferAllocationException
+  {
+    final byte flags = header.flags();
+    if ((flags & FrameDescriptor.UNFRAGMENTED) == FrameDescriptor.UNFRAGMENTED) {
+      this.checkSize(key, length);
+      return delegate.onFragment(buffer, offset, length, header);
+    }
+
+    Partial partial = this.partials.get(key);
+    if ((flags & FrameDescriptor.BEGIN_FRAG_FLAG) != 0) {
+      this.checkSize(key, length);
+      if (partial != null) {
+        partial.limit = 0;
+      } else {
+        partial = new Partial(this.arena.acquire(this.capacityFor(length)));
+        this.partials.put(key, partial);
+      }
+    } else if (partial == null) {
+      return Action.CONTINUE;
+    }
+
+    final int required = partial.limit + length;
+    this.checkSize(key, required);
+
+    if (required > partial.buffer.capacity()) {
+      final UnsafeBuffer larger =
+        this.arena.acquire(this.arena.maximumSize());
+      larger.putBytes(0, partial.buffer, 0, partial.limit);
+      this.arena.release(partial.buffer);
+      partial.buffer = larger;
+    }
+
+    partial.buffer.putBytes(partial.limit, buffer, offset, length);
+    partial.limit = required;
+
+    if ((flags & FrameDescriptor.END_FRAG_FLAG) == 0) {
+      return Action.CONTINUE;
+    }
+
+    final Action action =
+      delegate.onFragment(partial.buffer, 0, partial.limit, header);
+
+    if (action == Action.ABORT) {
+      partial.limit -= length;
+    } else if (this.partials.get(key) == partial) {
+      this.discard(key);
+    }
+    return action;
+  }
+
+  private void checkSize(
+    final int key,
+    final int size)
+    throws EchoServerMessageTooLargeException
+  {
+    if (size > this.maximum) {
+      this.discard(key);
+      throw new EchoServerMessageTooLargeException(
+        String.format(
+          "Message exceeds the maximum size of %d bytes",
+          Integer.valueOf(this.maximum)));
+    }
+  }
+
+  /**
+   * Discard any partial message held under the given key, returning its
+   * buffer to the pool.
+   *
+   * @param key The key
+   */
+
+  public void discard(
+    final int key)
+  {
+    final Partial partial = this.partials.remove(key);
+    if (partial != null) {
+      this.arena.release(partial.buffer);
+    }
+  }
+
+  /**
+   * @return The number of messages currently being reassembled
+   */
+
+  public int inProgressCount()
+  {
+    return this.partials.size();
+  }
+
+  /**
+   * @return The number of bytes of native memory currently reserved for reassembly
+   */
+
+  public long reservedBytes()
+  {
+    return this.arena.reservedBytes();
+  }
+
+  private int capacityFor(
+    final int required)
+  {
+    return Math.min(
+      this.arena.maximumSize(),
+      Math.max(
+        EchoServerBufferPool.MINIMUM_SLOT_SIZE,
+        BitUtil.findNextPositivePowerOfTwo(required)));
+  }
+
+  private static final class Partial
+  {
+    private UnsafeBuffer buffer;
+    private int limit;
+
+    Partial(
+      final UnsafeBuffer in_buffer)
+    {
+      this.buffer = in_buffer;
+      this.limit = 0;
+    }
+  }
+}
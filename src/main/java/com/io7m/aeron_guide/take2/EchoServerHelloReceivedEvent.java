@@ -0,0 +1,50 @@
+package com.io7m.aeron_guide.take2;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>
+ * A JFR event recorded when the server receives a HELLO message on the
+ * all-clients channel.
+ * </p>
+ *
+ * <p>
+ * Like all JFR events, the event is only recorded when a recording is running
+ * and the event is enabled in the recording's settings. The event can be
+ * disabled by setting {@code enabled} to {@code false} for the event named
+ * {@code com.io7m.aeron_guide.HelloReceived}.
+ * </p>
+ */
+
+@Name("com.io7m.aeron_guide.HelloReceived")
+@Label("HELLO Received")
+@Category({"Aeron Guide", "Echo Server", "Handshake"})
+@Description("A client sent a HELLO message on the all-clients channel")
+@StackTrace(false)
+public final class EchoServerHelloReceivedEvent extends Event
+{
+  @Label("Initial Session")
+  @Description("The session ID of the client on the all-clients channel")
+  int initial_session;
+
+  @Label("Client Address")
+  String address;
+
+  @Label("Resumable")
+  @Description("The client asked for a resumable session")
+  boolean resumable;
+
+  /**
+   * Construct an event.
+   */
+
+  public EchoServerHelloReceivedEvent()
+  {
+
+  }
+}
@@ -0,0 +1,20 @@
+package com.io7m.aeron_guide.take2;
+
+/**
+ * A client sent a message larger than the server allows.
+ */
+
+public final class EchoServerMessageTooLargeException extends EchoServerException
+{
+  /**
+   * Create an exception.
+   *
+   * @param message The message
+   */
+
+  public EchoServerMessageTooLargeException(
+    final String message)
+  {
+    super(message);
+  }
+}
@@ -112,4 +112,13 @@ public final class EchoServerPortAllocator
 
     return result;
   }
+
+  /**
+   * @return The number of ports currently allocated
+   */
+
+  public int usedCount()
+  {
+    return this.ports_used.size();
+  }
 }
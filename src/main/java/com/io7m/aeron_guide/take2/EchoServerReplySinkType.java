@@ -0,0 +1,28 @@
+package com.io7m.aeron_guide.take2;
+
+import java.io.IOException;
+
+/**
+ * A destination for the replies that the server sends to clients on the
+ * all-clients channel. The production implementation sends each reply on
+ * the all-clients publication, optionally routed to the client that uses
+ * the given session.
+ */
+
+@FunctionalInterface
+public interface EchoServerReplySinkType
+{
+  /**
+   * Send a reply.
+   *
+   * @param session The all-clients session of the client for which the reply is intended
+   * @param message The reply
+   *
+   * @throws IOException If the reply cannot be sent
+   */
+
+  void send(
+    int session,
+    String message)
+    throws IOException;
+}
@@ -0,0 +1,75 @@
+package com.io7m.aeron_guide.take2;
+
+import org.immutables.value.Value;
+
+/**
+ * A snapshot of the resources held by a server.
+ */
+
+@Value.Immutable
+public interface EchoServerResourceUsage
+{
+  /**
+   * @return The number of duologues that exist
+   */
+
+  @Value.Parameter
+  int duologues();
+
+  /**
+   * @return The number of clients currently connected to the all-clients channel
+   */
+
+  @Value.Parameter
+  int initialClients();
+
+  /**
+   * @return The number of duologue ports currently allocated
+   */
+
+  @Value.Parameter
+  int portsAllocated();
+
+  /**
+   * @return The number of duologue sessions currently allocated
+   */
+
+  @Value.Parameter
+  int sessionsAllocated();
+
+  /**
+   * @return The number of client addresses that currently own duologues
+   */
+
+  @Value.Parameter
+  int addressesCounted();
+
+  /**
+   * @return The number of duologue buffers currently acquired from the server's buffer pool
+   */
+
+  @Value.Parameter
+  int buffersAcquired();
+
+  /**
+   * @return The number of fragmented messages currently being reassembled
+   */
+
+  @Value.Parameter
+  int reassembliesInProgress();
+
+  /**
+   * @return {@code true} if the server holds no resources on behalf of any client
+   */
+
+  default boolean isIdle()
+  {
+    return this.duologues() == 0
+      && this.initialClients() == 0
+      && this.portsAllocated() == 0
+      && this.sessionsAllocated() == 0
+      && this.addressesCounted() == 0
+      && this.buffersAcquired() == 0
+      && this.reassembliesInProgress() == 0;
+  }
+}
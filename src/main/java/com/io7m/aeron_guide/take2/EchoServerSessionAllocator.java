@@ -107,4 +107,13 @@ public final class EchoServerSessionAllocator
   {
     this.used.remove(session);
   }
+
+  /**
+   * @return The number of sessions currently allocated
+   */
+
+  public int usedCount()
+  {
+    return this.used.size();
+  }
 }
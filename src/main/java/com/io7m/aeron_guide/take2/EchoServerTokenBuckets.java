@@ -0,0 +1,126 @@
+package com.io7m.aeron_guide.take2;
+
+import org.agrona.collections.Long2LongHashMap;
+
+/**
+ * <p>
+ * A table of token buckets keyed by primitive {@code long} values.
+ * </p>
+ *
+ * <p>
+ * Each bucket holds up to {@code burst} tokens and is refilled at
+ * {@code rate} tokens per second. Rather than storing a token count and a
+ * refill time, each bucket is stored as a single value: The time at which
+ * the bucket will be full again. Buckets are refilled lazily when tokens are
+ * taken, and a bucket that is full is indistinguishable from a bucket that
+ * does not exist, so full buckets can be removed with {@link #purge(long)}
+ * to keep the table small. Taking a token does not allocate.
+ * </p>
+ *
+ * <p>
+ * The table is not thread-safe.
+ * </p>
+ */
+
+public final class EchoServerTokenBuckets
+{
+  private static final long MISSING = Long.MIN_VALUE;
+
+  private final Long2LongHashMap full_at;
+  private final long interval_us;
+  private final long capacity_us;
+
+  private EchoServerTokenBuckets(
+    final int in_rate,
+    final int in_burst)
+  {
+    if (in_rate <= 0 || in_rate > 1_000_000) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Rate %d must be in the range [1, 1000000]",
+          Integer.valueOf(in_rate)));
+    }
+
+    if (in_burst <= 0) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Burst %d must be positive",
+          Integer.valueOf(in_burst)));
+    }
+
+    this.interval_us = 1_000_000L / (long) in_rate;
+    this.capacity_us = this.interval_us * (long) in_burst;
+    this.full_at = new Long2LongHashMap(MISSING);
+  }
+
+  /**
+   * Create a new table of buckets.
+   *
+   * @param rate  The number of tokens added to each bucket per second
+   * @param burst The maximum number of tokens that each bucket can hold
+   *
+   * @return A new table
+   */
+
+  public static EchoServerTokenBuckets create(
+    final int rate,
+    final int burst)
+  {
+    return new EchoServerTokenBuckets(rate, burst);
+  }
+
+  /**
+   * Try to take a token from the bucket with the given key. A bucket that
+   * does not yet exist is created full.
+   *
+   * @param key    The bucket key
+   * @param now_us The current time in microseconds
+   *
+   * @return {@code true} if a token was taken, {@code false} if the bucket is empty
+   */
+
+  public boolean tryAcquire(
+    final long key,
+    final long now_us)
+  {
+    final long current = this.full_at.get(key);
+    final long base =
+      current == MISSING || current < now_us ? now_us : current;
+    final long next = base + this.interval_us;
+
+    if (next - now_us > this.capacity_us) {
+      return false;
+    }
+
+    this.full_at.put(key, next);
+    return true;
+  }
+
+  /**
+   * Remove all buckets that are full at the given time.
+   *
+   * @param now_us The current time in microseconds
+   */
+
+  public void purge(
+    final long now_us)
+  {
+    final Long2LongHashMap.KeyIterator iter =
+      this.full_at.keySet().iterator();
+
+    while (iter.hasNext()) {
+      if (this.full_at.get(iter.nextValue()) <= now_us) {
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * @return The number of buckets that are not known to be full
+   */
+
+  public int size()
+  {
+    return this.full_at.size();
+  }
+}
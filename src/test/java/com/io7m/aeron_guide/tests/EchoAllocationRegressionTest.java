@@ -0,0 +1,307 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoBlockingClient;
+import com.io7m.aeron_guide.take2.EchoClient;
+import com.io7m.aeron_guide.take2.EchoClientLatency;
+import com.io7m.aeron_guide.take2.EchoServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Allocation-regression tests for the hot paths of the server and client.
+ * </p>
+ *
+ * <p>
+ * Each test pushes a steady stream of ECHO messages through a real server
+ * and client after a warm-up period, and measures the number of bytes
+ * allocated per message by the server's executor thread (which runs
+ * {@code EchoServerDuologue} and {@code ClientState.poll}), by the blocking
+ * client's poller thread, and by the thread running the timed echo loop of
+ * {@link EchoClient#run()} (which handles responses in
+ * {@code EchoClient.onEchoResponse}). The tests fail if the allocation rate
+ * exceeds a stated budget. The budgets are not zero: The message paths
+ * still parse and build {@link String} values, and the executor allocates a
+ * task for every poll. They exist to catch regressions, and should be
+ * lowered as the paths become cheaper.
+ * </p>
+ *
+ * <p>
+ * The server's executor polls at a fixed interval whether or not messages
+ * arrive, so the number of polls in a measurement depends on how long the
+ * measurement takes rather than on the number of messages. The cost of an
+ * idle poll is therefore measured separately, and subtracted from the
+ * server's allocations before they are divided by the number of messages.
+ * </p>
+ *
+ * <p>
+ * Like every test that needs a media driver, these tests are skipped on
+ * JDKs newer than 8. They can be run from a newer JDK using the
+ * {@code jdk8-tests} profile.
+ * </p>
+ */
+
+public final class EchoAllocationRegressionTest
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(EchoAllocationRegressionTest.class);
+
+  /**
+   * The maximum number of bytes that the server's executor thread may
+   * allocate per poll when no messages arrive.
+   */
+
+  private static final long SERVER_BUDGET_BYTES_PER_POLL = 128L;
+
+  /**
+   * The maximum number of bytes that the server's executor thread may
+   * allocate per echoed message, excluding the cost of idle polls.
+   */
+
+  private static final long SERVER_BUDGET_BYTES_PER_MESSAGE = 2048L;
+
+  /**
+   * The maximum number of bytes that the blocking client's poller thread may
+   * allocate per response.
+   */
+
+  private static final long CLIENT_BUDGET_BYTES_PER_MESSAGE = 1024L;
+
+  /**
+   * The maximum number of bytes that the thread running the client's timed
+   * echo loop may allocate per round trip, including both sending the
+   * message and handling the response.
+   */
+
+  private static final long CLIENT_TIMED_BUDGET_BYTES_PER_MESSAGE = 2048L;
+
+  private static final int WARMUP_MESSAGES = 3000;
+  private static final int MEASURED_MESSAGES = 2000;
+  private static final long IDLE_MILLISECONDS = 500L;
+  private static final int BASE_PORT = 19400;
+
+  private com.sun.management.ThreadMXBean threads;
+  private EchoTestFixture fixture;
+  private EchoServer server;
+
+  private static Thread findThread(
+    final String prefix)
+  {
+    for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith(prefix)) {
+        return thread;
+      }
+    }
+    throw new IllegalStateException("No thread with prefix " + prefix);
+  }
+
+  private static long responses(
+    final EchoClientLatency latency)
+  {
+    return latency.snapshot().getTotalCount()
+      + latency.lostCount()
+      + latency.unexpectedCount();
+  }
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    EchoTestFixture.assumeMediaDriverAvailable();
+
+    final java.lang.management.ThreadMXBean bean =
+      ManagementFactory.getThreadMXBean();
+
+    Assume.assumeTrue(
+      "Thread allocation measurement is unavailable",
+      bean instanceof com.sun.management.ThreadMXBean);
+
+    this.threads = (com.sun.management.ThreadMXBean) bean;
+    Assume.assumeTrue(
+      "Thread allocation measurement is unsupported",
+      this.threads.isThreadAllocatedMemorySupported());
+    this.threads.setThreadAllocatedMemoryEnabled(true);
+
+    this.fixture = EchoTestFixture.create("aeron-guide-allocation-", BASE_PORT);
+    this.server = this.fixture.startServer(this.fixture.serverConfiguration().build());
+  }
+
+  @After
+  public void tearDown()
+  {
+    if (this.fixture != null) {
+      this.fixture.close();
+    }
+  }
+
+  private long serverPolls()
+  {
+    return this.server.counters().executorPolls().get();
+  }
+
+  private static void echo(
+    final EchoBlockingClient blocking,
+    final int count)
+    throws Exception
+  {
+    final Duration timeout = Duration.ofSeconds(10L);
+    for (int index = 0; index < count; ++index) {
+      blocking.echo("abcdefghijklmnopqrstuvwxyz", timeout);
+    }
+  }
+
+  @Test
+  public void testSteadyStateAllocation()
+    throws Exception
+  {
+    final EchoClient client =
+      this.fixture.createClient(this.fixture.clientConfiguration().build());
+    final EchoBlockingClient blocking = this.fixture.createBlocking(client, 1);
+
+    echo(blocking, WARMUP_MESSAGES);
+
+    final Thread server_thread =
+      findThread("com.io7m.aeron_guide.take2.server[");
+    final Thread client_thread =
+      findThread("com.io7m.aeron_guide.take2.client-poller[");
+
+    /*
+     * Measure the cost of polling when nothing is happening.
+     */
+
+    final long idle_bytes_before =
+      this.threads.getThreadAllocatedBytes(server_thread.getId());
+    final long idle_polls_before = this.serverPolls();
+    Thread.sleep(IDLE_MILLISECONDS);
+    final long idle_polls = Math.max(1L, this.serverPolls() - idle_polls_before);
+    final long server_per_poll =
+      (this.threads.getThreadAllocatedBytes(server_thread.getId()) - idle_bytes_before)
+        / idle_polls;
+
+    /*
+     * Measure the cost of echoing messages, less the cost of the polls that
+     * happened to take place during the measurement.
+     */
+
+    final long server_before =
+      this.threads.getThreadAllocatedBytes(server_thread.getId());
+    final long server_polls_before = this.serverPolls();
+    final long client_before =
+      this.threads.getThreadAllocatedBytes(client_thread.getId());
+
+    echo(blocking, MEASURED_MESSAGES);
+
+    final long server_polls = this.serverPolls() - server_polls_before;
+    final long server_bytes =
+      this.threads.getThreadAllocatedBytes(server_thread.getId()) - server_before;
+    final long server_per_message =
+      Math.max(0L, server_bytes - server_polls * server_per_poll)
+        / (long) MEASURED_MESSAGES;
+    final long client_per_message =
+      (this.threads.getThreadAllocatedBytes(client_thread.getId()) - client_before)
+        / (long) MEASURED_MESSAGES;
+
+    LOG.info(
+      "allocated bytes: server {} per idle poll ({} polls), server {} per message ({} polls), client {} per message",
+      Long.valueOf(server_per_poll),
+      Long.valueOf(idle_polls),
+      Long.valueOf(server_per_message),
+      Long.valueOf(server_polls),
+      Long.valueOf(client_per_message));
+
+    Assert.assertTrue(
+      "Server allocated " + server_per_poll
+        + " bytes per idle poll, budget is " + SERVER_BUDGET_BYTES_PER_POLL,
+      server_per_poll <= SERVER_BUDGET_BYTES_PER_POLL);
+    Assert.assertTrue(
+      "Server allocated " + server_per_message
+        + " bytes per message, budget is " + SERVER_BUDGET_BYTES_PER_MESSAGE,
+      server_per_message <= SERVER_BUDGET_BYTES_PER_MESSAGE);
+    Assert.assertTrue(
+      "Client allocated " + client_per_message
+        + " bytes per message, budget is " + CLIENT_BUDGET_BYTES_PER_MESSAGE,
+      client_per_message <= CLIENT_BUDGET_BYTES_PER_MESSAGE);
+  }
+
+  @Test
+  public void testTimedClientAllocation()
+    throws Exception
+  {
+    /*
+     * Run the client's own timed echo loop on a dedicated thread, so that
+     * everything that thread allocates is attributable to sending messages
+     * and handling their responses. Reports are pushed out beyond the end
+     * of the test.
+     */
+
+    final EchoClient client =
+      this.fixture.createClient(
+        this.fixture.clientConfiguration()
+          .rttMeasurement(true)
+          .rttReportInterval(Duration.ofHours(1L))
+          .build());
+
+    final EchoClientLatency latency = client.latency();
+    final AtomicReference<Exception> failure = new AtomicReference<>();
+    final Thread client_thread = new Thread(() -> {
+      try {
+        client.run();
+      } catch (final Exception e) {
+        failure.set(e);
+      }
+    }, "echo-client-timed");
+
+    client_thread.setDaemon(true);
+    client_thread.start();
+
+    try {
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60L);
+      while (responses(latency) < (long) WARMUP_MESSAGES) {
+        Assert.assertNull(failure.get());
+        Assert.assertTrue("Timed out warming up", System.nanoTime() < deadline);
+        Thread.sleep(10L);
+      }
+
+      final long bytes_before =
+        this.threads.getThreadAllocatedBytes(client_thread.getId());
+      final long responses_before = responses(latency);
+
+      while (responses(latency) < responses_before + (long) MEASURED_MESSAGES) {
+        Assert.assertNull(failure.get());
+        Assert.assertTrue("Timed out measuring", System.nanoTime() < deadline);
+        Thread.sleep(10L);
+      }
+
+      final long bytes =
+        this.threads.getThreadAllocatedBytes(client_thread.getId()) - bytes_before;
+      final long client_per_message =
+        bytes / (responses(latency) - responses_before);
+
+      LOG.info(
+        "allocated bytes: timed client {} per round trip",
+        Long.valueOf(client_per_message));
+
+      Assert.assertEquals(0L, latency.unexpectedCount());
+      Assert.assertTrue(
+        "Timed client allocated " + client_per_message
+          + " bytes per round trip, budget is " + CLIENT_TIMED_BUDGET_BYTES_PER_MESSAGE,
+        client_per_message <= CLIENT_TIMED_BUDGET_BYTES_PER_MESSAGE);
+    } finally {
+      client_thread.interrupt();
+      client_thread.join(TimeUnit.SECONDS.toMillis(10L));
+    }
+
+    Assert.assertFalse("Client did not stop", client_thread.isAlive());
+    Assert.assertNull(failure.get());
+  }
+}
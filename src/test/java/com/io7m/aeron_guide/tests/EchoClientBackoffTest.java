@@ -0,0 +1,81 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoClientBackoff;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.time.Duration;
+import java.util.Random;
+
+import static org.hamcrest.core.StringContains.containsString;
+
+public final class EchoClientBackoffTest
+{
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  @Test
+  public void testBadBase()
+  {
+    this.expected.expect(IllegalArgumentException.class);
+    this.expected.expectMessage(containsString("Base delay"));
+    EchoClientBackoff.create(Duration.ZERO, Duration.ofSeconds(1L), new Random());
+  }
+
+  @Test
+  public void testBadMaximum()
+  {
+    this.expected.expect(IllegalArgumentException.class);
+    this.expected.expectMessage(containsString("Maximum delay"));
+    EchoClientBackoff.create(
+      Duration.ofSeconds(2L), Duration.ofSeconds(1L), new Random());
+  }
+
+  @Test
+  public void testDelayBounded()
+  {
+    final EchoClientBackoff backoff =
+      EchoClientBackoff.create(
+        Duration.ofMillis(100L), Duration.ofMillis(10000L), new Random(0L));
+
+    for (int attempt = 0; attempt < 100; ++attempt) {
+      final long ceiling = Math.min(10000L, 100L << Math.min(attempt, 20));
+      for (int index = 0; index < 100; ++index) {
+        final long delay = backoff.delayMillis(attempt, Duration.ZERO);
+        Assert.assertTrue(delay + " must be >= 0", delay >= 0L);
+        Assert.assertTrue(delay + " must be <= " + ceiling, delay <= ceiling);
+      }
+    }
+  }
+
+  @Test
+  public void testDelayServerHint()
+  {
+    final EchoClientBackoff backoff =
+      EchoClientBackoff.create(
+        Duration.ofMillis(100L), Duration.ofMillis(10000L), new Random(0L));
+
+    for (int index = 0; index < 100; ++index) {
+      final long delay = backoff.delayMillis(0, Duration.ofMillis(500L));
+      Assert.assertTrue(delay + " must be >= 500", delay >= 500L);
+      Assert.assertTrue(delay + " must be <= 600", delay <= 600L);
+    }
+  }
+
+  @Test
+  public void testDelayJittered()
+  {
+    final EchoClientBackoff backoff =
+      EchoClientBackoff.create(
+        Duration.ofMillis(100L), Duration.ofMillis(10000L), new Random(0L));
+
+    final long first = backoff.delayMillis(5, Duration.ZERO);
+    for (int index = 0; index < 100; ++index) {
+      if (backoff.delayMillis(5, Duration.ZERO) != first) {
+        return;
+      }
+    }
+    Assert.fail("Delays must not all be identical");
+  }
+}
@@ -0,0 +1,108 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoClientHandshakeLimiter;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class EchoClientHandshakeLimiterTest
+{
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  @Test
+  public void testBadMaximum()
+  {
+    EchoTestMessages.expectIllegalArgument(this.expected, "Maximum handshakes");
+    EchoClientHandshakeLimiter.create(0);
+  }
+
+  @Test
+  public void testBlocksWhenExhausted()
+    throws Exception
+  {
+    final EchoClientHandshakeLimiter limiter = EchoClientHandshakeLimiter.create(2);
+    limiter.acquire();
+    limiter.acquire();
+
+    final CountDownLatch acquired = new CountDownLatch(1);
+    final Thread waiter = new Thread(() -> {
+      try {
+        limiter.acquire();
+        acquired.countDown();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    waiter.start();
+
+    try {
+      Assert.assertFalse(
+        "Third handshake must wait for a permit",
+        acquired.await(200L, TimeUnit.MILLISECONDS));
+
+      limiter.release();
+      Assert.assertTrue(
+        "Third handshake must begin once a permit is released",
+        acquired.await(10L, TimeUnit.SECONDS));
+    } finally {
+      waiter.interrupt();
+      waiter.join();
+    }
+  }
+
+  @Test
+  public void testConcurrencyBounded()
+    throws Exception
+  {
+    final EchoClientHandshakeLimiter limiter = EchoClientHandshakeLimiter.create(3);
+    final AtomicInteger active = new AtomicInteger(0);
+    final AtomicInteger active_max = new AtomicInteger(0);
+
+    final Thread[] threads = new Thread[16];
+    for (int index = 0; index < threads.length; ++index) {
+      threads[index] = new Thread(() -> {
+        for (int attempt = 0; attempt < 100; ++attempt) {
+          try {
+            limiter.acquire();
+          } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+
+          try {
+            active_max.accumulateAndGet(active.incrementAndGet(), Math::max);
+            Thread.yield();
+          } finally {
+            active.decrementAndGet();
+            limiter.release();
+          }
+        }
+      });
+      threads[index].start();
+    }
+
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertTrue(
+      "At most 3 handshakes may be in progress",
+      active_max.get() <= 3);
+    Assert.assertEquals(0L, (long) active.get());
+  }
+
+  @Test
+  public void testUnlimitedNeverBlocks()
+    throws Exception
+  {
+    final EchoClientHandshakeLimiter limiter = EchoClientHandshakeLimiter.unlimited();
+    for (int index = 0; index < 10000; ++index) {
+      limiter.acquire();
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoClientLatency;
+import org.HdrHistogram.Histogram;
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class EchoClientLatencyTest
+{
+  @Test
+  public void testSnapshotCumulative()
+  {
+    final EchoClientLatency latency = EchoClientLatency.create();
+
+    for (int index = 1; index <= 100; ++index) {
+      latency.record((long) index * 1000L);
+    }
+
+    {
+      final Histogram snapshot = latency.snapshot();
+      Assert.assertEquals(100L, snapshot.getTotalCount());
+      Assert.assertEquals(100000.0, (double) snapshot.getMaxValue(), 100.0);
+    }
+
+    latency.record(1000000L);
+
+    {
+      final Histogram snapshot = latency.snapshot();
+      Assert.assertEquals(101L, snapshot.getTotalCount());
+      Assert.assertEquals(1000000.0, (double) snapshot.getMaxValue(), 1000.0);
+    }
+  }
+
+  @Test
+  public void testNegativeClamped()
+  {
+    final EchoClientLatency latency = EchoClientLatency.create();
+    latency.record(-1L);
+
+    final Histogram snapshot = latency.snapshot();
+    Assert.assertEquals(1L, snapshot.getTotalCount());
+    Assert.assertEquals(0L, snapshot.getMaxValue());
+  }
+
+  @Test
+  public void testLostAndUnexpectedCounted()
+  {
+    final EchoClientLatency latency = EchoClientLatency.create();
+    latency.recordLost();
+    latency.recordLost();
+    latency.recordUnexpected();
+
+    Assert.assertEquals(2L, latency.lostCount());
+    Assert.assertEquals(1L, latency.unexpectedCount());
+    Assert.assertEquals(0L, latency.snapshot().getTotalCount());
+  }
+}
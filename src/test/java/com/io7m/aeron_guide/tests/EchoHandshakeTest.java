@@ -0,0 +1,201 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoClient;
+import com.io7m.aeron_guide.take2.EchoClientDuologue;
+import com.io7m.aeron_guide.take2.EchoClientRejectedException;
+import com.io7m.aeron_guide.take2.EchoMessageBatchHandler;
+import io.aeron.Aeron;
+import io.aeron.FragmentAssembler;
+import io.aeron.Publication;
+import io.aeron.Subscription;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.core.StringContains.containsString;
+
+/**
+ * Round-trip tests of the initial handshake between clients and a real
+ * server.
+ */
+
+public final class EchoHandshakeTest
+{
+  private static final int BASE_PORT = 19600;
+
+  private EchoTestFixture fixture;
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    EchoTestFixture.assumeMediaDriverAvailable();
+    this.fixture = EchoTestFixture.create("aeron-guide-handshake-", BASE_PORT);
+  }
+
+  @After
+  public void tearDown()
+  {
+    if (this.fixture != null) {
+      this.fixture.close();
+    }
+  }
+
+  private static void send(
+    final Publication publication,
+    final String message)
+    throws Exception
+  {
+    final UnsafeBuffer buffer = new UnsafeBuffer(message.getBytes(UTF_8));
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (publication.offer(buffer, 0, buffer.capacity()) < 0L) {
+      Assert.assertTrue("Could not send", System.nanoTime() < deadline);
+      Thread.sleep(1L);
+    }
+  }
+
+  private static List<String> receive(
+    final Subscription subscription,
+    final int count)
+  {
+    final List<String> received = new ArrayList<>();
+    final FragmentAssembler assembler =
+      new FragmentAssembler(
+        EchoMessageBatchHandler.create(EchoTestMessages.collector(received)));
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (received.size() < count) {
+      Assert.assertTrue("Missing replies", System.nanoTime() < deadline);
+      subscription.poll(assembler, 10);
+    }
+    return received;
+  }
+
+  @Test
+  public void testRoutedRepliesRoundTrip()
+    throws Exception
+  {
+    this.fixture.startServer(
+      this.fixture.serverConfiguration()
+        .allClientsRoutedReplies(true)
+        .build());
+
+    final EchoClient client =
+      this.fixture.createClient(this.fixture.clientConfiguration().build());
+
+    final EchoClientDuologue duologue = client.connect();
+    send(duologue.publication(), "ECHO 1");
+
+    Assert.assertEquals(
+      Arrays.asList("ECHO 1"),
+      receive(duologue.subscription(), 1));
+  }
+
+  @Test
+  public void testFastStartRoundTrip()
+    throws Exception
+  {
+    this.fixture.startServer(this.fixture.serverConfiguration().build());
+
+    final EchoClient client =
+      this.fixture.createClient(
+        this.fixture.clientConfiguration()
+          .handshakeFastStart(true)
+          .build());
+
+    /*
+     * In fast-start mode, the client does not wait for the image of its
+     * duologue subscription before sending, so the first message may well
+     * be sent before the server can reply to it.
+     */
+
+    final EchoClientDuologue duologue = client.connect();
+    send(duologue.publication(), "ECHO 1");
+    send(duologue.publication(), "ECHO 2");
+
+    Assert.assertEquals(
+      Arrays.asList("ECHO 1", "ECHO 2"),
+      receive(duologue.subscription(), 2));
+  }
+
+  @Test
+  public void testFastStartReplyHeldUntilSubscribed()
+    throws Exception
+  {
+    this.fixture.startServer(
+      this.fixture.serverConfiguration()
+        .duologueConnectTimeout(Duration.ofSeconds(30L))
+        .build());
+
+    final EchoClient client =
+      this.fixture.createClient(
+        this.fixture.clientConfiguration()
+          .handshakeFastStart(true)
+          .build());
+
+    final EchoClientDuologue duologue = client.connect();
+
+    /*
+     * Make sure that no subscription image can exist when the first ECHO
+     * arrives at the server: Close the client's subscription, send, and give
+     * the server time to try and fail to reply before subscribing again to
+     * the same channel.
+     */
+
+    final String channel = duologue.subscription().channel();
+    final int stream_id = duologue.subscription().streamId();
+    duologue.subscription().close();
+
+    send(duologue.publication(), "ECHO 1");
+    Thread.sleep(500L);
+
+    final Aeron aeron = this.fixture.startAeron();
+    try (final Subscription subscription = aeron.addSubscription(channel, stream_id)) {
+      Assert.assertEquals(
+        Arrays.asList("ECHO 1"),
+        receive(subscription, 1));
+    }
+  }
+
+  @Test
+  public void testOverloadedRejectedRetryable()
+    throws Exception
+  {
+    /*
+     * Any work at all on the executor exceeds a utilization threshold of
+     * zero. Wait for the executor to publish its first measurement window
+     * before connecting.
+     */
+
+    this.fixture.startServer(
+      this.fixture.serverConfiguration()
+        .loadSheddingUtilizationThreshold(0.0)
+        .build());
+    Thread.sleep(500L);
+
+    final EchoClient client =
+      this.fixture.createClient(
+        this.fixture.clientConfiguration()
+          .rejectionRetryMaximumAttempts(0)
+          .build());
+
+    try {
+      client.connect();
+      Assert.fail("Expected the handshake to be rejected");
+    } catch (final EchoClientRejectedException e) {
+      Assert.assertThat(e.getMessage(), containsString("busy"));
+      Assert.assertTrue(
+        "Busy rejections must carry a retry delay",
+        e.retryAfter().isPresent());
+    }
+  }
+}
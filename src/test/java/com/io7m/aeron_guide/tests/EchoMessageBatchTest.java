@@ -0,0 +1,235 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoMessageBatch;
+import com.io7m.aeron_guide.take2.EchoMessageBatchHandler;
+import com.io7m.aeron_guide.take2.EchoMessageSendObserver;
+import io.aeron.Aeron;
+import io.aeron.FragmentAssembler;
+import io.aeron.Publication;
+import io.aeron.Subscription;
+import io.aeron.logbuffer.FragmentHandler;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public final class EchoMessageBatchTest
+{
+  private static final String CHANNEL = "aeron:ipc";
+  private static final int STREAM_ID = 0x2000;
+
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  private EchoTestFixture fixture;
+  private Publication publication;
+  private Subscription subscription;
+
+  private static EchoMessageBatchHandler collector(
+    final List<String> received)
+  {
+    return EchoMessageBatchHandler.create(EchoTestMessages.collector(received));
+  }
+
+  private static long deadline()
+  {
+    return System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+  }
+
+  private static void checkDeadline(
+    final long deadline)
+  {
+    Assert.assertTrue("Timed out", System.nanoTime() < deadline);
+  }
+
+  @After
+  public void tearDown()
+  {
+    if (this.fixture != null) {
+      this.fixture.close();
+    }
+  }
+
+  /**
+   * Start a media driver and connect an IPC publication and subscription
+   * through which batches can be sent.
+   */
+
+  private void connect()
+    throws Exception
+  {
+    EchoTestFixture.assumeMediaDriverAvailable();
+
+    this.fixture = EchoTestFixture.create("aeron-guide-batch-", 0);
+    final Aeron aeron = this.fixture.startAeron();
+    this.publication = aeron.addPublication(CHANNEL, STREAM_ID);
+    this.subscription = aeron.addSubscription(CHANNEL, STREAM_ID);
+
+    final long deadline = deadline();
+    while (!this.publication.isConnected()) {
+      checkDeadline(deadline);
+      Thread.sleep(1L);
+    }
+  }
+
+  private void send(
+    final EchoMessageBatch batch,
+    final CountingObserver observer)
+    throws Exception
+  {
+    final long deadline = deadline();
+    while (!batch.offer(this.publication, observer)) {
+      checkDeadline(deadline);
+      Thread.sleep(1L);
+    }
+  }
+
+  private void receive(
+    final FragmentHandler handler,
+    final List<String> received,
+    final int count)
+  {
+    final long deadline = deadline();
+    while (received.size() < count) {
+      checkDeadline(deadline);
+      this.subscription.poll(handler, 10);
+    }
+  }
+
+  @Test
+  public void testBadCapacity()
+  {
+    EchoTestMessages.expectIllegalArgument(this.expected, "Capacity");
+    EchoMessageBatch.create(EchoMessageBatch.MINIMUM_CAPACITY - 1);
+  }
+
+  @Test
+  public void testAppendFull()
+  {
+    final EchoMessageBatch batch = EchoMessageBatch.create(1 + 2 * (4 + 8));
+
+    Assert.assertTrue(batch.isEmpty());
+    Assert.assertTrue(batch.append("ECHO abc"));
+    Assert.assertTrue(batch.append("ECHO def"));
+    Assert.assertFalse(batch.append("E"));
+    Assert.assertEquals(2L, (long) batch.count());
+  }
+
+  @Test
+  public void testUnbatchedPassedThrough()
+  {
+    final List<String> received = new ArrayList<>();
+    final UnsafeBuffer buffer = new UnsafeBuffer(ByteBuffer.allocate(64));
+    final byte[] bytes = "ECHO abc".getBytes(UTF_8);
+    buffer.putBytes(3, bytes);
+
+    collector(received).onFragment(buffer, 3, bytes.length, null);
+    Assert.assertEquals(Arrays.asList("ECHO abc"), received);
+  }
+
+  @Test
+  public void testBatchTruncated()
+  {
+    final List<String> received = new ArrayList<>();
+    final UnsafeBuffer buffer = new UnsafeBuffer(ByteBuffer.allocate(64));
+    final EchoMessageBatch batch = EchoMessageBatch.create(buffer);
+    Assert.assertTrue(batch.append("ECHO abc"));
+    Assert.assertTrue(batch.append("ECHO defgh"));
+
+    /*
+     * Cut the frame off part of the way through the second entry.
+     */
+
+    final int first_end = 1 + EchoMessageBatch.ENTRY_HEADER_LENGTH + 8;
+    collector(received).onFragment(buffer, 0, first_end + 6, null);
+    Assert.assertEquals(Arrays.asList("ECHO abc"), received);
+  }
+
+  @Test
+  public void testRoundTripBatched()
+    throws Exception
+  {
+    this.connect();
+
+    final EchoMessageBatch batch = EchoMessageBatch.create(256);
+    Assert.assertTrue(batch.append("ECHO abc"));
+    Assert.assertTrue(batch.append(""));
+    Assert.assertTrue(batch.append("RESUMED"));
+
+    final CountingObserver observer = new CountingObserver();
+    this.send(batch, observer);
+    Assert.assertTrue(batch.isEmpty());
+    Assert.assertEquals(3L, (long) observer.sent);
+
+    final List<String> received = new ArrayList<>();
+    this.receive(new FragmentAssembler(collector(received)), received, 3);
+    Assert.assertEquals(Arrays.asList("ECHO abc", "", "RESUMED"), received);
+  }
+
+  @Test
+  public void testRoundTripSingleUnbatched()
+    throws Exception
+  {
+    this.connect();
+
+    final EchoMessageBatch batch = EchoMessageBatch.create(256);
+    Assert.assertTrue(batch.append("ECHO abc"));
+
+    final CountingObserver observer = new CountingObserver();
+    this.send(batch, observer);
+    Assert.assertEquals(1L, (long) observer.sent);
+
+    /*
+     * A batch of one message is sent as the bare message, and so can be
+     * read by a receiver that knows nothing about batches.
+     */
+
+    final List<String> received = new ArrayList<>();
+    this.receive(EchoTestMessages.collector(received), received, 1);
+    Assert.assertEquals(Arrays.asList("ECHO abc"), received);
+  }
+
+  private static final class CountingObserver implements EchoMessageSendObserver
+  {
+    private int sent;
+
+    CountingObserver()
+    {
+
+    }
+
+    @Override
+    public void onMessageSent(
+      final int length)
+    {
+      ++this.sent;
+    }
+
+    @Override
+    public void onBackPressured()
+    {
+
+    }
+
+    @Override
+    public void onNotConnected()
+    {
+
+    }
+
+    @Override
+    public void onSendFailed()
+    {
+
+    }
+  }
+}
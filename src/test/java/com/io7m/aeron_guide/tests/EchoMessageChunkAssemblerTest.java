@@ -0,0 +1,121 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoMessageChunkAssembler;
+import com.io7m.aeron_guide.take2.EchoMessageChunks;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+public final class EchoMessageChunkAssemblerTest
+{
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  private static void deliver(
+    final EchoMessageChunkAssembler assembler,
+    final boolean begin,
+    final boolean end,
+    final String text)
+  {
+    final byte[] bytes = text.getBytes(UTF_8);
+    final UnsafeBuffer buffer = new UnsafeBuffer(ByteBuffer.allocate(64));
+    EchoMessageChunks.putHeader(buffer, 1, begin, end);
+    buffer.putBytes(1 + EchoMessageChunks.CHUNK_HEADER_LENGTH, bytes);
+    assembler.onFragment(
+      buffer, 1, EchoMessageChunks.CHUNK_HEADER_LENGTH + bytes.length, null);
+  }
+
+  private static EchoMessageChunkAssembler collector(
+    final List<String> received,
+    final int maximum)
+  {
+    return EchoMessageChunkAssembler.create(
+      EchoTestMessages.collector(received), maximum);
+  }
+
+  @Test
+  public void testBadMaximum()
+  {
+    EchoTestMessages.expectIllegalArgument(this.expected, "Maximum");
+    collector(new ArrayList<>(), 0);
+  }
+
+  @Test
+  public void testReassemble()
+  {
+    final List<String> received = new ArrayList<>();
+    final EchoMessageChunkAssembler assembler = collector(received, 1024);
+
+    deliver(assembler, true, false, "ECHO ab");
+    deliver(assembler, false, false, "cd");
+    Assert.assertEquals(Collections.emptyList(), received);
+    deliver(assembler, false, true, "ef");
+    deliver(assembler, true, true, "ECHO x");
+
+    Assert.assertEquals(Arrays.asList("ECHO abcdef", "ECHO x"), received);
+  }
+
+  @Test
+  public void testAbortDiscardsStream()
+  {
+    final List<String> received = new ArrayList<>();
+    final EchoMessageChunkAssembler assembler = collector(received, 1024);
+
+    deliver(assembler, true, false, "ECHO ab");
+    final UnsafeBuffer abort = new UnsafeBuffer(ByteBuffer.allocate(8));
+    EchoMessageChunks.putAbortHeader(abort, 0);
+    assembler.onFragment(abort, 0, EchoMessageChunks.CHUNK_HEADER_LENGTH, null);
+    deliver(assembler, false, true, "cd");
+    Assert.assertEquals(Collections.emptyList(), received);
+
+    deliver(assembler, true, true, "ECHO x");
+    Assert.assertEquals(Arrays.asList("ECHO x"), received);
+  }
+
+  @Test
+  public void testUnchunkedPassedThrough()
+  {
+    final List<String> received = new ArrayList<>();
+    final EchoMessageChunkAssembler assembler = collector(received, 1024);
+    final UnsafeBuffer buffer = new UnsafeBuffer("ECHO abc".getBytes(UTF_8));
+
+    deliver(assembler, true, false, "ECHO ab");
+    assembler.onFragment(buffer, 0, buffer.capacity(), null);
+    deliver(assembler, false, true, "c");
+
+    Assert.assertEquals(Arrays.asList("ECHO abc", "ECHO abc"), received);
+  }
+
+  @Test
+  public void testOrphanChunkDiscarded()
+  {
+    final List<String> received = new ArrayList<>();
+    final EchoMessageChunkAssembler assembler = collector(received, 1024);
+
+    deliver(assembler, false, true, "cd");
+    Assert.assertEquals(Collections.emptyList(), received);
+  }
+
+  @Test
+  public void testTooLargeDiscarded()
+  {
+    final List<String> received = new ArrayList<>();
+    final EchoMessageChunkAssembler assembler = collector(received, 8);
+
+    deliver(assembler, true, false, "ECHO ab");
+    deliver(assembler, false, false, "cd");
+    deliver(assembler, false, true, "ef");
+    Assert.assertEquals(Collections.emptyList(), received);
+
+    deliver(assembler, true, true, "ECHO ab");
+    Assert.assertEquals(Arrays.asList("ECHO ab"), received);
+  }
+}
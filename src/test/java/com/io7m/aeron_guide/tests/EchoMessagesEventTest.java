@@ -0,0 +1,159 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoMessageSendObserver;
+import com.io7m.aeron_guide.take2.EchoMessages;
+import io.aeron.Aeron;
+import io.aeron.Publication;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.agrona.BufferUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Tests that the JFR send events are recorded for messages that are offered
+ * without waiting, as duologue replies are.
+ */
+
+public final class EchoMessagesEventTest
+{
+  private static final String CHANNEL = "aeron:ipc";
+  private static final int STREAM_ID = 0x2001;
+  private static final String EVENT_RETRY = "com.io7m.aeron_guide.SendRetry";
+  private static final String EVENT_FAILED = "com.io7m.aeron_guide.SendFailed";
+
+  private static final EchoMessageSendObserver IGNORING_OBSERVER =
+    new EchoMessageSendObserver()
+    {
+      @Override
+      public void onMessageSent(
+        final int length)
+      {
+
+      }
+
+      @Override
+      public void onBackPressured()
+      {
+
+      }
+
+      @Override
+      public void onNotConnected()
+      {
+
+      }
+
+      @Override
+      public void onSendFailed()
+      {
+
+      }
+    };
+
+  private EchoTestFixture fixture;
+  private Publication publication;
+  private UnsafeBuffer buffer;
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    EchoTestFixture.assumeMediaDriverAvailable();
+
+    this.fixture = EchoTestFixture.create("aeron-guide-events-", 0);
+    final Aeron aeron = this.fixture.startAeron();
+    this.publication = aeron.addPublication(CHANNEL, STREAM_ID);
+    this.buffer = new UnsafeBuffer(BufferUtil.allocateDirectAligned(1024, 16));
+  }
+
+  @After
+  public void tearDown()
+  {
+    if (this.fixture != null) {
+      this.fixture.close();
+    }
+  }
+
+  private static List<RecordedEvent> events(
+    final Recording recording,
+    final String name)
+    throws IOException
+  {
+    final Path file = Files.createTempFile("aeron-guide-events-", ".jfr");
+    try {
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file)
+        .stream()
+        .filter(event -> name.equals(event.getEventType().getName()))
+        .collect(Collectors.toList());
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void testOfferNotConnectedRecordsRetry()
+    throws Exception
+  {
+    try (final Recording recording = new Recording()) {
+      recording.enable(EVENT_RETRY);
+      recording.start();
+
+      Assert.assertFalse(
+        EchoMessages.offerMessage(
+          this.publication, this.buffer, "ECHO 1", IGNORING_OBSERVER));
+
+      recording.stop();
+
+      final List<RecordedEvent> events = events(recording, EVENT_RETRY);
+      Assert.assertEquals(1L, (long) events.size());
+
+      final RecordedEvent event = events.get(0);
+      Assert.assertEquals(this.publication.sessionId(), event.getInt("session"));
+      Assert.assertEquals(-1L, (long) event.getInt("attempt"));
+      Assert.assertEquals("Not connected", event.getString("result"));
+    }
+  }
+
+  @Test
+  public void testOfferClosedRecordsFailure()
+    throws Exception
+  {
+    final int session = this.publication.sessionId();
+    this.publication.close();
+
+    try (final Recording recording = new Recording()) {
+      recording.enable(EVENT_FAILED);
+      recording.start();
+
+      try {
+        EchoMessages.offerMessage(
+          this.publication, this.buffer, "ECHO 1", IGNORING_OBSERVER);
+        Assert.fail("Offer to a closed publication must fail");
+      } catch (final IOException e) {
+        // Expected
+      }
+
+      recording.stop();
+
+      final List<RecordedEvent> events = events(recording, EVENT_FAILED);
+      Assert.assertEquals(1L, (long) events.size());
+
+      final RecordedEvent event = events.get(0);
+      Assert.assertEquals(session, event.getInt("session"));
+      Assert.assertEquals(6L, (long) event.getInt("length"));
+      Assert.assertEquals("Publication is closed", event.getString("result"));
+    }
+  }
+}
@@ -0,0 +1,289 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoClient;
+import com.io7m.aeron_guide.take2.EchoClientDuologue;
+import com.io7m.aeron_guide.take2.EchoMessageBatchHandler;
+import com.io7m.aeron_guide.take2.EchoServer;
+import io.aeron.Aeron;
+import io.aeron.FragmentAssembler;
+import io.aeron.Publication;
+import io.aeron.Subscription;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Round-trip tests of session resumption between clients and a real server.
+ */
+
+public final class EchoResumeTest
+{
+  private static final int BASE_PORT = 19800;
+
+  private EchoTestFixture fixture;
+
+  private static int duologues(
+    final EchoServer server)
+    throws Exception
+  {
+    return server.resourceUsage().get(10L, TimeUnit.SECONDS).duologues();
+  }
+
+  private static String resumeMessage(
+    final long token)
+  {
+    return "RESUME " + Long.toUnsignedString(token, 16).toUpperCase();
+  }
+
+  private static void send(
+    final Publication publication,
+    final String message)
+    throws Exception
+  {
+    final UnsafeBuffer buffer = new UnsafeBuffer(message.getBytes(UTF_8));
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (publication.offer(buffer, 0, buffer.capacity()) < 0L) {
+      Assert.assertTrue("Could not send", System.nanoTime() < deadline);
+      Thread.sleep(1L);
+    }
+  }
+
+  private static List<String> receive(
+    final Subscription subscription,
+    final int count)
+  {
+    final List<String> received = new ArrayList<>();
+    final FragmentAssembler assembler =
+      new FragmentAssembler(
+        EchoMessageBatchHandler.create(EchoTestMessages.collector(received)));
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (received.size() < count) {
+      Assert.assertTrue("Missing replies", System.nanoTime() < deadline);
+      subscription.poll(assembler, 10);
+    }
+    return received;
+  }
+
+  private static void awaitDuologues(
+    final EchoServer server,
+    final int count)
+    throws Exception
+  {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60L);
+    while (duologues(server) != count) {
+      Assert.assertTrue("Duologue was not created", System.nanoTime() < deadline);
+      Thread.sleep(10L);
+    }
+  }
+
+  private static void awaitNoDuologues(
+    final EchoServer server)
+    throws Exception
+  {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30L);
+    while (duologues(server) != 0) {
+      Assert.assertTrue("Duologue was not deleted", System.nanoTime() < deadline);
+      Thread.sleep(10L);
+    }
+  }
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    EchoTestFixture.assumeMediaDriverAvailable();
+    this.fixture = EchoTestFixture.create("aeron-guide-resume-", BASE_PORT);
+  }
+
+  @After
+  public void tearDown()
+  {
+    if (this.fixture != null) {
+      this.fixture.close();
+    }
+  }
+
+  private EchoServer startServer(
+    final Duration grace)
+    throws Exception
+  {
+    return this.fixture.startServer(
+      this.fixture.serverConfiguration()
+        .sessionResumptionGracePeriod(grace)
+        .build());
+  }
+
+  private EchoClientDuologue connect(
+    final boolean resumption)
+    throws Exception
+  {
+    final EchoClient client =
+      this.fixture.createClient(
+        this.fixture.clientConfiguration()
+          .sessionResumption(resumption)
+          .build());
+    return client.connect();
+  }
+
+  @Test
+  public void testResumeCorrectToken()
+    throws Exception
+  {
+    final EchoServer server = this.startServer(Duration.ofSeconds(30L));
+    final EchoClientDuologue duologue = this.connect(true);
+    Assert.assertTrue(duologue.resumeToken().isPresent());
+
+    /*
+     * Lose the connection to the server, leaving the reply subscription in
+     * place, and wait for the server to notice.
+     */
+
+    final String channel = duologue.publication().channel();
+    final int stream_id = duologue.publication().streamId();
+    duologue.publication().close();
+    Thread.sleep(3000L);
+    Assert.assertEquals(1L, (long) duologues(server));
+
+    /*
+     * Reconnect to the same duologue and present the token.
+     */
+
+    final Aeron aeron = this.fixture.startAeron();
+    try (final Publication publication = aeron.addPublication(channel, stream_id)) {
+      send(publication, resumeMessage(duologue.resumeToken().getAsLong()));
+      send(publication, "ECHO 1");
+
+      Assert.assertEquals(
+        Arrays.asList("RESUMED", "ECHO 1"),
+        receive(duologue.subscription(), 2));
+      Assert.assertEquals(1L, (long) duologues(server));
+    }
+  }
+
+  @Test
+  public void testResumeWrongTokenCloses()
+    throws Exception
+  {
+    final EchoServer server = this.startServer(Duration.ofSeconds(30L));
+    final EchoClientDuologue duologue = this.connect(true);
+    final long token = duologue.resumeToken().getAsLong();
+
+    send(duologue.publication(), resumeMessage(token ^ 1L));
+    awaitNoDuologues(server);
+  }
+
+  @Test
+  public void testResumeExpires()
+    throws Exception
+  {
+    final Duration grace = Duration.ofSeconds(3L);
+    final EchoServer server = this.startServer(grace);
+    final EchoClientDuologue duologue = this.connect(true);
+    Assert.assertTrue(duologue.resumeToken().isPresent());
+
+    /*
+     * The duologue must be held for the whole grace period after the client
+     * goes away, and then deleted.
+     */
+
+    final long time_closed = System.nanoTime();
+    duologue.close();
+    awaitNoDuologues(server);
+
+    final long elapsed = System.nanoTime() - time_closed;
+    Assert.assertTrue(
+      "Duologue deleted after " + TimeUnit.NANOSECONDS.toMillis(elapsed)
+        + "ms, within the grace period",
+      elapsed >= grace.toNanos());
+  }
+
+  @Test
+  public void testNotResumableWithoutClientRequest()
+    throws Exception
+  {
+    this.startServer(Duration.ofSeconds(30L));
+    final EchoClientDuologue duologue = this.connect(false);
+    Assert.assertFalse(duologue.resumeToken().isPresent());
+  }
+
+  @Test
+  public void testNotResumableWithoutGracePeriod()
+    throws Exception
+  {
+    final EchoServer server = this.startServer(Duration.ZERO);
+    final EchoClientDuologue duologue = this.connect(true);
+    Assert.assertFalse(duologue.resumeToken().isPresent());
+
+    /*
+     * The duologue does not accept resumption at all, so presenting a token
+     * is simply a bad message.
+     */
+
+    send(duologue.publication(), resumeMessage(0L));
+    awaitNoDuologues(server);
+  }
+
+  @Test
+  public void testResumeExpiredFallsBackToHandshake()
+    throws Exception
+  {
+    final Duration grace = Duration.ofSeconds(1L);
+    final EchoServer server = this.startServer(grace);
+
+    final EchoClient client =
+      this.fixture.createClient(
+        this.fixture.clientConfiguration()
+          .sessionResumption(true)
+          .sessionResumptionTimeout(grace)
+          .build());
+
+    final AtomicReference<Exception> failure = new AtomicReference<>();
+    final Thread thread = new Thread(() -> {
+      try {
+        client.run();
+      } catch (final Exception e) {
+        failure.set(e);
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+
+    try {
+      awaitDuologues(server, 1);
+      Thread.sleep(3000L);
+
+      /*
+       * Replace the server. The client's duologue, and the grace period in
+       * which it could have been resumed, is gone with the old server, so
+       * the client must give up resuming and start a new session.
+       */
+
+      server.close();
+      final EchoServer replacement =
+        this.fixture.startServer(
+          this.fixture.serverConfiguration()
+            .sessionResumptionGracePeriod(grace)
+            .build());
+
+      awaitDuologues(replacement, 1);
+      Thread.sleep(3000L);
+      Assert.assertNull(failure.get());
+      Assert.assertTrue(thread.isAlive());
+    } finally {
+      thread.interrupt();
+      thread.join(TimeUnit.SECONDS.toMillis(10L));
+    }
+  }
+}
@@ -29,4 +29,27 @@ public final class EchoServerAddressCounterTest
     counter.decrement(addr_0);
     Assert.assertEquals(0L, (long) counter.countFor(addr_0));
   }
+
+  @Test
+  public void testAddressCount()
+    throws Exception
+  {
+    final EchoServerAddressCounter counter =
+      EchoServerAddressCounter.create();
+
+    final InetAddress addr_0 = InetAddress.getByName("127.0.0.1");
+    final InetAddress addr_1 = InetAddress.getByName("127.0.0.2");
+
+    Assert.assertEquals(0L, (long) counter.addressCount());
+    counter.increment(addr_0);
+    counter.increment(addr_0);
+    counter.increment(addr_1);
+    Assert.assertEquals(2L, (long) counter.addressCount());
+    counter.decrement(addr_0);
+    Assert.assertEquals(2L, (long) counter.addressCount());
+    counter.decrement(addr_0);
+    Assert.assertEquals(1L, (long) counter.addressCount());
+    counter.decrement(addr_1);
+    Assert.assertEquals(0L, (long) counter.addressCount());
+  }
 }
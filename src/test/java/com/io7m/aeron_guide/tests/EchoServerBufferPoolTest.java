@@ -0,0 +1,221 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoServerBufferAllocationException;
+import com.io7m.aeron_guide.take2.EchoServerBufferPool;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.hamcrest.core.StringContains.containsString;
+
+public final class EchoServerBufferPoolTest
+{
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  @Test
+  public void testBadMaximum()
+  {
+    EchoTestMessages.expectIllegalArgument(this.expected, "Maximum size");
+    EchoServerBufferPool.create(65536L, 3000);
+  }
+
+  @Test
+  public void testBadBudget()
+  {
+    EchoTestMessages.expectIllegalArgument(this.expected, "Budget");
+    EchoServerBufferPool.create(1024L, 2048);
+  }
+
+  @Test
+  public void testAcquireExhausted()
+    throws Exception
+  {
+    final EchoServerBufferPool pool = EchoServerBufferPool.create(4096L, 4096);
+
+    final UnsafeBuffer b0 = pool.acquire(1024);
+    final UnsafeBuffer b1 = pool.acquire(100);
+    Assert.assertEquals(1024L, (long) b0.capacity());
+    Assert.assertEquals(100L, (long) b1.capacity());
+    Assert.assertEquals(2L, (long) pool.usedCount());
+    Assert.assertEquals(1024L + 2048L, pool.reservedBytes());
+
+    pool.acquire(1);
+    pool.acquire(1);
+    Assert.assertEquals(4096L, pool.reservedBytes());
+
+    this.expected.expect(EchoServerBufferAllocationException.class);
+    this.expected.expectMessage(containsString("4096 of 4096 bytes"));
+    pool.acquire(1);
+  }
+
+  @Test
+  public void testBudgetSharedBetweenClasses()
+    throws Exception
+  {
+    final EchoServerBufferPool pool = EchoServerBufferPool.create(65536L, 65536);
+    pool.acquire(65536);
+    Assert.assertEquals(65536L, pool.reservedBytes());
+
+    this.expected.expect(EchoServerBufferAllocationException.class);
+    pool.acquire(1);
+  }
+
+  @Test
+  public void testReleasedBlocksReturnToBudget()
+    throws Exception
+  {
+    final EchoServerBufferPool pool = EchoServerBufferPool.create(4096L, 4096);
+
+    /*
+     * Fill the budget with the smallest size class, in blocks of one, two
+     * and then one slot, and release everything.
+     */
+
+    final UnsafeBuffer[] small = new UnsafeBuffer[4];
+    for (int index = 0; index < small.length; ++index) {
+      small[index] = pool.acquire(1024);
+    }
+    Assert.assertEquals(4096L, pool.reservedBytes());
+
+    for (final UnsafeBuffer buffer : small) {
+      pool.release(buffer);
+    }
+
+    /*
+     * None of the empty blocks is large enough for the largest size class,
+     * so they must all be given back to the budget.
+     */
+
+    final UnsafeBuffer large = pool.acquire(4096);
+    Assert.assertEquals(4096L, (long) large.capacity());
+    Assert.assertEquals(4096L, pool.reservedBytes());
+    Assert.assertEquals(1L, (long) pool.usedCount());
+
+    pool.release(large);
+    pool.acquire(1024);
+    Assert.assertEquals(4096L, pool.reservedBytes());
+  }
+
+  @Test
+  public void testReleasedBlocksDivided()
+    throws Exception
+  {
+    final EchoServerBufferPool pool = EchoServerBufferPool.create(4096L, 2048);
+
+    final UnsafeBuffer[] small = new UnsafeBuffer[4];
+    for (int index = 0; index < small.length; ++index) {
+      small[index] = pool.acquire(1024);
+    }
+    for (final UnsafeBuffer buffer : small) {
+      pool.release(buffer);
+    }
+
+    /*
+     * The second block holds two slots of the smallest size class, and can
+     * be divided into a single slot of the next size class without
+     * allocating anything. The two remaining empty blocks then make room for
+     * a second slot.
+     */
+
+    final UnsafeBuffer b0 = pool.acquire(2048);
+    Assert.assertEquals(small[1].addressOffset(), b0.addressOffset());
+    Assert.assertEquals(4096L, pool.reservedBytes());
+
+    final UnsafeBuffer b1 = pool.acquire(2048);
+    Assert.assertNotEquals(b0.addressOffset(), b1.addressOffset());
+    Assert.assertEquals(4096L, pool.reservedBytes());
+    Assert.assertEquals(2L, (long) pool.usedCount());
+
+    this.expected.expect(EchoServerBufferAllocationException.class);
+    pool.acquire(1024);
+  }
+
+  @Test
+  public void testLargeBudget()
+    throws Exception
+  {
+    final EchoServerBufferPool pool =
+      EchoServerBufferPool.create(Long.MAX_VALUE, 65536);
+    Assert.assertEquals(0L, pool.reservedBytes());
+
+    pool.acquire(65536);
+    pool.acquire(65536);
+    Assert.assertEquals(2L * 65536L, pool.reservedBytes());
+  }
+
+  @Test
+  public void testBlocksLimited()
+    throws Exception
+  {
+    final EchoServerBufferPool pool = EchoServerBufferPool.create(1L << 20, 1024);
+    for (int index = 0; index < 200; ++index) {
+      pool.acquire(1024);
+    }
+
+    /*
+     * Blocks of 1, 2, 4, 8, 16, 32 and 64 slots, and then further blocks of
+     * 64 slots.
+     */
+
+    Assert.assertEquals(
+      (127L + 64L + 64L) * 1024L, pool.reservedBytes());
+  }
+
+  @Test
+  public void testSizeClasses()
+    throws Exception
+  {
+    final EchoServerBufferPool pool = EchoServerBufferPool.create(1L << 20, 4096);
+
+    final UnsafeBuffer small = pool.acquire(1000);
+    final UnsafeBuffer large = pool.acquire(3000);
+    Assert.assertEquals(3000L, (long) large.capacity());
+    Assert.assertEquals(1024L + 4096L, pool.reservedBytes());
+
+    large.setMemory(0, large.capacity(), (byte) 0x7f);
+    Assert.assertEquals(0x7fL, (long) large.getByte(2999));
+
+    pool.release(small);
+    pool.release(large);
+    Assert.assertEquals(0L, (long) pool.usedCount());
+  }
+
+  @Test
+  public void testReleaseReuses()
+    throws Exception
+  {
+    final EchoServerBufferPool pool = EchoServerBufferPool.create(1024L, 1024);
+
+    final UnsafeBuffer b0 = pool.acquire(1024);
+    pool.release(b0);
+    final UnsafeBuffer b1 = pool.acquire(512);
+    Assert.assertEquals(b0.addressOffset(), b1.addressOffset());
+    Assert.assertEquals(1024L, pool.reservedBytes());
+  }
+
+  @Test
+  public void testReleaseTwice()
+    throws Exception
+  {
+    final EchoServerBufferPool pool = EchoServerBufferPool.create(2048L, 1024);
+
+    final UnsafeBuffer b0 = pool.acquire(1024);
+    pool.release(b0);
+
+    EchoTestMessages.expectIllegalArgument(this.expected, "not in use");
+    pool.release(b0);
+  }
+
+  @Test
+  public void testReleaseForeign()
+    throws Exception
+  {
+    final EchoServerBufferPool pool = EchoServerBufferPool.create(2048L, 1024);
+    pool.acquire(1024);
+
+    EchoTestMessages.expectIllegalArgument(this.expected, "not acquired");
+    pool.release(new UnsafeBuffer(new byte[16]));
+  }
+}
@@ -0,0 +1,58 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoMessageBatch;
+import com.io7m.aeron_guide.take2.ImmutableEchoServerConfiguration;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.net.InetAddress;
+import java.nio.file.Paths;
+
+public final class EchoServerConfigurationTest
+{
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  private static ImmutableEchoServerConfiguration.Builder builder()
+    throws Exception
+  {
+    return ImmutableEchoServerConfiguration.builder()
+      .baseDirectory(Paths.get("/tmp/aeron-guide-configuration"))
+      .localAddress(InetAddress.getByName("127.0.0.1"))
+      .localInitialPort(9000)
+      .localInitialControlPort(9001)
+      .localClientsBasePort(9002)
+      .clientMaximumCount(10)
+      .maximumConnectionsPerAddress(4);
+  }
+
+  @Test
+  public void testReplyBatchBytes()
+    throws Exception
+  {
+    Assert.assertEquals(
+      0L, (long) builder().duologueReplyBatchBytes(0).build().duologueReplyBatchBytes());
+    Assert.assertEquals(
+      (long) EchoMessageBatch.MINIMUM_CAPACITY,
+      (long) builder()
+        .duologueReplyBatchBytes(EchoMessageBatch.MINIMUM_CAPACITY)
+        .build()
+        .duologueReplyBatchBytes());
+  }
+
+  @Test
+  public void testRoutedRepliesOptIn()
+    throws Exception
+  {
+    Assert.assertFalse(builder().build().allClientsRoutedReplies());
+  }
+
+  @Test
+  public void testBadReplyBatchBytes()
+    throws Exception
+  {
+    EchoTestMessages.expectIllegalArgument(this.expected, "Reply batch size");
+    builder().duologueReplyBatchBytes(EchoMessageBatch.MINIMUM_CAPACITY - 1).build();
+  }
+}
@@ -0,0 +1,262 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoServerDuologueScheduler;
+import com.io7m.aeron_guide.take2.EchoServerDuologueType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.net.InetAddress;
+
+import static org.hamcrest.core.StringContains.containsString;
+
+public final class EchoServerDuologueSchedulerTest
+{
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  @Test
+  public void testBadBudget()
+  {
+    this.expected.expect(IllegalArgumentException.class);
+    this.expected.expectMessage(containsString("Budget"));
+    EchoServerDuologueScheduler.create(0, 1);
+  }
+
+  @Test
+  public void testBadWeight()
+  {
+    final EchoServerDuologueScheduler scheduler =
+      EchoServerDuologueScheduler.create(100, 10);
+
+    this.expected.expect(IllegalArgumentException.class);
+    this.expected.expectMessage(containsString("Weight"));
+    scheduler.add(new FakeDuologue(1), 0);
+  }
+
+  @Test
+  public void testDuplicate()
+  {
+    final EchoServerDuologueScheduler scheduler =
+      EchoServerDuologueScheduler.create(100, 10);
+
+    scheduler.add(new FakeDuologue(1), 1);
+    this.expected.expect(IllegalStateException.class);
+    this.expected.expectMessage(containsString("already"));
+    scheduler.add(new FakeDuologue(1), 1);
+  }
+
+  @Test
+  public void testWeightedQuotas()
+  {
+    final EchoServerDuologueScheduler scheduler =
+      EchoServerDuologueScheduler.create(1000, 10);
+
+    final FakeDuologue light = new FakeDuologue(1);
+    final FakeDuologue heavy = new FakeDuologue(2);
+    light.pending = 1000;
+    heavy.pending = 1000;
+    scheduler.add(light, 1);
+    scheduler.add(heavy, 3);
+
+    Assert.assertEquals(40L, (long) scheduler.poll());
+    Assert.assertEquals(10L, (long) light.read);
+    Assert.assertEquals(30L, (long) heavy.read);
+    Assert.assertEquals(2L, (long) scheduler.activeCount());
+  }
+
+  @Test
+  public void testBudgetRotates()
+  {
+    final EchoServerDuologueScheduler scheduler =
+      EchoServerDuologueScheduler.create(20, 10);
+
+    final FakeDuologue[] duologues = new FakeDuologue[5];
+    for (int index = 0; index < duologues.length; ++index) {
+      duologues[index] = new FakeDuologue(index);
+      duologues[index].pending = 1000;
+      scheduler.add(duologues[index], 1);
+    }
+
+    /*
+     * Only two duologues can be served per cycle, so it takes several cycles
+     * to discover that all of them have data available.
+     */
+
+    while (scheduler.activeCount() < duologues.length) {
+      Assert.assertEquals(20L, (long) scheduler.poll());
+    }
+
+    for (final FakeDuologue duologue : duologues) {
+      duologue.read = 0;
+    }
+
+    /*
+     * Every duologue must then be served equally every five cycles.
+     */
+
+    for (int cycle = 0; cycle < 5; ++cycle) {
+      Assert.assertEquals(20L, (long) scheduler.poll());
+    }
+
+    for (final FakeDuologue duologue : duologues) {
+      Assert.assertEquals(20L, (long) duologue.read);
+    }
+  }
+
+  @Test
+  public void testDrainedBecomeIdle()
+  {
+    final EchoServerDuologueScheduler scheduler =
+      EchoServerDuologueScheduler.create(1000, 10);
+
+    final FakeDuologue duologue = new FakeDuologue(1);
+    duologue.pending = 15;
+    scheduler.add(duologue, 1);
+
+    Assert.assertEquals(10L, (long) scheduler.poll());
+    Assert.assertEquals(1L, (long) scheduler.activeCount());
+    Assert.assertEquals(5L, (long) scheduler.poll());
+    Assert.assertEquals(0L, (long) scheduler.activeCount());
+
+    /*
+     * Idle duologues are polled as soon as new data arrives.
+     */
+
+    duologue.pending = 3;
+    Assert.assertEquals(3L, (long) scheduler.poll());
+    Assert.assertEquals(3L, (long) duologue.polls);
+  }
+
+  @Test
+  public void testIdleNotPolledWithoutWork()
+  {
+    final EchoServerDuologueScheduler scheduler =
+      EchoServerDuologueScheduler.create(1000, 10);
+
+    final FakeDuologue busy = new FakeDuologue(1);
+    final FakeDuologue quiet = new FakeDuologue(2);
+    busy.pending = 1000;
+    scheduler.add(busy, 1);
+    scheduler.add(quiet, 1);
+
+    for (int cycle = 0; cycle < 10; ++cycle) {
+      Assert.assertEquals(10L, (long) scheduler.poll());
+    }
+
+    Assert.assertEquals(10L, (long) busy.polls);
+    Assert.assertEquals(0L, (long) quiet.polls);
+
+    quiet.pending = 1;
+    Assert.assertEquals(11L, (long) scheduler.poll());
+    Assert.assertEquals(1L, (long) quiet.polls);
+  }
+
+  @Test
+  public void testRemove()
+  {
+    final EchoServerDuologueScheduler scheduler =
+      EchoServerDuologueScheduler.create(1000, 10);
+
+    final FakeDuologue d0 = new FakeDuologue(0);
+    final FakeDuologue d1 = new FakeDuologue(1);
+    final FakeDuologue d2 = new FakeDuologue(2);
+    d0.pending = 1000;
+    d1.pending = 1000;
+    scheduler.add(d0, 1);
+    scheduler.add(d1, 1);
+    scheduler.add(d2, 1);
+    scheduler.poll();
+    Assert.assertEquals(2L, (long) scheduler.activeCount());
+
+    scheduler.remove(0);
+    scheduler.remove(2);
+    scheduler.remove(23);
+    Assert.assertEquals(1L, (long) scheduler.size());
+    Assert.assertEquals(1L, (long) scheduler.activeCount());
+
+    Assert.assertEquals(10L, (long) scheduler.poll());
+    Assert.assertEquals(10L, (long) d0.read);
+    Assert.assertEquals(20L, (long) d1.read);
+  }
+
+  private static final class FakeDuologue implements EchoServerDuologueType
+  {
+    private final int session;
+    private int pending;
+    private int read;
+    private int polls;
+
+    FakeDuologue(
+      final int in_session)
+    {
+      this.session = in_session;
+    }
+
+    @Override
+    public int poll(
+      final int fragment_limit)
+    {
+      final int count = Math.min(fragment_limit, this.pending);
+      this.pending -= count;
+      this.read += count;
+      ++this.polls;
+      return count;
+    }
+
+    @Override
+    public boolean hasWorkAvailable()
+    {
+      return this.pending > 0;
+    }
+
+    @Override
+    public boolean isExpired(
+      final long now)
+    {
+      return false;
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+      return false;
+    }
+
+    @Override
+    public void close()
+    {
+
+    }
+
+    @Override
+    public int portData()
+    {
+      return 0;
+    }
+
+    @Override
+    public int portControl()
+    {
+      return 0;
+    }
+
+    @Override
+    public InetAddress ownerAddress()
+    {
+      return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public int session()
+    {
+      return this.session;
+    }
+
+    @Override
+    public int slot()
+    {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoServerDuologueStatistics;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.hamcrest.core.StringContains.containsString;
+
+public final class EchoServerDuologueStatisticsTest
+{
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  @Test
+  public void testBadCapacity()
+  {
+    this.expected.expect(IllegalArgumentException.class);
+    this.expected.expectMessage(containsString("Capacity"));
+    EchoServerDuologueStatistics.create(0);
+  }
+
+  @Test
+  public void testAllocateExhausted()
+  {
+    final EchoServerDuologueStatistics stats =
+      EchoServerDuologueStatistics.create(2);
+
+    final int slot_0 = stats.allocate(100, 1000L);
+    final int slot_1 = stats.allocate(101, 1000L);
+    Assert.assertNotEquals(slot_0, slot_1);
+    Assert.assertEquals(2L, (long) stats.usedCount());
+
+    this.expected.expect(IllegalStateException.class);
+    this.expected.expectMessage(containsString("in use"));
+    stats.allocate(102, 1000L);
+  }
+
+  @Test
+  public void testRecord()
+  {
+    final EchoServerDuologueStatistics stats =
+      EchoServerDuologueStatistics.create(4);
+
+    final int slot = stats.allocate(-23, 1000L);
+    Assert.assertEquals(-23L, (long) stats.session(slot));
+    Assert.assertEquals(1000L, stats.created(slot));
+    Assert.assertEquals(1000L, stats.lastActivity(slot));
+
+    stats.onMessageReceived(slot, 10, 1010L);
+    stats.onMessageReceived(slot, 20, 1020L);
+    stats.onBackPressured(slot);
+    stats.onMessageSent(slot, 15, 1030L);
+
+    Assert.assertEquals(2L, stats.messagesReceived(slot));
+    Assert.assertEquals(30L, stats.bytesReceived(slot));
+    Assert.assertEquals(1L, stats.messagesSent(slot));
+    Assert.assertEquals(15L, stats.bytesSent(slot));
+    Assert.assertEquals(1L, stats.backPressured(slot));
+    Assert.assertEquals(1000L, stats.created(slot));
+    Assert.assertEquals(1030L, stats.lastActivity(slot));
+  }
+
+  @Test
+  public void testFreeResets()
+  {
+    final EchoServerDuologueStatistics stats =
+      EchoServerDuologueStatistics.create(1);
+
+    final int slot = stats.allocate(1, 1000L);
+    stats.onMessageReceived(slot, 10, 1010L);
+    stats.free(slot);
+    Assert.assertEquals(0L, (long) stats.usedCount());
+
+    final int again = stats.allocate(2, 2000L);
+    Assert.assertEquals(slot, again);
+    Assert.assertEquals(2L, (long) stats.session(again));
+    Assert.assertEquals(0L, stats.messagesReceived(again));
+    Assert.assertEquals(0L, stats.bytesReceived(again));
+    Assert.assertEquals(2000L, stats.created(again));
+  }
+
+  @Test
+  public void testBadSlot()
+  {
+    final EchoServerDuologueStatistics stats =
+      EchoServerDuologueStatistics.create(1);
+
+    this.expected.expect(IndexOutOfBoundsException.class);
+    stats.messagesReceived(1);
+  }
+}
@@ -0,0 +1,195 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoClient;
+import com.io7m.aeron_guide.take2.EchoClientDuologue;
+import com.io7m.aeron_guide.take2.EchoMessageBatchHandler;
+import com.io7m.aeron_guide.take2.EchoServer;
+import io.aeron.FragmentAssembler;
+import io.aeron.Publication;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Tests of the behaviour of server duologues towards real clients.
+ */
+
+public final class EchoServerDuologueTest
+{
+  private static final int BASE_PORT = 19700;
+
+  private EchoTestFixture fixture;
+
+  private static int duologues(
+    final EchoServer server)
+    throws Exception
+  {
+    return server.resourceUsage().get(10L, TimeUnit.SECONDS).duologues();
+  }
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    EchoTestFixture.assumeMediaDriverAvailable();
+    this.fixture = EchoTestFixture.create("aeron-guide-duologue-", BASE_PORT);
+  }
+
+  @After
+  public void tearDown()
+  {
+    if (this.fixture != null) {
+      this.fixture.close();
+    }
+  }
+
+  @Test
+  public void testClosedWithoutReplySubscriber()
+    throws Exception
+  {
+    final EchoServer server =
+      this.fixture.startServer(
+        this.fixture.serverConfiguration()
+          .duologueConnectTimeout(Duration.ofMillis(500L))
+          .build());
+
+    final EchoClient client =
+      this.fixture.createClient(this.fixture.clientConfiguration().build());
+    final EchoClientDuologue duologue = client.connect();
+    Assert.assertEquals(1L, (long) duologues(server));
+
+    /*
+     * The client keeps sending but stops reading replies. Once the server's
+     * reply publication notices that nobody is subscribed, the duologue
+     * must be closed rather than retrying the same message forever.
+     */
+
+    duologue.subscription().close();
+
+    final Publication publication = duologue.publication();
+    final UnsafeBuffer buffer =
+      new UnsafeBuffer("ECHO 1".getBytes(UTF_8));
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30L);
+    while (duologues(server) != 0) {
+      Assert.assertTrue(
+        "Duologue was not closed", System.nanoTime() < deadline);
+      publication.offer(buffer, 0, buffer.capacity());
+      Thread.sleep(100L);
+    }
+  }
+
+  @Test
+  public void testBatchedReplies()
+    throws Exception
+  {
+    this.fixture.startServer(
+      this.fixture.serverConfiguration()
+        .duologueReplyBatchBytes(1024)
+        .build());
+
+    final EchoClient client =
+      this.fixture.createClient(this.fixture.clientConfiguration().build());
+    final EchoClientDuologue duologue = client.connect();
+
+    /*
+     * Send a burst of messages so that the server reads several of them in a
+     * single poll and coalesces the replies.
+     */
+
+    final int count = 100;
+    final List<String> expected = new ArrayList<>();
+    final Publication publication = duologue.publication();
+    for (int index = 0; index < count; ++index) {
+      final String message = "ECHO " + index;
+      expected.add(message);
+
+      final UnsafeBuffer buffer = new UnsafeBuffer(message.getBytes(UTF_8));
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+      while (publication.offer(buffer, 0, buffer.capacity()) < 0L) {
+        Assert.assertTrue("Could not send", System.nanoTime() < deadline);
+        Thread.sleep(1L);
+      }
+    }
+
+    final List<String> received = new ArrayList<>();
+    final FragmentAssembler assembler =
+      new FragmentAssembler(
+        EchoMessageBatchHandler.create(EchoTestMessages.collector(received)));
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (received.size() < count) {
+      Assert.assertTrue("Missing replies", System.nanoTime() < deadline);
+      duologue.subscription().poll(assembler, 10);
+    }
+
+    Assert.assertEquals(expected, received);
+  }
+
+  @Test
+  public void testPolledAcrossTermBoundaries()
+    throws Exception
+  {
+    this.fixture.startServer(this.fixture.serverConfiguration().build());
+
+    /*
+     * Give the client small terms, so that its messages soon cross from one
+     * term to the next. The frames of these messages do not divide the term
+     * evenly, so each term ends with a padding frame that the server's check
+     * for available data cannot see past.
+     */
+
+    final String property = "aeron.term.buffer.length";
+    final EchoClient client;
+    System.setProperty(property, "65536");
+    try {
+      client = this.fixture.createClient(this.fixture.clientConfiguration().build());
+    } finally {
+      System.clearProperty(property);
+    }
+
+    final EchoClientDuologue duologue = client.connect();
+    Assert.assertEquals(65536L, (long) duologue.publication().termBufferLength());
+
+    final char[] filler = new char[1000];
+    Arrays.fill(filler, 'q');
+    final String payload = new String(filler);
+
+    final List<String> received = new ArrayList<>();
+    final FragmentAssembler assembler =
+      new FragmentAssembler(
+        EchoMessageBatchHandler.create(EchoTestMessages.collector(received)));
+
+    /*
+     * Wait for each reply before sending the next message, so that the
+     * server sees each term end before the next message arrives.
+     */
+
+    final Publication publication = duologue.publication();
+    for (int index = 0; index < 200; ++index) {
+      final String message = "ECHO " + index + " " + payload;
+      final UnsafeBuffer buffer = new UnsafeBuffer(message.getBytes(UTF_8));
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+      while (publication.offer(buffer, 0, buffer.capacity()) < 0L) {
+        Assert.assertTrue("Could not send", System.nanoTime() < deadline);
+        Thread.sleep(1L);
+      }
+
+      while (received.size() <= index) {
+        Assert.assertTrue("Missing reply " + index, System.nanoTime() < deadline);
+        duologue.subscription().poll(assembler, 10);
+      }
+      Assert.assertEquals(message, received.get(index));
+    }
+  }
+}
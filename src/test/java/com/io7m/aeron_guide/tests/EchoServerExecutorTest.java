@@ -0,0 +1,168 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoServerExecutor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for the load measurements of the server executor. The executor is
+ * driven by a clock that only moves when the test moves it, and tasks block
+ * on latches so that the test controls exactly when each task is queued,
+ * started, and finished.
+ */
+
+public final class EchoServerExecutorTest
+{
+  private static final long MS = 1_000_000L;
+
+  private AtomicLong time;
+  private EchoServerExecutor executor;
+
+  private static void await(
+    final CountDownLatch latch)
+    throws InterruptedException
+  {
+    Assert.assertTrue(
+      "Timed out waiting for the executor",
+      latch.await(10L, TimeUnit.SECONDS));
+  }
+
+  @Before
+  public void setUp()
+  {
+    this.time = new AtomicLong(0L);
+    this.executor = EchoServerExecutor.create(this.time::get);
+  }
+
+  @After
+  public void tearDown()
+  {
+    this.executor.close();
+  }
+
+  /**
+   * Submit a task that signals when it starts, and then blocks until
+   * released.
+   */
+
+  private CountDownLatch submitBlocking(
+    final CountDownLatch started,
+    final CountDownLatch release)
+  {
+    this.executor.execute(() -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    return release;
+  }
+
+  private void runAt(
+    final long now)
+    throws InterruptedException
+  {
+    final CountDownLatch done = new CountDownLatch(1);
+    this.time.set(now);
+    this.executor.execute(done::countDown);
+    await(done);
+  }
+
+  @Test
+  public void testUtilization()
+    throws Exception
+  {
+    final CountDownLatch done = new CountDownLatch(1);
+    this.executor.execute(() -> {
+      this.time.addAndGet(30L * MS);
+      done.countDown();
+    });
+    await(done);
+
+    /*
+     * The executor measures the first task's busy time after the task has
+     * counted down the latch. Run a second, empty task without moving the
+     * clock so that the measurement is complete before the clock moves.
+     */
+
+    this.runAt(30L * MS);
+    Assert.assertEquals(0.0, this.executor.utilization(), 0.0);
+
+    /*
+     * The window ends when the first task after 100ms starts. The executor
+     * was busy for 30ms of the 200ms window.
+     */
+
+    this.runAt(200L * MS);
+    Assert.assertEquals(0.15, this.executor.utilization(), 0.0001);
+    Assert.assertEquals(0L, this.executor.queueSojournNanos());
+  }
+
+  @Test
+  public void testSojourn()
+    throws Exception
+  {
+    final CountDownLatch started_0 = new CountDownLatch(1);
+    final CountDownLatch release_0 = new CountDownLatch(1);
+    this.submitBlocking(started_0, release_0);
+    await(started_0);
+
+    /*
+     * A second task waits 140ms behind the first. It is the first task of a
+     * new window, so it publishes the first window, in which a task started
+     * immediately.
+     */
+
+    final CountDownLatch started_1 = new CountDownLatch(1);
+    final CountDownLatch release_1 = new CountDownLatch(1);
+    this.time.set(10L * MS);
+    this.submitBlocking(started_1, release_1);
+    this.time.set(150L * MS);
+    release_0.countDown();
+    await(started_1);
+
+    Assert.assertEquals(0L, this.executor.queueSojournNanos());
+    Assert.assertEquals(1.0, this.executor.utilization(), 0.0);
+
+    /*
+     * Every task in the second window waits 140ms, so the queue is
+     * standing rather than bursting.
+     */
+
+    final CountDownLatch done = new CountDownLatch(1);
+    this.time.set(160L * MS);
+    this.executor.execute(done::countDown);
+    this.time.set(300L * MS);
+    release_1.countDown();
+    await(done);
+
+    Assert.assertEquals(140L * MS, this.executor.queueSojournNanos());
+    Assert.assertEquals(1.0, this.executor.utilization(), 0.0);
+  }
+
+  @Test
+  public void testQueueDepth()
+    throws Exception
+  {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    this.submitBlocking(started, release);
+    await(started);
+
+    this.executor.execute(() -> { });
+    this.executor.execute(() -> { });
+    Assert.assertEquals(2L, this.executor.queueDepth());
+
+    release.countDown();
+    this.runAt(0L);
+    Assert.assertEquals(0L, this.executor.queueDepth());
+  }
+}
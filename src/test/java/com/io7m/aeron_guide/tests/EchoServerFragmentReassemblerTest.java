@@ -0,0 +1,248 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoServerBufferAllocationException;
+import com.io7m.aeron_guide.take2.EchoServerFragmentReassembler;
+import com.io7m.aeron_guide.take2.EchoServerMessageTooLargeException;
+import io.aeron.logbuffer.ControlledFragmentHandler;
+import io.aeron.logbuffer.ControlledFragmentHandler.Action;
+import io.aeron.logbuffer.FrameDescriptor;
+import io.aeron.logbuffer.Header;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.core.StringContains.containsString;
+
+public final class EchoServerFragmentReassemblerTest
+{
+  private static final long BUDGET = 1L << 20;
+
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  private static Action deliver(
+    final EchoServerFragmentReassembler reassembler,
+    final int key,
+    final ControlledFragmentHandler handler,
+    final byte flags,
+    final String text)
+    throws Exception
+  {
+    final UnsafeBuffer frame = new UnsafeBuffer(new byte[32]);
+    frame.putByte(FrameDescriptor.FLAGS_OFFSET, flags);
+    final Header header = new Header(0, 0);
+    header.buffer(frame);
+    header.offset(0);
+
+    final UnsafeBuffer buffer = new UnsafeBuffer(text.getBytes(UTF_8));
+    return reassembler.onFragment(
+      key, handler, buffer, 0, buffer.capacity(), header);
+  }
+
+  @Test
+  public void testBadMaximum()
+  {
+    EchoTestMessages.expectIllegalArgument(this.expected, "Maximum");
+    EchoServerFragmentReassembler.create(1L << 20, 0);
+  }
+
+  @Test
+  public void testBadBudget()
+  {
+    EchoTestMessages.expectIllegalArgument(this.expected, "Budget");
+    EchoServerFragmentReassembler.create(4096L, 3000);
+  }
+
+  @Test
+  public void testBudgetExhausted()
+    throws Exception
+  {
+    final List<String> received = new ArrayList<>();
+    final ControlledFragmentHandler handler = EchoTestMessages.controlledCollector(received);
+    final EchoServerFragmentReassembler reassembler =
+      EchoServerFragmentReassembler.create(4096L, 1024);
+
+    for (int key = 0; key < 4; ++key) {
+      deliver(reassembler, key, handler, FrameDescriptor.BEGIN_FRAG_FLAG, "ECHO a");
+    }
+    Assert.assertEquals(4L, (long) reassembler.inProgressCount());
+    Assert.assertEquals(4096L, reassembler.reservedBytes());
+
+    try {
+      deliver(reassembler, 4, handler, FrameDescriptor.BEGIN_FRAG_FLAG, "ECHO b");
+      Assert.fail("Expected the budget to be exhausted");
+    } catch (final EchoServerBufferAllocationException e) {
+      Assert.assertThat(e.getMessage(), containsString("4096 of 4096 bytes"));
+    }
+    Assert.assertEquals(4L, (long) reassembler.inProgressCount());
+
+    /*
+     * Discarding a message in progress, as happens when its duologue is
+     * closed, makes room for another.
+     */
+
+    reassembler.discard(0);
+    deliver(reassembler, 4, handler, FrameDescriptor.BEGIN_FRAG_FLAG, "ECHO b");
+    deliver(reassembler, 4, handler, FrameDescriptor.END_FRAG_FLAG, "c");
+    Assert.assertEquals(Arrays.asList("ECHO bc"), received);
+    Assert.assertEquals(4096L, reassembler.reservedBytes());
+  }
+
+  @Test
+  public void testUnfragmentedPassedThrough()
+    throws Exception
+  {
+    final List<String> received = new ArrayList<>();
+    final EchoServerFragmentReassembler reassembler =
+      EchoServerFragmentReassembler.create(BUDGET, 1024);
+
+    deliver(reassembler, 1, EchoTestMessages.controlledCollector(received), FrameDescriptor.UNFRAGMENTED, "ECHO x");
+    Assert.assertEquals(Arrays.asList("ECHO x"), received);
+    Assert.assertEquals(0L, (long) reassembler.inProgressCount());
+    Assert.assertEquals(0L, reassembler.reservedBytes());
+  }
+
+  @Test
+  public void testReassembleInterleaved()
+    throws Exception
+  {
+    final List<String> received = new ArrayList<>();
+    final ControlledFragmentHandler handler = EchoTestMessages.controlledCollector(received);
+    final EchoServerFragmentReassembler reassembler =
+      EchoServerFragmentReassembler.create(BUDGET, 1024);
+
+    deliver(reassembler, 1, handler, FrameDescriptor.BEGIN_FRAG_FLAG, "ECHO a");
+    deliver(reassembler, 2, handler, FrameDescriptor.BEGIN_FRAG_FLAG, "ECHO x");
+    deliver(reassembler, 1, handler, (byte) 0, "bc");
+    Assert.assertEquals(2L, (long) reassembler.inProgressCount());
+    Assert.assertEquals(Collections.emptyList(), received);
+
+    deliver(reassembler, 2, handler, FrameDescriptor.END_FRAG_FLAG, "yz");
+    deliver(reassembler, 1, handler, FrameDescriptor.END_FRAG_FLAG, "d");
+
+    Assert.assertEquals(Arrays.asList("ECHO xyz", "ECHO abcd"), received);
+    Assert.assertEquals(0L, (long) reassembler.inProgressCount());
+  }
+
+  @Test
+  public void testGrowsToMaximum()
+    throws Exception
+  {
+    final List<String> received = new ArrayList<>();
+    final ControlledFragmentHandler handler = EchoTestMessages.controlledCollector(received);
+    final EchoServerFragmentReassembler reassembler =
+      EchoServerFragmentReassembler.create(BUDGET, 8192);
+
+    final char[] filler = new char[1000];
+    Arrays.fill(filler, 'q');
+    final String part = new String(filler);
+
+    /*
+     * The message starts in a 1KiB buffer and then moves straight to a
+     * buffer of the maximum size, skipping the 2KiB and 4KiB size classes.
+     */
+
+    deliver(reassembler, 1, handler, FrameDescriptor.BEGIN_FRAG_FLAG, part);
+    Assert.assertEquals(1024L, reassembler.reservedBytes());
+    for (int index = 0; index < 4; ++index) {
+      deliver(reassembler, 1, handler, (byte) 0, part);
+    }
+    deliver(reassembler, 1, handler, FrameDescriptor.END_FRAG_FLAG, part);
+
+    Assert.assertEquals(1L, (long) received.size());
+    Assert.assertEquals(6000L, (long) received.get(0).length());
+    Assert.assertEquals(0L, (long) reassembler.inProgressCount());
+    Assert.assertEquals(1024L + 8192L, reassembler.reservedBytes());
+  }
+
+  @Test
+  public void testAbortRetried()
+    throws Exception
+  {
+    final List<String> received = new ArrayList<>();
+    final EchoServerFragmentReassembler reassembler =
+      EchoServerFragmentReassembler.create(BUDGET, 1024);
+
+    final ControlledFragmentHandler refuse =
+      (buffer, offset, length, header) -> Action.ABORT;
+
+    deliver(reassembler, 1, refuse, FrameDescriptor.BEGIN_FRAG_FLAG, "ECHO a");
+    Assert.assertEquals(
+      Action.ABORT,
+      deliver(reassembler, 1, refuse, FrameDescriptor.END_FRAG_FLAG, "b"));
+    Assert.assertEquals(1L, (long) reassembler.inProgressCount());
+
+    deliver(reassembler, 1, EchoTestMessages.controlledCollector(received), FrameDescriptor.END_FRAG_FLAG, "b");
+    Assert.assertEquals(Arrays.asList("ECHO ab"), received);
+    Assert.assertEquals(0L, (long) reassembler.inProgressCount());
+  }
+
+  @Test
+  public void testOrphanAndDiscard()
+    throws Exception
+  {
+    final List<String> received = new ArrayList<>();
+    final ControlledFragmentHandler handler = EchoTestMessages.controlledCollector(received);
+    final EchoServerFragmentReassembler reassembler =
+      EchoServerFragmentReassembler.create(BUDGET, 1024);
+
+    deliver(reassembler, 1, handler, FrameDescriptor.END_FRAG_FLAG, "cd");
+    Assert.assertEquals(0L, (long) reassembler.inProgressCount());
+
+    deliver(reassembler, 1, handler, FrameDescriptor.BEGIN_FRAG_FLAG, "ECHO a");
+    reassembler.discard(1);
+    Assert.assertEquals(0L, (long) reassembler.inProgressCount());
+
+    deliver(reassembler, 1, handler, FrameDescriptor.END_FRAG_FLAG, "b");
+    Assert.assertEquals(Collections.emptyList(), received);
+  }
+
+  @Test
+  public void testTooLargeRejected()
+    throws Exception
+  {
+    final List<String> received = new ArrayList<>();
+    final ControlledFragmentHandler handler = EchoTestMessages.controlledCollector(received);
+    final EchoServerFragmentReassembler reassembler =
+      EchoServerFragmentReassembler.create(BUDGET, 1000);
+
+    final char[] filler = new char[700];
+    Arrays.fill(filler, 'q');
+    final String part = new String(filler);
+
+    /*
+     * The limit is the maximum message size itself, rather than the size of
+     * the buffers that hold messages.
+     */
+
+    deliver(reassembler, 1, handler, FrameDescriptor.BEGIN_FRAG_FLAG, part);
+    try {
+      deliver(reassembler, 1, handler, FrameDescriptor.END_FRAG_FLAG, part);
+      Assert.fail("Expected the message to be rejected");
+    } catch (final EchoServerMessageTooLargeException e) {
+      Assert.assertThat(e.getMessage(), containsString("1000 bytes"));
+    }
+
+    Assert.assertEquals(Collections.emptyList(), received);
+    Assert.assertEquals(0L, (long) reassembler.inProgressCount());
+  }
+
+  @Test
+  public void testTooLargeUnfragmentedRejected()
+    throws Exception
+  {
+    final List<String> received = new ArrayList<>();
+    final EchoServerFragmentReassembler reassembler =
+      EchoServerFragmentReassembler.create(BUDGET, 4);
+
+    this.expected.expect(EchoServerMessageTooLargeException.class);
+    deliver(reassembler, 1, EchoTestMessages.controlledCollector(received), FrameDescriptor.UNFRAGMENTED, "ECHO x");
+  }
+}
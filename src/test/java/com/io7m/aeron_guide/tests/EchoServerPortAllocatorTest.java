@@ -89,4 +89,21 @@ public final class EchoServerPortAllocatorTest
       }
     }
   }
+
+  @Test
+  public void testUsedCount()
+    throws Exception
+  {
+    final EchoServerPortAllocator alloc =
+      EchoServerPortAllocator.create(20000, 4);
+
+    Assert.assertEquals(0L, (long) alloc.usedCount());
+    final int[] ports = alloc.allocate(3);
+    Assert.assertEquals(3L, (long) alloc.usedCount());
+
+    for (final int port : ports) {
+      alloc.free(port);
+    }
+    Assert.assertEquals(0L, (long) alloc.usedCount());
+  }
 }
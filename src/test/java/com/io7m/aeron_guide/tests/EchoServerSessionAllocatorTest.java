@@ -81,4 +81,21 @@ public final class EchoServerSessionAllocatorTest
       Assert.assertTrue(port + " must be < 65536", port < 65536);
     }
   }
+
+  @Test
+  public void testUsedCount()
+    throws Exception
+  {
+    final EchoServerSessionAllocator alloc =
+      EchoServerSessionAllocator.create(0, 100, new SecureRandom());
+
+    Assert.assertEquals(0L, (long) alloc.usedCount());
+    final int session_0 = alloc.allocate();
+    final int session_1 = alloc.allocate();
+    Assert.assertEquals(2L, (long) alloc.usedCount());
+
+    alloc.free(session_0);
+    alloc.free(session_1);
+    Assert.assertEquals(0L, (long) alloc.usedCount());
+  }
 }
@@ -0,0 +1,83 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoServerTokenBuckets;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.hamcrest.core.StringContains.containsString;
+
+public final class EchoServerTokenBucketsTest
+{
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  @Test
+  public void testBadRate()
+  {
+    this.expected.expect(IllegalArgumentException.class);
+    this.expected.expectMessage(containsString("Rate"));
+    EchoServerTokenBuckets.create(0, 1);
+  }
+
+  @Test
+  public void testBadBurst()
+  {
+    this.expected.expect(IllegalArgumentException.class);
+    this.expected.expectMessage(containsString("Burst"));
+    EchoServerTokenBuckets.create(1, 0);
+  }
+
+  @Test
+  public void testBurstThenRefill()
+  {
+    final EchoServerTokenBuckets buckets =
+      EchoServerTokenBuckets.create(10, 3);
+
+    Assert.assertTrue(buckets.tryAcquire(1L, 0L));
+    Assert.assertTrue(buckets.tryAcquire(1L, 0L));
+    Assert.assertTrue(buckets.tryAcquire(1L, 0L));
+    Assert.assertFalse(buckets.tryAcquire(1L, 0L));
+
+    /*
+     * Other keys have their own buckets.
+     */
+
+    Assert.assertTrue(buckets.tryAcquire(2L, 0L));
+
+    /*
+     * One token is added every 100ms.
+     */
+
+    Assert.assertFalse(buckets.tryAcquire(1L, 99_999L));
+    Assert.assertTrue(buckets.tryAcquire(1L, 100_000L));
+    Assert.assertFalse(buckets.tryAcquire(1L, 100_000L));
+
+    /*
+     * The bucket never holds more than the burst size.
+     */
+
+    Assert.assertTrue(buckets.tryAcquire(1L, 10_000_000L));
+    Assert.assertTrue(buckets.tryAcquire(1L, 10_000_000L));
+    Assert.assertTrue(buckets.tryAcquire(1L, 10_000_000L));
+    Assert.assertFalse(buckets.tryAcquire(1L, 10_000_000L));
+  }
+
+  @Test
+  public void testPurge()
+  {
+    final EchoServerTokenBuckets buckets =
+      EchoServerTokenBuckets.create(10, 3);
+
+    Assert.assertTrue(buckets.tryAcquire(1L, 0L));
+    Assert.assertTrue(buckets.tryAcquire(2L, 0L));
+    Assert.assertTrue(buckets.tryAcquire(2L, 0L));
+    Assert.assertEquals(2L, (long) buckets.size());
+
+    buckets.purge(100_000L);
+    Assert.assertEquals(1L, (long) buckets.size());
+
+    buckets.purge(200_000L);
+    Assert.assertEquals(0L, (long) buckets.size());
+  }
+}
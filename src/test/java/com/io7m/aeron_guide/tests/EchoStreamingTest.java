@@ -0,0 +1,196 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoBlockingClient;
+import com.io7m.aeron_guide.take2.EchoClient;
+import com.io7m.aeron_guide.take2.EchoClientDuologue;
+import com.io7m.aeron_guide.take2.EchoClientTimedOutException;
+import com.io7m.aeron_guide.take2.EchoMessages;
+import com.io7m.aeron_guide.take2.EchoServer;
+import io.aeron.FragmentAssembler;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Round-trip tests for messages larger than the send buffers of the server
+ * and client.
+ */
+
+public final class EchoStreamingTest
+{
+  private static final int BASE_PORT = 19500;
+  private static final int MESSAGE_MAXIMUM = 6000;
+
+  private EchoTestFixture fixture;
+  private EchoServer server;
+  private EchoClient client;
+  private EchoBlockingClient blocking;
+
+  private static String payload(
+    final int size)
+  {
+    final Random random = new Random(size);
+    final StringBuilder text = new StringBuilder(size);
+    for (int index = 0; index < size; ++index) {
+      text.append((char) ('a' + random.nextInt(26)));
+    }
+    return text.toString();
+  }
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    EchoTestFixture.assumeMediaDriverAvailable();
+
+    this.fixture = EchoTestFixture.create("aeron-guide-streaming-", BASE_PORT);
+    this.server = this.fixture.startServer(
+      this.fixture.serverConfiguration()
+        .clientMaximumCount(3)
+        .maximumConnectionsPerAddress(3)
+        .duologueMaximumMessageSize(MESSAGE_MAXIMUM)
+        .build());
+
+    this.client =
+      this.fixture.createClient(this.fixture.clientConfiguration().build());
+    this.blocking = this.fixture.createBlocking(this.client, 2);
+  }
+
+  @After
+  public void tearDown()
+  {
+    if (this.fixture != null) {
+      this.fixture.close();
+    }
+  }
+
+  @Test
+  public void testLargerThanSendBuffer()
+    throws Exception
+  {
+    final String message = payload(1200);
+    Assert.assertEquals(
+      message, this.blocking.echo(message, Duration.ofSeconds(10L)));
+  }
+
+  @Test
+  public void testLineTerminators()
+    throws Exception
+  {
+    for (final String message : new String[]{"a\nb", "a\r\n", "\n"}) {
+      Assert.assertEquals(
+        message, this.blocking.echo(message, Duration.ofSeconds(10L)));
+    }
+  }
+
+  @Test
+  public void testStreamed()
+    throws Exception
+  {
+    for (final int size : new int[]{10_000, 8 * 1024 * 1024}) {
+      final String message = payload(size);
+      Assert.assertEquals(
+        message, this.blocking.echo(message, Duration.ofSeconds(60L)));
+    }
+  }
+
+  @Test
+  public void testStreamTimedOut()
+    throws Exception
+  {
+    final EchoClient single =
+      this.fixture.createClient(this.fixture.clientConfiguration().build());
+    final EchoBlockingClient blocking = this.fixture.createBlocking(single, 1);
+
+    /*
+     * The stream is far larger than the publication will buffer, so the
+     * deadline passes after the first chunk has been sent. The next stream
+     * on the same duologue must still be accepted by the server.
+     */
+
+    try {
+      blocking.echo(payload(32 * 1024 * 1024), Duration.ZERO);
+      Assert.fail("Expected the stream to time out");
+    } catch (final EchoClientTimedOutException e) {
+      // Expected
+    }
+
+    final String message = payload(10_000);
+    Assert.assertEquals(
+      message, blocking.echo(message, Duration.ofSeconds(60L)));
+  }
+
+  @Test
+  public void testFragmented()
+    throws Exception
+  {
+    final String message = "ECHO " + payload(4000);
+    final List<String> received = new ArrayList<>();
+
+    try (EchoClientDuologue duologue = this.client.connect()) {
+      final UnsafeBuffer buffer = new UnsafeBuffer(message.getBytes(UTF_8));
+      Assert.assertTrue(
+        "Message must be fragmented",
+        buffer.capacity() > duologue.publication().maxPayloadLength());
+
+      final FragmentAssembler assembler =
+        new FragmentAssembler((data, offset, length, header) ->
+          received.add(EchoMessages.parseMessageUTF8(data, offset, length)));
+
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+      while (duologue.publication().offer(buffer) < 0L) {
+        Assert.assertTrue("Timed out sending", System.nanoTime() < deadline);
+        Thread.sleep(1L);
+      }
+
+      while (received.isEmpty()) {
+        Assert.assertTrue("Timed out receiving", System.nanoTime() < deadline);
+        if (duologue.subscription().poll(assembler, 10) == 0) {
+          Thread.sleep(1L);
+        }
+      }
+    }
+
+    Assert.assertEquals(1L, (long) received.size());
+    Assert.assertEquals(message, received.get(0));
+  }
+
+  @Test
+  public void testFragmentedTooLargeCloses()
+    throws Exception
+  {
+    final int duologues_before =
+      this.server.resourceUsage().get(10L, TimeUnit.SECONDS).duologues();
+
+    final EchoClientDuologue duologue = this.client.connect();
+    final UnsafeBuffer buffer =
+      new UnsafeBuffer(("ECHO " + payload(MESSAGE_MAXIMUM)).getBytes(UTF_8));
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (duologue.publication().offer(buffer) < 0L) {
+      Assert.assertTrue("Timed out sending", System.nanoTime() < deadline);
+      Thread.sleep(1L);
+    }
+
+    /*
+     * The message is one byte too large to pass through the server's
+     * reassembler, so the server must close the duologue.
+     */
+
+    while (this.server.resourceUsage().get(10L, TimeUnit.SECONDS).duologues()
+      != duologues_before) {
+      Assert.assertTrue("Duologue was not closed", System.nanoTime() < deadline);
+      Thread.sleep(10L);
+    }
+  }
+}
@@ -0,0 +1,271 @@
+package com.io7m.aeron_guide.tests;
+
+import ch.qos.logback.classic.Level;
+import com.io7m.aeron_guide.take2.EchoBlockingClient;
+import com.io7m.aeron_guide.take2.EchoClient;
+import com.io7m.aeron_guide.take2.EchoClientConfiguration;
+import com.io7m.aeron_guide.take2.EchoServer;
+import com.io7m.aeron_guide.take2.EchoServerConfiguration;
+import com.io7m.aeron_guide.take2.ImmutableEchoClientConfiguration;
+import com.io7m.aeron_guide.take2.ImmutableEchoServerConfiguration;
+import io.aeron.Aeron;
+import io.aeron.driver.MediaDriver;
+import io.aeron.driver.ThreadingMode;
+import org.junit.Assume;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ * A fixture for tests that run a real server and clients over a media
+ * driver on the loopback interface.
+ * </p>
+ *
+ * <p>
+ * The fixture owns a temporary directory for the media drivers' files, and
+ * raises the logging level so that per-message logging does not dominate
+ * the tests. Everything started through the fixture is closed in reverse
+ * order by {@link #close()}, which then deletes the directory and restores
+ * the logging level.
+ * </p>
+ */
+
+public final class EchoTestFixture implements AutoCloseable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(EchoTestFixture.class);
+
+  private final Path directory;
+  private final InetAddress address;
+  private final int base_port;
+  private final Level level_saved;
+  private final Deque<AutoCloseable> resources;
+  private int clients;
+
+  private EchoTestFixture(
+    final Path in_directory,
+    final InetAddress in_address,
+    final int in_base_port)
+  {
+    this.directory = Objects.requireNonNull(in_directory, "directory");
+    this.address = Objects.requireNonNull(in_address, "address");
+    this.base_port = in_base_port;
+    this.resources = new ArrayDeque<>();
+    this.clients = 0;
+
+    this.level_saved = rootLogger().getLevel();
+    rootLogger().setLevel(Level.INFO);
+  }
+
+  private static ch.qos.logback.classic.Logger rootLogger()
+  {
+    return (ch.qos.logback.classic.Logger)
+      LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+  }
+
+  /**
+   * Skip the current test if the media driver cannot run. The version of
+   * Agrona in use cannot map the media driver's files on JDKs newer than 8;
+   * the {@code jdk8-tests} profile runs the tests in a JDK 8 JVM instead.
+   */
+
+  public static void assumeMediaDriverAvailable()
+  {
+    Assume.assumeTrue(
+      "The media driver requires JDK 8 (see the jdk8-tests profile)",
+      "1.8".equals(System.getProperty("java.specification.version")));
+  }
+
+  /**
+   * Create a new fixture. The server uses {@code base_port} and the two
+   * ports above it for its own channels, and allocates duologue ports above
+   * those.
+   *
+   * @param name      A name used as the prefix of the temporary directory
+   * @param base_port The base UDP port
+   *
+   * @return A new fixture
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static EchoTestFixture create(
+    final String name,
+    final int base_port)
+    throws IOException
+  {
+    return new EchoTestFixture(
+      Files.createTempDirectory(name),
+      InetAddress.getByName("127.0.0.1"),
+      base_port);
+  }
+
+  /**
+   * @return A server configuration builder with the directory, address and
+   * ports already set, and a fast poll interval
+   */
+
+  public ImmutableEchoServerConfiguration.Builder serverConfiguration()
+  {
+    return ImmutableEchoServerConfiguration.builder()
+      .baseDirectory(this.directory.resolve("server"))
+      .localAddress(this.address)
+      .localInitialPort(this.base_port)
+      .localInitialControlPort(this.base_port + 1)
+      .localClientsBasePort(this.base_port + 2)
+      .clientMaximumCount(1)
+      .maximumConnectionsPerAddress(1)
+      .pollInterval(Duration.ofMillis(1L));
+  }
+
+  /**
+   * @return A client configuration builder with a fresh directory and the
+   * address and ports of the server already set
+   */
+
+  public ImmutableEchoClientConfiguration.Builder clientConfiguration()
+  {
+    final int index = this.clients;
+    ++this.clients;
+
+    return ImmutableEchoClientConfiguration.builder()
+      .baseDirectory(this.directory.resolve("client-" + index))
+      .remoteAddress(this.address)
+      .remoteInitialPort(this.base_port)
+      .remoteInitialControlPort(this.base_port + 1);
+  }
+
+  /**
+   * Create a server and run it on a daemon thread.
+   *
+   * @param configuration The server configuration
+   *
+   * @return The running server
+   *
+   * @throws Exception On errors
+   */
+
+  public EchoServer startServer(
+    final EchoServerConfiguration configuration)
+    throws Exception
+  {
+    final EchoServer server = EchoServer.create(Clock.systemUTC(), configuration);
+    this.resources.push(server);
+
+    final Thread thread = new Thread(server::run);
+    thread.setDaemon(true);
+    thread.start();
+    return server;
+  }
+
+  /**
+   * Launch an embedded media driver and connect an Aeron client to it, for
+   * tests that exercise publications and subscriptions directly.
+   *
+   * @return A connected Aeron client
+   */
+
+  public Aeron startAeron()
+  {
+    final String name = this.directory.resolve("driver").toString();
+
+    final MediaDriver driver =
+      MediaDriver.launch(
+        new MediaDriver.Context()
+          .aeronDirectoryName(name)
+          .threadingMode(ThreadingMode.SHARED)
+          .dirDeleteOnStart(true));
+    this.resources.push(driver);
+
+    final Aeron aeron =
+      Aeron.connect(new Aeron.Context().aeronDirectoryName(name));
+    this.resources.push(aeron);
+    return aeron;
+  }
+
+  /**
+   * Create a client.
+   *
+   * @param configuration The client configuration
+   *
+   * @return A new client
+   *
+   * @throws Exception On errors
+   */
+
+  public EchoClient createClient(
+    final EchoClientConfiguration configuration)
+    throws Exception
+  {
+    final EchoClient client = EchoClient.create(configuration);
+    this.resources.push(client);
+    return client;
+  }
+
+  /**
+   * Create a blocking client.
+   *
+   * @param client    The underlying client
+   * @param duologues The number of duologues
+   *
+   * @return A new blocking client
+   *
+   * @throws Exception On errors
+   */
+
+  public EchoBlockingClient createBlocking(
+    final EchoClient client,
+    final int duologues)
+    throws Exception
+  {
+    final EchoBlockingClient blocking = EchoBlockingClient.create(client, duologues);
+    this.resources.push(blocking);
+    return blocking;
+  }
+
+  @Override
+  public void close()
+  {
+    try {
+      while (!this.resources.isEmpty()) {
+        try {
+          this.resources.pop().close();
+        } catch (final Exception e) {
+          LOG.error("failed to close resource: ", e);
+        }
+      }
+      deleteRecursively(this.directory);
+    } finally {
+      rootLogger().setLevel(this.level_saved);
+    }
+  }
+
+  private static void deleteRecursively(
+    final Path path)
+  {
+    try (Stream<Path> paths = Files.walk(path)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(file -> {
+        try {
+          Files.deleteIfExists(file);
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (final IOException | UncheckedIOException e) {
+      LOG.error("failed to delete {}: ", path, e);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package com.io7m.aeron_guide.tests;
+
+import com.io7m.aeron_guide.take2.EchoMessages;
+import io.aeron.logbuffer.ControlledFragmentHandler;
+import io.aeron.logbuffer.ControlledFragmentHandler.Action;
+import io.aeron.logbuffer.FragmentHandler;
+import org.junit.rules.ExpectedException;
+
+import java.util.List;
+import java.util.Objects;
+
+import static org.hamcrest.core.StringContains.containsString;
+
+/**
+ * Helpers shared by the unit tests of message handlers.
+ */
+
+public final class EchoTestMessages
+{
+  private EchoTestMessages()
+  {
+
+  }
+
+  /**
+   * @param received The list to which messages are added
+   *
+   * @return A handler that decodes each message as UTF-8 and adds it to
+   * {@code received}
+   */
+
+  public static FragmentHandler collector(
+    final List<String> received)
+  {
+    Objects.requireNonNull(received, "received");
+    return (buffer, offset, length, header) ->
+      received.add(EchoMessages.parseMessageUTF8(buffer, offset, length));
+  }
+
+  /**
+   * @param received The list to which messages are added
+   *
+   * @return A controlled handler that decodes each message as UTF-8, adds it
+   * to {@code received}, and continues
+   */
+
+  public static ControlledFragmentHandler controlledCollector(
+    final List<String> received)
+  {
+    final FragmentHandler handler = collector(received);
+    return (buffer, offset, length, header) -> {
+      handler.onFragment(buffer, offset, length, header);
+      return Action.CONTINUE;
+    };
+  }
+
+  /**
+   * Expect the rest of the test to raise an {@link IllegalArgumentException}
+   * whose message contains {@code text}.
+   *
+   * @param expected The test's expected exception rule
+   * @param text     The text
+   */
+
+  public static void expectIllegalArgument(
+    final ExpectedException expected,
+    final String text)
+  {
+    expected.expect(IllegalArgumentException.class);
+    expected.expectMessage(containsString(text));
+  }
+}